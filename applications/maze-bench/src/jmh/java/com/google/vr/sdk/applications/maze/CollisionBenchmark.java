@@ -0,0 +1,86 @@
+/*
+ * Copyright 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vr.sdk.applications.maze;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One collision-checked move of the player and of the mosquito, as done once per simulation step.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class CollisionBenchmark {
+    private static final float STEP_LENGTH = 0.6f * SimulationClock.STEP_SECONDS;
+    // Longer than a cell, so only a swept test keeps the player out of the walls.
+    private static final float FAST_STEP_LENGTH = 1.5f;
+    private static final int DIRECTION_COUNT = 1024;
+
+    @Param({"4", "16", "64"})
+    int size;
+
+    private CameraPosition cameraPosition;
+    private MosquitoPosition mosquitoPosition;
+    private float[] directions;
+    private float[] fastDirections;
+    private int step;
+
+    @Setup
+    public void setUp() {
+        Maze maze = new Maze(size, size);
+        cameraPosition = new CameraPosition(maze.generateStartPoint(), maze.getWallGrid());
+        mosquitoPosition = new MosquitoPosition(maze.generateStartPoint(), maze.getWallGrid());
+        Random random = new Random(42);
+        directions = new float[DIRECTION_COUNT * 2];
+        fastDirections = new float[DIRECTION_COUNT * 2];
+        for (int i = 0; i < DIRECTION_COUNT; i++) {
+            double angle = random.nextDouble() * 2 * Math.PI;
+            directions[i * 2] = (float) Math.cos(angle) * STEP_LENGTH;
+            directions[i * 2 + 1] = (float) Math.sin(angle) * STEP_LENGTH;
+            fastDirections[i * 2] = (float) Math.cos(angle) * FAST_STEP_LENGTH;
+            fastDirections[i * 2 + 1] = (float) Math.sin(angle) * FAST_STEP_LENGTH;
+        }
+    }
+
+    @Benchmark
+    public boolean cameraMove() {
+        int i = (step++ & (DIRECTION_COUNT - 1)) * 2;
+        return cameraPosition.move(directions[i], 0, directions[i + 1]);
+    }
+
+    @Benchmark
+    public boolean cameraFastMove() {
+        int i = (step++ & (DIRECTION_COUNT - 1)) * 2;
+        return cameraPosition.move(fastDirections[i], 0, fastDirections[i + 1]);
+    }
+
+    @Benchmark
+    public Point mosquitoMove() {
+        mosquitoPosition.move();
+        return mosquitoPosition.getPos();
+    }
+}
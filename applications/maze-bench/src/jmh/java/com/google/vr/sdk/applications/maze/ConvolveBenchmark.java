@@ -0,0 +1,116 @@
+/*
+ * Copyright 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vr.sdk.applications.maze;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Direct versus FFT convolution of one block, called the same way the audio path calls them.
+ *
+ * <p>{@code bruteForce} and {@code fft} are the original one-shot implementations. The next three
+ * write one channel of an interleaved block without allocating: {@code reference} is the old
+ * audio-path loop, {@code scalarKernel} the register-blocked fallback and {@code direct} whatever
+ * {@link Convolve#KERNEL} is on this VM. {@code stereoDirect} and {@code stereoFft} fill both
+ * channels through {@link StereoConvolver} with the HRIR spectra already cached; compare them
+ * with twice {@code direct}. ConvolveCrossover sweeps the stereo pair to find the crossover.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+public class ConvolveBenchmark {
+    @Param({"64", "128", "256", "512", "1024"})
+    int blockSize;
+
+    private float[] audio;
+    private float[] hrir;
+    private float[][][] reversedHrirs;
+    private final int[] directions = new int[1];
+    private float[] out;
+    private final ScalarConvolutionKernel scalarKernel = new ScalarConvolutionKernel();
+    private StereoConvolver stereoDirect;
+    private StereoConvolver stereoFft;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        audio = new float[blockSize * 2];
+        hrir = new float[blockSize];
+        for (int i = 0; i < audio.length; i++) {
+            audio[i] = random.nextFloat() * 2 - 1;
+        }
+        for (int i = 0; i < hrir.length; i++) {
+            hrir[i] = random.nextFloat() * 2 - 1;
+        }
+        reversedHrirs = Hrtf.reverseTaps(new float[][][]{{hrir}});
+        out = new float[blockSize * 2];
+        HrirSpectrumCache cache = new HrirSpectrumCache(reversedHrirs, reversedHrirs, blockSize, Long.MAX_VALUE);
+        stereoDirect = new StereoConvolver(cache);
+        stereoDirect.setFft(false);
+        stereoFft = new StereoConvolver(cache);
+        stereoFft.setFft(true);
+    }
+
+    @Benchmark
+    public float[] bruteForce() {
+        return Convolve.bruteForce(audio, hrir, blockSize);
+    }
+
+    @Benchmark
+    public float[] fft() {
+        return Convolve.FFT(audio, hrir, blockSize * 2);
+    }
+
+    @Benchmark
+    public float[] reference() {
+        Convolve.bruteForce(audio, 0, hrir, blockSize, out, 0, 2);
+        return out;
+    }
+
+    @Benchmark
+    public float[] scalarKernel() {
+        scalarKernel.convolve(audio, 0, reversedHrirs[0][0], blockSize, out, 0, 2, blockSize);
+        return out;
+    }
+
+    @Benchmark
+    public float[] direct() {
+        Convolve.direct(audio, 0, reversedHrirs[0][0], blockSize, out, 0, 2, blockSize);
+        return out;
+    }
+
+    @Benchmark
+    public float[] stereoDirect() {
+        stereoDirect.process(audio, audio, 0, directions, 1, out, 0);
+        return out;
+    }
+
+    @Benchmark
+    public float[] stereoFft() {
+        stereoFft.process(audio, audio, 0, directions, 1, out, 0);
+        return out;
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vr.sdk.applications.maze;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loading one ear's HRIR table from the shipped text resource versus from a binary dump. The
+ * files are read into memory first so that only parsing is measured.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Thread)
+public class HrtfLoadBenchmark {
+    private byte[] text;
+    private byte[] binary;
+
+    @Setup
+    public void setUp() throws IOException {
+        File rawDir = new File(System.getProperty("maze.rawDir", "../maze/src/main/res/raw"));
+        File file = new File(rawDir, "hrir_l.txt");
+        text = new byte[(int) file.length()];
+        try (FileInputStream inputStream = new FileInputStream(file)) {
+            int read = 0;
+            while (read < text.length) {
+                read += inputStream.read(text, read, text.length - read);
+            }
+        }
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        SampleIo.writeBinary(SampleIo.readText(new ByteArrayInputStream(text)), outputStream);
+        binary = outputStream.toByteArray();
+    }
+
+    @Benchmark
+    public float[][][] text() throws IOException {
+        return Hrtf.fromMatlabOrder(SampleIo.readText(new ByteArrayInputStream(text)));
+    }
+
+    @Benchmark
+    public float[][][] binary() throws IOException {
+        return Hrtf.fromMatlabOrder(SampleIo.readBinary(new ByteArrayInputStream(binary)));
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vr.sdk.applications.maze;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Mapping a source direction to the nearest measured HRIR, as done once per audio frame.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class HrtfLookupBenchmark {
+    private static final int DIRECTION_COUNT = 1024;
+
+    private float[] directions;
+    private float[] rectangle;
+    private float[] sphere;
+    private int step;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        directions = new float[DIRECTION_COUNT * 4];
+        for (int i = 0; i < directions.length; i++) {
+            directions[i] = random.nextFloat() * 2 - 1;
+        }
+        rectangle = new float[]{0, 0, 0, 1};
+        sphere = new float[3];
+    }
+
+    @Benchmark
+    public int nearestIndex() {
+        int i = (step++ & (DIRECTION_COUNT - 1)) * 4;
+        rectangle[0] = directions[i];
+        rectangle[1] = directions[i + 1];
+        rectangle[2] = directions[i + 2];
+        Hrtf.convertRectangleToSphere(rectangle, sphere);
+        return Hrtf.getNearestAzimuthIndex(sphere[2]) * Hrtf.ELEVATION_COUNT + Hrtf.getNearestElevationIndex(sphere[1]);
+    }
+}
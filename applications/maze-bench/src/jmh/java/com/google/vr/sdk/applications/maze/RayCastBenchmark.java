@@ -0,0 +1,88 @@
+/*
+ * Copyright 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.vr.sdk.applications.maze;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single-core throughput of {@link GridRayCaster}, in rays per second, for rays starting at random
+ * cell centres in random directions.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Thread)
+public class RayCastBenchmark {
+    private static final int RAY_COUNT = 1024;
+
+    @Param({"16", "64"})
+    int size;
+
+    @Param({"2", "100"})
+    float maxDistance;
+
+    private GridRayCaster caster;
+    private final float[] rays = new float[RAY_COUNT * 4];
+    private final int[] hits = new int[RAY_COUNT * 3];
+    private final float[] distances = new float[RAY_COUNT];
+
+    @Setup
+    public void setUp() {
+        Maze maze = new Maze(size, size);
+        caster = maze.getRayCaster();
+        Random random = new Random(42);
+        for (int i = 0; i < RAY_COUNT; i++) {
+            Point start = maze.generateStartPoint();
+            double angle = random.nextDouble() * 2 * Math.PI;
+            rays[i * 4] = start.getX();
+            rays[i * 4 + 1] = start.getZ();
+            rays[i * 4 + 2] = (float) Math.cos(angle);
+            rays[i * 4 + 3] = (float) Math.sin(angle);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RAY_COUNT)
+    public float[] castAll() {
+        caster.castAll(rays, RAY_COUNT, maxDistance, hits, distances);
+        return distances;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RAY_COUNT)
+    public int countWalls() {
+        int total = 0;
+        for (int i = 0; i < RAY_COUNT; i++) {
+            int ray = i * 4;
+            total += caster.countWalls(rays[ray], rays[ray + 1],
+                    rays[ray] + rays[ray + 2] * maxDistance, rays[ray + 1] + rays[ray + 3] * maxDistance,
+                    Integer.MAX_VALUE);
+        }
+        return total;
+    }
+}
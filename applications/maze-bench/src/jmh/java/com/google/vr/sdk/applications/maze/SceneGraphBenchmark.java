@@ -0,0 +1,146 @@
+/*
+ * Copyright 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vr.sdk.applications.maze;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-eye cost of {@link SceneGraph} for the walls of a square maze plus a number of moving
+ * nodes, with the player standing in the middle.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+public class SceneGraphBenchmark {
+    @Param({"16", "64"})
+    int size;
+
+    @Param({"0", "1000"})
+    int movers;
+
+    private final SceneGraph scene = new SceneGraph(64);
+    private final DrawList drawList = new DrawList(64);
+    private final float[] matrix = new float[16];
+    private final float[] perspective = new float[16];
+    private final float[][] views = new float[64][16];
+    private float[] moverPositions;
+    private int firstMover;
+    private int frame;
+
+    @Setup
+    public void setUp() {
+        Maze maze = new Maze(size, size);
+        for (int i = 0; i < size + 1; i++) {
+            for (int j = 0; j < size; j++) {
+                if (maze.isHorizontalWall(i, j)) {
+                    addWall(maze.getHorizontalWallPosition(i, j));
+                }
+            }
+        }
+        for (int i = 0; i < size; i++) {
+            for (int j = 0; j < size + 1; j++) {
+                if (maze.isVerticalWall(i, j)) {
+                    addWall(maze.getVerticalWallPosition(i, j));
+                }
+            }
+        }
+        firstMover = scene.size();
+        Random random = new Random(42);
+        Point maxPoint = maze.getMaxPoint();
+        moverPositions = new float[movers * 3];
+        for (int i = 0; i < movers; i++) {
+            scene.addNode(SceneGraph.NO_PARENT, RenderBackend.MESH_MOSQUITO, RenderBackend.TEXTURE_MOSQUITO, false);
+            moverPositions[i * 3] = random.nextFloat() * maxPoint.getX();
+            moverPositions[i * 3 + 1] = random.nextFloat() * Maze.WALL_HEIGHT;
+            moverPositions[i * 3 + 2] = random.nextFloat() * maxPoint.getZ();
+        }
+        moveAll();
+        scene.updateWorld();
+
+        float f = 1 / (float) Math.tan(Math.toRadians(45));
+        perspective[0] = f;
+        perspective[5] = f;
+        perspective[10] = -100.1f / 99.9f;
+        perspective[11] = -1;
+        perspective[14] = -20f / 99.9f;
+        float centerX = maxPoint.getX() / 2;
+        float centerZ = maxPoint.getZ() / 2;
+        for (int i = 0; i < views.length; i++) {
+            double angle = 2 * Math.PI * i / views.length;
+            MatrixMath.setLookAtM(views[i], 0, centerX, 0.5f, centerZ,
+                    centerX + (float) Math.cos(angle), 0.5f, centerZ + (float) Math.sin(angle), 0, 1, 0);
+        }
+    }
+
+    private void addWall(Box box) {
+        MatrixMath.setIdentityM(matrix, 0);
+        MatrixMath.translateM(matrix, 0, box.getPos().getX() + box.getSize().getX() * 0.5f,
+                box.getPos().getY() + box.getSize().getY() * 0.5f, box.getPos().getZ() + box.getSize().getZ() * 0.5f);
+        MatrixMath.scaleM(matrix, 0, box.getSize().getX(), box.getSize().getY(), box.getSize().getZ());
+        int wall = scene.addNode(SceneGraph.NO_PARENT, RenderBackend.MESH_WALL, RenderBackend.TEXTURE_WALL, true);
+        scene.setLocal(wall, matrix, 0);
+    }
+
+    private void moveAll() {
+        for (int i = 0; i < movers; i++) {
+            MatrixMath.setFacingM(matrix, 0, moverPositions[i * 3], moverPositions[i * 3 + 1],
+                    moverPositions[i * 3 + 2], 0, 0, -1);
+            MatrixMath.scaleM(matrix, 0, 0.006f, 0.006f, 0.006f);
+            scene.setLocal(firstMover + i, matrix, 0);
+        }
+    }
+
+    /**
+     * Head held still: everything visible is served from the eye's matrix cache.
+     */
+    @Benchmark
+    public DrawList collectStill() {
+        drawList.clear();
+        scene.collect(0, views[0], perspective, drawList);
+        return drawList;
+    }
+
+    /**
+     * Head turning every frame: every visible node gets a new MVP.
+     */
+    @Benchmark
+    public DrawList collectTurning() {
+        frame = (frame + 1) % views.length;
+        drawList.clear();
+        scene.collect(0, views[frame], perspective, drawList);
+        return drawList;
+    }
+
+    /**
+     * Every moving node gets a new local matrix, then the world matrices are brought up to date.
+     */
+    @Benchmark
+    public int updateMovers() {
+        moveAll();
+        return scene.updateWorld();
+    }
+}
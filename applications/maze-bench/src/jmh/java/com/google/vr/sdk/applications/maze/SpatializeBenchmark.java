@@ -0,0 +1,125 @@
+/*
+ * Copyright 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vr.sdk.applications.maze;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One frame of mosquito spatialization: five 100-frame blocks of a stereo recording with 100-tap
+ * HRIRs, written interleaved. {@code perBlock} is the former audio path, two
+ * {@link Convolve#bruteForce(float[], int, float[], int, float[], int, int)} calls per block;
+ * {@code direct} and {@code fft} are {@link StereoConvolver} forced onto either path. With
+ * {@code turning} every block gets a different HRIR pair, as while the head or the source moves
+ * across HRIR directions; {@code fftUncached} then has the FFT path transform the filters of every
+ * block, as it would without the {@link HrirSpectrumCache}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+public class SpatializeBenchmark {
+    private static final int BLOCK = 100;
+    // Length of the shipped HRIRs at their 22050 Hz source rate.
+    private static final int TAPS = 100;
+    private static final int BLOCKS = 5;
+
+    @Param({"false", "true"})
+    boolean turning;
+
+    private float[] left;
+    private float[] right;
+    private float[][] hrirL;
+    private float[][] hrirR;
+    private final int[] directions = new int[BLOCKS];
+    private final float[] out = new float[BLOCK * BLOCKS * 2];
+    private StereoConvolver direct;
+    private StereoConvolver fft;
+    private StereoConvolver fftUncached;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        left = new float[BLOCK * (BLOCKS + 1)];
+        right = new float[left.length];
+        for (int i = 0; i < left.length; i++) {
+            left[i] = random.nextFloat() * 2 - 1;
+            right[i] = random.nextFloat() * 2 - 1;
+        }
+        int filters = turning ? BLOCKS : 1;
+        float[][] l = new float[filters][TAPS];
+        float[][] r = new float[filters][TAPS];
+        for (int f = 0; f < filters; f++) {
+            for (int i = 0; i < TAPS; i++) {
+                l[f][i] = random.nextFloat() * 2 - 1;
+                r[f][i] = random.nextFloat() * 2 - 1;
+            }
+        }
+        hrirL = new float[BLOCKS][];
+        hrirR = new float[BLOCKS][];
+        for (int b = 0; b < BLOCKS; b++) {
+            hrirL[b] = l[b % filters];
+            hrirR[b] = r[b % filters];
+            directions[b] = b % filters;
+        }
+        float[][][] reversedL = Hrtf.reverseTaps(new float[][][]{l});
+        float[][][] reversedR = Hrtf.reverseTaps(new float[][][]{r});
+        HrirSpectrumCache cache = new HrirSpectrumCache(reversedL, reversedR, BLOCK, Long.MAX_VALUE);
+        direct = new StereoConvolver(cache);
+        direct.setFft(false);
+        fft = new StereoConvolver(cache);
+        fft.setFft(true);
+        // Room for one pair only, so a new direction always evicts the previous one.
+        fftUncached = new StereoConvolver(new HrirSpectrumCache(reversedL, reversedR, BLOCK, 0));
+        fftUncached.setFft(true);
+    }
+
+    @Benchmark
+    public float[] perBlock() {
+        for (int b = 0; b < BLOCKS; b++) {
+            Convolve.bruteForce(left, b * BLOCK, hrirL[b], BLOCK, out, b * BLOCK * 2, 2);
+            Convolve.bruteForce(right, b * BLOCK, hrirR[b], BLOCK, out, b * BLOCK * 2 + 1, 2);
+        }
+        return out;
+    }
+
+    @Benchmark
+    public float[] direct() {
+        direct.process(left, right, 0, directions, BLOCKS, out, 0);
+        return out;
+    }
+
+    @Benchmark
+    public float[] fft() {
+        fft.process(left, right, 0, directions, BLOCKS, out, 0);
+        return out;
+    }
+
+    @Benchmark
+    public float[] fftUncached() {
+        fftUncached.process(left, right, 0, directions, BLOCKS, out, 0);
+        return out;
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vr.sdk.applications.maze;
+
+import java.util.Random;
+
+/**
+ * Finds the block size from which FFT convolution beats the direct kernel on this machine.
+ *
+ * <pre>
+ *   ./gradlew :applications-maze-bench:crossover
+ * </pre>
+ *
+ * <p>For every block size, stereo blocks of that many frames are spatialized with HRIRs of as many
+ * taps, as the audio path does, by a {@link StereoConvolver} forced onto its direct path
+ * ({@link Convolve#KERNEL}) and one forced onto its FFT path. One untimed sweep over all sizes gets
+ * both compiled, then the best of several timed rounds is kept. Consecutive blocks alternate
+ * between two HRIR directions, as while the head turns; their spectra come from the
+ * {@link HrirSpectrumCache}. The crossover is the smallest size
+ * from which the FFT is faster at every larger size measured, so a single noisy size does not move
+ * it. The kernel's {@link ConvolutionKernel#getFftCrossover()} is set by hand from this output;
+ * the task says when the two disagree.
+ */
+public final class ConvolveCrossover {
+    private static final int[] SIZES = {16, 32, 48, 64, 96, 128, 192, 256, 384, 512, 768, 1024};
+    private static final int ROUNDS = 5;
+    private static final long ROUND_NANOS = 50_000_000L;
+
+    private static float sink;
+
+    private ConvolveCrossover() {
+    }
+
+    public static void main(String[] args) {
+        double[] direct = new double[SIZES.length];
+        double[] fft = new double[SIZES.length];
+        int[] fftSizes = new int[SIZES.length];
+        measure(direct, fft, fftSizes, 1);
+        System.out.printf("direct kernel %s, FFT from %d%n", Convolve.KERNEL.getClass().getSimpleName(),
+                Convolve.KERNEL.getFftCrossover());
+        System.out.printf("%6s %16s %16s %8s%n", "size", "direct ns/frame", "fft ns/frame", "fft size");
+        measure(direct, fft, fftSizes, ROUNDS);
+        for (int s = 0; s < SIZES.length; s++) {
+            System.out.printf("%6d %16.2f %16.2f %8d%n", SIZES[s], direct[s], fft[s],
+                    fftSizes[s]);
+        }
+        int crossover = -1;
+        for (int s = SIZES.length - 1; s >= 0 && fft[s] < direct[s]; s--) {
+            crossover = SIZES[s];
+        }
+        if (crossover < 0) {
+            System.out.printf("direct convolution wins up to %d, no crossover%n", SIZES[SIZES.length - 1]);
+        } else {
+            System.out.printf("crossover at %d: use FFT for blocks of %d frames and more%n", crossover, crossover);
+        }
+        int configured = Convolve.KERNEL.getFftCrossover();
+        if (crossover != configured) {
+            System.out.printf("%s.getFftCrossover() returns %d; update it if %s holds over a few runs%n",
+                    Convolve.KERNEL.getClass().getSimpleName(), configured,
+                    crossover < 0 ? "no crossover" : "a crossover of " + crossover);
+        }
+        if (sink == 42) {
+            System.out.println();
+        }
+    }
+
+    /**
+     * Stores the best ns per stereo frame of {@code rounds} rounds for every size.
+     */
+    private static void measure(double[] direct, double[] fft, int[] fftSizes, int rounds) {
+        Random random = new Random(42);
+        for (int s = 0; s < SIZES.length; s++) {
+            int size = SIZES[s];
+            float[] left = new float[size * 2];
+            float[] right = new float[size * 2];
+            float[][][] tapsL = new float[1][2][size];
+            float[][][] tapsR = new float[1][2][size];
+            for (int i = 0; i < left.length; i++) {
+                left[i] = random.nextFloat() * 2 - 1;
+                right[i] = random.nextFloat() * 2 - 1;
+            }
+            for (int f = 0; f < 2; f++) {
+                for (int i = 0; i < size; i++) {
+                    tapsL[0][f][i] = random.nextFloat() * 2 - 1;
+                    tapsR[0][f][i] = random.nextFloat() * 2 - 1;
+                }
+            }
+            HrirSpectrumCache cache = new HrirSpectrumCache(tapsL, tapsR, size, Long.MAX_VALUE);
+            fftSizes[s] = cache.getFftSize();
+            StereoConvolver directConvolver = new StereoConvolver(cache);
+            directConvolver.setFft(false);
+            StereoConvolver fftConvolver = new StereoConvolver(cache);
+            fftConvolver.setFft(true);
+            direct[s] = Double.MAX_VALUE;
+            fft[s] = Double.MAX_VALUE;
+            for (int round = 0; round < rounds; round++) {
+                direct[s] = Math.min(direct[s], time(directConvolver, left, right, size));
+                fft[s] = Math.min(fft[s], time(fftConvolver, left, right, size));
+            }
+        }
+    }
+
+    private static double time(StereoConvolver convolver, float[] left, float[] right, int size) {
+        float[] out = new float[size * 2];
+        int[][] directions = {{0}, {1}};
+        long calls = 0;
+        long start = System.nanoTime();
+        long elapsed;
+        do {
+            for (int i = 0; i < 16; i++) {
+                convolver.process(left, right, 0, directions[i & 1], 1, out, 0);
+            }
+            calls += 16;
+            elapsed = System.nanoTime() - start;
+        } while (elapsed < ROUND_NANOS);
+        sink += out[1];
+        return (double) elapsed / calls / size;
+    }
+}
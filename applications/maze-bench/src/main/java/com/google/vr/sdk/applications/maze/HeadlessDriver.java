@@ -0,0 +1,299 @@
+/*
+ * Copyright 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vr.sdk.applications.maze;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Runs {@link MazeGame} without GVR or GL for thousands of frames as fast as possible, and reports
+ * the throughput and per-frame allocations of simulation, audio and draw-list building.
+ *
+ * <pre>
+ *   ./gradlew :applications-maze-bench:headless -Pframes=20000
+ *   ./gradlew :applications-maze-bench:headless -Ptrajectory=head_trajectory.txt
+ *   ./gradlew :applications-maze-bench:headless -Pswarm=1000
+ *   ./gradlew :applications-maze-bench:headless -PsampleRate=48000
+ *   ./gradlew :applications-maze-bench:headless -Ppipeline=lockstep
+ *   ./gradlew :applications-maze-bench:headless -Ppipeline=free
+ * </pre>
+ *
+ * <p>Trajectories recorded on a device (see MazeActivity.RECORD_TRAJECTORY) are replayed frame by
+ * frame; without one a scripted trajectory is used. Frames are reported 1/60 s apart, so every
+ * frame runs two fixed simulation steps and the audio sink plays a 60th of a second of audio. The
+ * audio assets are resampled from their 22050 Hz source rate to the requested rate, as on a device
+ * whose native output rate differs, on an {@link AssetLoader} as in the app, and cached in the
+ * {@link DerivedAssetCache} in {@code maze.cacheDir} if it is set. Every two seconds the gazed
+ * passage is marked, as if the trigger had been pulled.
+ *
+ * <p>Every mode draws through a {@link FramePacket} and a {@link FrameRenderer}, as the app does.
+ * With {@code maze.pipeline} set the game runs on a {@link FramePipeline}, and the simulation and
+ * the audio are timed together with the handoff, as this thread sees them. {@code lockstep} waits
+ * for the worker after every frame, so each frame draws its own packet and the game sees the same
+ * frames as without the pipeline. {@code free} never waits for the worker, as the GL thread in
+ * the app, but paces the frames 1/60 s apart in wall time as vsync would; a worker that cannot
+ * keep up skips frames.
+ */
+public final class HeadlessDriver {
+    private static final long FRAME_NANOS = 1_000_000_000L / 60;
+    private static final int WARMUP_FRAMES = 2000;
+    private static final int MARK_INTERVAL_FRAMES = 120;
+    private static final float Z_NEAR = 0.01f;
+    private static final float Z_FAR = 10.0f;
+    private static final float INTERPUPILLARY_DISTANCE = 0.064f;
+    private static final int SIMULATION = 0;
+    private static final int AUDIO = 1;
+    private static final int DRAW_LIST = 2;
+    private static final int HANDOFF = 3;
+    private static final String[] PHASE_NAMES = {"simulation", "audio", "draw list", "handoff"};
+    private static final String LOCKSTEP = "lockstep";
+    private static final String FREE = "free";
+    // Rate of the HRIR and mosquito dumps in the app's res/raw.
+    private static final int RAW_AUDIO_SAMPLE_RATE = 22050;
+    private static final long CACHE_BYTES = 32 << 20;
+
+    private final com.sun.management.ThreadMXBean threadMXBean =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    private final long threadId = Thread.currentThread().getId();
+    private final long[] phaseNanos = new long[PHASE_NAMES.length];
+    private final long[] phaseBytes = new long[PHASE_NAMES.length];
+    private final MazeGame game;
+    private final HeadTrajectory trajectory;
+    private final RecordingAudioSink audioSink;
+    private final FrameProfiler profiler = new FrameProfiler();
+    private final RecordingRenderBackend renderBackend = new RecordingRenderBackend();
+    // Null unless the game runs pipelined.
+    private final FramePipeline pipeline;
+    private final boolean lockstep;
+    private final FrameRenderer renderer = new FrameRenderer(profiler);
+    // Written by this thread when the game is not pipelined.
+    private final FramePacket packet = new FramePacket();
+    private final float[][] eyeViews = new float[2][16];
+    private final float[] perspective = new float[16];
+    private long startNanos;
+    private long startBytes;
+    // Simulated frame time; keeps running across the warm-up so the audio sink stays in step.
+    private long frameNanos;
+    // Wall time the next frame starts at in the free pipeline mode.
+    private long nextFrameWallNanos;
+
+    /**
+     * @param pipeline Null, {@link #LOCKSTEP} or {@link #FREE}.
+     */
+    private HeadlessDriver(File rawDir, DerivedAssetCache cache, int sampleRate, HeadTrajectory trajectory,
+            String pipeline) throws IOException, InterruptedException {
+        this.trajectory = trajectory;
+        AssetLoader loader = new AssetLoader(AssetLoader.defaultThreadCount());
+        DerivedAssetCache.Converter<float[][][]> ear = HrirSet.earConverter(RAW_AUDIO_SAMPLE_RATE, sampleRate);
+        AssetLoader.Asset<float[][][]> hrirL = loader.add("hrir_l", read(rawDir, "hrir_l.txt", cache, ear));
+        AssetLoader.Asset<float[][][]> hrirR = loader.add("hrir_r", read(rawDir, "hrir_r.txt", cache, ear));
+        DerivedAssetCache.Converter<float[]> samples = SampleIo.textConverter(RAW_AUDIO_SAMPLE_RATE, sampleRate);
+        AssetLoader.Asset<float[]> mosquitoL = loader.add("mosquito_l", read(rawDir, "mosquito_l.txt", cache, samples));
+        AssetLoader.Asset<float[]> mosquitoR = loader.add("mosquito_r", read(rawDir, "mosquito_r.txt", cache, samples));
+        HrirSet hrirs;
+        try {
+            hrirs = new HrirSet(hrirL.get(), hrirR.get(), sampleRate);
+            audioSink = new RecordingAudioSink(sampleRate);
+            game = new MazeGame(hrirs, mosquitoL.get(), mosquitoR.get(), audioSink, profiler);
+        } catch (ExecutionException e) {
+            throw new IOException(e.getMessage(), e.getCause());
+        }
+        System.out.printf("audio assets at %d Hz, %d HRIR taps%n%s%n", sampleRate, hrirs.getTaps(), loader.describe());
+        if (cache != null) {
+            System.out.println(cache.describe());
+        }
+        game.setSwarmSize(Integer.getInteger("maze.swarm", 0));
+        if (pipeline != null && !pipeline.equals(LOCKSTEP) && !pipeline.equals(FREE)) {
+            throw new IllegalArgumentException("maze.pipeline must be " + LOCKSTEP + " or " + FREE + ": " + pipeline);
+        }
+        this.pipeline = pipeline != null ? new FramePipeline(game) : null;
+        lockstep = LOCKSTEP.equals(pipeline);
+        for (int eye = 0; eye < 2; eye++) {
+            MatrixMath.setIdentityM(eyeViews[eye], 0);
+            MatrixMath.translateM(eyeViews[eye], 0, (eye == 0 ? 0.5f : -0.5f) * INTERPUPILLARY_DISTANCE, 0, 0);
+        }
+        setPerspective(perspective, 90, 1, Z_NEAR, Z_FAR);
+    }
+
+    /**
+     * Converts a dump from {@code rawDir}, through {@code cache} unless that is null.
+     */
+    private static <T> AssetLoader.Loader<T> read(final File rawDir, final String name,
+            final DerivedAssetCache cache, final DerivedAssetCache.Converter<T> converter) {
+        return new AssetLoader.Loader<T>() {
+            @Override
+            public T load() throws IOException {
+                byte[] source = DerivedAssetCache.readBytes(new FileInputStream(new File(rawDir, name)));
+                return cache != null ? cache.get(source, converter) : converter.convert(source);
+            }
+        };
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int frames = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+        HeadTrajectory trajectory = args.length > 1
+                ? HeadTrajectory.read(new FileInputStream(args[1]))
+                : HeadTrajectory.scripted(frames);
+        File rawDir = new File(System.getProperty("maze.rawDir", "../maze/src/main/res/raw"));
+        int sampleRate = Integer.getInteger("maze.sampleRate", RAW_AUDIO_SAMPLE_RATE);
+        String cacheDir = System.getProperty("maze.cacheDir");
+        DerivedAssetCache cache = cacheDir != null ? new DerivedAssetCache(new File(cacheDir), CACHE_BYTES) : null;
+        HeadlessDriver driver = new HeadlessDriver(rawDir, cache, sampleRate, trajectory,
+                System.getProperty("maze.pipeline"));
+        for (int frame = 0; frame < WARMUP_FRAMES; frame++) {
+            driver.runFrame(frame);
+        }
+        driver.reset();
+        long wallStart = System.nanoTime();
+        for (int frame = 0; frame < frames; frame++) {
+            driver.runFrame(frame);
+        }
+        driver.report(frames, System.nanoTime() - wallStart);
+    }
+
+    private void runFrame(int frame) {
+        trajectory.seek(frame % trajectory.size());
+        if (frame % MARK_INTERVAL_FRAMES == 0) {
+            game.requestMark();
+        }
+
+        frameNanos += FRAME_NANOS;
+        FramePacket drawn;
+        if (pipeline != null) {
+            if (!lockstep) {
+                waitForFrame();
+            }
+            begin();
+            pipeline.submit(frameNanos, trajectory, trajectory.isMoving());
+            if (lockstep) {
+                pipeline.awaitIdle();
+            }
+            drawn = pipeline.acquire();
+            end(HANDOFF);
+        } else {
+            game.setMoving(trajectory.isMoving());
+            begin();
+            game.updateHeadPose(frameNanos, trajectory);
+            game.simulate(frameNanos);
+            end(SIMULATION);
+
+            begin();
+            game.renderAudio(frameNanos);
+            end(AUDIO);
+
+            // Part of the draw list before the pipeline moved it to the worker.
+            begin();
+            game.writeFrame(packet);
+            end(DRAW_LIST);
+            drawn = packet;
+        }
+
+        begin();
+        if (drawn != null) {
+            renderer.apply(drawn);
+            for (int eye = 0; eye < 2; eye++) {
+                renderBackend.beginEye();
+                renderer.buildDrawList(eye, eyeViews[eye], perspective).submit(renderBackend);
+            }
+        }
+        end(DRAW_LIST);
+    }
+
+    /**
+     * Waits until a frame period has passed since the previous frame started, as vsync would.
+     */
+    private void waitForFrame() {
+        long now = System.nanoTime();
+        if (nextFrameWallNanos == 0 || now - nextFrameWallNanos > FRAME_NANOS) {
+            // First frame, or this thread fell behind: start counting from now.
+            nextFrameWallNanos = now;
+        }
+        while (now < nextFrameWallNanos) {
+            LockSupport.parkNanos(nextFrameWallNanos - now);
+            now = System.nanoTime();
+        }
+        nextFrameWallNanos += FRAME_NANOS;
+    }
+
+    private void begin() {
+        startBytes = threadMXBean.getThreadAllocatedBytes(threadId);
+        startNanos = System.nanoTime();
+    }
+
+    private void end(int phase) {
+        phaseNanos[phase] += System.nanoTime() - startNanos;
+        phaseBytes[phase] += threadMXBean.getThreadAllocatedBytes(threadId) - startBytes;
+    }
+
+    private void reset() {
+        for (int phase = 0; phase < PHASE_NAMES.length; phase++) {
+            phaseNanos[phase] = 0;
+            phaseBytes[phase] = 0;
+        }
+    }
+
+    private void report(int frames, long wallNanos) {
+        if (pipeline != null) {
+            // The counts and the game below are the worker's until it is idle.
+            pipeline.awaitIdle();
+            pipeline.stop();
+        }
+        System.out.printf("%d frames in %.1f ms (%.0f frames/s), trajectory of %d frames%s%n",
+                frames, wallNanos / 1e6, frames * 1e9 / wallNanos, trajectory.size(),
+                pipeline == null ? "" : lockstep ? ", pipelined in lockstep" : ", pipelined");
+        for (int phase = 0; phase < PHASE_NAMES.length; phase++) {
+            if (phaseNanos[phase] == 0) {
+                // Not on this thread; see maze.pipeline.
+                continue;
+            }
+            System.out.printf("%-10s %9.2f us/frame %10.0f frames/s %10.1f bytes/frame%n",
+                    PHASE_NAMES[phase], phaseNanos[phase] / 1e3 / frames,
+                    frames * 1e9 / Math.max(1, phaseNanos[phase]), (double) phaseBytes[phase] / frames);
+        }
+        System.out.printf("draws/frame %.1f (walls %.1f, mark quads %.1f), audio frames %d, collide cues %d, checksum %f%n",
+                (double) renderBackend.getDrawCount() / (frames + WARMUP_FRAMES),
+                (double) renderBackend.getDrawCount(RenderBackend.MESH_WALL) / (frames + WARMUP_FRAMES),
+                (double) renderBackend.getDecalQuadCount() / (frames + WARMUP_FRAMES),
+                audioSink.getFrameCount(), audioSink.getCueCount(AudioSink.CUE_COLLIDE_WALL),
+                renderBackend.getChecksum() + audioSink.getChecksum());
+        System.out.printf("motion-to-sound latency p50/p95/p99 %.1f/%.1f/%.1f ms, audio underruns %d%n",
+                profiler.percentile(FrameProfiler.AUDIO_LATENCY, 50) / 1e6,
+                profiler.percentile(FrameProfiler.AUDIO_LATENCY, 95) / 1e6,
+                profiler.percentile(FrameProfiler.AUDIO_LATENCY, 99) / 1e6,
+                audioSink.getUnderrunCount());
+        HrirSpectrumCache hrirSpectra = game.getHrirSpectra();
+        System.out.printf("hrir spectra %d hits, %d misses, %d evictions, %d of %d kept%n",
+                hrirSpectra.getHitCount(), hrirSpectra.getMissCount(), hrirSpectra.getEvictionCount(),
+                hrirSpectra.size(), hrirSpectra.getCapacity());
+    }
+
+    private static void setPerspective(float[] m, float fovyDegrees, float aspect, float near, float far) {
+        float f = 1.0f / (float) Math.tan(Math.toRadians(fovyDegrees) / 2);
+        for (int i = 0; i < 16; i++) {
+            m[i] = 0;
+        }
+        m[0] = f / aspect;
+        m[5] = f;
+        m[10] = (far + near) / (near - far);
+        m[11] = -1;
+        m[14] = 2 * far * near / (near - far);
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vr.sdk.applications.maze;
+
+/**
+ * Audio sink that discards the stream and only counts frames and cues. Playback is modelled as
+ * consuming {@code sampleRate} frames per second of the clock passed to
+ * {@link #getQueuedFrames}, starting with the first write; running dry counts as an underrun.
+ */
+/* package */ class RecordingAudioSink implements AudioSink {
+    private final long[] cues = new long[2];
+    private final int sampleRate;
+    private long frames;
+    private float checksum;
+    private double playedFrames;
+    private long lastNanos;
+    private long underruns;
+
+    RecordingAudioSink(int sampleRate) {
+        this.sampleRate = sampleRate;
+    }
+
+    @Override
+    public void setHeadRotation(float x, float y, float z, float w) {
+    }
+
+    @Override
+    public void playCue(int cue) {
+        cues[cue]++;
+    }
+
+    @Override
+    public void write(float[] interleaved, int frames, float volume) {
+        this.frames += frames;
+        checksum += interleaved[0] * volume;
+    }
+
+    @Override
+    public int getQueuedFrames(long nowNanos) {
+        if (frames > 0 && nowNanos > lastNanos) {
+            playedFrames += (nowNanos - lastNanos) * 1e-9 * sampleRate;
+        }
+        lastNanos = nowNanos;
+        if (playedFrames > frames) {
+            if (frames > 0) {
+                underruns++;
+            }
+            playedFrames = frames;
+        }
+        return (int) (frames - playedFrames);
+    }
+
+    long getFrameCount() {
+        return frames;
+    }
+
+    long getCueCount(int cue) {
+        return cues[cue];
+    }
+
+    long getUnderrunCount() {
+        return underruns;
+    }
+
+    float getChecksum() {
+        return checksum;
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vr.sdk.applications.maze;
+
+/**
+ * Render backend that issues nothing and only counts what it was asked to draw.
+ */
+/* package */ class RecordingRenderBackend implements RenderBackend {
+    private final long[] drawsPerMesh = new long[MESH_COUNT];
+    private long eyes;
+    private long decalQuads;
+    private float checksum;
+
+    @Override
+    public void beginEye() {
+        eyes++;
+    }
+
+    @Override
+    public void draw(int mesh, int texture, float[] modelViewProjection, int offset) {
+        drawsPerMesh[mesh]++;
+        // Touch the matrix so that building it cannot be optimized away.
+        checksum += modelViewProjection[offset + 15];
+    }
+
+    @Override
+    public void drawInstanced(int mesh, int texture, float[] modelViewProjections, int offset, int count) {
+        for (int i = 0; i < count; i++) {
+            draw(mesh, texture, modelViewProjections, offset + i * 16);
+        }
+    }
+
+    @Override
+    public void drawDecals(int texture, DecalBatch batch, float[] viewProjection, int offset) {
+        decalQuads += batch.size();
+        checksum += viewProjection[offset + 15];
+        batch.clearDirty();
+    }
+
+    long getDecalQuadCount() {
+        return decalQuads;
+    }
+
+    long getEyeCount() {
+        return eyes;
+    }
+
+    long getDrawCount(int mesh) {
+        return drawsPerMesh[mesh];
+    }
+
+    long getDrawCount() {
+        long total = 0;
+        for (long draws : drawsPerMesh) {
+            total += draws;
+        }
+        return total;
+    }
+
+    float getChecksum() {
+        return checksum;
+    }
+}
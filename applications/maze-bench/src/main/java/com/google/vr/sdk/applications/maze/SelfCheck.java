@@ -0,0 +1,308 @@
+/*
+ * Copyright 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vr.sdk.applications.maze;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Correctness checks of code whose mistakes would go unnoticed in play: a convolution path that
+ * is off by a little only sounds slightly wrong, and a bad saved game only shows on the launch
+ * that reads it.
+ *
+ * <pre>
+ *   ./gradlew :applications-maze-bench:selfCheck
+ * </pre>
+ *
+ * <p>Every {@link ConvolutionKernel} available, the scalar one and the Vector API one when it is
+ * built in and the VM has the module, is compared with a double-precision reference for filter
+ * lengths and output counts around their register blocking, with interleaved output. Then both
+ * paths of {@link StereoConvolver} are compared with the same reference over runs of blocks whose
+ * HRIR directions repeat, so the direct path merges them, and change, so the FFT path goes through
+ * a {@link HrirSpectrumCache} too small to keep them all.
+ *
+ * <p>A game with marked passages is saved through {@link GameSnapshot} to a file, read back and
+ * restored into a new game, which must save the same payload. A truncated file and a flipped
+ * byte in the checksum or in the payload must fail {@link GameSnapshot#decode}. Payloads that pass
+ * the checksum but hold an exit outside the maze, a camera outside it or a NaN mosquito must be
+ * rejected by {@link MazeGame}, which then starts a new level. Exits with status 1 on any failure.
+ */
+public final class SelfCheck {
+    // Largest error allowed, relative to the largest reference output.
+    private static final double TOLERANCE = 1e-5;
+    private static final int[] KERNEL_TAPS = {1, 2, 3, 4, 5, 7, 8, 9, 16, 17, 64, 100, 201};
+    private static final int[] KERNEL_LENGTHS = {1, 2, 3, 4, 5, 7, 8, 9, 31, 100, 128};
+    // (taps, block size) pairs for the stereo convolver: below, at and above the HRIR length.
+    private static final int[][] CONVOLVER_SHAPES = {{100, 128}, {100, 256}, {201, 512}, {64, 100},
+            {100, 37}, {100, 100}};
+    private static final int AZIMUTHS = 5;
+    private static final int ELEVATIONS = 3;
+    private static final int BLOCKS = 12;
+    // Spectra the FFT path's cache may keep; fewer than the directions used, so it evicts.
+    private static final int CACHED_SPECTRA = 6;
+    // A small synthetic HRIR set and recording are enough for the game to save and restore.
+    private static final int GAME_SAMPLE_RATE = 22050;
+    private static final int GAME_TAPS = 16;
+    // Payload offsets, see MazeGame.saveState: level, height, width and sample, then the camera,
+    // mosquito and direction points, the two direction counters and the maze's size and exit.
+    private static final int CAMERA_OFFSET = 16;
+    private static final int MOSQUITO_OFFSET = CAMERA_OFFSET + 12;
+    private static final int MAZE_OFFSET = MOSQUITO_OFFSET + 24 + 8;
+    private static final int EXIT_ROW_OFFSET = MAZE_OFFSET + 8;
+    private static final int EXIT_COLUMN_OFFSET = EXIT_ROW_OFFSET + 4;
+
+    private SelfCheck() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        Random random = new Random(1);
+        boolean passed = true;
+        passed &= checkKernel(new ScalarConvolutionKernel(), random);
+        ConvolutionKernel vector = loadVectorKernel();
+        if (vector != null) {
+            passed &= checkKernel(vector, random);
+        } else {
+            System.out.println("kernel VectorConvolutionKernel: not available, skipped");
+        }
+        for (int[] shape : CONVOLVER_SHAPES) {
+            passed &= checkConvolver(shape[0], shape[1], random);
+        }
+        passed &= checkSnapshots(random);
+        System.out.println(passed ? "PASSED" : "FAILED");
+        if (!passed) {
+            System.exit(1);
+        }
+    }
+
+    private static ConvolutionKernel loadVectorKernel() {
+        try {
+            return (ConvolutionKernel) Class.forName(Convolve.VECTOR_KERNEL).getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return null;
+        }
+    }
+
+    private static boolean checkKernel(ConvolutionKernel kernel, Random random) {
+        double worst = 0;
+        for (int taps : KERNEL_TAPS) {
+            for (int length : KERNEL_LENGTHS) {
+                // Odd offsets, and a stride of 2 into a buffer with guard samples on both sides.
+                int xOffset = 3;
+                float[] x = randomSignal(xOffset + length + taps - 1, random);
+                float[] reversedTaps = randomSignal(taps, random);
+                float[] z = new float[2 * length + 3];
+                kernel.convolve(x, xOffset, reversedTaps, taps, z, 1, 2, length);
+                double[] expected = new double[length];
+                reference(x, xOffset, reversedTaps, taps, expected, 0, length);
+                double error = relativeError(expected, z, 1, 2, length);
+                if (z[0] != 0 || z[2] != 0 || z[2 * length + 1] != 0 || z[2 * length + 2] != 0) {
+                    error = Double.POSITIVE_INFINITY;
+                }
+                worst = Math.max(worst, error);
+            }
+        }
+        boolean passed = worst <= TOLERANCE;
+        System.out.printf("kernel %s: %s  max relative error %.2e%n", kernel.getClass().getSimpleName(),
+                passed ? "OK  " : "FAIL", worst);
+        return passed;
+    }
+
+    private static boolean checkConvolver(int taps, int blockSize, Random random) {
+        float[][][] reversedL = new float[AZIMUTHS][ELEVATIONS][];
+        float[][][] reversedR = new float[AZIMUTHS][ELEVATIONS][];
+        for (int a = 0; a < AZIMUTHS; a++) {
+            for (int e = 0; e < ELEVATIONS; e++) {
+                reversedL[a][e] = randomSignal(taps, random);
+                reversedR[a][e] = randomSignal(taps, random);
+            }
+        }
+        long budget = CACHED_SPECTRA * HrirSpectrumCache.getSpectrumBytes(HrirSpectrumCache.getFftSize(blockSize, taps));
+        HrirSpectrumCache hrirs = new HrirSpectrumCache(reversedL, reversedR, blockSize, budget);
+        // Runs of one to three blocks per direction.
+        int[] directions = new int[BLOCKS];
+        for (int b = 0; b < BLOCKS; b++) {
+            directions[b] = b > 0 && random.nextInt(3) > 0 ? directions[b - 1]
+                    : random.nextInt(AZIMUTHS * ELEVATIONS);
+        }
+        int inOffset = 5;
+        float[] inL = randomSignal(inOffset + BLOCKS * blockSize + taps - 1, random);
+        float[] inR = randomSignal(inL.length, random);
+        double[] expectedL = new double[BLOCKS * blockSize];
+        double[] expectedR = new double[BLOCKS * blockSize];
+        for (int b = 0; b < BLOCKS; b++) {
+            int in = inOffset + b * blockSize;
+            reference(inL, in, hrirs.getReversedTaps(directions[b], HrirSpectrumCache.LEFT), taps,
+                    expectedL, b * blockSize, blockSize);
+            reference(inR, in, hrirs.getReversedTaps(directions[b], HrirSpectrumCache.RIGHT), taps,
+                    expectedR, b * blockSize, blockSize);
+        }
+        StereoConvolver convolver = new StereoConvolver(hrirs);
+        boolean passed = true;
+        for (int path = 0; path < 2; path++) {
+            convolver.setFft(path == 1);
+            // Two calls, the second one starting mid-buffer, as when the recording wraps.
+            float[] out = new float[BLOCKS * blockSize * 2];
+            int split = BLOCKS / 3;
+            int[] tail = new int[BLOCKS - split];
+            System.arraycopy(directions, split, tail, 0, tail.length);
+            convolver.process(inL, inR, inOffset, directions, split, out, 0);
+            convolver.process(inL, inR, inOffset + split * blockSize, tail, tail.length, out, split * blockSize);
+            double error = Math.max(relativeError(expectedL, out, 0, 2, expectedL.length),
+                    relativeError(expectedR, out, 1, 2, expectedR.length));
+            boolean ok = error <= TOLERANCE;
+            System.out.printf("convolver, %3d taps, blocks of %3d, %-6s: %s  max relative error %.2e%n",
+                    taps, blockSize, path == 1 ? "fft" : "direct", ok ? "OK  " : "FAIL", error);
+            passed &= ok;
+        }
+        return passed;
+    }
+
+    private static boolean checkSnapshots(Random random) throws IOException {
+        float[][][] left = new float[Hrtf.AZIMUTH_COUNT][Hrtf.ELEVATION_COUNT][];
+        float[][][] right = new float[Hrtf.AZIMUTH_COUNT][Hrtf.ELEVATION_COUNT][];
+        for (int a = 0; a < Hrtf.AZIMUTH_COUNT; a++) {
+            for (int e = 0; e < Hrtf.ELEVATION_COUNT; e++) {
+                left[a][e] = randomSignal(GAME_TAPS, random);
+                right[a][e] = randomSignal(GAME_TAPS, random);
+            }
+        }
+        HrirSet hrirs = new HrirSet(left, right, GAME_SAMPLE_RATE);
+        float[] recordingL = randomSignal(64 * GAME_TAPS, random);
+        float[] recordingR = randomSignal(64 * GAME_TAPS, random);
+
+        MazeGame game = newGame(hrirs, recordingL, recordingR, null);
+        Maze maze = game.getMaze();
+        int marks = 0;
+        for (int r = 0; r <= maze.getRowCount(); r++) {
+            for (int c = 0; c < maze.getColumnCount(); c++) {
+                if (maze.updateHorizontalMark(r, c) == 1) {
+                    marks++;
+                }
+            }
+        }
+        byte[] payload = game.saveState();
+        File file = File.createTempFile("maze-snapshot", ".bin");
+        byte[] restored;
+        try {
+            GameSnapshot.write(file, GameSnapshot.encode(payload));
+            ByteBuffer read = GameSnapshot.decode(GameSnapshot.read(file));
+            restored = newGame(hrirs, recordingL, recordingR, read).saveState();
+        } finally {
+            file.delete();
+        }
+        boolean passed = report("snapshot round trip, " + marks + " marks", Arrays.equals(payload, restored));
+
+        ByteBuffer encoded = GameSnapshot.encode(payload);
+        byte[] whole = Arrays.copyOf(encoded.array(), encoded.remaining());
+        passed &= report("truncated snapshot rejected",
+                !decodes(Arrays.copyOf(whole, whole.length - 1)));
+        byte[] flipped = whole.clone();
+        // The checksum is the last int of the 16-byte header.
+        flipped[12] ^= 1;
+        passed &= report("flipped checksum byte rejected", !decodes(flipped));
+        flipped = whole.clone();
+        flipped[whole.length / 2] ^= 0x10;
+        passed &= report("flipped payload byte rejected", !decodes(flipped));
+
+        int rows = maze.getRowCount();
+        ByteBuffer bad = ByteBuffer.wrap(payload.clone());
+        bad.putInt(EXIT_ROW_OFFSET, rows);
+        passed &= report("exit row " + rows + " of " + rows + " rejected",
+                !restores(hrirs, recordingL, recordingR, bad.array()));
+        bad = ByteBuffer.wrap(payload.clone());
+        bad.putInt(EXIT_COLUMN_OFFSET, -1);
+        passed &= report("exit column -1 rejected", !restores(hrirs, recordingL, recordingR, bad.array()));
+        bad = ByteBuffer.wrap(payload.clone());
+        bad.putFloat(CAMERA_OFFSET, -1);
+        passed &= report("camera outside the maze rejected",
+                !restores(hrirs, recordingL, recordingR, bad.array()));
+        bad = ByteBuffer.wrap(payload.clone());
+        bad.putFloat(MOSQUITO_OFFSET, Float.NaN);
+        passed &= report("NaN mosquito rejected", !restores(hrirs, recordingL, recordingR, bad.array()));
+        passed &= report("truncated payload rejected", !restores(hrirs, recordingL, recordingR,
+                Arrays.copyOf(payload, EXIT_COLUMN_OFFSET)));
+        return passed;
+    }
+
+    private static MazeGame newGame(HrirSet hrirs, float[] recordingL, float[] recordingR, ByteBuffer savedState) {
+        return new MazeGame(hrirs, recordingL, recordingR, new RecordingAudioSink(GAME_SAMPLE_RATE),
+                new FrameProfiler(), savedState);
+    }
+
+    /**
+     * Returns whether a game given {@code payload}, wrapped in a valid header, continues from it
+     * rather than starting a new level.
+     */
+    private static boolean restores(HrirSet hrirs, float[] recordingL, float[] recordingR, byte[] payload)
+            throws IOException {
+        ByteBuffer decoded = GameSnapshot.decode(GameSnapshot.encode(payload));
+        return Arrays.equals(payload, newGame(hrirs, recordingL, recordingR, decoded).saveState());
+    }
+
+    private static boolean decodes(byte[] file) {
+        try {
+            GameSnapshot.decode(ByteBuffer.wrap(file));
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static boolean report(String name, boolean passed) {
+        System.out.printf("%s: %s%n", name, passed ? "OK" : "FAIL");
+        return passed;
+    }
+
+    /**
+     * The convolution of {@link ConvolutionKernel}, in double precision.
+     */
+    private static void reference(float[] x, int xOffset, float[] reversedTaps, int taps,
+                                  double[] z, int zOffset, int length) {
+        for (int i = 0; i < length; i++) {
+            double sum = 0;
+            for (int j = 0; j < taps; j++) {
+                sum += (double) x[xOffset + i + j] * reversedTaps[j];
+            }
+            z[zOffset + i] = sum;
+        }
+    }
+
+    private static double relativeError(double[] expected, float[] actual, int offset, int stride, int length) {
+        double scale = 0;
+        double error = 0;
+        for (int i = 0; i < length; i++) {
+            scale = Math.max(scale, Math.abs(expected[i]));
+            double difference = Math.abs(actual[offset + i * stride] - expected[i]);
+            if (Double.isNaN(difference)) {
+                return Double.NaN;
+            }
+            error = Math.max(error, difference);
+        }
+        return scale > 0 ? error / scale : error;
+    }
+
+    private static float[] randomSignal(int length, Random random) {
+        float[] signal = new float[length];
+        for (int i = 0; i < length; i++) {
+            signal[i] = 2 * random.nextFloat() - 1;
+        }
+        return signal;
+    }
+}
@@ -0,0 +1,262 @@
+/*
+ * Copyright 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vr.sdk.applications.maze;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Concurrency stress tests of {@link SpscFloatRing}, in the manner of JCStress: each test runs a
+ * producer and a consumer actor on their own threads many times over, tallies the outcomes and
+ * fails if a forbidden one was seen.
+ *
+ * <pre>
+ *   ./gradlew :applications-maze-bench:ringStress [-Pseconds=10]
+ * </pre>
+ *
+ * <p>The stream test pushes numbered frames through rings of several capacities in random chunk
+ * sizes while a third thread samples the fill level; every frame must arrive once, in order and
+ * intact, and the overflow and underflow statistics must match what the actors saw. The
+ * publication test writes single frames into fresh slots and reads them as soon as they are
+ * visible; a visible frame with stale samples would mean the position was published before the
+ * data. Exits with status 1 on any failure.
+ */
+public final class SpscFloatRingStress {
+    private static final int[] CAPACITIES = {1, 2, 3, 64, 1000};
+    private static final int CHANNELS = 2;
+    // Sequence numbers are exact in a float up to 2^24.
+    private static final int SEQUENCE_MASK = (1 << 24) - 1;
+    private static final int PUBLICATION_BATCH = 1024;
+
+    private SpscFloatRingStress() {
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        double seconds = args.length > 0 ? Double.parseDouble(args[0]) : 10;
+        long testNanos = (long) (seconds * 1e9 / (CAPACITIES.length + 1));
+        boolean passed = true;
+        for (int capacity : CAPACITIES) {
+            passed &= stream(capacity, testNanos);
+        }
+        passed &= publication(testNanos);
+        System.out.println(passed ? "PASSED" : "FAILED");
+        if (!passed) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Streams numbered frames from producer to consumer, the producer retrying what did not fit.
+     */
+    private static boolean stream(int capacity, long nanos) throws InterruptedException {
+        final SpscFloatRing ring = new SpscFloatRing(capacity, CHANNELS);
+        final long deadline = System.nanoTime() + nanos;
+        final AtomicLong produced = new AtomicLong();
+        final AtomicLong producerShortfall = new AtomicLong();
+        final AtomicLong producerShortWrites = new AtomicLong();
+        final AtomicLong consumed = new AtomicLong();
+        final AtomicLong consumerShortReads = new AtomicLong();
+        final AtomicLong consumerMissing = new AtomicLong();
+        final AtomicLong corrupt = new AtomicLong();
+        final AtomicLong badSizes = new AtomicLong();
+        final AtomicInteger done = new AtomicInteger();
+        final int maxChunk = ring.getCapacity() + 2;
+
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Random random = new Random(1);
+                float[] chunk = new float[maxChunk * CHANNELS];
+                long next = 0;
+                while (System.nanoTime() < deadline) {
+                    int frames = 1 + random.nextInt(maxChunk);
+                    // Sequence numbers are passed through a gain of 2 and halved on arrival.
+                    for (int i = 0; i < frames; i++) {
+                        int value = (int) ((next + i) & SEQUENCE_MASK);
+                        chunk[i * CHANNELS] = value * 0.5f;
+                        chunk[i * CHANNELS + 1] = -value * 0.5f;
+                    }
+                    int offset = 0;
+                    while (offset < frames) {
+                        int written = ring.write(chunk, offset * CHANNELS, frames - offset, 2);
+                        if (written < frames - offset) {
+                            producerShortWrites.incrementAndGet();
+                            producerShortfall.addAndGet(frames - offset - written);
+                        }
+                        offset += written;
+                        if (written == 0) {
+                            // Let the consumer run on machines with fewer cores than actors.
+                            Thread.yield();
+                        }
+                    }
+                    next += frames;
+                }
+                produced.set(next);
+                done.set(1);
+            }
+        });
+        Thread consumer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Random random = new Random(2);
+                float[] chunk = new float[maxChunk * CHANNELS];
+                long next = 0;
+                while (true) {
+                    boolean finished = done.get() == 1;
+                    int frames = 1 + random.nextInt(maxChunk);
+                    int read = ring.read(chunk, 0, frames);
+                    if (read < frames && next + read > 0) {
+                        consumerShortReads.incrementAndGet();
+                        consumerMissing.addAndGet(frames - read);
+                    }
+                    for (int i = 0; i < read; i++) {
+                        float expected = (int) ((next + i) & SEQUENCE_MASK);
+                        if (chunk[i * CHANNELS] != expected || chunk[i * CHANNELS + 1] != -expected) {
+                            corrupt.incrementAndGet();
+                        }
+                    }
+                    next += read;
+                    if (read == 0) {
+                        Thread.yield();
+                    }
+                    // Once the producer is done, everything it wrote is visible; drain it.
+                    if (finished && read == 0) {
+                        break;
+                    }
+                }
+                consumed.set(next);
+            }
+        });
+        Thread observer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (done.get() == 0) {
+                    int size = ring.size();
+                    if (size < 0 || size > ring.getCapacity()) {
+                        badSizes.incrementAndGet();
+                    }
+                    Thread.yield();
+                }
+            }
+        });
+        producer.start();
+        consumer.start();
+        observer.start();
+        producer.join();
+        consumer.join();
+        observer.join();
+
+        boolean passed = consumed.get() == produced.get() && corrupt.get() == 0 && badSizes.get() == 0
+                && ring.getOverflowCount() == producerShortWrites.get()
+                && ring.getOverflowFrameCount() == producerShortfall.get()
+                && ring.getUnderflowCount() == consumerShortReads.get()
+                && ring.getUnderflowFrameCount() == consumerMissing.get()
+                && ring.getMaxFill() <= ring.getCapacity();
+        System.out.printf("stream, capacity %4d: %s  %d frames, %d corrupt, %d bad sizes, "
+                        + "%d/%d overflows, %d/%d underflows, max fill %d%n",
+                ring.getCapacity(), passed ? "OK  " : "FAIL", consumed.get(), corrupt.get(), badSizes.get(),
+                ring.getOverflowCount(), producerShortWrites.get(), ring.getUnderflowCount(),
+                consumerShortReads.get(), ring.getMaxFill());
+        if (consumed.get() != produced.get()) {
+            System.out.printf("  produced %d frames, consumed %d%n", produced.get(), consumed.get());
+        }
+        return passed;
+    }
+
+    /**
+     * Litmus test of publication. In each round the producer writes one frame with the round's
+     * value into each ring of a batch, and the consumer reads each ring once, without waiting.
+     * Outcomes: nothing yet (acceptable), the round's frame (acceptable), anything else (forbidden).
+     */
+    private static boolean publication(long nanos) throws InterruptedException {
+        final SpscFloatRing[] rings = new SpscFloatRing[PUBLICATION_BATCH];
+        for (int i = 0; i < rings.length; i++) {
+            // Capacity 1: every write reuses the same slot, so stale data is the previous round's.
+            rings[i] = new SpscFloatRing(1, CHANNELS);
+        }
+        final long deadline = System.nanoTime() + nanos;
+        final AtomicInteger producerRound = new AtomicInteger();
+        final AtomicInteger consumerRound = new AtomicInteger();
+        final long[] outcomes = new long[3];
+        final AtomicInteger stop = new AtomicInteger();
+
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                float[] frame = new float[CHANNELS];
+                for (int round = 1; ; round++) {
+                    // Wait for the consumer to finish the previous round, which emptied every ring.
+                    while (consumerRound.get() != round - 1) {
+                        if (stop.get() != 0) {
+                            return;
+                        }
+                        Thread.yield();
+                    }
+                    frame[0] = round;
+                    frame[1] = -round;
+                    producerRound.set(round);
+                    for (SpscFloatRing ring : rings) {
+                        ring.write(frame, 0, 1, 1);
+                    }
+                }
+            }
+        });
+        Thread consumer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                float[] frame = new float[CHANNELS];
+                boolean[] pending = new boolean[rings.length];
+                for (int round = 1; System.nanoTime() < deadline; round++) {
+                    while (producerRound.get() != round) {
+                        Thread.yield();
+                    }
+                    for (int i = 0; i < rings.length; i++) {
+                        pending[i] = rings[i].read(frame, 0, 1) == 0;
+                        if (pending[i]) {
+                            outcomes[0]++;
+                        } else if (frame[0] == round && frame[1] == -round) {
+                            outcomes[1]++;
+                        } else {
+                            outcomes[2]++;
+                        }
+                    }
+                    // Drain what was published after the first look, so the next round starts empty.
+                    for (int i = 0; i < rings.length; i++) {
+                        while (pending[i] && rings[i].read(frame, 0, 1) == 0) {
+                            // The producer writes every ring of the round.
+                            Thread.yield();
+                        }
+                    }
+                    consumerRound.set(round);
+                }
+                stop.set(1);
+            }
+        });
+        producer.start();
+        consumer.start();
+        consumer.join();
+        producer.join();
+
+        boolean passed = outcomes[2] == 0;
+        System.out.printf("publication: %s%n", passed ? "OK" : "FAIL");
+        System.out.printf("  %12d  not visible yet      ACCEPTABLE%n", outcomes[0]);
+        System.out.printf("  %12d  frame of the round   ACCEPTABLE%n", outcomes[1]);
+        System.out.printf("  %12d  stale or torn frame  FORBIDDEN%n", outcomes[2]);
+        return passed;
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vr.sdk.applications.maze;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * {@link ConvolutionKernel} on the JDK Vector API. Picked up by {@link Convolve#KERNEL} when this
+ * source set is on the class path and the VM runs with {@code --add-modules jdk.incubator.vector};
+ * Android never sees it.
+ *
+ * <p>Vectors run across outputs rather than taps: each lane accumulates one output, every tap is
+ * broadcast once and multiplied into two vectors of adjacent windows, so no horizontal reductions
+ * are needed. Outputs left over after the last full vector go to the scalar kernel, and so do
+ * whole calls with output strides beyond the scatter maps.
+ */
+/* package */ final class VectorConvolutionKernel implements ConvolutionKernel {
+    private static final VectorSpecies<Float> SPECIES = FloatVector.SPECIES_PREFERRED;
+    private static final int LANES = SPECIES.length();
+    // Scatter index maps for the output strides used by interleaved stereo and below.
+    private static final int MAX_MAPPED_STRIDE = 4;
+    private static final int[][] STRIDE_MAPS = new int[MAX_MAPPED_STRIDE + 1][LANES];
+
+    static {
+        for (int stride = 1; stride <= MAX_MAPPED_STRIDE; stride++) {
+            for (int lane = 0; lane < LANES; lane++) {
+                STRIDE_MAPS[stride][lane] = lane * stride;
+            }
+        }
+    }
+
+    private final ScalarConvolutionKernel scalar = new ScalarConvolutionKernel();
+
+    @Override
+    public int getFftCrossover() {
+        // Measured on JDK 17, x86-64 with AVX2.
+        return 512;
+    }
+
+    @Override
+    public void convolve(float[] x, int xOffset, float[] reversedTaps, int taps,
+                         float[] z, int zOffset, int zStride, int length) {
+        if (zStride > MAX_MAPPED_STRIDE) {
+            scalar.convolve(x, xOffset, reversedTaps, taps, z, zOffset, zStride, length);
+            return;
+        }
+        // Stores are written out at each use: a helper taking the vector is not always inlined
+        // into this large method, and a vector passed to an outlined call is boxed on the heap.
+        int[] map = STRIDE_MAPS[zStride];
+        int i = 0;
+        for (; i + 2 * LANES <= length; i += 2 * LANES) {
+            int p = xOffset + i;
+            FloatVector s0 = FloatVector.zero(SPECIES);
+            FloatVector s1 = FloatVector.zero(SPECIES);
+            for (int j = 0; j < taps; j++) {
+                FloatVector r = FloatVector.broadcast(SPECIES, reversedTaps[j]);
+                s0 = FloatVector.fromArray(SPECIES, x, p + j).fma(r, s0);
+                s1 = FloatVector.fromArray(SPECIES, x, p + j + LANES).fma(r, s1);
+            }
+            if (zStride == 1) {
+                s0.intoArray(z, zOffset + i);
+                s1.intoArray(z, zOffset + i + LANES);
+            } else {
+                s0.intoArray(z, zOffset + i * zStride, map, 0);
+                s1.intoArray(z, zOffset + (i + LANES) * zStride, map, 0);
+            }
+        }
+        for (; i + LANES <= length; i += LANES) {
+            int p = xOffset + i;
+            FloatVector s = FloatVector.zero(SPECIES);
+            for (int j = 0; j < taps; j++) {
+                s = FloatVector.fromArray(SPECIES, x, p + j).fma(FloatVector.broadcast(SPECIES, reversedTaps[j]), s);
+            }
+            if (zStride == 1) {
+                s.intoArray(z, zOffset + i);
+            } else {
+                s.intoArray(z, zOffset + i * zStride, map, 0);
+            }
+        }
+        if (i < length) {
+            scalar.convolve(x, xOffset + i, reversedTaps, taps, z, zOffset + i * zStride, zStride, length - i);
+        }
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.vr.sdk.applications.maze;
+
+/**
+ * Propagation effects applied to each spatialized source after the HRIR convolution: distance
+ * attenuation and occlusion by the maze walls.
+ *
+ * <p>{@link #update} measures the distance between listener and source and counts the walls
+ * between them with the grid ray caster. {@link #process} then works through its blocks one at a
+ * time: it moves the smoothed wall count towards the measured one, so a wall edge passing the
+ * line of sight does not click, turns distance and wall count into a target gain and a low-pass
+ * cutoff, ramps the gain linearly over the block and runs a one-pole low-pass per channel. All
+ * state lives in per-source arrays sized up front, the wall count is capped at
+ * {@link #MAX_OCCLUDERS}, and nothing is allocated, so every source costs a fixed budget.
+ */
+/* package */ final class AcousticStage {
+    /**
+     * Distance at which a source plays at full gain. Closer sources are not amplified.
+     */
+    private static final float REFERENCE_DISTANCE = 0.5f;
+    static final int MAX_OCCLUDERS = 4;
+    // Every wall costs about 6 dB and lowers the cutoff by this factor.
+    private static final float GAIN_PER_WALL = 0.5f;
+    private static final float CUTOFF_PER_WALL = 0.3f;
+    private static final float OPEN_CUTOFF_HZ = 9000f;
+    // Fraction of the way the smoothed wall count moves towards the measured one per block.
+    private static final float OCCLUSION_SMOOTHING = 0.25f;
+
+    private final float sampleRate;
+    private final int blockSize;
+    private final float[] distance;
+    private final int[] walls;
+    // Whether the source was reset and has not been measured since.
+    private final boolean[] fresh;
+    private final float[] occlusion;
+    private final float[] gain;
+    private final float[] targetGain;
+    private final float[] coefficient;
+    private final float[] stateL;
+    private final float[] stateR;
+
+    AcousticStage(int sourceCount, float sampleRate, int blockSize) {
+        this.sampleRate = sampleRate;
+        this.blockSize = blockSize;
+        distance = new float[sourceCount];
+        walls = new int[sourceCount];
+        fresh = new boolean[sourceCount];
+        occlusion = new float[sourceCount];
+        gain = new float[sourceCount];
+        targetGain = new float[sourceCount];
+        coefficient = new float[sourceCount];
+        stateL = new float[sourceCount];
+        stateR = new float[sourceCount];
+        for (int i = 0; i < sourceCount; i++) {
+            reset(i);
+        }
+    }
+
+    /**
+     * Forgets the source's filter state and gain, for when it starts playing a different emitter.
+     * The next block fades in from silence and starts from the wall count measured for it.
+     */
+    void reset(int source) {
+        fresh[source] = true;
+        occlusion[source] = 0;
+        gain[source] = 0;
+        targetGain[source] = 0;
+        coefficient[source] = 1;
+        stateL[source] = 0;
+        stateR[source] = 0;
+    }
+
+    /**
+     * Measures the geometry the source's next blocks are processed for. Call whenever the
+     * listener or the emitter moved, before {@link #process}.
+     */
+    void update(int source, Point listener, Point emitter, GridRayCaster caster) {
+        distance[source] = listener.getDistance(emitter);
+        walls[source] = caster.countWalls(listener.getX(), listener.getZ(), emitter.getX(), emitter.getZ(),
+                MAX_OCCLUDERS);
+        if (fresh[source]) {
+            occlusion[source] = walls[source];
+            fresh[source] = false;
+        }
+    }
+
+    /**
+     * Filters and attenuates {@code blocks} consecutive blocks of the source's interleaved stereo
+     * output in place, stepping the occlusion smoothing and the gain ramp once per block.
+     */
+    void process(int source, float[] interleaved, int blocks) {
+        for (int b = 0; b < blocks; b++) {
+            step(source);
+            processBlock(source, interleaved, b * blockSize);
+        }
+    }
+
+    private void step(int source) {
+        occlusion[source] += (walls[source] - occlusion[source]) * OCCLUSION_SMOOTHING;
+        float occluded = occlusion[source];
+        targetGain[source] = REFERENCE_DISTANCE / Math.max(REFERENCE_DISTANCE, distance[source])
+                * (float) Math.pow(GAIN_PER_WALL, occluded);
+        float cutoff = OPEN_CUTOFF_HZ * (float) Math.pow(CUTOFF_PER_WALL, occluded);
+        coefficient[source] = 1 - (float) Math.exp(-2 * Math.PI * cutoff / sampleRate);
+    }
+
+    private void processBlock(int source, float[] interleaved, int frame) {
+        float a = coefficient[source];
+        float g = gain[source];
+        float step = (targetGain[source] - g) / blockSize;
+        float l = stateL[source];
+        float r = stateR[source];
+        for (int i = frame * 2, end = (frame + blockSize) * 2; i < end; i += 2) {
+            l += a * (interleaved[i] - l);
+            r += a * (interleaved[i + 1] - r);
+            g += step;
+            interleaved[i] = l * g;
+            interleaved[i + 1] = r * g;
+        }
+        gain[source] = targetGain[source];
+        stateL[source] = l;
+        stateR[source] = r;
+    }
+}
@@ -0,0 +1,288 @@
+/*
+ * Copyright 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vr.sdk.applications.maze;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Loads assets as a graph of tasks: each task starts once the tasks it depends on are done, on a
+ * small fixed pool of worker threads, so independent parses and decodes run side by side.
+ *
+ * <p>Tasks added with {@link #addGl} run on the GL thread instead, a few at a time from
+ * {@link #runGlTasks}, which the renderer calls once per frame; they are meant for the uploads
+ * that follow a decode on a worker. A failed task fails everything that depends on it without
+ * running it. Every task records how long it waited for a thread and how long it ran, see
+ * {@link #describe}, and {@link #getProgress} tells how much of the graph is done.
+ */
+/* package */ final class AssetLoader {
+    private static final String TAG = "AssetLoader";
+    // Idle workers end after this, so the pool costs nothing once loading is over.
+    private static final long KEEP_ALIVE_MILLIS = 1000;
+
+    /**
+     * Produces an asset. Runs once its dependencies are done and may read them with
+     * {@link Asset#getNow}.
+     */
+    interface Loader<T> {
+        T load() throws Exception;
+    }
+
+    /**
+     * One task of the graph and, once done, its result.
+     */
+    static final class Asset<T> {
+        private final String name;
+        private final Loader<T> loader;
+        private final boolean glThread;
+        private final Asset<?>[] dependencies;
+        private final CountDownLatch done = new CountDownLatch(1);
+        // Guarded by the AssetLoader.
+        private final List<Asset<?>> dependents = new ArrayList<>();
+        private int pendingDependencies;
+        // Written before done is counted down, read after.
+        private T value;
+        private Throwable failure;
+        private long readyNanos;
+        private long startNanos;
+        private long endNanos;
+        private String threadName;
+
+        private Asset(String name, Loader<T> loader, boolean glThread, Asset<?>[] dependencies) {
+            this.name = name;
+            this.loader = loader;
+            this.glThread = glThread;
+            this.dependencies = dependencies;
+        }
+
+        String getName() {
+            return name;
+        }
+
+        boolean isDone() {
+            return done.getCount() == 0;
+        }
+
+        /**
+         * Returns the asset if it loaded, or null if it is not done yet or failed.
+         */
+        T getNow() {
+            return isDone() && failure == null ? value : null;
+        }
+
+        /**
+         * Waits for the asset.
+         *
+         * @throws ExecutionException if it or one of its dependencies failed to load.
+         */
+        T get() throws ExecutionException, InterruptedException {
+            done.await();
+            if (failure != null) {
+                throw new ExecutionException("Unable to load " + name, failure);
+            }
+            return value;
+        }
+
+        /**
+         * Returns the failure of a done asset, or null.
+         */
+        Throwable getFailure() {
+            return isDone() ? failure : null;
+        }
+    }
+
+    private final ThreadPoolExecutor executor;
+    private final ConcurrentLinkedQueue<Asset<?>> glTasks = new ConcurrentLinkedQueue<>();
+    private final long createdNanos = System.nanoTime();
+    // Guarded by this.
+    private final List<Asset<?>> assets = new ArrayList<>();
+    private int finishedCount;
+    private long finishedNanos;
+
+    /**
+     * @param threads Number of worker threads.
+     */
+    AssetLoader(int threads) {
+        final AtomicInteger count = new AtomicInteger();
+        executor = new ThreadPoolExecutor(threads, threads, KEEP_ALIVE_MILLIS, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, TAG + "-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Returns a worker count that leaves a core for the UI and GL threads.
+     */
+    static int defaultThreadCount() {
+        return Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() - 1));
+    }
+
+    /**
+     * Adds a task to run on a worker thread once {@code dependencies} are done.
+     */
+    <T> Asset<T> add(String name, Loader<T> loader, Asset<?>... dependencies) {
+        return add(name, loader, false, dependencies);
+    }
+
+    /**
+     * Adds a task to run on the GL thread, from {@link #runGlTasks}, once {@code dependencies}
+     * are done.
+     */
+    <T> Asset<T> addGl(String name, Loader<T> loader, Asset<?>... dependencies) {
+        return add(name, loader, true, dependencies);
+    }
+
+    private synchronized <T> Asset<T> add(String name, Loader<T> loader, boolean glThread, Asset<?>[] dependencies) {
+        Asset<T> asset = new Asset<>(name, loader, glThread, dependencies.clone());
+        assets.add(asset);
+        for (Asset<?> dependency : dependencies) {
+            if (!dependency.isDone()) {
+                asset.pendingDependencies++;
+                dependency.dependents.add(asset);
+            }
+        }
+        if (asset.pendingDependencies == 0) {
+            schedule(asset);
+        }
+        return asset;
+    }
+
+    // Called with the lock held.
+    private void schedule(final Asset<?> asset) {
+        asset.readyNanos = System.nanoTime();
+        if (asset.glThread) {
+            glTasks.add(asset);
+        } else {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    AssetLoader.this.run(asset);
+                }
+            });
+        }
+    }
+
+    /**
+     * Runs ready GL tasks until none is left or {@code budgetNanos} have passed. GL thread only.
+     *
+     * @return The number of tasks run.
+     */
+    int runGlTasks(long budgetNanos) {
+        long start = System.nanoTime();
+        int count = 0;
+        Asset<?> asset;
+        while ((asset = glTasks.poll()) != null) {
+            run(asset);
+            count++;
+            if (System.nanoTime() - start >= budgetNanos) {
+                break;
+            }
+        }
+        return count;
+    }
+
+    private <T> void run(Asset<T> asset) {
+        asset.startNanos = System.nanoTime();
+        asset.threadName = Thread.currentThread().getName();
+        for (Asset<?> dependency : asset.dependencies) {
+            if (dependency.failure != null) {
+                finish(asset, null, new ExecutionException("Dependency " + dependency.name + " failed",
+                        dependency.failure));
+                return;
+            }
+        }
+        try {
+            finish(asset, asset.loader.load(), null);
+        } catch (Exception e) {
+            finish(asset, null, e);
+        } catch (Error e) {
+            finish(asset, null, e);
+            throw e;
+        }
+    }
+
+    private synchronized <T> void finish(Asset<T> asset, T value, Throwable failure) {
+        asset.endNanos = System.nanoTime();
+        asset.value = value;
+        asset.failure = failure;
+        asset.done.countDown();
+        if (failure != null) {
+            GameLog.e(TAG, "Unable to load %s: %s", asset.name, failure);
+        }
+        for (Asset<?> dependent : asset.dependents) {
+            if (--dependent.pendingDependencies == 0) {
+                schedule(dependent);
+            }
+        }
+        asset.dependents.clear();
+        finishedCount++;
+        if (finishedCount == assets.size()) {
+            finishedNanos = asset.endNanos;
+        }
+    }
+
+    /**
+     * Returns the fraction of the tasks added so far that are done, in [0, 1].
+     */
+    synchronized float getProgress() {
+        return assets.isEmpty() ? 1 : (float) finishedCount / assets.size();
+    }
+
+    /**
+     * Returns whether every task added so far is done.
+     */
+    synchronized boolean isComplete() {
+        return finishedCount == assets.size();
+    }
+
+    /**
+     * Describes each done task, in the order they were added: how long it waited for a thread
+     * once its dependencies were done, how long it ran and where, and how long after the loader
+     * was created it finished.
+     */
+    synchronized String describe() {
+        StringBuilder text = new StringBuilder();
+        for (Asset<?> asset : assets) {
+            if (!asset.isDone()) {
+                text.append(String.format("%-16s pending%n", asset.name));
+                continue;
+            }
+            text.append(String.format("%-16s waited %7.1f ms, ran %7.1f ms on %-14s done at %7.1f ms%s%n",
+                    asset.name, (asset.startNanos - asset.readyNanos) / 1e6, (asset.endNanos - asset.startNanos) / 1e6,
+                    asset.threadName, (asset.endNanos - createdNanos) / 1e6, asset.failure != null ? ", FAILED" : ""));
+        }
+        if (finishedCount == assets.size()) {
+            text.append(String.format("%d assets in %.1f ms on %d worker threads",
+                    assets.size(), (finishedNanos - createdNanos) / 1e6, executor.getMaximumPoolSize()));
+        }
+        return text.toString();
+    }
+}
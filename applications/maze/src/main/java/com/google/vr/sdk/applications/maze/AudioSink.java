@@ -0,0 +1,52 @@
+/*
+ * Copyright 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vr.sdk.applications.maze;
+
+/**
+ * Receives the game's audio: the spatialized mosquito stream and one-shot cues.
+ */
+/* package */ interface AudioSink {
+    int CUE_COLLIDE_WALL = 0;
+    int CUE_FINAL_SUCCESS = 1;
+
+    /**
+     * Updates the listener orientation used for cues rendered by the sink.
+     */
+    void setHeadRotation(float x, float y, float z, float w);
+
+    /**
+     * Plays one of the CUE_* sounds.
+     */
+    void playCue(int cue);
+
+    /**
+     * Queues stereo audio.
+     *
+     * @param interleaved LRLR... samples, only valid for the duration of the call.
+     * @param frames      Number of stereo frames to queue.
+     * @param volume      Gain in [0, 1] applied to both channels.
+     */
+    void write(float[] interleaved, int frames, float volume);
+
+    /**
+     * Returns how many of the written frames have not been heard yet, so that the next frame
+     * written will be heard that many frames after {@code nowNanos}.
+     *
+     * @param nowNanos Current time on the {@link System#nanoTime()} clock.
+     */
+    int getQueuedFrames(long nowNanos);
+}
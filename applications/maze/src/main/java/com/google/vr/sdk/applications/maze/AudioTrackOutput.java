@@ -0,0 +1,237 @@
+/*
+ * Copyright 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vr.sdk.applications.maze;
+
+import android.media.AudioAttributes;
+import android.media.AudioFormat;
+import android.media.AudioManager;
+import android.media.AudioTimestamp;
+import android.media.AudioTrack;
+import android.os.Build;
+import android.os.Process;
+import android.util.Log;
+
+/**
+ * Streams stereo float audio to an AudioTrack at the device's native rate and burst size.
+ *
+ * <p>The game thread writes into a lock-free {@link SpscFloatRing}; a writer thread at audio
+ * priority takes exactly one burst ({@code PROPERTY_OUTPUT_FRAMES_PER_BUFFER} frames) at a time
+ * and blocks in the track until there is room for it, so the track only ever holds a couple of
+ * bursts. Where the platform has it the track is opened in low-latency performance mode, which on
+ * most devices gets it a fast mixer path. When the ring runs short the burst is padded with
+ * silence and counted as a ring underrun; writes that do not fit the ring are dropped and counted.
+ */
+/* package */ class AudioTrackOutput {
+    private static final String TAG = "AudioTrackOutput";
+    // Used when the device does not report its output burst size.
+    private static final int DEFAULT_FRAMES_PER_BURST = 256;
+    // Bursts the track is sized for: one playing while the next is written.
+    private static final int TRACK_BURSTS = 2;
+    // Capacity of the ring, well above any latency target the game uses.
+    private static final int RING_MILLIS = 100;
+    private final int sampleRate;
+    private final int framesPerBurst;
+    private final AudioTrack audioTrack;
+    private final AudioTimestamp timestamp = new AudioTimestamp();
+    private final Thread writer;
+    private volatile boolean running = true;
+    private final SpscFloatRing ring;
+    // Frames the writer handed to the track, silence included. Written by the writer only.
+    private volatile long framesDequeued;
+
+    /**
+     * Opens the track and starts playing it.
+     *
+     * @param sampleRate     Rate the game renders at; {@link #getOutputSampleRate} avoids resampling.
+     * @param framesPerBurst Frames per write; {@link #getOutputFramesPerBurst} matches the mixer.
+     */
+    AudioTrackOutput(int sampleRate, int framesPerBurst) {
+        this.sampleRate = sampleRate;
+        this.framesPerBurst = framesPerBurst;
+        ring = new SpscFloatRing(sampleRate * RING_MILLIS / 1000, 2);
+        audioTrack = openTrack(sampleRate, framesPerBurst);
+        audioTrack.play();
+        writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_URGENT_AUDIO);
+                writeBursts();
+            }
+        }, TAG);
+        writer.start();
+    }
+
+    /**
+     * Returns the rate of the device's primary output, e.g. 48000.
+     */
+    static int getOutputSampleRate(AudioManager audioManager) {
+        int rate = parseProperty(audioManager.getProperty(AudioManager.PROPERTY_OUTPUT_SAMPLE_RATE));
+        return rate > 0 ? rate : AudioTrack.getNativeOutputSampleRate(AudioManager.STREAM_MUSIC);
+    }
+
+    /**
+     * Returns the number of frames the device's mixer consumes at a time, e.g. 192 or 240.
+     */
+    static int getOutputFramesPerBurst(AudioManager audioManager) {
+        int frames = parseProperty(audioManager.getProperty(AudioManager.PROPERTY_OUTPUT_FRAMES_PER_BUFFER));
+        return frames > 0 ? frames : DEFAULT_FRAMES_PER_BURST;
+    }
+
+    private static int parseProperty(String value) {
+        if (value == null) {
+            return 0;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static AudioTrack openTrack(int sampleRate, int framesPerBurst) {
+        int bufferBytes = Math.max(TRACK_BURSTS * framesPerBurst * 2 * 4,
+                AudioTrack.getMinBufferSize(sampleRate, AudioFormat.CHANNEL_OUT_STEREO, AudioFormat.ENCODING_PCM_FLOAT));
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.M) {
+            return new AudioTrack(AudioManager.STREAM_MUSIC, sampleRate, AudioFormat.CHANNEL_OUT_STEREO,
+                    AudioFormat.ENCODING_PCM_FLOAT, bufferBytes, AudioTrack.MODE_STREAM);
+        }
+        AudioTrack.Builder builder = new AudioTrack.Builder()
+                .setAudioAttributes(new AudioAttributes.Builder()
+                        .setUsage(AudioAttributes.USAGE_GAME)
+                        .setContentType(AudioAttributes.CONTENT_TYPE_SONIFICATION)
+                        .build())
+                .setAudioFormat(new AudioFormat.Builder()
+                        .setSampleRate(sampleRate)
+                        .setChannelMask(AudioFormat.CHANNEL_OUT_STEREO)
+                        .setEncoding(AudioFormat.ENCODING_PCM_FLOAT)
+                        .build())
+                .setBufferSizeInBytes(bufferBytes)
+                .setTransferMode(AudioTrack.MODE_STREAM);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            builder.setPerformanceMode(AudioTrack.PERFORMANCE_MODE_LOW_LATENCY);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Queues stereo frames for the writer, multiplied by {@code volume}. Frames that do not fit
+     * the ring are dropped.
+     */
+    void write(float[] interleaved, int frames, float volume) {
+        ring.write(interleaved, 0, frames, volume);
+    }
+
+    /**
+     * Returns how many written frames have not been heard yet: those in the ring and those the
+     * writer has handed to the track, less what the track's timestamp says was played.
+     */
+    int getQueuedFrames(long nowNanos) {
+        // A burst moving from the ring to the track in between is counted twice at worst, which
+        // errs on the side of rendering less.
+        int fill = ring.size();
+        long dequeued = framesDequeued;
+        long played;
+        if (audioTrack.getTimestamp(timestamp)) {
+            // The timestamp is the frame at the speaker, so this includes the output latency that
+            // the playback head position leaves out.
+            played = timestamp.framePosition + (nowNanos - timestamp.nanoTime) * sampleRate / 1_000_000_000L;
+        } else {
+            played = audioTrack.getPlaybackHeadPosition() & 0xffffffffL;
+        }
+        return fill + (int) Math.max(0, dequeued - played);
+    }
+
+    private void writeBursts() {
+        float[] burst = new float[framesPerBurst * 2];
+        while (running) {
+            int frames = ring.read(burst, 0, framesPerBurst);
+            for (int i = frames * 2; i < burst.length; i++) {
+                burst[i] = 0;
+            }
+            framesDequeued += framesPerBurst;
+            // Blocks until the track has room, which paces this loop at the output rate; while
+            // the track is paused it waits here.
+            int written = audioTrack.write(burst, 0, burst.length, AudioTrack.WRITE_BLOCKING);
+            if (written < 0) {
+                if (running) {
+                    Log.e(TAG, "AudioTrack write failed: " + written);
+                }
+                return;
+            }
+        }
+    }
+
+    void pause() {
+        audioTrack.pause();
+    }
+
+    void resume() {
+        audioTrack.play();
+    }
+
+    /**
+     * Stops the writer and releases the track.
+     */
+    void release() {
+        running = false;
+        audioTrack.pause();
+        audioTrack.flush();
+        try {
+            writer.join(100);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        audioTrack.release();
+    }
+
+    int getSampleRate() {
+        return sampleRate;
+    }
+
+    int getFramesPerBurst() {
+        return framesPerBurst;
+    }
+
+    /**
+     * Returns how often the track itself ran dry, as counted by the platform; 0 before API 24.
+     */
+    int getUnderrunCount() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.N ? audioTrack.getUnderrunCount() : 0;
+    }
+
+    /**
+     * Returns how many bursts were padded with silence because the game fell behind.
+     */
+    long getRingUnderrunCount() {
+        return ring.getUnderflowCount();
+    }
+
+    /**
+     * Returns how many written frames were dropped because the ring was full.
+     */
+    long getDroppedFrameCount() {
+        return ring.getOverflowFrameCount();
+    }
+
+    /**
+     * Returns the part of {@link #getQueuedFrames} that is already in the track, in milliseconds:
+     * the latency this output adds on top of the game's own queue.
+     */
+    float getTrackLatencyMillis(long nowNanos) {
+        return (getQueuedFrames(nowNanos) - ring.size()) * 1000f / sampleRate;
+    }
+}
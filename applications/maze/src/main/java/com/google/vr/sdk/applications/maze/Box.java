@@ -1,7 +1,7 @@
 package com.google.vr.sdk.applications.maze;
 
 public class Box {
-    private Point pos, size;
+    private final Point pos, size;
 
     public Box(float x, float y, float z, float x_size, float y_size, float z_size) {
         pos = new Point(x, y, z);
@@ -21,9 +21,8 @@ public class Box {
         return size;
     }
 
-    void describe() {
-        System.out.printf("This box's position is (%f, %f, %f) ans size is (%f, %f, %f)", pos.getX(), pos.getY(), pos.getZ(),
+    String describe() {
+        return String.format("This box's position is (%f, %f, %f) and size is (%f, %f, %f)", pos.getX(), pos.getY(), pos.getZ(),
                 size.getX(), size.getY(), size.getZ());
-        System.out.println();
     }
 }
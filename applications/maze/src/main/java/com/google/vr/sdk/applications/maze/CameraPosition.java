@@ -1,67 +1,60 @@
 package com.google.vr.sdk.applications.maze;
 
-import android.opengl.Matrix;
-
-import java.util.Vector;
-
 public class CameraPosition {
     private float MIN_DISTANCE_BETWEEN_PEOPLE_AND_WALL = 0.2f;
-    private Vector<Box> obstacles;
-    private float[] translate;
-    private Point pos;
-    private float[] temp;
+    private WallGrid obstacles;
+    private Point pos, prevPos;
+    private final Point contactNormal = new Point(0, 0, 0);
 
-    CameraPosition(Point startPos, Vector<Box> _obstacles) {
+    CameraPosition(Point startPos, WallGrid _obstacles) {
         pos = new Point(startPos.getX(), startPos.getY(), startPos.getZ());
-        translate = new float[16];
-        temp = new float[16];
-        Matrix.setIdentityM(translate, 0);
-        Matrix.translateM(translate, 0, -pos.getX(), -pos.getY(), -pos.getZ());
-        obstacles = new Vector<>();
-        obstacles.addAll(_obstacles);
-        System.out.println(obstacles.size());
-        for (Box box : obstacles) {
-            box.describe();
-        }
+        prevPos = new Point(startPos.getX(), startPos.getY(), startPos.getZ());
+        obstacles = _obstacles;
     }
 
 
+    /**
+     * Sweeps the player's square footprint along X and then along Z, stopping each axis at the
+     * first wall. A blocked axis leaves the other one free, so the player slides along walls, and
+     * since the whole path is swept no step length can tunnel through a wall.
+     *
+     * @return true if the move was not obstructed. Otherwise {@link #getContactNormal} holds the
+     * normal of the wall(s) touched.
+     */
     boolean move(float x, float y, float z) {
-        y = 0;//限制人的高度无法改变
-        Point point = new Point(pos.getX() + x, pos.getY() + y, pos.getZ() + z);
-        if (!collisionDetect(point)) {
-            //System.out.printf("Move (%f, %f, %f) successed and now is (%f, %f, %f)\n", x, y, z, point.getX(), point.getY(), point.getZ());
-            pos.setX(point.getX());
-            pos.setY(point.getY());
-            pos.setZ(point.getZ());
-            Matrix.translateM(translate, 0, -x, -y, -z);
-            return true;
-        } else {
-            return false;
-        }
+        //忽略 y，限制人的高度无法改变
+        float movedX = obstacles.sweepX(pos.getX(), pos.getZ(), x, MIN_DISTANCE_BETWEEN_PEOPLE_AND_WALL);
+        pos.addX(movedX);
+        float movedZ = obstacles.sweepZ(pos.getX(), pos.getZ(), z, MIN_DISTANCE_BETWEEN_PEOPLE_AND_WALL);
+        pos.addZ(movedZ);
+        contactNormal.setX(movedX != x ? -Math.signum(x) : 0);
+        contactNormal.setZ(movedZ != z ? -Math.signum(z) : 0);
+        return movedX == x && movedZ == z;
     }
 
-    public Point getPos() {
-        return pos;
+    /**
+     * Returns the normal of the walls hit by the last {@link #move}, zero on unobstructed axes.
+     */
+    Point getContactNormal() {
+        return contactNormal;
     }
 
-    void translateTarget(float[] m, int offset) {
-        Matrix.multiplyMM(temp, 0, m, offset, translate, 0);
-        for (int i = 0; i < 16; i++) {
-            m[i] = temp[i];
-        }
+    /**
+     * Remembers the current position as the previous simulation state. Called once per simulation
+     * step, before the player moves.
+     */
+    void storePrevious() {
+        prevPos.setX(pos.getX());
+        prevPos.setY(pos.getY());
+        prevPos.setZ(pos.getZ());
+    }
+
+    public Point getPos() {
+        return pos;
     }
 
-    private boolean collisionDetect(Point p) {
-        for (Box box : obstacles) {
-            if (p.getX() > box.getPos().getX() - MIN_DISTANCE_BETWEEN_PEOPLE_AND_WALL &&
-                    p.getX() < box.getPos().getX() + box.getSize().getX() + MIN_DISTANCE_BETWEEN_PEOPLE_AND_WALL &&
-                    p.getZ() > box.getPos().getZ() - MIN_DISTANCE_BETWEEN_PEOPLE_AND_WALL &&
-                    p.getZ() < box.getPos().getZ() + box.getSize().getZ() + MIN_DISTANCE_BETWEEN_PEOPLE_AND_WALL) {
-                return true;
-            }
-        }
-        return false;
+    public Point getPrevPos() {
+        return prevPos;
     }
 
     int getNowRow() {
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vr.sdk.applications.maze;
+
+/**
+ * Direct convolution of a signal with a short filter whose taps are stored in reverse, so that
+ * every output is a dot product of the filter with a forward-running window of the signal:
+ *
+ * <pre>
+ *   z[zOffset + i * zStride] = sum over j < taps of x[xOffset + i + j] * reversedTaps[j]
+ * </pre>
+ *
+ * <p>{@link Convolve#KERNEL} holds the fastest implementation available on the running VM.
+ */
+/* package */ interface ConvolutionKernel {
+    /**
+     * Computes {@code length} outputs. {@code x} must hold {@code length + taps - 1} samples from
+     * {@code xOffset}.
+     */
+    void convolve(float[] x, int xOffset, float[] reversedTaps, int taps,
+                  float[] z, int zOffset, int zStride, int length);
+
+    /**
+     * Returns the block size from which {@link StereoConvolver}'s FFT path is faster than this
+     * kernel, for filters as long as the block that change every block with their spectra cached.
+     * Picked by hand from the output of the maze-bench crossover task, which also reports when
+     * the value here no longer matches what it measures.
+     */
+    int getFftCrossover();
+}
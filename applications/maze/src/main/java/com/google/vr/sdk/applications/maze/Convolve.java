@@ -3,7 +3,38 @@ package com.google.vr.sdk.applications.maze;
 import org.jtransforms.fft.FloatFFT_1D;
 
 public class Convolve {
-    private static float[] FFT(float[] x, float[] y, int length) {
+    /**
+     * Name of the Vector API kernel, which only exists in JVM builds (see the maze-bench module).
+     */
+    static final String VECTOR_KERNEL = "com.google.vr.sdk.applications.maze.VectorConvolutionKernel";
+
+    /**
+     * The direct convolution kernel for this VM: the Vector API one when it is on the class path
+     * and its module is resolved, the scalar one otherwise. Setting the system property
+     * {@code maze.convolution} to {@code scalar} forces the fallback.
+     */
+    static final ConvolutionKernel KERNEL = loadKernel();
+
+    private static ConvolutionKernel loadKernel() {
+        if (!"scalar".equals(System.getProperty("maze.convolution"))) {
+            try {
+                return (ConvolutionKernel) Class.forName(VECTOR_KERNEL).getDeclaredConstructor().newInstance();
+            } catch (ReflectiveOperationException | LinkageError e) {
+                // Not built in, or jdk.incubator.vector is not available.
+            }
+        }
+        return new ScalarConvolutionKernel();
+    }
+
+    /**
+     * Convolves with pre-reversed taps through {@link #KERNEL}, see {@link ConvolutionKernel}.
+     */
+    static void direct(float[] x, int xOffset, float[] reversedTaps, int taps,
+                       float[] z, int zOffset, int zStride, int length) {
+        KERNEL.convolve(x, xOffset, reversedTaps, taps, z, zOffset, zStride, length);
+    }
+
+    static float[] FFT(float[] x, float[] y, int length) {
         FloatFFT_1D floatFFT_1D = new FloatFFT_1D(length);
         float[] new_x = new float[2 * length];
         for (int i = 0; i < length; i++) {
@@ -69,6 +100,24 @@ public class Convolve {
         return z;
     }
 
+    /**
+     * Same as {@link #bruteForce(float[], float[], int)}, but reads {@code x} from
+     * {@code xOffset}, treats {@code y} as zero-padded to {@code length} and writes each result
+     * to {@code z[zOffset + i * zStride]}, so one channel of an interleaved block can be filled
+     * without allocating.
+     */
+    static void bruteForce(float[] x, int xOffset, float[] y, int length, float[] z, int zOffset, int zStride) {
+        int taps = Math.min(y.length, length);
+        for (int i = 0; i < length; i++) {
+            float sum = 0;
+            int base = xOffset + i + length - 1;
+            for (int k = 0; k < taps; k++) {
+                sum += x[base - k] * y[k];
+            }
+            z[zOffset + i * zStride] = sum;
+        }
+    }
+
     public static void main(String[] args) {
         float[] x = {1, 1, 1, 1, 1};
         float[] y = {1, 1, 1};
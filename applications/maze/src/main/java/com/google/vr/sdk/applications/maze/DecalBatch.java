@@ -0,0 +1,231 @@
+/*
+ * Copyright 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vr.sdk.applications.maze;
+
+import java.util.Arrays;
+
+/**
+ * World-space textured quads that are drawn together in one batch, each identified by a
+ * non-negative int key.
+ *
+ * <p>Quads are packed at the front of one vertex array, so the batch always draws
+ * {@link #size} quads. Removing a quad moves the last one into its slot. Every change widens a
+ * dirty range of quads, which lets the renderer upload only what changed since the last frame
+ * instead of the whole batch. Keys are found through an open-addressing table, so memory grows
+ * with the number of quads rather than with the range of keys.
+ */
+/* package */ final class DecalBatch {
+    /**
+     * Position (x, y, z) and texture coordinates (u, v).
+     */
+    static final int FLOATS_PER_VERTEX = 5;
+    static final int VERTICES_PER_QUAD = 4;
+    static final int FLOATS_PER_QUAD = FLOATS_PER_VERTEX * VERTICES_PER_QUAD;
+    private static final int EMPTY = -1;
+
+    private float[] vertices;
+    private int[] keyOfQuad;
+    private int size;
+    private int dirtyStart = Integer.MAX_VALUE;
+    private int dirtyEnd;
+    private int capacityVersion;
+    // Open addressing with linear probing: tableKeys[i] is EMPTY or a key whose quad is tableQuads[i].
+    private int[] tableKeys;
+    private int[] tableQuads;
+
+    DecalBatch(int capacity) {
+        capacity = Math.max(capacity, 1);
+        vertices = new float[capacity * FLOATS_PER_QUAD];
+        keyOfQuad = new int[capacity];
+        int tableSize = Integer.highestOneBit(capacity * 2 - 1) << 1;
+        tableKeys = new int[tableSize];
+        tableQuads = new int[tableSize];
+        Arrays.fill(tableKeys, EMPTY);
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Returns the vertex data, {@link #FLOATS_PER_QUAD} floats per quad. Only the first
+     * {@link #size} quads are in use.
+     */
+    float[] getVertices() {
+        return vertices;
+    }
+
+    /**
+     * Returns a number that changes whenever the vertex array is replaced by a larger one, so the
+     * renderer knows to reallocate its copy.
+     */
+    int getCapacityVersion() {
+        return capacityVersion;
+    }
+
+    /**
+     * Returns the first quad changed since {@link #clearDirty}. Nothing changed when it is not
+     * below {@link #getDirtyEnd}.
+     */
+    int getDirtyStart() {
+        return dirtyStart;
+    }
+
+    /**
+     * Returns one past the last quad changed since {@link #clearDirty}, clamped to {@link #size}.
+     */
+    int getDirtyEnd() {
+        return Math.min(dirtyEnd, size);
+    }
+
+    void clearDirty() {
+        dirtyStart = Integer.MAX_VALUE;
+        dirtyEnd = 0;
+    }
+
+    boolean contains(int key) {
+        return find(key) >= 0;
+    }
+
+    /**
+     * Adds a square quad, or replaces the quad already stored under the key. The quad spans
+     * center +- right +- up, with texture coordinate (0, 0) at center - right - up.
+     */
+    void put(int key, float centerX, float centerY, float centerZ,
+             float rightX, float rightY, float rightZ, float upX, float upY, float upZ) {
+        int slot = find(key);
+        int quad;
+        if (slot >= 0) {
+            quad = tableQuads[slot];
+        } else {
+            if (size == keyOfQuad.length) {
+                grow();
+            }
+            quad = size++;
+            keyOfQuad[quad] = key;
+            insert(key, quad);
+        }
+        int v = quad * FLOATS_PER_QUAD;
+        v = putVertex(v, centerX - rightX - upX, centerY - rightY - upY, centerZ - rightZ - upZ, 0, 0);
+        v = putVertex(v, centerX + rightX - upX, centerY + rightY - upY, centerZ + rightZ - upZ, 1, 0);
+        v = putVertex(v, centerX + rightX + upX, centerY + rightY + upY, centerZ + rightZ + upZ, 1, 1);
+        putVertex(v, centerX - rightX + upX, centerY - rightY + upY, centerZ - rightZ + upZ, 0, 1);
+        markDirty(quad);
+    }
+
+    private int putVertex(int v, float x, float y, float z, float u, float t) {
+        vertices[v] = x;
+        vertices[v + 1] = y;
+        vertices[v + 2] = z;
+        vertices[v + 3] = u;
+        vertices[v + 4] = t;
+        return v + FLOATS_PER_VERTEX;
+    }
+
+    /**
+     * Removes the quad stored under the key, if any, by moving the last quad into its place.
+     */
+    void remove(int key) {
+        int slot = find(key);
+        if (slot < 0) {
+            return;
+        }
+        int quad = tableQuads[slot];
+        delete(slot);
+        int last = --size;
+        if (quad != last) {
+            int movedKey = keyOfQuad[last];
+            keyOfQuad[quad] = movedKey;
+            System.arraycopy(vertices, last * FLOATS_PER_QUAD, vertices, quad * FLOATS_PER_QUAD, FLOATS_PER_QUAD);
+            tableQuads[find(movedKey)] = quad;
+            markDirty(quad);
+        }
+    }
+
+    void clear() {
+        size = 0;
+        Arrays.fill(tableKeys, EMPTY);
+        clearDirty();
+    }
+
+    private void markDirty(int quad) {
+        dirtyStart = Math.min(dirtyStart, quad);
+        dirtyEnd = Math.max(dirtyEnd, quad + 1);
+    }
+
+    private int find(int key) {
+        int mask = tableKeys.length - 1;
+        for (int i = hash(key) & mask; ; i = (i + 1) & mask) {
+            if (tableKeys[i] == key) {
+                return i;
+            }
+            if (tableKeys[i] == EMPTY) {
+                return -1;
+            }
+        }
+    }
+
+    private void insert(int key, int quad) {
+        int mask = tableKeys.length - 1;
+        int i = hash(key) & mask;
+        while (tableKeys[i] != EMPTY) {
+            i = (i + 1) & mask;
+        }
+        tableKeys[i] = key;
+        tableQuads[i] = quad;
+    }
+
+    /**
+     * Empties a table slot, shifting back later entries of the same probe run so that lookups
+     * never stop early at the hole.
+     */
+    private void delete(int slot) {
+        int mask = tableKeys.length - 1;
+        int hole = slot;
+        for (int i = (slot + 1) & mask; tableKeys[i] != EMPTY; i = (i + 1) & mask) {
+            int home = hash(tableKeys[i]) & mask;
+            // Move the entry into the hole unless its home lies cyclically in (hole, i].
+            if (((i - home) & mask) >= ((i - hole) & mask)) {
+                tableKeys[hole] = tableKeys[i];
+                tableQuads[hole] = tableQuads[i];
+                hole = i;
+            }
+        }
+        tableKeys[hole] = EMPTY;
+    }
+
+    private static int hash(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private void grow() {
+        int capacity = keyOfQuad.length * 2;
+        vertices = Arrays.copyOf(vertices, capacity * FLOATS_PER_QUAD);
+        keyOfQuad = Arrays.copyOf(keyOfQuad, capacity);
+        tableKeys = new int[tableKeys.length * 2];
+        tableQuads = new int[tableKeys.length];
+        Arrays.fill(tableKeys, EMPTY);
+        for (int quad = 0; quad < size; quad++) {
+            insert(keyOfQuad[quad], quad);
+        }
+        capacityVersion++;
+        // The renderer reallocates and uploads everything after growing.
+        dirtyStart = 0;
+        dirtyEnd = Integer.MAX_VALUE;
+    }
+}
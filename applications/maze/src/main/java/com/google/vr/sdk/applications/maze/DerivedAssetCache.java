@@ -0,0 +1,348 @@
+/*
+ * Copyright 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vr.sdk.applications.maze;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps the results of load-time conversions (parsed HRIRs, resampled audio, renderable meshes,
+ * decoded images) in a directory, so that a later launch maps them in instead of deriving them
+ * again.
+ *
+ * <p>Each result is stored under the SHA-256 of its converter's id and of the source bytes, so a
+ * changed asset or a new converter version simply misses and nothing ever needs invalidating.
+ * Files are
+ *
+ * <pre>
+ *   int  magic           "MZDA"
+ *   int  format version  {@link #FORMAT_VERSION}
+ *   int  payload length  in bytes
+ *   byte payload[length] in native byte order, written by {@link Converter#encode}
+ * </pre>
+ *
+ * and are read by memory mapping them, so a converter may hand out views of the mapping, e.g. as
+ * direct buffers for GL. They are written to a temporary file that is synced and renamed into
+ * place, so a file that exists is whole; unlike {@link GameSnapshot} there is no checksum, which
+ * would touch every page of the mapping. Once the files take more than the size cap, the least
+ * recently used ones are deleted.
+ *
+ * <p>Thread-safe; the asset loader's workers share one cache. The cache is best effort: if it
+ * cannot read or write a file, the asset is derived as if it were not cached.
+ */
+/* package */ final class DerivedAssetCache {
+    static final int FORMAT_VERSION = 1;
+    private static final String TAG = "DerivedAssetCache";
+    private static final int MAGIC = 0x4D5A4441;
+    private static final int HEADER_BYTES = 12;
+    private static final String SUFFIX = ".bin";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    /**
+     * Derives an asset from its source bytes, and stores and loads the result.
+     */
+    interface Converter<T> {
+        /**
+         * Names the conversion, its version and any parameters, e.g. "mesh/1". Part of the key,
+         * so change it whenever the output for the same source would change.
+         */
+        String getId();
+
+        T convert(byte[] source) throws IOException;
+
+        int getEncodedSize(T value);
+
+        /**
+         * Writes {@code value} into {@code out}, which is in native byte order and has exactly
+         * {@link #getEncodedSize} bytes remaining.
+         */
+        void encode(T value, ByteBuffer out);
+
+        /**
+         * Reads a value written by {@link #encode} from a read-only buffer in native byte order.
+         * The buffer stays valid, so the value may keep views of it.
+         *
+         * @throws IOException If the payload does not hold such a value.
+         */
+        T decode(ByteBuffer in) throws IOException;
+    }
+
+    private final File directory;
+    private final long maxBytes;
+    // Guarded by this. File names with their sizes, least recently used first.
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalBytes;
+    private int hitCount;
+    private int missCount;
+    private int evictionCount;
+
+    /**
+     * Opens the cache in {@code directory}, creating it if needed, and deletes what an interrupted
+     * write left behind. Ordering the existing files by their modification time is cheap, so this
+     * may run on the UI thread.
+     *
+     * @param maxBytes Size the files are trimmed to once it is exceeded.
+     */
+    DerivedAssetCache(File directory, long maxBytes) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            GameLog.w(TAG, "Unable to create %s, derived assets will not be cached", directory);
+            return;
+        }
+        File[] files = directory.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                if (file.getName().endsWith(TEMP_SUFFIX)) {
+                    file.delete();
+                    return false;
+                }
+                return file.getName().endsWith(SUFFIX);
+            }
+        });
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                return Long.compare(a.lastModified(), b.lastModified());
+            }
+        });
+        for (File file : files) {
+            entries.put(file.getName(), file.length());
+            totalBytes += file.length();
+        }
+    }
+
+    /**
+     * Reads a stream to its end and closes it.
+     */
+    static byte[] readBytes(InputStream inputStream) throws IOException {
+        try (InputStream in = inputStream) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(in.available(), 4096));
+            byte[] chunk = new byte[8192];
+            int count;
+            while ((count = in.read(chunk)) > 0) {
+                out.write(chunk, 0, count);
+            }
+            return out.toByteArray();
+        }
+    }
+
+    /**
+     * Converts the whole of {@code source}, see {@link #get(byte[], Converter)}. Closes the stream.
+     */
+    <T> T get(InputStream source, Converter<T> converter) throws IOException {
+        return get(readBytes(source), converter);
+    }
+
+    /**
+     * Returns the cached conversion of {@code source}, or converts it and caches the result.
+     *
+     * @throws IOException If the conversion fails; failing to cache, also because the converter
+     *     encodes a different size than it reports, is only logged.
+     */
+    <T> T get(byte[] source, Converter<T> converter) throws IOException {
+        String name = key(source, converter.getId()) + SUFFIX;
+        File file = new File(directory, name);
+        if (touch(file)) {
+            try {
+                T value = converter.decode(map(file));
+                synchronized (this) {
+                    hitCount++;
+                }
+                return value;
+            } catch (IOException | BufferUnderflowException e) {
+                GameLog.w(TAG, "Discarding %s: %s", name, e);
+                remove(file);
+            }
+        }
+        T value = converter.convert(source);
+        synchronized (this) {
+            missCount++;
+        }
+        try {
+            store(file, converter, value);
+        } catch (IOException e) {
+            GameLog.w(TAG, "Unable to cache %s: %s", converter.getId(), e);
+        } catch (IllegalStateException | BufferOverflowException e) {
+            // A converter whose encoding disagrees with its size; the value itself is fine.
+            GameLog.e(TAG, "Unable to cache %s: %s", converter.getId(), e);
+            remove(file);
+        }
+        return value;
+    }
+
+    private static String key(byte[] source, String converterId) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        digest.update(converterId.getBytes(UTF_8));
+        // Keeps the id apart from the source.
+        digest.update((byte) 0);
+        digest.update(source);
+        byte[] hash = digest.digest();
+        char[] hex = new char[2 * hash.length];
+        for (int i = 0; i < hash.length; i++) {
+            hex[2 * i] = HEX_DIGITS[(hash[i] >> 4) & 0xF];
+            hex[2 * i + 1] = HEX_DIGITS[hash[i] & 0xF];
+        }
+        return new String(hex);
+    }
+
+    /**
+     * Marks a cached file as most recently used, also on disk for the next launch.
+     *
+     * @return Whether the file is cached.
+     */
+    private synchronized boolean touch(File file) {
+        if (entries.get(file.getName()) == null) {
+            return false;
+        }
+        // Best effort; some file systems do not keep it, and then the order is only approximate.
+        file.setLastModified(System.currentTimeMillis());
+        return true;
+    }
+
+    private synchronized void remove(File file) {
+        Long size = entries.remove(file.getName());
+        if (size != null) {
+            totalBytes -= size;
+        }
+        file.delete();
+    }
+
+    /**
+     * Maps a cached file and checks its header.
+     *
+     * @return The payload, read-only and in native byte order.
+     */
+    private static ByteBuffer map(File file) throws IOException {
+        ByteBuffer mapped;
+        // The mapping outlives the channel.
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            FileChannel channel = in.getChannel();
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (mapped.remaining() < HEADER_BYTES || mapped.getInt() != MAGIC) {
+            throw new IOException("Not a derived asset");
+        }
+        int version = mapped.getInt();
+        if (version != FORMAT_VERSION) {
+            throw new IOException("Unsupported derived asset version " + version);
+        }
+        int length = mapped.getInt();
+        if (length != mapped.remaining()) {
+            throw new IOException("Payload is " + mapped.remaining() + " bytes, expected " + length);
+        }
+        return mapped.slice().order(ByteOrder.nativeOrder());
+    }
+
+    private <T> void store(File file, Converter<T> converter, T value) throws IOException {
+        int length = converter.getEncodedSize(value);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        header.putInt(MAGIC).putInt(FORMAT_VERSION).putInt(length);
+        header.flip();
+        ByteBuffer payload = ByteBuffer.allocate(length).order(ByteOrder.nativeOrder());
+        converter.encode(value, payload);
+        if (payload.hasRemaining()) {
+            throw new IllegalStateException(converter.getId() + " encoded " + payload.position()
+                    + " of " + length + " bytes");
+        }
+        payload.flip();
+        // Unique, as two workers may derive the same asset at once.
+        File temp = File.createTempFile(file.getName(), TEMP_SUFFIX, directory);
+        try {
+            try (FileOutputStream stream = new FileOutputStream(temp)) {
+                FileChannel channel = stream.getChannel();
+                ByteBuffer[] buffers = {header, payload};
+                while (payload.hasRemaining()) {
+                    channel.write(buffers);
+                }
+                channel.force(false);
+            }
+            if (!temp.renameTo(file)) {
+                throw new IOException("Unable to replace " + file);
+            }
+        } finally {
+            temp.delete();
+        }
+        added(file.getName(), HEADER_BYTES + length);
+    }
+
+    private synchronized void added(String name, long size) {
+        Long replaced = entries.put(name, size);
+        totalBytes += size - (replaced != null ? replaced : 0);
+        Iterator<Map.Entry<String, Long>> lru = entries.entrySet().iterator();
+        while (totalBytes > maxBytes && lru.hasNext()) {
+            Map.Entry<String, Long> entry = lru.next();
+            if (entry.getKey().equals(name)) {
+                continue;
+            }
+            // A mapping of the file stays valid after it is deleted.
+            new File(directory, entry.getKey()).delete();
+            totalBytes -= entry.getValue();
+            lru.remove();
+            evictionCount++;
+        }
+    }
+
+    synchronized int getHitCount() {
+        return hitCount;
+    }
+
+    synchronized int getMissCount() {
+        return missCount;
+    }
+
+    synchronized int getEvictionCount() {
+        return evictionCount;
+    }
+
+    synchronized long getBytes() {
+        return totalBytes;
+    }
+
+    synchronized String describe() {
+        return String.format("derived assets: %d hits, %d misses, %d evictions, %d files of %d bytes (cap %d)",
+                hitCount, missCount, evictionCount, entries.size(), totalBytes, maxBytes);
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.vr.sdk.applications.maze;
+
+/**
+ * Breadth-first distances from the exit cell to every cell of a maze.
+ *
+ * <p>One BFS over the cells fills a distance array and, for every cell, the direction of the
+ * neighbour it was reached from, i.e. the next step towards the exit. Both queries are then a
+ * single array read. The same pass counts, for every cell, the side branches its shortest path
+ * passes, which together with the path length gives the difficulty of a start cell. The maze walls
+ * never change after generation, so a field stays valid for the lifetime of its maze and may be
+ * read from any thread once published.
+ */
+/* package */ final class DistanceField {
+    static final int UNREACHABLE = -1;
+
+    static final int NONE = -1;
+    // Towards row - 1 (negative Z), row + 1, col - 1 (negative X) and col + 1.
+    static final int NORTH = 0;
+    static final int SOUTH = 1;
+    static final int WEST = 2;
+    static final int EAST = 3;
+    private static final int[] ROW_STEP = {-1, 1, 0, 0};
+    private static final int[] COL_STEP = {0, 0, -1, 1};
+
+    private final int n;
+    private final int m;
+    private final int[] distance;
+    private final byte[] next;
+    // Sum of openings - 2 over the cells from this one to the exit, the exit excluded.
+    private final int[] branches;
+    private final int maxDistance;
+
+    DistanceField(Maze maze, int n, int m, int exitRow, int exitCol) {
+        this.n = n;
+        this.m = m;
+        distance = new int[n * m];
+        next = new byte[n * m];
+        branches = new int[n * m];
+        for (int i = 0; i < n * m; i++) {
+            distance[i] = UNREACHABLE;
+            next[i] = NONE;
+        }
+        // The distance array doubles as the visited set; the queue holds each cell at most once.
+        int[] queue = new int[n * m];
+        int head = 0;
+        int tail = 0;
+        int farthest = 0;
+        distance[exitRow * m + exitCol] = 0;
+        queue[tail++] = exitRow * m + exitCol;
+        while (head < tail) {
+            int cell = queue[head++];
+            int r = cell / m;
+            int c = cell % m;
+            int openings = 0;
+            for (int direction = NORTH; direction <= EAST; direction++) {
+                if (!isOpen(maze, r, c, direction)) {
+                    continue;
+                }
+                openings++;
+                int neighbour = cell + ROW_STEP[direction] * m + COL_STEP[direction];
+                if (distance[neighbour] == UNREACHABLE) {
+                    distance[neighbour] = distance[cell] + 1;
+                    farthest = Math.max(farthest, distance[neighbour]);
+                    // The neighbour steps back the opposite way: NORTH <-> SOUTH, WEST <-> EAST.
+                    next[neighbour] = (byte) (direction ^ 1);
+                    queue[tail++] = neighbour;
+                }
+            }
+            // The parent was dequeued earlier, so its sum is final.
+            if (next[cell] != NONE) {
+                int parent = cell + ROW_STEP[next[cell]] * m + COL_STEP[next[cell]];
+                branches[cell] = branches[parent] + openings - 2;
+            }
+        }
+        maxDistance = farthest;
+    }
+
+    private boolean isOpen(Maze maze, int r, int c, int direction) {
+        switch (direction) {
+            case NORTH:
+                return r > 0 && !maze.isHorizontalWall(r, c);
+            case SOUTH:
+                return r < n - 1 && !maze.isHorizontalWall(r + 1, c);
+            case WEST:
+                return c > 0 && !maze.isVerticalWall(r, c);
+            default:
+                return c < m - 1 && !maze.isVerticalWall(r, c + 1);
+        }
+    }
+
+    private boolean contains(int r, int c) {
+        return r >= 0 && r < n && c >= 0 && c < m;
+    }
+
+    /**
+     * Returns the number of steps from the cell to the exit, or {@link #UNREACHABLE}.
+     */
+    int getDistance(int r, int c) {
+        return contains(r, c) ? distance[r * m + c] : UNREACHABLE;
+    }
+
+    /**
+     * Returns the direction of the next cell on the shortest path to the exit, or {@link #NONE}
+     * at the exit itself and outside the maze.
+     */
+    int getNextDirection(int r, int c) {
+        return contains(r, c) ? next[r * m + c] : NONE;
+    }
+
+    static int rowStep(int direction) {
+        return ROW_STEP[direction];
+    }
+
+    static int colStep(int direction) {
+        return COL_STEP[direction];
+    }
+
+    /**
+     * Returns the distance of the cell farthest from the exit.
+     */
+    int getMaxDistance() {
+        return maxDistance;
+    }
+
+    /**
+     * Returns the number of openings off the shortest path from the cell to the exit: every wrong
+     * turn the player can take on the way, each leading into a dead end in a maze without loops.
+     * 0 at the exit and for cells the exit cannot be reached from.
+     */
+    int getSideBranchCount(int r, int c) {
+        if (getDistance(r, c) <= 0) {
+            return 0;
+        }
+        // The start cell has no way in to discount.
+        return branches[r * m + c] + 1;
+    }
+}
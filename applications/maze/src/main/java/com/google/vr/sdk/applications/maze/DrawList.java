@@ -0,0 +1,100 @@
+/*
+ * Copyright 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vr.sdk.applications.maze;
+
+import java.util.Arrays;
+
+/**
+ * Preallocated list of draw calls for one eye. Building the list (visibility and matrix math) is
+ * kept apart from submitting it so that each can be measured on its own.
+ */
+/* package */ final class DrawList {
+    private int[] meshes;
+    private int[] textures;
+    private float[] modelViewProjections;
+    private int size;
+    private DecalBatch decals;
+    private int decalTexture;
+    private final float[] decalViewProjection = new float[16];
+
+    DrawList(int capacity) {
+        meshes = new int[capacity];
+        textures = new int[capacity];
+        modelViewProjections = new float[capacity * 16];
+    }
+
+    void clear() {
+        size = 0;
+        decals = null;
+    }
+
+    /**
+     * Sets the decal batch drawn after every opaque draw call of the list.
+     */
+    void setDecals(int texture, DecalBatch batch, float[] viewProjection, int offset) {
+        decals = batch;
+        decalTexture = texture;
+        System.arraycopy(viewProjection, offset, decalViewProjection, 0, 16);
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Appends a draw call with a copy of its MVP matrix.
+     */
+    void add(int mesh, int texture, float[] modelViewProjection, int offset) {
+        if (size == meshes.length) {
+            grow();
+        }
+        System.arraycopy(modelViewProjection, offset, modelViewProjections, size * 16, 16);
+        meshes[size] = mesh;
+        textures[size] = texture;
+        size++;
+    }
+
+    /**
+     * Submits the list, issuing each run of consecutive calls with the same mesh and texture as
+     * one instanced draw, and then the decals, which blend over what is already drawn.
+     */
+    void submit(RenderBackend backend) {
+        int start = 0;
+        while (start < size) {
+            int end = start + 1;
+            while (end < size && meshes[end] == meshes[start] && textures[end] == textures[start]) {
+                end++;
+            }
+            if (end - start == 1) {
+                backend.draw(meshes[start], textures[start], modelViewProjections, start * 16);
+            } else {
+                backend.drawInstanced(meshes[start], textures[start], modelViewProjections, start * 16, end - start);
+            }
+            start = end;
+        }
+        if (decals != null && decals.size() > 0) {
+            backend.drawDecals(decalTexture, decals, decalViewProjection, 0);
+        }
+    }
+
+    private void grow() {
+        int capacity = meshes.length * 2 + 1;
+        meshes = Arrays.copyOf(meshes, capacity);
+        textures = Arrays.copyOf(textures, capacity);
+        modelViewProjections = Arrays.copyOf(modelViewProjections, capacity * 16);
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vr.sdk.applications.maze;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hands the latest of a stream of values from exactly one producer thread to exactly one consumer
+ * thread without locks or allocation, e.g. frame packets from the simulation to the renderer.
+ *
+ * <p>The values are three preallocated slots that are reused forever. The producer fills its back
+ * slot and publishes it, the consumer reads its front slot, and the third slot is the one in
+ * between: publishing swaps the back slot with it and {@link #acquire} swaps the front slot with
+ * it, each with one atomic exchange on an int that holds the index of the slot in between and
+ * whether it was published since the consumer last took it. So each side always owns a slot it
+ * can write or read at leisure, the producer never waits for the consumer, and a consumer that
+ * falls behind skips straight to the newest value; a producer that is faster just overwrites the
+ * one value the consumer has not taken yet.
+ */
+/* package */ final class FrameExchange<T> {
+    private static final int INDEX_MASK = 3;
+    private static final int FRESH = 4;
+
+    private final Object[] slots;
+    // Index of the slot in between, plus FRESH if the producer published it after the consumer
+    // last acquired.
+    private final AtomicInteger spare = new AtomicInteger(1);
+    // Owned by the producer.
+    private int back = 0;
+    // Owned by the consumer.
+    private int front = 2;
+    private boolean acquired;
+
+    /**
+     * @param first  A slot; which one the producer fills first is unspecified.
+     * @param second Another slot.
+     * @param third  The third slot.
+     */
+    FrameExchange(T first, T second, T third) {
+        slots = new Object[]{first, second, third};
+    }
+
+    /**
+     * Returns the slot the producer fills next. Producer only.
+     */
+    @SuppressWarnings("unchecked")
+    T getBack() {
+        return (T) slots[back];
+    }
+
+    /**
+     * Makes the back slot the newest value, and takes a new back slot. Producer only.
+     */
+    void publish() {
+        back = spare.getAndSet(back | FRESH) & INDEX_MASK;
+    }
+
+    /**
+     * Returns whether a value was published that {@link #acquire} has not returned yet. Any
+     * thread.
+     */
+    boolean hasFresh() {
+        return (spare.get() & FRESH) != 0;
+    }
+
+    /**
+     * Returns the newest published value, which stays the consumer's to read until the next call,
+     * or null if nothing was published yet. Consumer only.
+     */
+    @SuppressWarnings("unchecked")
+    T acquire() {
+        // Only this side clears FRESH, so it cannot go away between the check and the swap.
+        if (hasFresh()) {
+            front = spare.getAndSet(front) & INDEX_MASK;
+            acquired = true;
+        }
+        return acquired ? (T) slots[front] : null;
+    }
+}
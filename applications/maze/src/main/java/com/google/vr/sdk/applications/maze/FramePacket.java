@@ -0,0 +1,91 @@
+/*
+ * Copyright 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vr.sdk.applications.maze;
+
+/**
+ * Everything the renderer needs of one simulated frame, written by {@link MazeGame#writeFrame}
+ * and drawn by a {@link FrameRenderer}: the moving objects' model matrices, interpolated to the
+ * frame's render time, and references to the immutable level data.
+ *
+ * <p>Packets are reused; see {@link FrameExchange}. The marks are only copied into a packet when
+ * they changed since it was last written, which its {@link #markVersion} tells.
+ */
+/* package */ final class FramePacket {
+    /**
+     * Number of cells of the shortest path to the exit marked on the floor.
+     */
+    static final int GUIDE_LENGTH = 8;
+
+    /**
+     * Counts the packets written by the game, so that the renderer can skip one it has applied.
+     */
+    long frame;
+    /**
+     * The level. A different maze than in the previous packet means a new level.
+     */
+    Maze maze;
+    final Point cameraPos = new Point(0, 0, 0);
+    /**
+     * Model matrix of the hunted mosquito.
+     */
+    final float[] mosquito = new float[16];
+    int swarmCount;
+    /**
+     * Model matrices of the swarm, 16 floats each.
+     */
+    float[] swarm = new float[0];
+    /**
+     * Cell the path guide starts from, or -1 while it is hidden.
+     */
+    int guideRow = -1;
+    int guideCol = -1;
+    int guideCount;
+    /**
+     * Row and column of each cell of the path guide.
+     */
+    final int[] guideCells = new int[GUIDE_LENGTH * 2];
+    /**
+     * Changes whenever the maze's marks do; -1 until they are first copied.
+     */
+    int markVersion = -1;
+    /**
+     * The maze's mark bits, see {@link Maze#copyMarks}.
+     */
+    long[] marks = new long[0];
+
+    /**
+     * Sets the swarm size, growing the matrix array if needed.
+     */
+    void setSwarmCount(int count) {
+        if (swarm.length < count * 16) {
+            swarm = new float[count * 16];
+        }
+        swarmCount = count;
+    }
+
+    /**
+     * Copies the marks of {@link #maze}, growing the array if needed.
+     */
+    void setMarks(int version) {
+        int words = maze.getMarkWordCount();
+        if (marks.length < words) {
+            marks = new long[words];
+        }
+        maze.copyMarks(marks);
+        markVersion = version;
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vr.sdk.applications.maze;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Runs a {@link MazeGame} on a worker thread of its own, a frame ahead of the renderer.
+ *
+ * <p>Every frame the GL thread {@link #submit submits} the frame's time, head pose and input, and
+ * draws the newest {@link FramePacket} the worker has finished, see {@link #acquire}. The worker
+ * takes the newest input, runs the simulation and renders the audio for it, and writes the next
+ * packet. So while the GL thread culls and draws frame N, the worker simulates frame N + 1, and
+ * the GL thread's part of a frame no longer includes the simulation or the audio DSP. Inputs and
+ * packets each go through a {@link FrameExchange}, so neither thread ever waits for the other;
+ * if one falls behind, the other skips to the newest value.
+ *
+ * <p>Drawn positions are a frame older than with a serial loop, but the eye views still come from
+ * the pose the GL thread reads for the frame, so head rotation is not delayed.
+ */
+/* package */ final class FramePipeline implements Runnable {
+    private static final String TAG = "FramePipeline";
+    private static final long IDLE_POLL_NANOS = 100_000;
+
+    /**
+     * The time, head pose and input of one frame, copied so that the worker can read them while
+     * the GL thread moves on.
+     */
+    private static final class FrameInput implements HeadPoseSource {
+        private final float[] headView = new float[16];
+        private final float[] quaternion = new float[4];
+        private final float[] forward = new float[4];
+        private long sequence;
+        private long nowNanos;
+        private boolean moving;
+
+        void set(long sequence, long nowNanos, HeadPoseSource pose, boolean moving) {
+            this.sequence = sequence;
+            this.nowNanos = nowNanos;
+            this.moving = moving;
+            pose.getHeadView(headView, 0);
+            pose.getQuaternion(quaternion, 0);
+            pose.getForwardVector(forward, 0);
+        }
+
+        @Override
+        public void getHeadView(float[] headView, int offset) {
+            System.arraycopy(this.headView, 0, headView, offset, 16);
+        }
+
+        @Override
+        public void getQuaternion(float[] quaternion, int offset) {
+            System.arraycopy(this.quaternion, 0, quaternion, offset, 4);
+        }
+
+        @Override
+        public void getForwardVector(float[] forward, int offset) {
+            System.arraycopy(this.forward, 0, forward, offset, 4);
+        }
+    }
+
+    private final MazeGame game;
+    private final FrameExchange<FrameInput> inputs =
+            new FrameExchange<>(new FrameInput(), new FrameInput(), new FrameInput());
+    private final FrameExchange<FramePacket> packets =
+            new FrameExchange<>(new FramePacket(), new FramePacket(), new FramePacket());
+    private final Thread worker;
+    private volatile boolean running = true;
+    // Sequence of the last input submitted, and of the last one the worker finished.
+    private volatile long submitted;
+    private volatile long finished;
+
+    /**
+     * Starts the worker thread. From now on only the worker may run frames of {@code game}.
+     */
+    FramePipeline(MazeGame game) {
+        this.game = game;
+        worker = new Thread(this, TAG);
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /**
+     * Hands the next frame to the worker. GL thread only.
+     *
+     * @param nowNanos Monotonic time of the frame.
+     * @param pose     Head pose of the frame; read before this returns.
+     * @param moving   Whether the player walks.
+     */
+    void submit(long nowNanos, HeadPoseSource pose, boolean moving) {
+        long sequence = submitted + 1;
+        inputs.getBack().set(sequence, nowNanos, pose, moving);
+        inputs.publish();
+        submitted = sequence;
+        LockSupport.unpark(worker);
+    }
+
+    /**
+     * Returns the newest packet the worker has finished, which stays valid until the next call,
+     * or null if there is none yet. GL thread only.
+     */
+    FramePacket acquire() {
+        return packets.acquire();
+    }
+
+    /**
+     * Waits until the worker has finished every submitted frame. Once the GL thread is paused
+     * too, the game can be read, e.g. to save it.
+     */
+    void awaitIdle() {
+        while (finished != submitted && worker.isAlive()) {
+            LockSupport.parkNanos(IDLE_POLL_NANOS);
+        }
+    }
+
+    /**
+     * Lets the worker thread end. Frames submitted afterwards are not run.
+     */
+    void stop() {
+        running = false;
+        LockSupport.unpark(worker);
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            if (!inputs.hasFresh()) {
+                // An unpark between the check and here makes park return at once.
+                LockSupport.park(this);
+                continue;
+            }
+            FrameInput input = inputs.acquire();
+            game.setMoving(input.moving);
+            game.onNewFrame(input.nowNanos, input);
+            game.writeFrame(packets.getBack());
+            packets.publish();
+            finished = input.sequence;
+        }
+    }
+}
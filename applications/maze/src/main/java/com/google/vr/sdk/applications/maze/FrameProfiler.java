@@ -0,0 +1,165 @@
+/*
+ * Copyright 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vr.sdk.applications.maze;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+
+/**
+ * Allocation-free timers for the per-frame hot paths.
+ *
+ * <p>Every section owns a preallocated ring buffer holding the start time and duration of its last
+ * {@link #CAPACITY} samples. {@link #begin} and {@link #end} only read {@link System#nanoTime} and
+ * write into those buffers, so the profiler can stay enabled in release builds. Percentiles are
+ * computed from the ring buffers when a summary is logged, and the same buffers can be exported as
+ * a Chrome trace (chrome://tracing or https://ui.perfetto.dev).
+ *
+ * <p>Each section must only be recorded from one thread. In the app the simulation and audio
+ * sections come from the {@link FramePipeline} worker and the others from the GL thread; a summary
+ * read while the worker records may be off by the sample being written.
+ */
+/* package */ final class FrameProfiler {
+    private static final String TAG = "FrameProfiler";
+
+    /**
+     * Flip to false to compile all instrumentation out of the hot paths.
+     */
+    static final boolean ENABLED = true;
+
+    static final int FRAME = 0;
+    static final int SIMULATION = 1;
+    static final int AUDIO_DSP = 2;
+    static final int CULLING = 3;
+    static final int DRAW_SUBMISSION = 4;
+    static final int LEFT_EYE = 5;
+    static final int RIGHT_EYE = 6;
+    /**
+     * Not a timed section: time from reading a head pose until audio rendered for it is heard.
+     */
+    static final int AUDIO_LATENCY = 7;
+    private static final String[] SECTION_NAMES = {
+            "frame", "simulation", "audio_dsp", "culling", "draw_submission", "left_eye", "right_eye",
+            "audio_latency"};
+    private static final int SECTION_COUNT = SECTION_NAMES.length;
+
+    /**
+     * Number of samples kept per section. Must be a power of two.
+     */
+    static final int CAPACITY = 1024;
+    private static final long SUMMARY_INTERVAL_NANOS = 5_000_000_000L;
+
+    private final long[] startNanos = new long[SECTION_COUNT * CAPACITY];
+    private final long[] durationNanos = new long[SECTION_COUNT * CAPACITY];
+    private final int[] sampleCount = new int[SECTION_COUNT];
+    private final long[] openNanos = new long[SECTION_COUNT];
+    private final long[] sortScratch = new long[CAPACITY];
+    private final long originNanos = System.nanoTime();
+    private long lastSummaryNanos = originNanos;
+
+    /**
+     * Starts timing a section. Sections may nest but a single section must not be re-entered
+     * before it ends.
+     */
+    void begin(int section) {
+        openNanos[section] = System.nanoTime();
+    }
+
+    /**
+     * Stops timing a section and records the sample into its ring buffer.
+     */
+    void end(int section) {
+        record(section, openNanos[section], System.nanoTime() - openNanos[section]);
+    }
+
+    /**
+     * Records a span measured elsewhere, e.g. one that ends in the future.
+     */
+    void record(int section, long start, long duration) {
+        int slot = section * CAPACITY + (sampleCount[section] & (CAPACITY - 1));
+        startNanos[slot] = start;
+        durationNanos[slot] = duration;
+        sampleCount[section]++;
+    }
+
+    /**
+     * Ends the frame section and logs a percentile summary every few seconds.
+     */
+    void endFrame() {
+        end(FRAME);
+        long now = System.nanoTime();
+        if (now - lastSummaryNanos >= SUMMARY_INTERVAL_NANOS) {
+            lastSummaryNanos = now;
+            logSummary();
+        }
+    }
+
+    /**
+     * Returns the given percentile (0-100) of the section's retained samples, in nanoseconds.
+     */
+    long percentile(int section, int percentile) {
+        int count = Math.min(sampleCount[section], CAPACITY);
+        if (count == 0) {
+            return 0;
+        }
+        System.arraycopy(durationNanos, section * CAPACITY, sortScratch, 0, count);
+        Arrays.sort(sortScratch, 0, count);
+        return sortScratch[(int) ((long) (count - 1) * percentile / 100)];
+    }
+
+    private void logSummary() {
+        StringBuilder builder = new StringBuilder("frame timings (ms p50/p95/p99):");
+        for (int section = 0; section < SECTION_COUNT; section++) {
+            if (sampleCount[section] == 0) {
+                continue;
+            }
+            builder.append(' ').append(SECTION_NAMES[section]).append('=')
+                    .append(toMillis(percentile(section, 50))).append('/')
+                    .append(toMillis(percentile(section, 95))).append('/')
+                    .append(toMillis(percentile(section, 99)));
+        }
+        GameLog.i(TAG, builder.toString());
+    }
+
+    private static String toMillis(long nanos) {
+        return String.format("%.2f", nanos / 1e6);
+    }
+
+    /**
+     * Writes the retained samples as Chrome trace-event JSON. Must not race with {@link #end}, so
+     * call it while the renderer is paused.
+     */
+    void writeChromeTrace(Writer writer) throws IOException {
+        writer.write("{\"traceEvents\":[");
+        boolean first = true;
+        for (int section = 0; section < SECTION_COUNT; section++) {
+            int count = Math.min(sampleCount[section], CAPACITY);
+            for (int i = 0; i < count; i++) {
+                int slot = section * CAPACITY + i;
+                if (!first) {
+                    writer.write(',');
+                }
+                first = false;
+                writer.write("{\"name\":\"" + SECTION_NAMES[section]
+                        + "\",\"ph\":\"X\",\"pid\":0,\"tid\":0,\"ts\":"
+                        + (startNanos[slot] - originNanos) / 1000.0
+                        + ",\"dur\":" + durationNanos[slot] / 1000.0 + "}");
+            }
+        }
+        writer.write("],\"displayTimeUnit\":\"ms\"}");
+    }
+}
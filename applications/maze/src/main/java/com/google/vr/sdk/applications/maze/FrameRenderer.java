@@ -0,0 +1,233 @@
+/*
+ * Copyright 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vr.sdk.applications.maze;
+
+import java.util.Arrays;
+
+/**
+ * Turns {@link FramePacket}s into draw lists: owns the scene graph of the current level and the
+ * batch of mark quads, moves the dynamic nodes to where a packet says, and culls and submits each
+ * eye.
+ *
+ * <p>Used from one thread only, the GL thread in the app, so that a game simulating on another
+ * thread never touches what is being drawn. A packet is applied once, however many eyes or frames
+ * draw it.
+ */
+/* package */ final class FrameRenderer {
+    // Half the side of the square drawn in a marked passage.
+    private static final float MARK_HALF_SIZE = 0.2f;
+    private static final float GUIDE_SIZE = 0.12f;
+    private final FrameProfiler profiler;
+    private final SceneGraph scene = new SceneGraph(256);
+    private final DrawList drawList = new DrawList(64);
+    private final float[] camera = new float[16];
+    private final float[] view = new float[16];
+    private final float[] nodeMatrix = new float[16];
+    private final float[] wallBounds = new float[6];
+    private final Point cameraPos = new Point(0, 0, 0);
+    private Maze maze;
+    private int swarmCount;
+    private DecalBatch markBatch;
+    private long[] shownMarks = new long[0];
+    private int markVersion = -1;
+    private long appliedFrame = -1;
+    private int mosquitoNode;
+    private int firstSwarmNode;
+    private int firstGuideNode;
+    // Cell the path guide was laid out from, -1 while it is hidden.
+    private int guideRow = -1;
+    private int guideCol = -1;
+
+    FrameRenderer(FrameProfiler profiler) {
+        this.profiler = profiler;
+        MatrixMath.setLookAtM(camera, 0, 0, 0, 0, 0.0f, 0.0f, -1.0f, 0.0f, 1.0f, 0.0f);
+    }
+
+    /**
+     * Moves the scene to the state of {@code packet}, rebuilding it first if the packet is of
+     * another level, and updates the world matrices of what moved.
+     */
+    void apply(FramePacket packet) {
+        if (packet.frame == appliedFrame) {
+            return;
+        }
+        appliedFrame = packet.frame;
+        if (packet.maze != maze || packet.swarmCount != swarmCount) {
+            buildScene(packet.maze, packet.swarmCount);
+        }
+        Point packetCamera = packet.cameraPos;
+        cameraPos.setX(packetCamera.getX());
+        cameraPos.setY(packetCamera.getY());
+        cameraPos.setZ(packetCamera.getZ());
+        scene.setLocal(mosquitoNode, packet.mosquito, 0);
+        for (int i = 0; i < swarmCount; i++) {
+            scene.setLocal(firstSwarmNode + i, packet.swarm, i * 16);
+        }
+        if (packet.guideRow != guideRow || packet.guideCol != guideCol) {
+            layOutPathGuide(packet);
+        }
+        if (packet.markVersion != markVersion) {
+            updateMarks(packet);
+        }
+        scene.updateWorld();
+    }
+
+    /**
+     * Rebuilds the scene graph for a new level. Walls, floor and ceiling are static nodes whose
+     * matrices are set once here; the mosquitoes and the path guide are moved by the packets.
+     */
+    private void buildScene(Maze maze, int swarmCount) {
+        boolean newMaze = maze != this.maze;
+        this.maze = maze;
+        this.swarmCount = swarmCount;
+        scene.clear();
+        WallGrid walls = maze.getWallGrid();
+        for (int i = 0; i < walls.getBoxCount(); i++) {
+            addWall(walls, i);
+        }
+        MatrixMath.setIdentityM(nodeMatrix, 0);
+        MatrixMath.scaleM(nodeMatrix, 0, 200, 1, 200);
+        int floor = scene.addNode(SceneGraph.NO_PARENT, RenderBackend.MESH_FLOOR, RenderBackend.TEXTURE_FLOOR, true);
+        scene.setLocal(floor, nodeMatrix, 0);
+        Point maxPoint = maze.getMaxPoint();
+        MatrixMath.setIdentityM(nodeMatrix, 0);
+        MatrixMath.translateM(nodeMatrix, 0, maxPoint.getX() / 2, Maze.WALL_HEIGHT, maxPoint.getZ() / 2);
+        MatrixMath.scaleM(nodeMatrix, 0, maxPoint.getX(), 0, maxPoint.getZ());
+        int ceil = scene.addNode(SceneGraph.NO_PARENT, RenderBackend.MESH_FLOOR, RenderBackend.TEXTURE_CEIL, true);
+        scene.setLocal(ceil, nodeMatrix, 0);
+
+        mosquitoNode = scene.addNode(SceneGraph.NO_PARENT, RenderBackend.MESH_MOSQUITO, RenderBackend.TEXTURE_MOSQUITO, false);
+        firstSwarmNode = scene.size();
+        for (int i = 0; i < swarmCount; i++) {
+            scene.addNode(SceneGraph.NO_PARENT, RenderBackend.MESH_MOSQUITO, RenderBackend.TEXTURE_MOSQUITO, false);
+        }
+        firstGuideNode = scene.size();
+        for (int i = 0; i < FramePacket.GUIDE_LENGTH; i++) {
+            int guide = scene.addNode(SceneGraph.NO_PARENT, RenderBackend.MESH_WALL, RenderBackend.TEXTURE_MOSQUITO, false);
+            scene.setHidden(guide, true);
+        }
+        guideRow = -1;
+        guideCol = -1;
+        if (newMaze) {
+            // A batch of its own per level, so the backend uploads it whole.
+            markBatch = new DecalBatch(16);
+            if (shownMarks.length < maze.getMarkWordCount()) {
+                shownMarks = new long[maze.getMarkWordCount()];
+            }
+            Arrays.fill(shownMarks, 0);
+            markVersion = -1;
+        }
+    }
+
+    private void addWall(WallGrid walls, int box) {
+        float[] b = wallBounds;
+        walls.getBounds(box, b, 0);
+        MatrixMath.setIdentityM(nodeMatrix, 0);
+        MatrixMath.translateM(nodeMatrix, 0, (b[0] + b[3]) * 0.5f, (b[1] + b[4]) * 0.5f, (b[2] + b[5]) * 0.5f);
+        MatrixMath.scaleM(nodeMatrix, 0, b[3] - b[0], b[4] - b[1], b[5] - b[2]);
+        int wall = scene.addNode(SceneGraph.NO_PARENT, RenderBackend.MESH_WALL, RenderBackend.TEXTURE_WALL, true);
+        scene.setLocal(wall, nodeMatrix, 0);
+    }
+
+    /**
+     * Lays a flat marker on each cell of the packet's path guide and hides the rest.
+     */
+    private void layOutPathGuide(FramePacket packet) {
+        guideRow = packet.guideRow;
+        guideCol = packet.guideCol;
+        for (int i = 0; i < packet.guideCount; i++) {
+            MatrixMath.setIdentityM(nodeMatrix, 0);
+            MatrixMath.translateM(nodeMatrix, 0, Maze.getCellCenter(packet.guideCells[i * 2 + 1]), 0.01f,
+                    Maze.getCellCenter(packet.guideCells[i * 2]));
+            MatrixMath.scaleM(nodeMatrix, 0, GUIDE_SIZE, 0.01f, GUIDE_SIZE);
+            scene.setLocal(firstGuideNode + i, nodeMatrix, 0);
+        }
+        for (int i = 0; i < FramePacket.GUIDE_LENGTH; i++) {
+            scene.setHidden(firstGuideNode + i, i >= packet.guideCount);
+        }
+    }
+
+    /**
+     * Adds and removes the quads of the marks that differ between the batch and the packet, so
+     * the backend only uploads what changed.
+     */
+    private void updateMarks(FramePacket packet) {
+        markVersion = packet.markVersion;
+        int words = maze.getMarkWordCount();
+        for (int word = 0; word < words; word++) {
+            long changed = shownMarks[word] ^ packet.marks[word];
+            while (changed != 0) {
+                int bit = Long.numberOfTrailingZeros(changed);
+                changed &= changed - 1;
+                int index = (word << 6) + bit;
+                if ((packet.marks[word] & (1L << bit)) != 0) {
+                    showMark(index);
+                } else {
+                    markBatch.remove(index);
+                }
+            }
+            shownMarks[word] = packet.marks[word];
+        }
+    }
+
+    /**
+     * Adds the quad of a marked passage, standing upright across the opening.
+     */
+    private void showMark(int index) {
+        boolean alongX = maze.isHorizontalMarkIndex(index);
+        markBatch.put(index, maze.getMarkX(index), Maze.WALL_HEIGHT * 0.5f, maze.getMarkZ(index),
+                alongX ? MARK_HALF_SIZE : 0, 0, alongX ? 0 : MARK_HALF_SIZE,
+                0, MARK_HALF_SIZE, 0);
+    }
+
+    /**
+     * Builds and submits the draw calls of one eye.
+     *
+     * @param eye         Index of the eye's matrix cache, below {@link SceneGraph#EYE_COUNT}; the
+     *                    Eye.Type of the eye will do.
+     * @param eyeView     The eye's view matrix relative to the head.
+     * @param perspective The eye's projection matrix.
+     */
+    void drawEye(int eye, float[] eyeView, float[] perspective, RenderBackend backend) {
+        if (FrameProfiler.ENABLED) {
+            profiler.begin(FrameProfiler.CULLING);
+        }
+        buildDrawList(eye, eyeView, perspective);
+        if (FrameProfiler.ENABLED) {
+            profiler.end(FrameProfiler.CULLING);
+            profiler.begin(FrameProfiler.DRAW_SUBMISSION);
+        }
+        backend.beginEye();
+        drawList.submit(backend);
+        if (FrameProfiler.ENABLED) {
+            profiler.end(FrameProfiler.DRAW_SUBMISSION);
+        }
+    }
+
+    /**
+     * Collects the visible objects of one eye, as of the last packet applied, and their MVP
+     * matrices.
+     */
+    DrawList buildDrawList(int eye, float[] eyeView, float[] perspective) {
+        MatrixMath.multiplyMM(view, 0, eyeView, 0, camera, 0);
+        MatrixMath.translateM(view, 0, -cameraPos.getX(), -cameraPos.getY(), -cameraPos.getZ());
+        drawList.clear();
+        scene.collect(eye, view, perspective, drawList);
+        drawList.setDecals(RenderBackend.TEXTURE_MARK, markBatch, scene.getViewProjection(eye), 0);
+        return drawList;
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vr.sdk.applications.maze;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Level-gated logger that keeps formatting and I/O off the render thread.
+ *
+ * <p>{@link #LEVEL} is a compile-time constant. Hot paths should guard their calls with
+ * {@link #VERBOSE_ENABLED} or {@link #DEBUG_ENABLED} so that neither the varargs array nor the
+ * boxed arguments are created when the level is off. Enabled calls only publish the format string
+ * and its arguments into a bounded lock-free ring; a daemon thread formats them and hands them to
+ * the current {@link Sink}. When the ring is full new messages are dropped and counted rather than
+ * blocking the caller.
+ */
+/* package */ final class GameLog {
+    // Same values as android.util.Log so sinks can pass them straight through.
+    static final int VERBOSE = 2;
+    static final int DEBUG = 3;
+    static final int INFO = 4;
+    static final int WARN = 5;
+    static final int ERROR = 6;
+
+    /**
+     * Lowest level that is logged. Everything below it is compiled out of guarded call sites.
+     */
+    static final int LEVEL = INFO;
+    static final boolean VERBOSE_ENABLED = LEVEL <= VERBOSE;
+    static final boolean DEBUG_ENABLED = LEVEL <= DEBUG;
+
+    private static final int CAPACITY = 256;
+    private static final long DRAIN_IDLE_NANOS = 10_000_000L;
+
+    /**
+     * Receives formatted messages on the drain thread.
+     */
+    interface Sink {
+        void write(int level, String tag, String message);
+    }
+
+    private static final class Entry {
+        int level;
+        String tag;
+        String format;
+        Object[] args;
+    }
+
+    // Bounded MPSC queue: a slot is free for position p when its sequence is p, and holds a
+    // message for the consumer when its sequence is p + 1.
+    private static final AtomicLongArray sequences = new AtomicLongArray(CAPACITY);
+    private static final Entry[] entries = new Entry[CAPACITY];
+    private static final AtomicLong tail = new AtomicLong();
+    private static final AtomicLong dropped = new AtomicLong();
+    private static long head;
+    private static volatile Sink sink = new Sink() {
+        @Override
+        public void write(int level, String tag, String message) {
+            System.out.println(tag + ": " + message);
+        }
+    };
+
+    static {
+        for (int i = 0; i < CAPACITY; i++) {
+            sequences.set(i, i);
+            entries[i] = new Entry();
+        }
+        Thread drainThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                drain();
+            }
+        }, "GameLog");
+        drainThread.setDaemon(true);
+        drainThread.setPriority(Thread.MIN_PRIORITY);
+        drainThread.start();
+    }
+
+    /**
+     * Class only contains static methods.
+     */
+    private GameLog() {
+    }
+
+    static void setSink(Sink newSink) {
+        sink = newSink;
+    }
+
+    /**
+     * Returns how many messages were discarded because the ring was full.
+     */
+    static long getDroppedCount() {
+        return dropped.get();
+    }
+
+    static void v(String tag, String format, Object... args) {
+        if (VERBOSE_ENABLED) {
+            enqueue(VERBOSE, tag, format, args);
+        }
+    }
+
+    static void d(String tag, String format, Object... args) {
+        if (DEBUG_ENABLED) {
+            enqueue(DEBUG, tag, format, args);
+        }
+    }
+
+    static void i(String tag, String format, Object... args) {
+        if (LEVEL <= INFO) {
+            enqueue(INFO, tag, format, args);
+        }
+    }
+
+    static void w(String tag, String format, Object... args) {
+        if (LEVEL <= WARN) {
+            enqueue(WARN, tag, format, args);
+        }
+    }
+
+    static void e(String tag, String format, Object... args) {
+        enqueue(ERROR, tag, format, args);
+    }
+
+    /**
+     * Logs a debug dump regardless of {@link #LEVEL}. Dumps are only produced on explicit request,
+     * so gating them again would just hide what was asked for.
+     */
+    static void dump(String tag, String text) {
+        enqueue(INFO, tag, "%s", new Object[]{text});
+    }
+
+    private static void enqueue(int level, String tag, String format, Object[] args) {
+        long position;
+        while (true) {
+            position = tail.get();
+            long sequence = sequences.get((int) position & (CAPACITY - 1));
+            if (sequence == position) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    break;
+                }
+            } else if (sequence < position) {
+                dropped.incrementAndGet();
+                return;
+            }
+        }
+        int index = (int) position & (CAPACITY - 1);
+        Entry entry = entries[index];
+        entry.level = level;
+        entry.tag = tag;
+        entry.format = format;
+        entry.args = args;
+        sequences.lazySet(index, position + 1);
+    }
+
+    private static void drain() {
+        while (true) {
+            int index = (int) head & (CAPACITY - 1);
+            if (sequences.get(index) != head + 1) {
+                LockSupport.parkNanos(DRAIN_IDLE_NANOS);
+                continue;
+            }
+            Entry entry = entries[index];
+            int level = entry.level;
+            String tag = entry.tag;
+            String format = entry.format;
+            Object[] args = entry.args;
+            entry.tag = null;
+            entry.format = null;
+            entry.args = null;
+            sequences.lazySet(index, head + CAPACITY);
+            head++;
+            try {
+                sink.write(level, tag, args.length == 0 ? format : String.format(format, args));
+            } catch (RuntimeException e) {
+                // A bad format string must not kill the drain thread.
+                sink.write(ERROR, tag, "Unable to format \"" + format + "\": " + e);
+            }
+        }
+    }
+}
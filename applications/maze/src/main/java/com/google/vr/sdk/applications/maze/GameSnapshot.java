@@ -0,0 +1,136 @@
+/*
+ * Copyright 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vr.sdk.applications.maze;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+/**
+ * File format of a saved game: a small header around the payload written by
+ * {@link MazeGame#saveState}.
+ *
+ * <pre>
+ *   int  magic           "MZSV"
+ *   int  format version  {@link #FORMAT_VERSION}
+ *   int  payload length  in bytes
+ *   int  payload CRC32
+ *   byte payload[length]
+ * </pre>
+ *
+ * Files are read and written whole through a FileChannel. Writes go to a temporary file that is
+ * renamed over the old snapshot, so a process killed mid-write leaves the previous snapshot
+ * intact, and a torn or corrupted file fails the length or checksum test and is ignored.
+ */
+/* package */ final class GameSnapshot {
+    static final int FORMAT_VERSION = 1;
+    private static final int MAGIC = 0x4D5A5356;
+    private static final int HEADER_BYTES = 16;
+    // Far above any real maze; guards against allocating for a garbage length.
+    private static final int MAX_PAYLOAD_BYTES = 64 << 20;
+
+    /**
+     * Class only contains static methods.
+     */
+    private GameSnapshot() {
+    }
+
+    /**
+     * Wraps a payload in the header. The result is ready to be written from its position.
+     */
+    static ByteBuffer encode(byte[] payload) {
+        int length = payload.length;
+        CRC32 crc = new CRC32();
+        crc.update(payload, 0, length);
+        ByteBuffer file = ByteBuffer.allocate(HEADER_BYTES + length);
+        file.putInt(MAGIC).putInt(FORMAT_VERSION).putInt(length).putInt((int) crc.getValue());
+        file.put(payload, 0, length);
+        file.flip();
+        return file;
+    }
+
+    /**
+     * Checks the header and the checksum of a whole snapshot file.
+     *
+     * @return The payload, as a heap buffer positioned at its first byte.
+     * @throws IOException If the file is not a snapshot, has another format version, is truncated
+     *                     or is corrupted.
+     */
+    static ByteBuffer decode(ByteBuffer file) throws IOException {
+        if (file.remaining() < HEADER_BYTES || file.getInt() != MAGIC) {
+            throw new IOException("Not a maze snapshot");
+        }
+        int version = file.getInt();
+        if (version != FORMAT_VERSION) {
+            throw new IOException("Unsupported snapshot version " + version);
+        }
+        int length = file.getInt();
+        int expectedCrc = file.getInt();
+        if (length < 0 || length != file.remaining()) {
+            throw new IOException("Snapshot payload is " + file.remaining() + " bytes, expected " + length);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(file.array(), file.arrayOffset() + file.position(), length);
+        if ((int) crc.getValue() != expectedCrc) {
+            throw new IOException("Snapshot checksum mismatch");
+        }
+        return file.slice();
+    }
+
+    /**
+     * Reads a whole snapshot file into a heap buffer.
+     */
+    static ByteBuffer read(File file) throws IOException {
+        try (FileInputStream stream = new FileInputStream(file)) {
+            FileChannel channel = stream.getChannel();
+            long size = channel.size();
+            if (size > HEADER_BYTES + MAX_PAYLOAD_BYTES) {
+                throw new IOException("Snapshot is too large: " + size + " bytes");
+            }
+            ByteBuffer buffer = ByteBuffer.allocate((int) size);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) < 0) {
+                    throw new IOException("Snapshot ended early");
+                }
+            }
+            buffer.flip();
+            return buffer;
+        }
+    }
+
+    /**
+     * Writes a buffer returned by {@link #encode} next to {@code file}, syncs it, and then renames
+     * it over {@code file}.
+     */
+    static void write(File file, ByteBuffer data) throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        try (FileOutputStream stream = new FileOutputStream(temp)) {
+            FileChannel channel = stream.getChannel();
+            while (data.hasRemaining()) {
+                channel.write(data);
+            }
+            channel.force(false);
+        }
+        if (!temp.renameTo(file)) {
+            throw new IOException("Unable to replace " + file);
+        }
+    }
+}
@@ -0,0 +1,271 @@
+/*
+ * Copyright 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vr.sdk.applications.maze;
+
+import android.content.Context;
+import android.opengl.GLES20;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+
+/**
+ * Draws with GLES20 using the textured object shader.
+ *
+ * <p>Meshes and textures are handed in as they finish loading (see {@link #setMesh} and
+ * {@link #setTexture}); draw calls of a mesh or texture that is not there yet are skipped, so the
+ * scene fills in while the assets load.
+ */
+/* package */ class GlRenderBackend implements RenderBackend {
+    private static final String[] OBJECT_VERTEX_SHADER_CODE =
+            new String[]{
+                    "uniform mat4 u_MVP;",
+                    "attribute vec4 a_Position;",
+                    "attribute vec2 a_UV;",
+                    "varying vec2 v_UV;",
+                    "",
+                    "void main() {",
+                    "  v_UV = a_UV;",
+                    "  gl_Position = u_MVP * a_Position;",
+                    "}",
+            };
+    private static final String[] OBJECT_FRAGMENT_SHADER_CODE =
+            new String[]{
+                    "precision mediump float;",
+                    "varying vec2 v_UV;",
+                    "uniform sampler2D u_Texture;",
+                    "",
+                    "void main() {",
+                    "  // The y coordinate of this sample's textures is reversed compared to",
+                    "  // what OpenGL expects, so we invert the y coordinate.",
+                    "  gl_FragColor = texture2D(u_Texture, vec2(v_UV.x, 1.0 - v_UV.y));",
+                    "}",
+            };
+    // Quads per decal draw call, the most that 16-bit indices can address.
+    private static final int DECAL_CHUNK_QUADS = 65536 / DecalBatch.VERTICES_PER_QUAD - 1;
+    private static final int DECAL_STRIDE = DecalBatch.FLOATS_PER_VERTEX * 4;
+    private static final int MARK_TEXTURE_SIZE = 64;
+    private static final float LOADING_GREY = 0.3f;
+    /**
+     * Asset file of each MESH_* mesh.
+     */
+    static final String[] MESH_FILES = {"cube.obj", "floor.obj", "mosquito.obj"};
+    /**
+     * Asset file of each TEXTURE_* texture up to TEXTURE_MARK, which is generated.
+     */
+    static final String[] TEXTURE_FILES = {"wall4.png", "floor2.png", "ceil.png", "black.png"};
+    private final int objectProgram;
+    private final int objectModelViewProjectionParam;
+    private final int objectPositionParam;
+    private final int objectUvParam;
+    // Vertex and index buffer objects of the decal batch, created on first use.
+    private final int[] decalBuffers = new int[2];
+    private DecalBatch uploadedBatch;
+    private int uploadedCapacityVersion;
+    private FloatBuffer decalStaging;
+    private final TexturedMesh[] meshes = new TexturedMesh[MESH_COUNT];
+    private final Texture[] textures = new Texture[TEXTURE_COUNT];
+
+    /**
+     * Compiles the shader and creates the generated textures. Must be called on the GL thread.
+     */
+    GlRenderBackend() {
+        objectProgram = Util.compileProgram(OBJECT_VERTEX_SHADER_CODE, OBJECT_FRAGMENT_SHADER_CODE);
+
+        objectPositionParam = GLES20.glGetAttribLocation(objectProgram, "a_Position");
+        objectUvParam = GLES20.glGetAttribLocation(objectProgram, "a_UV");
+        objectModelViewProjectionParam = GLES20.glGetUniformLocation(objectProgram, "u_MVP");
+
+        Util.checkGlError("Object program params");
+
+        textures[TEXTURE_MARK] = new Texture(MARK_TEXTURE_SIZE, MARK_TEXTURE_SIZE, createCross(MARK_TEXTURE_SIZE));
+    }
+
+    /**
+     * Reads a mesh from the assets. Touches no GL state, so it may run on any thread.
+     */
+    static TexturedMesh readMesh(Context context, int mesh, DerivedAssetCache cache) throws IOException {
+        return cache.get(context.getAssets().open(MESH_FILES[mesh]), TexturedMesh.CONVERTER);
+    }
+
+    void setMesh(int mesh, TexturedMesh data) {
+        meshes[mesh] = data;
+    }
+
+    void setTexture(int texture, Texture data) {
+        textures[texture] = data;
+    }
+
+    /**
+     * Takes over the meshes of a backend whose GL context was lost, and decodes and uploads the
+     * textures again, here on the GL thread.
+     */
+    void restore(GlRenderBackend lost, Context context) throws IOException {
+        System.arraycopy(lost.meshes, 0, meshes, 0, MESH_COUNT);
+        for (int texture = 0; texture < TEXTURE_FILES.length; texture++) {
+            if (lost.textures[texture] != null) {
+                textures[texture] = new Texture(context, TEXTURE_FILES[texture]);
+            }
+        }
+    }
+
+    /**
+     * Draws a red cross on a transparent square.
+     */
+    private static int[] createCross(int size) {
+        int[] pixels = new int[size * size];
+        float half = size / 2f;
+        float thickness = size / 10f;
+        for (int y = 0; y < size; y++) {
+            for (int x = 0; x < size; x++) {
+                float u = x + 0.5f - half;
+                float v = y + 0.5f - half;
+                boolean inside = Math.max(Math.abs(u), Math.abs(v)) < half - thickness;
+                boolean onStroke = Math.abs(u - v) < thickness || Math.abs(u + v) < thickness;
+                pixels[y * size + x] = inside && onStroke ? 0xFFE02020 : 0x00000000;
+            }
+        }
+        return pixels;
+    }
+
+    /**
+     * Clears the eye to a grey that brightens as {@code progress} goes from 0 to 1; shown while
+     * the game is loading.
+     */
+    void drawLoading(float progress) {
+        float grey = LOADING_GREY * progress;
+        GLES20.glClearColor(grey, grey, grey, 1.0f);
+        GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT | GLES20.GL_DEPTH_BUFFER_BIT);
+        GLES20.glClearColor(0.0f, 0.0f, 0.0f, 0.0f);
+    }
+
+    @Override
+    public void beginEye() {
+        GLES20.glEnable(GLES20.GL_DEPTH_TEST);
+        GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT | GLES20.GL_DEPTH_BUFFER_BIT);
+        GLES20.glEnable(GLES20.GL_BLEND);
+        GLES20.glBlendFunc(GLES20.GL_ONE, GLES20.GL_ONE_MINUS_SRC_ALPHA);
+    }
+
+    @Override
+    public void draw(int mesh, int texture, float[] modelViewProjection, int offset) {
+        if (meshes[mesh] == null || textures[texture] == null) {
+            return;
+        }
+        GLES20.glUseProgram(objectProgram);
+        GLES20.glUniformMatrix4fv(objectModelViewProjectionParam, 1, false, modelViewProjection, offset);
+        textures[texture].bind();
+        meshes[mesh].draw(objectPositionParam, objectUvParam);
+        Util.checkGlError("drawObject");
+    }
+
+    /**
+     * GLES 2.0 has no instanced draw call, so the program, texture and vertex arrays are bound
+     * once and only the MVP uniform changes between the draws.
+     */
+    @Override
+    public void drawInstanced(int mesh, int texture, float[] modelViewProjections, int offset, int count) {
+        TexturedMesh instance = meshes[mesh];
+        if (instance == null || textures[texture] == null) {
+            return;
+        }
+        GLES20.glUseProgram(objectProgram);
+        textures[texture].bind();
+        instance.bind(objectPositionParam, objectUvParam);
+        for (int i = 0; i < count; i++) {
+            GLES20.glUniformMatrix4fv(objectModelViewProjectionParam, 1, false, modelViewProjections, offset + i * 16);
+            instance.drawElements();
+        }
+        Util.checkGlError("drawInstanced");
+    }
+
+    /**
+     * Keeps the batch in a vertex buffer object and uploads only its dirty range, so toggling one
+     * mark costs one small glBufferSubData however many marks there are.
+     */
+    @Override
+    public void drawDecals(int texture, DecalBatch batch, float[] viewProjection, int offset) {
+        if (decalBuffers[0] == 0) {
+            GLES20.glGenBuffers(2, decalBuffers, 0);
+            uploadDecalIndices();
+        }
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, decalBuffers[0]);
+        uploadDecals(batch);
+
+        GLES20.glUseProgram(objectProgram);
+        GLES20.glUniformMatrix4fv(objectModelViewProjectionParam, 1, false, viewProjection, offset);
+        textures[texture].bind();
+        GLES20.glDepthMask(false);
+        GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, decalBuffers[1]);
+        GLES20.glEnableVertexAttribArray(objectPositionParam);
+        GLES20.glEnableVertexAttribArray(objectUvParam);
+        for (int first = 0; first < batch.size(); first += DECAL_CHUNK_QUADS) {
+            int quads = Math.min(DECAL_CHUNK_QUADS, batch.size() - first);
+            int byteOffset = first * DecalBatch.VERTICES_PER_QUAD * DECAL_STRIDE;
+            GLES20.glVertexAttribPointer(objectPositionParam, 3, GLES20.GL_FLOAT, false, DECAL_STRIDE, byteOffset);
+            GLES20.glVertexAttribPointer(objectUvParam, 2, GLES20.GL_FLOAT, false, DECAL_STRIDE, byteOffset + 12);
+            GLES20.glDrawElements(GLES20.GL_TRIANGLES, quads * 6, GLES20.GL_UNSIGNED_SHORT, 0);
+        }
+        // The meshes draw from client-side arrays.
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+        GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, 0);
+        GLES20.glDepthMask(true);
+        Util.checkGlError("drawDecals");
+    }
+
+    private void uploadDecalIndices() {
+        ShortBuffer indices = ByteBuffer.allocateDirect(DECAL_CHUNK_QUADS * 6 * 2)
+                .order(ByteOrder.nativeOrder()).asShortBuffer();
+        for (int quad = 0; quad < DECAL_CHUNK_QUADS; quad++) {
+            int v = quad * DecalBatch.VERTICES_PER_QUAD;
+            indices.put((short) v).put((short) (v + 1)).put((short) (v + 2));
+            indices.put((short) v).put((short) (v + 2)).put((short) (v + 3));
+        }
+        indices.rewind();
+        GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, decalBuffers[1]);
+        GLES20.glBufferData(GLES20.GL_ELEMENT_ARRAY_BUFFER, indices.capacity() * 2, indices, GLES20.GL_STATIC_DRAW);
+        GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, 0);
+    }
+
+    /**
+     * Brings the bound array buffer up to date with the batch: a full upload when the batch is new
+     * or has grown, otherwise only its dirty quads.
+     */
+    private void uploadDecals(DecalBatch batch) {
+        float[] vertices = batch.getVertices();
+        if (batch != uploadedBatch || batch.getCapacityVersion() != uploadedCapacityVersion) {
+            if (decalStaging == null || decalStaging.capacity() < vertices.length) {
+                decalStaging = ByteBuffer.allocateDirect(vertices.length * 4)
+                        .order(ByteOrder.nativeOrder()).asFloatBuffer();
+            }
+            decalStaging.clear();
+            decalStaging.put(vertices).flip();
+            GLES20.glBufferData(GLES20.GL_ARRAY_BUFFER, vertices.length * 4, decalStaging, GLES20.GL_DYNAMIC_DRAW);
+            uploadedBatch = batch;
+            uploadedCapacityVersion = batch.getCapacityVersion();
+        } else if (batch.getDirtyStart() < batch.getDirtyEnd()) {
+            int start = batch.getDirtyStart() * DecalBatch.FLOATS_PER_QUAD;
+            int count = batch.getDirtyEnd() * DecalBatch.FLOATS_PER_QUAD - start;
+            decalStaging.clear();
+            decalStaging.put(vertices, start, count).flip();
+            GLES20.glBufferSubData(GLES20.GL_ARRAY_BUFFER, start * 4, count * 4, decalStaging);
+        }
+        batch.clearDirty();
+    }
+}
@@ -0,0 +1,271 @@
+/*
+ * Copyright 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.vr.sdk.applications.maze;
+
+/**
+ * Casts rays through the maze grid in the XZ plane with a DDA traversal.
+ *
+ * <p>Along each axis the maze alternates between a wall band ({@link Maze#WALL_WIDTH} wide) and a
+ * path band ({@link Maze#PATH_WIDTH} wide), so the plane splits into cell interiors, wall
+ * segments and the corner posts between them, matching the boxes built by {@link Maze}. Walls and
+ * posts are copied into bitsets when the caster is created. A ray steps from band to band and
+ * tests one bit per region it enters, so its cost grows with the number of cells it crosses
+ * rather than with the number of walls. Rays must start inside the maze.
+ *
+ * <p>The caster is immutable, so it may be shared between threads. Results are written into
+ * caller-owned arrays as (orientation, row, col) triples, using the row/col convention of
+ * {@link Maze#isHorizontalWall} and {@link Maze#isVerticalWall}. A hit on a corner post is
+ * reported as one of the walls that fill it.
+ */
+/* package */ final class GridRayCaster {
+    static final int MISS = 0;
+    static final int HORIZONTAL = 1;
+    static final int VERTICAL = 2;
+
+    private static final float CELL = Maze.WALL_WIDTH + Maze.PATH_WIDTH;
+
+    private final int n;
+    private final int m;
+    // Bit r * m + c is set when horizontal wall (r, c) is closed.
+    private final long[] horizontalWalls;
+    // Bit r * (m + 1) + c is set when vertical wall (r, c) is closed.
+    private final long[] verticalWalls;
+    // Bit r * (m + 1) + c is set when the post where grid lines r and c meet is filled.
+    private final long[] posts;
+
+    GridRayCaster(Maze maze, int n, int m) {
+        this.n = n;
+        this.m = m;
+        horizontalWalls = new long[((n + 1) * m + 63) >> 6];
+        verticalWalls = new long[(n * (m + 1) + 63) >> 6];
+        posts = new long[((n + 1) * (m + 1) + 63) >> 6];
+        for (int r = 0; r <= n; r++) {
+            for (int c = 0; c < m; c++) {
+                if (maze.isHorizontalWall(r, c)) {
+                    set(horizontalWalls, r * m + c);
+                }
+            }
+        }
+        for (int r = 0; r < n; r++) {
+            for (int c = 0; c <= m; c++) {
+                if (maze.isVerticalWall(r, c)) {
+                    set(verticalWalls, r * (m + 1) + c);
+                }
+            }
+        }
+        // Same filling rules as Maze.getHorizontalWallPosition and getVerticalWallPosition.
+        for (int r = 0; r <= n; r++) {
+            for (int c = 0; c <= m; c++) {
+                if (isHorizontalWall(r, c - 1) || isHorizontalWall(r, c)
+                        || (isVerticalWall(r - 1, c) && (r == n || isVerticalWall(r, c)))) {
+                    set(posts, r * (m + 1) + c);
+                }
+            }
+        }
+    }
+
+    private static void set(long[] bits, int bit) {
+        bits[bit >> 6] |= 1L << bit;
+    }
+
+    private static boolean get(long[] bits, int bit) {
+        return (bits[bit >> 6] & (1L << bit)) != 0;
+    }
+
+    private boolean isHorizontalWall(int r, int c) {
+        return r >= 0 && r <= n && c >= 0 && c < m && get(horizontalWalls, r * m + c);
+    }
+
+    private boolean isVerticalWall(int r, int c) {
+        return r >= 0 && r < n && c >= 0 && c <= m && get(verticalWalls, r * (m + 1) + c);
+    }
+
+    private boolean isPost(int r, int c) {
+        return r >= 0 && r <= n && c >= 0 && c <= m && get(posts, r * (m + 1) + c);
+    }
+
+    /**
+     * Band 2k is the wall band of grid line k, band 2k + 1 the path band of cell k.
+     */
+    private static int band(float coordinate) {
+        int cell = (int) Math.floor(coordinate / CELL);
+        return 2 * cell + (coordinate - cell * CELL >= Maze.WALL_WIDTH ? 1 : 0);
+    }
+
+    private static float bandStart(int band) {
+        return (band >> 1) * CELL + ((band & 1) == 1 ? Maze.WALL_WIDTH : 0);
+    }
+
+    private boolean isSolid(int xBand, int zBand) {
+        boolean onLineX = (xBand & 1) == 0;
+        boolean onLineZ = (zBand & 1) == 0;
+        if (onLineX && onLineZ) {
+            return isPost(zBand >> 1, xBand >> 1);
+        } else if (onLineX) {
+            return isVerticalWall(zBand >> 1, xBand >> 1);
+        } else if (onLineZ) {
+            return isHorizontalWall(zBand >> 1, xBand >> 1);
+        }
+        return false;
+    }
+
+    /**
+     * Writes the wall that makes region (xBand, zBand) solid, or the grid line it lies on.
+     */
+    private void describe(int xBand, int zBand, boolean crossedX, int[] hit, int hitOffset) {
+        int r = zBand >> 1;
+        int c = xBand >> 1;
+        boolean onLineX = (xBand & 1) == 0;
+        boolean onLineZ = (zBand & 1) == 0;
+        if (onLineX && onLineZ) {
+            if (isHorizontalWall(r, c - 1)) {
+                c--;
+            } else if (!isHorizontalWall(r, c) && (isVerticalWall(r - 1, c) || crossedX)) {
+                onLineZ = false;
+                r = isVerticalWall(r - 1, c) ? r - 1 : r;
+            }
+        }
+        hit[hitOffset] = onLineZ ? HORIZONTAL : VERTICAL;
+        hit[hitOffset + 1] = r;
+        hit[hitOffset + 2] = c;
+    }
+
+    /**
+     * Finds the first wall hit by a ray.
+     *
+     * @param dirX        Direction of the ray; it need not be normalized.
+     * @param maxDistance Walls further away than this are not reported.
+     * @param hit         Receives (orientation, row, col) at {@code hitOffset}; orientation is
+     *                    {@link #MISS} when nothing was hit.
+     * @return Distance to the face of the wall, or {@code maxDistance} on a miss.
+     */
+    float cast(float originX, float originZ, float dirX, float dirZ, float maxDistance,
+               int[] hit, int hitOffset) {
+        return walk(originX, originZ, dirX, dirZ, maxDistance, false, hit, hitOffset);
+    }
+
+    /**
+     * Finds the first grid line a ray reaches, whether or not a wall stands on it. Gaze marking
+     * uses it to pick the passage in front of the player.
+     *
+     * @return Distance to the line, or {@code maxDistance} if none is that close.
+     */
+    float castToLine(float originX, float originZ, float dirX, float dirZ, float maxDistance,
+                     int[] hit, int hitOffset) {
+        return walk(originX, originZ, dirX, dirZ, maxDistance, true, hit, hitOffset);
+    }
+
+    /**
+     * Casts a batch of rays, given as (originX, originZ, dirX, dirZ) quadruples.
+     *
+     * @param hits      Receives {@code count} (orientation, row, col) triples.
+     * @param distances Receives {@code count} distances.
+     */
+    void castAll(float[] rays, int count, float maxDistance, int[] hits, float[] distances) {
+        for (int i = 0; i < count; i++) {
+            int ray = i * 4;
+            distances[i] = walk(rays[ray], rays[ray + 1], rays[ray + 2], rays[ray + 3],
+                    maxDistance, false, hits, i * 3);
+        }
+    }
+
+    /**
+     * Counts the separate walls on the segment between two points, stopping once
+     * {@code maxCount} is reached. Used as an occlusion measure between a listener and a sound
+     * source.
+     */
+    int countWalls(float fromX, float fromZ, float toX, float toZ, int maxCount) {
+        float dirX = toX - fromX;
+        float dirZ = toZ - fromZ;
+        float length = (float) Math.sqrt(dirX * dirX + dirZ * dirZ);
+        if (length == 0) {
+            return 0;
+        }
+        dirX /= length;
+        dirZ /= length;
+        int xBand = band(fromX);
+        int zBand = band(fromZ);
+        int stepX = dirX > 0 ? 1 : -1;
+        int stepZ = dirZ > 0 ? 1 : -1;
+        boolean solid = isSolid(xBand, zBand);
+        int count = solid ? 1 : 0;
+        while (count < maxCount
+                && xBand >= -1 && xBand <= 2 * m + 1 && zBand >= -1 && zBand <= 2 * n + 1) {
+            float nextX = dirX == 0 ? Float.POSITIVE_INFINITY
+                    : (bandStart(dirX > 0 ? xBand + 1 : xBand) - fromX) / dirX;
+            float nextZ = dirZ == 0 ? Float.POSITIVE_INFINITY
+                    : (bandStart(dirZ > 0 ? zBand + 1 : zBand) - fromZ) / dirZ;
+            if (Math.min(nextX, nextZ) > length) {
+                break;
+            }
+            if (nextX < nextZ) {
+                xBand += stepX;
+            } else {
+                zBand += stepZ;
+            }
+            boolean wasSolid = solid;
+            solid = isSolid(xBand, zBand);
+            if (solid && !wasSolid) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private float walk(float originX, float originZ, float dirX, float dirZ, float maxDistance,
+                       boolean anyLine, int[] hit, int hitOffset) {
+        hit[hitOffset] = MISS;
+        float length = (float) Math.sqrt(dirX * dirX + dirZ * dirZ);
+        if (length == 0) {
+            return maxDistance;
+        }
+        dirX /= length;
+        dirZ /= length;
+        int xBand = band(originX);
+        int zBand = band(originZ);
+        int stepX = dirX > 0 ? 1 : -1;
+        int stepZ = dirZ > 0 ? 1 : -1;
+        if (!anyLine && isSolid(xBand, zBand)) {
+            describe(xBand, zBand, false, hit, hitOffset);
+            return 0;
+        }
+        while (xBand >= -1 && xBand <= 2 * m + 1 && zBand >= -1 && zBand <= 2 * n + 1) {
+            // Distance along the ray to the next band boundary on each axis.
+            float nextX = dirX == 0 ? Float.POSITIVE_INFINITY
+                    : (bandStart(dirX > 0 ? xBand + 1 : xBand) - originX) / dirX;
+            float nextZ = dirZ == 0 ? Float.POSITIVE_INFINITY
+                    : (bandStart(dirZ > 0 ? zBand + 1 : zBand) - originZ) / dirZ;
+            float distance = Math.min(nextX, nextZ);
+            if (distance > maxDistance) {
+                break;
+            }
+            boolean crossedX = nextX < nextZ;
+            if (crossedX) {
+                xBand += stepX;
+            } else {
+                zBand += stepZ;
+            }
+            boolean enteredLine = ((crossedX ? xBand : zBand) & 1) == 0;
+            if (anyLine ? enteredLine : isSolid(xBand, zBand)) {
+                describe(xBand, zBand, crossedX, hit, hitOffset);
+                return distance;
+            }
+        }
+        return maxDistance;
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vr.sdk.applications.maze;
+
+import com.google.vr.sdk.audio.GvrAudioEngine;
+
+/**
+ * Plays the spatialized stream through an {@link AudioTrackOutput} and the cues through the GVR
+ * audio engine.
+ */
+/* package */ class GvrAudioSink implements AudioSink {
+    private static final String COLLIDE_WALL = "audio/wall.mp3";
+    private static final String FINAL_SUCCESS = "audio/final_success.mp3";
+    private final GvrAudioEngine gvrAudioEngine;
+    private final AudioTrackOutput output;
+    private volatile int successSourceId = GvrAudioEngine.INVALID_ID;
+
+    GvrAudioSink(GvrAudioEngine gvrAudioEngine, AudioTrackOutput output) {
+        this.gvrAudioEngine = gvrAudioEngine;
+        this.output = output;
+    }
+
+    @Override
+    public void setHeadRotation(float x, float y, float z, float w) {
+        gvrAudioEngine.setHeadRotation(x, y, z, w);
+        // Regular update call to GVR audio engine.
+        gvrAudioEngine.update();
+    }
+
+    @Override
+    public void playCue(int cue) {
+        switch (cue) {
+            case CUE_COLLIDE_WALL:
+                successSourceId = gvrAudioEngine.createStereoSound(COLLIDE_WALL);
+                //gvrAudioEngine.playSound(successSourceId, false /* looping disabled */);
+                break;
+            case CUE_FINAL_SUCCESS:
+                successSourceId = gvrAudioEngine.createStereoSound(FINAL_SUCCESS);
+                gvrAudioEngine.playSound(successSourceId, false /* looping disabled */);
+                break;
+        }
+    }
+
+    @Override
+    public void write(float[] interleaved, int frames, float volume) {
+        output.write(interleaved, frames, volume);
+    }
+
+    @Override
+    public int getQueuedFrames(long nowNanos) {
+        return output.getQueuedFrames(nowNanos);
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vr.sdk.applications.maze;
+
+/**
+ * Extrapolates the head view to a future time from timestamped samples, so that audio can be
+ * spatialized for the moment it will be heard rather than the moment the pose was read.
+ *
+ * <p>Each sample's rotation is kept as a quaternion. The angular velocity between the last two
+ * samples is smoothed over time, and a prediction rotates the newest sample by that velocity for
+ * the time left until the target. The translation (the neck model) is taken from the newest sample
+ * as is. Allocation-free; meant to be used from one thread.
+ */
+/* package */ final class HeadPosePredictor {
+    /**
+     * Predictions never look further ahead than this, since fast turns rarely last longer.
+     */
+    static final long MAX_HORIZON_NANOS = 100_000_000L;
+    /**
+     * Weight of the newest measurement in the smoothed angular velocity.
+     */
+    private static final float VELOCITY_SMOOTHING = 0.5f;
+
+    private final float[] rotation = new float[4];
+    private final float[] previous = new float[4];
+    private final float[] translation = new float[3];
+    private final float[] velocity = new float[3];
+    private final float[] predicted = new float[4];
+    private long timestampNanos;
+    private int samples;
+
+    /**
+     * Adds the head view read at {@code nowNanos}. Samples must come in time order.
+     */
+    void addSample(long nowNanos, float[] headView, int offset) {
+        System.arraycopy(rotation, 0, previous, 0, 4);
+        toQuaternion(headView, offset, rotation);
+        translation[0] = headView[offset + 12];
+        translation[1] = headView[offset + 13];
+        translation[2] = headView[offset + 14];
+        long elapsed = nowNanos - timestampNanos;
+        if (samples > 0 && elapsed > 0) {
+            // delta = rotation * conjugate(previous), taken the short way round.
+            float[] q = rotation;
+            float[] p = previous;
+            float w = q[3] * p[3] + q[0] * p[0] + q[1] * p[1] + q[2] * p[2];
+            float x = -q[3] * p[0] + q[0] * p[3] - q[1] * p[2] + q[2] * p[1];
+            float y = -q[3] * p[1] + q[1] * p[3] - q[2] * p[0] + q[0] * p[2];
+            float z = -q[3] * p[2] + q[2] * p[3] - q[0] * p[1] + q[1] * p[0];
+            if (w < 0) {
+                w = -w;
+                x = -x;
+                y = -y;
+                z = -z;
+            }
+            float sinHalf = (float) Math.sqrt(x * x + y * y + z * z);
+            float angle = 2 * (float) Math.atan2(sinHalf, w);
+            float scale = sinHalf > 1e-9f ? angle / sinHalf / (elapsed * 1e-9f) : 0;
+            float weight = samples == 1 ? 1 : VELOCITY_SMOOTHING;
+            velocity[0] += (x * scale - velocity[0]) * weight;
+            velocity[1] += (y * scale - velocity[1]) * weight;
+            velocity[2] += (z * scale - velocity[2]) * weight;
+        }
+        timestampNanos = nowNanos;
+        samples++;
+    }
+
+    /**
+     * Returns the time of the newest sample.
+     */
+    long getTimestampNanos() {
+        return timestampNanos;
+    }
+
+    /**
+     * Returns the smoothed angular speed, in radians per second.
+     */
+    float getAngularSpeed() {
+        return (float) Math.sqrt(velocity[0] * velocity[0] + velocity[1] * velocity[1] + velocity[2] * velocity[2]);
+    }
+
+    /**
+     * Writes the head view expected at {@code targetNanos}. Before the first sample this is the
+     * identity.
+     */
+    void predict(long targetNanos, float[] headView, int offset) {
+        if (samples == 0) {
+            MatrixMath.setIdentityM(headView, offset);
+            return;
+        }
+        long horizon = Math.max(0, Math.min(MAX_HORIZON_NANOS, targetNanos - timestampNanos));
+        float seconds = horizon * 1e-9f;
+        float ax = velocity[0] * seconds;
+        float ay = velocity[1] * seconds;
+        float az = velocity[2] * seconds;
+        float angle = (float) Math.sqrt(ax * ax + ay * ay + az * az);
+        float[] q = rotation;
+        if (angle < 1e-9f) {
+            System.arraycopy(q, 0, predicted, 0, 4);
+        } else {
+            // predicted = exp(velocity * seconds) * rotation
+            float s = (float) Math.sin(angle / 2) / angle;
+            float dx = ax * s;
+            float dy = ay * s;
+            float dz = az * s;
+            float dw = (float) Math.cos(angle / 2);
+            predicted[0] = dw * q[0] + dx * q[3] + dy * q[2] - dz * q[1];
+            predicted[1] = dw * q[1] - dx * q[2] + dy * q[3] + dz * q[0];
+            predicted[2] = dw * q[2] + dx * q[1] - dy * q[0] + dz * q[3];
+            predicted[3] = dw * q[3] - dx * q[0] - dy * q[1] - dz * q[2];
+        }
+        toMatrix(predicted, headView, offset);
+        headView[offset + 12] = translation[0];
+        headView[offset + 13] = translation[1];
+        headView[offset + 14] = translation[2];
+    }
+
+    /**
+     * Converts the rotation part of a column-major matrix to a unit (x, y, z, w) quaternion.
+     */
+    static void toQuaternion(float[] m, int o, float[] q) {
+        float m00 = m[o];
+        float m11 = m[o + 5];
+        float m22 = m[o + 10];
+        float trace = m00 + m11 + m22;
+        if (trace > 0) {
+            float s = 0.5f / (float) Math.sqrt(trace + 1);
+            q[3] = 0.25f / s;
+            q[0] = (m[o + 6] - m[o + 9]) * s;
+            q[1] = (m[o + 8] - m[o + 2]) * s;
+            q[2] = (m[o + 1] - m[o + 4]) * s;
+        } else if (m00 > m11 && m00 > m22) {
+            float s = 2 * (float) Math.sqrt(1 + m00 - m11 - m22);
+            q[3] = (m[o + 6] - m[o + 9]) / s;
+            q[0] = 0.25f * s;
+            q[1] = (m[o + 4] + m[o + 1]) / s;
+            q[2] = (m[o + 8] + m[o + 2]) / s;
+        } else if (m11 > m22) {
+            float s = 2 * (float) Math.sqrt(1 + m11 - m00 - m22);
+            q[3] = (m[o + 8] - m[o + 2]) / s;
+            q[0] = (m[o + 4] + m[o + 1]) / s;
+            q[1] = 0.25f * s;
+            q[2] = (m[o + 9] + m[o + 6]) / s;
+        } else {
+            float s = 2 * (float) Math.sqrt(1 + m22 - m00 - m11);
+            q[3] = (m[o + 1] - m[o + 4]) / s;
+            q[0] = (m[o + 8] + m[o + 2]) / s;
+            q[1] = (m[o + 9] + m[o + 6]) / s;
+            q[2] = 0.25f * s;
+        }
+        float length = (float) Math.sqrt(q[0] * q[0] + q[1] * q[1] + q[2] * q[2] + q[3] * q[3]);
+        for (int i = 0; i < 4; i++) {
+            q[i] /= length;
+        }
+    }
+
+    /**
+     * Writes the rotation of a unit quaternion as a column-major matrix with no translation.
+     */
+    static void toMatrix(float[] q, float[] m, int o) {
+        float x = q[0];
+        float y = q[1];
+        float z = q[2];
+        float w = q[3];
+        m[o] = 1 - 2 * (y * y + z * z);
+        m[o + 1] = 2 * (x * y + z * w);
+        m[o + 2] = 2 * (x * z - y * w);
+        m[o + 3] = 0;
+        m[o + 4] = 2 * (x * y - z * w);
+        m[o + 5] = 1 - 2 * (x * x + z * z);
+        m[o + 6] = 2 * (y * z + x * w);
+        m[o + 7] = 0;
+        m[o + 8] = 2 * (x * z + y * w);
+        m[o + 9] = 2 * (y * z - x * w);
+        m[o + 10] = 1 - 2 * (x * x + y * y);
+        m[o + 11] = 0;
+        m[o + 12] = 0;
+        m[o + 13] = 0;
+        m[o + 14] = 0;
+        m[o + 15] = 1;
+    }
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vr.sdk.applications.maze;
+
+/**
+ * Supplies the head pose for the current frame.
+ */
+/* package */ interface HeadPoseSource {
+    /**
+     * Writes the 4x4 view matrix of the head, without any eye offset.
+     */
+    void getHeadView(float[] headView, int offset);
+
+    /**
+     * Writes the head rotation as an (x, y, z, w) quaternion.
+     */
+    void getQuaternion(float[] quaternion, int offset);
+
+    /**
+     * Writes the unit vector the head is facing, in world space.
+     */
+    void getForwardVector(float[] forward, int offset);
+}
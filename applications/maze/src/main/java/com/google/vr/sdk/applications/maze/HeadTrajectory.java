@@ -0,0 +1,153 @@
+/*
+ * Copyright 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vr.sdk.applications.maze;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Writer;
+import java.util.Arrays;
+
+/**
+ * A per-frame sequence of head orientations and touch state, either recorded on a device or
+ * scripted, that can be replayed as a {@link HeadPoseSource}.
+ *
+ * <p>The text format has one frame per line: the head quaternion (x y z w) followed by 1 if the
+ * screen was held and 0 otherwise.
+ */
+/* package */ class HeadTrajectory implements HeadPoseSource {
+    private float[] quaternions = new float[64 * 4];
+    private boolean[] moving = new boolean[64];
+    private final float[] rotation = new float[16];
+    private int size;
+    private int frame;
+
+    /**
+     * Creates a trajectory that looks around with a slow yaw sweep and nodding pitch, walking for
+     * two seconds out of every three (at 60 frames per second).
+     */
+    static HeadTrajectory scripted(int frames) {
+        HeadTrajectory trajectory = new HeadTrajectory();
+        float[] quaternion = new float[4];
+        for (int i = 0; i < frames; i++) {
+            double seconds = i / 60.0;
+            double yaw = Math.toRadians(90) * Math.sin(seconds * 2 * Math.PI / 8);
+            double pitch = Math.toRadians(15) * Math.sin(seconds * 2 * Math.PI / 3);
+            // Yaw around Y followed by pitch around X.
+            double cy = Math.cos(yaw / 2), sy = Math.sin(yaw / 2);
+            double cp = Math.cos(pitch / 2), sp = Math.sin(pitch / 2);
+            quaternion[0] = (float) (cy * sp);
+            quaternion[1] = (float) (sy * cp);
+            quaternion[2] = (float) (-sy * sp);
+            quaternion[3] = (float) (cy * cp);
+            trajectory.add(quaternion, 0, i % 180 < 120);
+        }
+        return trajectory;
+    }
+
+    /**
+     * Reads a trajectory in the text format. Closes the stream.
+     */
+    static HeadTrajectory read(InputStream inputStream) throws IOException {
+        HeadTrajectory trajectory = new HeadTrajectory();
+        float[] quaternion = new float[4];
+        try (BufferedReader bufferedReader = new BufferedReader(new InputStreamReader(inputStream))) {
+            String line;
+            while ((line = bufferedReader.readLine()) != null) {
+                String[] strNums = line.trim().split("\\s+");
+                if (strNums.length < 5) {
+                    continue;
+                }
+                for (int i = 0; i < 4; i++) {
+                    quaternion[i] = Float.parseFloat(strNums[i]);
+                }
+                trajectory.add(quaternion, 0, !strNums[4].equals("0"));
+            }
+        }
+        return trajectory;
+    }
+
+    void write(Writer writer) throws IOException {
+        for (int i = 0; i < size; i++) {
+            writer.write(quaternions[i * 4] + " " + quaternions[i * 4 + 1] + " " + quaternions[i * 4 + 2] + " "
+                    + quaternions[i * 4 + 3] + " " + (moving[i] ? 1 : 0) + "\n");
+        }
+    }
+
+    void add(float[] quaternion, int offset, boolean isMoving) {
+        if (size == moving.length) {
+            quaternions = Arrays.copyOf(quaternions, size * 8);
+            moving = Arrays.copyOf(moving, size * 2);
+        }
+        System.arraycopy(quaternion, offset, quaternions, size * 4, 4);
+        moving[size] = isMoving;
+        size++;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Selects the frame that the {@link HeadPoseSource} methods report.
+     */
+    void seek(int frame) {
+        this.frame = frame;
+        float x = quaternions[frame * 4];
+        float y = quaternions[frame * 4 + 1];
+        float z = quaternions[frame * 4 + 2];
+        float w = quaternions[frame * 4 + 3];
+        // Column-major rotation of the head in world space.
+        rotation[0] = 1 - 2 * (y * y + z * z);
+        rotation[1] = 2 * (x * y + z * w);
+        rotation[2] = 2 * (x * z - y * w);
+        rotation[4] = 2 * (x * y - z * w);
+        rotation[5] = 1 - 2 * (x * x + z * z);
+        rotation[6] = 2 * (y * z + x * w);
+        rotation[8] = 2 * (x * z + y * w);
+        rotation[9] = 2 * (y * z - x * w);
+        rotation[10] = 1 - 2 * (x * x + y * y);
+        rotation[15] = 1;
+    }
+
+    boolean isMoving() {
+        return moving[frame];
+    }
+
+    @Override
+    public void getHeadView(float[] headView, int offset) {
+        // The view matrix is the inverse, i.e. the transpose, of the head rotation.
+        for (int i = 0; i < 4; i++) {
+            for (int j = 0; j < 4; j++) {
+                headView[offset + i * 4 + j] = rotation[j * 4 + i];
+            }
+        }
+    }
+
+    @Override
+    public void getQuaternion(float[] quaternion, int offset) {
+        System.arraycopy(quaternions, frame * 4, quaternion, offset, 4);
+    }
+
+    @Override
+    public void getForwardVector(float[] forward, int offset) {
+        forward[offset] = -rotation[8];
+        forward[offset + 1] = -rotation[9];
+        forward[offset + 2] = -rotation[10];
+    }
+}
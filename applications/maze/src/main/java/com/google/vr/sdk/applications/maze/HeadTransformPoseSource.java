@@ -0,0 +1,46 @@
+/*
+ * Copyright 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vr.sdk.applications.maze;
+
+import com.google.vr.sdk.base.HeadTransform;
+
+/**
+ * Adapts the GVR head transform of the current frame to {@link HeadPoseSource}.
+ */
+/* package */ class HeadTransformPoseSource implements HeadPoseSource {
+    private HeadTransform headTransform;
+
+    HeadTransformPoseSource set(HeadTransform headTransform) {
+        this.headTransform = headTransform;
+        return this;
+    }
+
+    @Override
+    public void getHeadView(float[] headView, int offset) {
+        headTransform.getHeadView(headView, offset);
+    }
+
+    @Override
+    public void getQuaternion(float[] quaternion, int offset) {
+        headTransform.getQuaternion(quaternion, offset);
+    }
+
+    @Override
+    public void getForwardVector(float[] forward, int offset) {
+        headTransform.getForwardVector(forward, offset);
+    }
+}
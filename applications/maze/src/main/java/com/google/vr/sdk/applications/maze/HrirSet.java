@@ -0,0 +1,151 @@
+/*
+ * Copyright 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vr.sdk.applications.maze;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+
+/**
+ * A full set of head-related impulse responses for both ears, [azimuth][elevation][tap] in the
+ * layout of {@link Hrtf}, together with the sample rate they were measured or resampled at.
+ */
+/* package */ final class HrirSet {
+    private final float[][][] left;
+    private final float[][][] right;
+    private final int sampleRate;
+
+    HrirSet(float[][][] left, float[][][] right, int sampleRate) {
+        if (left.length != right.length || left[0].length != right[0].length
+                || left[0][0].length != right[0][0].length) {
+            throw new IllegalArgumentException("Left and right HRIRs differ in shape");
+        }
+        this.left = left;
+        this.right = right;
+        this.sampleRate = sampleRate;
+    }
+
+    /**
+     * Reads the flat MATLAB dumps of both ears, see {@link Hrtf#fromMatlabOrder}, keeping their
+     * length and rate.
+     */
+    static HrirSet fromMatlabOrder(float[] left, float[] right, int sampleRate) {
+        return new HrirSet(Hrtf.fromMatlabOrder(left), Hrtf.fromMatlabOrder(right), sampleRate);
+    }
+
+    /**
+     * Parses the MATLAB text dump of one ear, see {@link Hrtf#fromMatlabOrder}, and resamples it
+     * from {@code sourceRate} to {@code targetRate} like {@link #resample}, for
+     * {@link DerivedAssetCache}. Two ears of the same rate make a set.
+     */
+    static DerivedAssetCache.Converter<float[][][]> earConverter(final int sourceRate, final int targetRate) {
+        return new DerivedAssetCache.Converter<float[][][]>() {
+            @Override
+            public String getId() {
+                return "hrir/1/" + sourceRate + "/" + targetRate;
+            }
+
+            @Override
+            public float[][][] convert(byte[] source) throws IOException {
+                float[][][] hrir = Hrtf.fromMatlabOrder(SampleIo.readText(new ByteArrayInputStream(source)));
+                if (sourceRate == targetRate) {
+                    return hrir;
+                }
+                return resample(hrir, new PolyphaseResampler(sourceRate, targetRate), (float) sourceRate / targetRate);
+            }
+
+            @Override
+            public int getEncodedSize(float[][][] hrir) {
+                return 12 + 4 * hrir.length * hrir[0].length * hrir[0][0].length;
+            }
+
+            @Override
+            public void encode(float[][][] hrir, ByteBuffer out) {
+                out.putInt(hrir.length).putInt(hrir[0].length).putInt(hrir[0][0].length);
+                FloatBuffer floats = out.asFloatBuffer();
+                for (float[][] azimuth : hrir) {
+                    for (float[] taps : azimuth) {
+                        floats.put(taps);
+                    }
+                }
+                out.position(out.limit());
+            }
+
+            @Override
+            public float[][][] decode(ByteBuffer in) throws IOException {
+                int azimuths = in.getInt();
+                int elevations = in.getInt();
+                int taps = in.getInt();
+                if (azimuths != Hrtf.AZIMUTH_COUNT || elevations != Hrtf.ELEVATION_COUNT || taps <= 0
+                        || 4L * azimuths * elevations * taps != in.remaining()) {
+                    throw new IOException("Not an HRIR of " + in.remaining() + " bytes");
+                }
+                float[][][] hrir = new float[azimuths][elevations][taps];
+                FloatBuffer floats = in.asFloatBuffer();
+                for (float[][] azimuth : hrir) {
+                    for (float[] filter : azimuth) {
+                        floats.get(filter);
+                    }
+                }
+                return hrir;
+            }
+        };
+    }
+
+    float[][][] getLeft() {
+        return left;
+    }
+
+    float[][][] getRight() {
+        return right;
+    }
+
+    int getSampleRate() {
+        return sampleRate;
+    }
+
+    int getTaps() {
+        return left[0][0].length;
+    }
+
+    /**
+     * Returns this set resampled to {@code targetRate}, or this set if it already is at that rate.
+     * The responses keep their duration, so the number of taps scales with the rate, and they are
+     * scaled by the rate ratio so that a filtered signal keeps its level. Meant for load time.
+     */
+    HrirSet resample(int targetRate) {
+        if (targetRate == sampleRate) {
+            return this;
+        }
+        PolyphaseResampler resampler = new PolyphaseResampler(sampleRate, targetRate);
+        float gain = (float) sampleRate / targetRate;
+        return new HrirSet(resample(left, resampler, gain), resample(right, resampler, gain), targetRate);
+    }
+
+    private static float[][][] resample(float[][][] hrir, PolyphaseResampler resampler, float gain) {
+        int taps = hrir[0][0].length;
+        int resampledTaps = resampler.getOutputLength(taps);
+        float[][][] resampled = new float[hrir.length][hrir[0].length][resampledTaps];
+        for (int i = 0; i < hrir.length; i++) {
+            for (int j = 0; j < hrir[i].length; j++) {
+                resampler.process(hrir[i][j], 0, taps, resampled[i][j], 0, resampledTaps, gain);
+            }
+        }
+        return resampled;
+    }
+}
@@ -0,0 +1,249 @@
+/*
+ * Copyright 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vr.sdk.applications.maze;
+
+import org.jtransforms.fft.FloatFFT_1D;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+
+/**
+ * The reversed HRIRs of both ears for every direction of the grid, and a cache of their spectra
+ * for {@link StereoConvolver}'s FFT path.
+ *
+ * <p>Directions are numbered {@code azimuth * elevationCount + elevation}. A spectrum is computed
+ * the first time its (direction, ear) is asked for and kept in an off-heap direct buffer of
+ * {@code fftSize / 2 + 1} complex bins; the other half follows by conjugate symmetry. Once the byte
+ * budget is used up, the least recently used spectrum gives its buffer to the new one, so nothing
+ * is allocated after the cache has filled. Lookups, the LRU list and the hit, miss and eviction
+ * counters are plain arrays indexed by key.
+ *
+ * <p>Not thread-safe; share one instance among the voices of the audio thread.
+ */
+/* package */ final class HrirSpectrumCache {
+    static final int LEFT = 0;
+    static final int RIGHT = 1;
+
+    private final float[][][] reversedL;
+    private final float[][][] reversedR;
+    private final int elevationCount;
+    private final int taps;
+    private final int blockSize;
+    private final int fftSize;
+    private final int entryBytes;
+    private final int capacity;
+    private final FloatFFT_1D fft;
+    private final float[] scratch;
+    // Slot of each key (direction * 2 + ear), or -1.
+    private final int[] slotOfKey;
+    private final int[] keyOfSlot;
+    private final FloatBuffer[] spectra;
+    // Doubly linked LRU list over slots; head is the most recently used.
+    private final int[] newer;
+    private final int[] older;
+    private int head = -1;
+    private int tail = -1;
+    private int used;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * @param reversedL   [azimuth][elevation][tap] left-ear HRIRs with reversed taps.
+     * @param reversedR   Same for the right ear.
+     * @param blockSize   Output frames per block of the convolvers using this cache.
+     * @param budgetBytes Most bytes of spectra kept at once; at least one pair is always kept.
+     */
+    HrirSpectrumCache(float[][][] reversedL, float[][][] reversedR, int blockSize, long budgetBytes) {
+        this.reversedL = reversedL;
+        this.reversedR = reversedR;
+        elevationCount = reversedL[0].length;
+        taps = reversedL[0][0].length;
+        this.blockSize = blockSize;
+        fftSize = getFftSize(blockSize, taps);
+        entryBytes = getSpectrumBytes(fftSize);
+        int keys = reversedL.length * elevationCount * 2;
+        capacity = (int) Math.max(2, Math.min(keys, budgetBytes / entryBytes));
+        fft = new FloatFFT_1D(fftSize);
+        scratch = new float[fftSize];
+        slotOfKey = new int[keys];
+        Arrays.fill(slotOfKey, -1);
+        keyOfSlot = new int[capacity];
+        spectra = new FloatBuffer[capacity];
+        newer = new int[capacity];
+        older = new int[capacity];
+    }
+
+    /**
+     * Returns the transform length for blocks of {@code blockSize} frames through {@code taps}
+     * taps: the smallest power of two that holds their linear convolution.
+     */
+    static int getFftSize(int blockSize, int taps) {
+        int size = 2;
+        while (size < blockSize + taps - 1) {
+            size *= 2;
+        }
+        return size;
+    }
+
+    /**
+     * Returns the bytes one spectrum of an {@code fftSize}-point transform takes.
+     */
+    static int getSpectrumBytes(int fftSize) {
+        return (fftSize + 2) * 4;
+    }
+
+    static int getDirection(int azimuthIndex, int elevationIndex, int elevationCount) {
+        return azimuthIndex * elevationCount + elevationIndex;
+    }
+
+    int getDirection(int azimuthIndex, int elevationIndex) {
+        return getDirection(azimuthIndex, elevationIndex, elevationCount);
+    }
+
+    int getTaps() {
+        return taps;
+    }
+
+    int getBlockSize() {
+        return blockSize;
+    }
+
+    /**
+     * Returns the transform length the spectra are computed for.
+     */
+    int getFftSize() {
+        return fftSize;
+    }
+
+    /**
+     * Returns the reversed HRIR of one ear for a direction.
+     */
+    float[] getReversedTaps(int direction, int ear) {
+        float[][][] hrir = ear == LEFT ? reversedL : reversedR;
+        return hrir[direction / elevationCount][direction % elevationCount];
+    }
+
+    /**
+     * Returns the spectrum of the HRIR of one ear for a direction, as {@code fftSize / 2 + 1}
+     * interleaved (re, im) bins. The buffer may be reused once it is no longer among the two most
+     * recently returned, so a left and right pair can be fetched and used together.
+     */
+    FloatBuffer getSpectrum(int direction, int ear) {
+        int key = direction * 2 + ear;
+        int slot = slotOfKey[key];
+        if (slot >= 0) {
+            hits++;
+            if (slot != head) {
+                unlink(slot);
+                pushFront(slot);
+            }
+            return spectra[slot];
+        }
+        misses++;
+        if (used < capacity) {
+            slot = used++;
+            spectra[slot] = ByteBuffer.allocateDirect(entryBytes).order(ByteOrder.nativeOrder()).asFloatBuffer();
+        } else {
+            evictions++;
+            slot = tail;
+            unlink(slot);
+            slotOfKey[keyOfSlot[slot]] = -1;
+        }
+        keyOfSlot[slot] = key;
+        slotOfKey[key] = slot;
+        pushFront(slot);
+        transform(getReversedTaps(direction, ear), spectra[slot]);
+        return spectra[slot];
+    }
+
+    private void transform(float[] reversed, FloatBuffer spectrum) {
+        // The correlation with the reversed taps is the convolution with the taps in order.
+        for (int k = 0; k < taps; k++) {
+            scratch[k] = reversed[taps - 1 - k];
+        }
+        Arrays.fill(scratch, taps, fftSize, 0);
+        fft.realForward(scratch);
+        // Packed real layout: [re 0, re n/2, re 1, im 1, ...]; unpack into bins 0..n/2.
+        spectrum.put(0, scratch[0]);
+        spectrum.put(1, 0);
+        for (int i = 2; i < fftSize; i++) {
+            spectrum.put(i, scratch[i]);
+        }
+        spectrum.put(fftSize, scratch[1]);
+        spectrum.put(fftSize + 1, 0);
+    }
+
+    private void unlink(int slot) {
+        int n = newer[slot];
+        int o = older[slot];
+        if (n >= 0) {
+            older[n] = o;
+        } else {
+            head = o;
+        }
+        if (o >= 0) {
+            newer[o] = n;
+        } else {
+            tail = n;
+        }
+    }
+
+    private void pushFront(int slot) {
+        newer[slot] = -1;
+        older[slot] = head;
+        if (head >= 0) {
+            newer[head] = slot;
+        }
+        head = slot;
+        if (tail < 0) {
+            tail = slot;
+        }
+    }
+
+    /**
+     * Returns how many spectra fit in the budget.
+     */
+    int getCapacity() {
+        return capacity;
+    }
+
+    int size() {
+        return used;
+    }
+
+    /**
+     * Returns the bytes of direct memory holding spectra.
+     */
+    long getBytes() {
+        return (long) used * entryBytes;
+    }
+
+    long getHitCount() {
+        return hits;
+    }
+
+    long getMissCount() {
+        return misses;
+    }
+
+    long getEvictionCount() {
+        return evictions;
+    }
+}
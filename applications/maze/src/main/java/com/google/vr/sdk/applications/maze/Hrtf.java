@@ -0,0 +1,133 @@
+/*
+ * Copyright 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vr.sdk.applications.maze;
+
+/**
+ * Layout of the CIPIC head-related impulse responses and the direction lookup into them.
+ */
+/* package */ final class Hrtf {
+    static final int AZIMUTH_COUNT = 25;
+    static final int ELEVATION_COUNT = 50;
+
+    private static float[] azimuths = {-80, -65, -55, -45, -40, -35, -30, -25, -20, -15, -10, -5, 0, 5, 10, 15, 20, 25, 30, 35, 40, 45, 55, 65, 80};
+    private static float[] elevations;
+    private static float PI = (float) Math.acos(-1.0f);
+
+    static {
+        elevations = new float[ELEVATION_COUNT];
+        for (int i = 0; i < ELEVATION_COUNT; i++) {
+            elevations[i] = -45 + 5.625f * i;
+        }
+    }
+
+    /**
+     * Class only contains static methods.
+     */
+    private Hrtf() {
+    }
+
+    /**
+     * Rearranges a flat dump of the MATLAB [azimuth][elevation][tap] array, which is stored in
+     * column-major order, into [azimuth][elevation][tap]. The number of taps follows from the
+     * length of the dump.
+     */
+    static float[][][] fromMatlabOrder(float[] data) {
+        int directions = AZIMUTH_COUNT * ELEVATION_COUNT;
+        if (data.length == 0 || data.length % directions != 0) {
+            throw new IllegalArgumentException("Not a whole number of taps for " + directions
+                    + " directions: " + data.length + " values");
+        }
+        int taps = data.length / directions;
+        float[][][] hrir = new float[AZIMUTH_COUNT][ELEVATION_COUNT][taps];
+        for (int k = 0, cnt = 0; k < taps; k++) {
+            for (int j = 0; j < ELEVATION_COUNT; j++) {
+                for (int i = 0; i < AZIMUTH_COUNT; i++, cnt++) {
+                    hrir[i][j][k] = data[cnt];
+                }
+            }
+        }
+        return hrir;
+    }
+
+    /**
+     * Returns a copy of {@code hrir} with the taps of every filter in reverse order, the layout
+     * {@link ConvolutionKernel} expects.
+     */
+    static float[][][] reverseTaps(float[][][] hrir) {
+        float[][][] reversed = new float[hrir.length][][];
+        for (int i = 0; i < hrir.length; i++) {
+            reversed[i] = new float[hrir[i].length][];
+            for (int j = 0; j < hrir[i].length; j++) {
+                float[] taps = hrir[i][j];
+                float[] r = new float[taps.length];
+                for (int k = 0; k < taps.length; k++) {
+                    r[k] = taps[taps.length - 1 - k];
+                }
+                reversed[i][j] = r;
+            }
+        }
+        return reversed;
+    }
+
+    static void convertRectangleToSphere(float[] rectangle, float[] sphere) {
+        convertRectangleToSphere(rectangle, 0, sphere, 0);
+    }
+
+    static void convertRectangleToSphere(float[] rectangle, int r, float[] sphere, int s) {
+        //纯靠样例测出来公式......
+        sphere[s] = (float) Math.sqrt(rectangle[r] * rectangle[r] + rectangle[r + 1] * rectangle[r + 1] + rectangle[r + 2] * rectangle[r + 2]);
+        sphere[s + 1] = (float) Math.atan2(rectangle[r + 2], -rectangle[r]) * 180 / PI;
+        sphere[s + 2] = (float) Math.asin(rectangle[r + 1] / sphere[s]) * 180 / PI;
+        if (rectangle[r + 2] < 0) {
+            if (sphere[s + 1] > 0) {
+                sphere[s + 1] -= 180;
+            } else {
+                sphere[s + 1] += 180;
+            }
+        }
+    }
+
+    public static void main(String[] args) {
+        float[] x = new float[]{(float) 0, 0, 1, 1};
+        float[] y = new float[4];
+        convertRectangleToSphere(x, y);
+        System.out.println(y[1] + " " + y[2]);
+        System.out.println(PI);
+        System.out.println(getNearestAzimuthIndex(y[2]));
+        System.out.println(getNearestElevationIndex(y[1]));
+    }
+
+    static private int getNearestIndex(float[] array, float val) {
+        int ind = 0;
+        float min = Math.abs(array[0] - val);
+        for (int i = 0; i < array.length; i++) {
+            if (Math.abs(array[i] - val) < min) {
+                min = Math.abs(array[i] - val);
+                ind = i;
+            }
+        }
+        return ind;
+    }
+
+    static int getNearestAzimuthIndex(float azimuth) {
+        return getNearestIndex(azimuths, azimuth);
+    }
+
+    static int getNearestElevationIndex(float elevation) {
+        return getNearestIndex(elevations, elevation);
+    }
+}
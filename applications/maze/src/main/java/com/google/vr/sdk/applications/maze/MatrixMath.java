@@ -0,0 +1,255 @@
+/*
+ * Copyright 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vr.sdk.applications.maze;
+
+/**
+ * The subset of android.opengl.Matrix used by the game logic, in plain Java so that the logic
+ * also runs off-device. Matrices are column-major float[16] slices, exactly like GLES expects.
+ */
+/* package */ final class MatrixMath {
+    /**
+     * Class only contains static methods.
+     */
+    private MatrixMath() {
+    }
+
+    static void setIdentityM(float[] m, int offset) {
+        for (int i = 0; i < 16; i++) {
+            m[offset + i] = (i % 5 == 0) ? 1 : 0;
+        }
+    }
+
+    /**
+     * Computes result = lhs * rhs. The result must not overlap either input.
+     */
+    static void multiplyMM(float[] result, int resultOffset, float[] lhs, int lhsOffset, float[] rhs, int rhsOffset) {
+        for (int i = 0; i < 4; i++) {
+            float l0 = lhs[lhsOffset + i];
+            float l1 = lhs[lhsOffset + 4 + i];
+            float l2 = lhs[lhsOffset + 8 + i];
+            float l3 = lhs[lhsOffset + 12 + i];
+            for (int j = 0; j < 4; j++) {
+                int column = rhsOffset + j * 4;
+                result[resultOffset + j * 4 + i] = l0 * rhs[column] + l1 * rhs[column + 1]
+                        + l2 * rhs[column + 2] + l3 * rhs[column + 3];
+            }
+        }
+    }
+
+    /**
+     * Computes result = lhs * rhs for a 4-component column vector. The result must not overlap the
+     * inputs.
+     */
+    static void multiplyMV(float[] result, int resultOffset, float[] lhs, int lhsOffset, float[] rhs, int rhsOffset) {
+        float x = rhs[rhsOffset];
+        float y = rhs[rhsOffset + 1];
+        float z = rhs[rhsOffset + 2];
+        float w = rhs[rhsOffset + 3];
+        for (int i = 0; i < 4; i++) {
+            result[resultOffset + i] = lhs[lhsOffset + i] * x + lhs[lhsOffset + 4 + i] * y
+                    + lhs[lhsOffset + 8 + i] * z + lhs[lhsOffset + 12 + i] * w;
+        }
+    }
+
+    /**
+     * Post-multiplies m by a translation, in place.
+     */
+    static void translateM(float[] m, int offset, float x, float y, float z) {
+        for (int i = 0; i < 4; i++) {
+            m[offset + 12 + i] += m[offset + i] * x + m[offset + 4 + i] * y + m[offset + 8 + i] * z;
+        }
+    }
+
+    /**
+     * Post-multiplies m by a scale, in place.
+     */
+    static void scaleM(float[] m, int offset, float x, float y, float z) {
+        for (int i = 0; i < 4; i++) {
+            m[offset + i] *= x;
+            m[offset + 4 + i] *= y;
+            m[offset + 8 + i] *= z;
+        }
+    }
+
+    /**
+     * Post-multiplies m by a rotation of a degrees around (x, y, z), in place.
+     */
+    static void rotateM(float[] m, int offset, float a, float x, float y, float z) {
+        float length = (float) Math.sqrt(x * x + y * y + z * z);
+        x /= length;
+        y /= length;
+        z /= length;
+        float radians = (float) Math.toRadians(a);
+        float s = (float) Math.sin(radians);
+        float c = (float) Math.cos(radians);
+        float nc = 1.0f - c;
+        // Upper 3x3 of the rotation, r<row><column>.
+        float r00 = x * x * nc + c;
+        float r10 = y * x * nc + z * s;
+        float r20 = x * z * nc - y * s;
+        float r01 = x * y * nc - z * s;
+        float r11 = y * y * nc + c;
+        float r21 = y * z * nc + x * s;
+        float r02 = x * z * nc + y * s;
+        float r12 = y * z * nc - x * s;
+        float r22 = z * z * nc + c;
+        for (int i = 0; i < 4; i++) {
+            float m0 = m[offset + i];
+            float m1 = m[offset + 4 + i];
+            float m2 = m[offset + 8 + i];
+            m[offset + i] = m0 * r00 + m1 * r10 + m2 * r20;
+            m[offset + 4 + i] = m0 * r01 + m1 * r11 + m2 * r21;
+            m[offset + 8 + i] = m0 * r02 + m1 * r12 + m2 * r22;
+        }
+    }
+
+    /**
+     * Builds a viewing transformation, like gluLookAt.
+     */
+    static void setLookAtM(float[] m, int offset, float eyeX, float eyeY, float eyeZ,
+                           float centerX, float centerY, float centerZ, float upX, float upY, float upZ) {
+        float fx = centerX - eyeX;
+        float fy = centerY - eyeY;
+        float fz = centerZ - eyeZ;
+        float rlf = 1.0f / (float) Math.sqrt(fx * fx + fy * fy + fz * fz);
+        fx *= rlf;
+        fy *= rlf;
+        fz *= rlf;
+
+        // s = f x up
+        float sx = fy * upZ - fz * upY;
+        float sy = fz * upX - fx * upZ;
+        float sz = fx * upY - fy * upX;
+        float rls = 1.0f / (float) Math.sqrt(sx * sx + sy * sy + sz * sz);
+        sx *= rls;
+        sy *= rls;
+        sz *= rls;
+
+        // u = s x f
+        float ux = sy * fz - sz * fy;
+        float uy = sz * fx - sx * fz;
+        float uz = sx * fy - sy * fx;
+
+        m[offset] = sx;
+        m[offset + 1] = ux;
+        m[offset + 2] = -fx;
+        m[offset + 3] = 0.0f;
+        m[offset + 4] = sy;
+        m[offset + 5] = uy;
+        m[offset + 6] = -fy;
+        m[offset + 7] = 0.0f;
+        m[offset + 8] = sz;
+        m[offset + 9] = uz;
+        m[offset + 10] = -fz;
+        m[offset + 11] = 0.0f;
+        m[offset + 12] = 0.0f;
+        m[offset + 13] = 0.0f;
+        m[offset + 14] = 0.0f;
+        m[offset + 15] = 1.0f;
+        translateM(m, offset, -eyeX, -eyeY, -eyeZ);
+    }
+
+    /**
+     * Places an object at (x, y, z) with its -Z axis along (forwardX, forwardY, forwardZ) and its
+     * +Y axis as close to world up as possible. This is the inverse of {@link #setLookAtM} from the
+     * same point along the same direction, built directly instead of by inverting it.
+     */
+    static void setFacingM(float[] m, int offset, float x, float y, float z,
+                           float forwardX, float forwardY, float forwardZ) {
+        float inverse = 1 / (float) Math.sqrt(forwardX * forwardX + forwardY * forwardY + forwardZ * forwardZ);
+        forwardX *= inverse;
+        forwardY *= inverse;
+        forwardZ *= inverse;
+        // side = forward x up, with up = +Y.
+        float sideX = -forwardZ;
+        float sideZ = forwardX;
+        float sideLength = (float) Math.sqrt(sideX * sideX + sideZ * sideZ);
+        if (sideLength < 1e-6f) {
+            sideX = 1;
+            sideZ = 0;
+        } else {
+            sideX /= sideLength;
+            sideZ /= sideLength;
+        }
+        // up = side x forward.
+        m[offset] = sideX;
+        m[offset + 1] = 0;
+        m[offset + 2] = sideZ;
+        m[offset + 3] = 0;
+        m[offset + 4] = -sideZ * forwardY;
+        m[offset + 5] = sideZ * forwardX - sideX * forwardZ;
+        m[offset + 6] = sideX * forwardY;
+        m[offset + 7] = 0;
+        m[offset + 8] = -forwardX;
+        m[offset + 9] = -forwardY;
+        m[offset + 10] = -forwardZ;
+        m[offset + 11] = 0;
+        m[offset + 12] = x;
+        m[offset + 13] = y;
+        m[offset + 14] = z;
+        m[offset + 15] = 1;
+    }
+
+    /**
+     * Inverts a 4x4 matrix. The result may overlap the input.
+     *
+     * @return false if the matrix is singular, in which case the result is left untouched.
+     */
+    static boolean invertM(float[] inv, int invOffset, float[] m, int mOffset) {
+        float a00 = m[mOffset], a01 = m[mOffset + 1], a02 = m[mOffset + 2], a03 = m[mOffset + 3];
+        float a10 = m[mOffset + 4], a11 = m[mOffset + 5], a12 = m[mOffset + 6], a13 = m[mOffset + 7];
+        float a20 = m[mOffset + 8], a21 = m[mOffset + 9], a22 = m[mOffset + 10], a23 = m[mOffset + 11];
+        float a30 = m[mOffset + 12], a31 = m[mOffset + 13], a32 = m[mOffset + 14], a33 = m[mOffset + 15];
+
+        float b00 = a00 * a11 - a01 * a10;
+        float b01 = a00 * a12 - a02 * a10;
+        float b02 = a00 * a13 - a03 * a10;
+        float b03 = a01 * a12 - a02 * a11;
+        float b04 = a01 * a13 - a03 * a11;
+        float b05 = a02 * a13 - a03 * a12;
+        float b06 = a20 * a31 - a21 * a30;
+        float b07 = a20 * a32 - a22 * a30;
+        float b08 = a20 * a33 - a23 * a30;
+        float b09 = a21 * a32 - a22 * a31;
+        float b10 = a21 * a33 - a23 * a31;
+        float b11 = a22 * a33 - a23 * a32;
+
+        float det = b00 * b11 - b01 * b10 + b02 * b09 + b03 * b08 - b04 * b07 + b05 * b06;
+        if (det == 0.0f) {
+            return false;
+        }
+        float invDet = 1.0f / det;
+
+        inv[invOffset] = (a11 * b11 - a12 * b10 + a13 * b09) * invDet;
+        inv[invOffset + 1] = (a02 * b10 - a01 * b11 - a03 * b09) * invDet;
+        inv[invOffset + 2] = (a31 * b05 - a32 * b04 + a33 * b03) * invDet;
+        inv[invOffset + 3] = (a22 * b04 - a21 * b05 - a23 * b03) * invDet;
+        inv[invOffset + 4] = (a12 * b08 - a10 * b11 - a13 * b07) * invDet;
+        inv[invOffset + 5] = (a00 * b11 - a02 * b08 + a03 * b07) * invDet;
+        inv[invOffset + 6] = (a32 * b02 - a30 * b05 - a33 * b01) * invDet;
+        inv[invOffset + 7] = (a20 * b05 - a22 * b02 + a23 * b01) * invDet;
+        inv[invOffset + 8] = (a10 * b10 - a11 * b08 + a13 * b06) * invDet;
+        inv[invOffset + 9] = (a01 * b08 - a00 * b10 - a03 * b06) * invDet;
+        inv[invOffset + 10] = (a30 * b04 - a31 * b02 + a33 * b00) * invDet;
+        inv[invOffset + 11] = (a21 * b02 - a20 * b04 - a23 * b00) * invDet;
+        inv[invOffset + 12] = (a11 * b07 - a10 * b09 - a12 * b06) * invDet;
+        inv[invOffset + 13] = (a00 * b09 - a01 * b07 + a02 * b06) * invDet;
+        inv[invOffset + 14] = (a31 * b01 - a30 * b03 - a32 * b00) * invDet;
+        inv[invOffset + 15] = (a20 * b03 - a21 * b01 + a22 * b00) * invDet;
+        return true;
+    }
+}
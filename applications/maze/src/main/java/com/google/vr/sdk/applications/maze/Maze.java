@@ -1,24 +1,38 @@
 package com.google.vr.sdk.applications.maze;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.Random;
-import java.util.Vector;
 
 public class Maze {
+    private static final String TAG = "Maze";
     static final float WALL_WIDTH = 0.2f;
     static final float PATH_WIDTH = 0.7f;
     static final float WALL_HEIGHT = 1f;
     private static final float PEOPLE_HEIGHT = 0.7f;
+    // Mazes with at least this many cells compute their distance field on a background thread.
+    private static final int BACKGROUND_FIELD_CELLS = 128 * 128;
+    private static final int START_CANDIDATES = 16;
+    // Larger saved mazes are treated as corrupt rather than allocated.
+    private static final long MAX_SAVED_CELLS = 1 << 24;
+    // How many steps of path one side branch off the path is worth when rating difficulty.
+    private static final float SIDE_BRANCH_WEIGHT = 0.25f;
     private final int n;
     private final int m;
     private final int[] dx = {1, 0};
     private final int[] dy = {0, 1};
-    private boolean[][] isOpenHor;
-    private boolean[][] isOpenVer;
-    private boolean[][] isMarkedHor;
-    private boolean[][] isMarkedVer;
+    private final boolean[][] isOpenHor;
+    private final boolean[][] isOpenVer;
+    // Bit r * m + c marks horizontal passage (r, c); bit (n + 1) * m + r * (m + 1) + c marks
+    // vertical passage (r, c).
+    private final long[] marks;
     private int[] father;
     private int endR, endC;
-    private Vector<Box> walls;
+    // Immutable views of the walls, built once the layout is final and shared by every consumer.
+    private final WallGrid wallGrid;
+    private final GridRayCaster rayCaster;
+    private volatile DistanceField distanceField;
     private Random random;
 
 
@@ -27,13 +41,123 @@ public class Maze {
         m = _M;
         isOpenHor = new boolean[n + 1][m];
         isOpenVer = new boolean[n][m + 1];
-        isMarkedHor = new boolean[n + 1][m];
-        isMarkedVer = new boolean[n][m + 1];
+        marks = new long[(getMarkIndexCount() + 63) >> 6];
         father = new int[n * m];
         endR = 0;
         endC = m / 2;
         initMaze();
+        wallGrid = createWallGrid();
+        rayCaster = new GridRayCaster(this, n, m);
+        build();
+    }
+
+    /**
+     * Restores a maze written by {@link #write}, walls and marks included.
+     */
+    private Maze(DataInput in) throws IOException {
+        n = in.readInt();
+        m = in.readInt();
+        if (n <= 0 || m <= 0 || (long) n * m > MAX_SAVED_CELLS) {
+            throw new IOException("Bad maze size " + n + "x" + m);
+        }
+        endR = in.readInt();
+        endC = in.readInt();
+        if (endR < 0 || endR >= n || endC < 0 || endC >= m) {
+            throw new IOException("Exit (" + endR + ", " + endC + ") outside a " + n + "x" + m + " maze");
+        }
+        isOpenHor = new boolean[n + 1][m];
+        isOpenVer = new boolean[n][m + 1];
+        long[] open = readBits(in, (n + 1) * m + n * (m + 1));
+        for (int r = 0; r <= n; r++) {
+            for (int c = 0; c < m; c++) {
+                isOpenHor[r][c] = getBit(open, r * m + c);
+            }
+        }
+        for (int r = 0; r < n; r++) {
+            for (int c = 0; c <= m; c++) {
+                isOpenVer[r][c] = getBit(open, (n + 1) * m + r * (m + 1) + c);
+            }
+        }
+        marks = readBits(in, getMarkIndexCount());
+        wallGrid = createWallGrid();
+        rayCaster = new GridRayCaster(this, n, m);
+        build();
+    }
+
+    /**
+     * Reads a maze written by {@link #write}.
+     */
+    static Maze read(DataInput in) throws IOException {
+        return new Maze(in);
+    }
+
+    /**
+     * Writes the size, the exit, the walls and the marks as packed bits, so the size does not
+     * depend on how many passages are marked.
+     */
+    void write(DataOutput out) throws IOException {
+        out.writeInt(n);
+        out.writeInt(m);
+        out.writeInt(endR);
+        out.writeInt(endC);
+        long[] open = new long[((n + 1) * m + n * (m + 1) + 63) >> 6];
+        for (int r = 0; r <= n; r++) {
+            for (int c = 0; c < m; c++) {
+                if (isOpenHor[r][c]) {
+                    setBit(open, r * m + c);
+                }
+            }
+        }
+        for (int r = 0; r < n; r++) {
+            for (int c = 0; c <= m; c++) {
+                if (isOpenVer[r][c]) {
+                    setBit(open, (n + 1) * m + r * (m + 1) + c);
+                }
+            }
+        }
+        writeBits(out, open);
+        writeBits(out, marks);
+    }
+
+    private static void writeBits(DataOutput out, long[] bits) throws IOException {
+        for (long word : bits) {
+            out.writeLong(word);
+        }
+    }
+
+    private static long[] readBits(DataInput in, int count) throws IOException {
+        long[] bits = new long[(count + 63) >> 6];
+        for (int i = 0; i < bits.length; i++) {
+            bits[i] = in.readLong();
+        }
+        return bits;
+    }
+
+    private static void setBit(long[] bits, int bit) {
+        bits[bit >> 6] |= 1L << bit;
+    }
+
+    private static boolean getBit(long[] bits, int bit) {
+        return (bits[bit >> 6] & (1L << bit)) != 0;
+    }
+
+    /**
+     * Computes the distance field, on a background thread for large mazes.
+     */
+    private void build() {
         random = new Random();
+        if (n * m < BACKGROUND_FIELD_CELLS) {
+            distanceField = new DistanceField(this, n, m, endR, endC);
+        } else {
+            Thread fieldThread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    distanceField = new DistanceField(Maze.this, n, m, endR, endC);
+                }
+            }, "DistanceField");
+            fieldThread.setDaemon(true);
+            fieldThread.start();
+        }
     }
 
     public static void main(String[] args) {
@@ -41,31 +165,81 @@ public class Maze {
         for (int i = 0; i < 8 + 1; i++) {
             for (int j = 0; j < 8; j++) {
                 System.out.printf("(%d, %d): %d ", i, j, maze.isHorizontalWall(i, j) ? 1 : 0);
-                maze.getHorizontalWallPosition(i, j).describe();
+                System.out.println(maze.getHorizontalWallPosition(i, j).describe());
             }
         }
     }
 
-    private void generateWalls() {
-        walls = new Vector<>();
+    /**
+     * Builds the boxes of the horizontal walls, then of the vertical ones, row by row.
+     */
+    private WallGrid createWallGrid() {
+        int count = 0;
+        for (int i = 0; i < n + 1; i++) {
+            for (int j = 0; j < m; j++) {
+                if (isHorizontalWall(i, j)) {
+                    count++;
+                }
+            }
+        }
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < m + 1; j++) {
+                if (isVerticalWall(i, j)) {
+                    count++;
+                }
+            }
+        }
+        Box[] walls = new Box[count];
+        count = 0;
         for (int i = 0; i < n + 1; i++) {
             for (int j = 0; j < m; j++) {
                 if (isHorizontalWall(i, j)) {
-                    walls.add(getHorizontalWallPosition(i, j));
+                    walls[count++] = getHorizontalWallPosition(i, j);
                 }
             }
         }
         for (int i = 0; i < n; i++) {
             for (int j = 0; j < m + 1; j++) {
                 if (isVerticalWall(i, j)) {
-                    walls.add(getVerticalWallPosition(i, j));
+                    walls[count++] = getVerticalWallPosition(i, j);
                 }
             }
         }
+        return new WallGrid(walls, WALL_WIDTH + PATH_WIDTH);
+    }
+
+    /**
+     * Returns the wall boxes and their collision broadphase. The walls of a maze never change, so
+     * this is the same immutable object for its whole life.
+     */
+    WallGrid getWallGrid() {
+        return wallGrid;
     }
 
-    Vector<Box> getWalls() {
-        return walls;
+    GridRayCaster getRayCaster() {
+        return rayCaster;
+    }
+
+    /**
+     * Returns the distances to the exit, or null while a large maze is still computing them.
+     */
+    DistanceField getDistanceField() {
+        return distanceField;
+    }
+
+    /**
+     * Rates a start cell: the length of its path to the exit plus a share for every side branch
+     * along that path that the player may wander into.
+     */
+    private float getDifficulty(DistanceField field, int r, int c) {
+        return field.getDistance(r, c) + SIDE_BRANCH_WEIGHT * field.getSideBranchCount(r, c);
+    }
+
+    /**
+     * Returns the X (for a column) or Z (for a row) coordinate of the middle of a cell.
+     */
+    static float getCellCenter(int index) {
+        return index * (WALL_WIDTH + PATH_WIDTH) + WALL_WIDTH + 0.5f * PATH_WIDTH;
     }
 
     Box getHorizontalWallPosition(int r, int c) {
@@ -172,28 +346,41 @@ public class Maze {
 //                isOpenVer[i][j] = true;
 //            }
 //        }
-        describe();
-        generateWalls();
     }
 
-    private void describe() {
-        System.out.println("Generated maze is:");
+    /**
+     * Renders the maze as ASCII art. Only meant for on-demand debug dumps.
+     */
+    String describe() {
+        StringBuilder builder = new StringBuilder("Generated maze is:\n");
         for (int i = 0; i < n; i++) {
             for (int j = 0; j < m; j++) {
-                System.out.print(' ');
-                System.out.print(isOpenHor[i][j] ? ' ' : '-');
+                builder.append(' ');
+                builder.append(isOpenHor[i][j] ? ' ' : '-');
             }
-            System.out.println();
+            builder.append('\n');
             for (int j = 0; j <= m; j++) {
-                System.out.print(isOpenVer[i][j] ? ' ' : '|');
-                System.out.print(' ');
+                builder.append(isOpenVer[i][j] ? ' ' : '|');
+                builder.append(' ');
             }
-            System.out.println();
+            builder.append('\n');
         }
         for (int j = 0; j < m; j++) {
-            System.out.print(' ');
-            System.out.print(isOpenHor[n][j] ? ' ' : '-');
+            builder.append(' ');
+            builder.append(isOpenHor[n][j] ? ' ' : '-');
         }
+        return builder.toString();
+    }
+
+    /**
+     * Lists every wall box. Only meant for on-demand debug dumps.
+     */
+    String describeWalls() {
+        StringBuilder builder = new StringBuilder().append(wallGrid.getBoxCount()).append(" walls:");
+        for (int i = 0; i < wallGrid.getBoxCount(); i++) {
+            builder.append('\n').append(wallGrid.describeBox(i));
+        }
+        return builder.toString();
     }
 
     Point generateStartPoint() {
@@ -201,30 +388,61 @@ public class Maze {
         //int c = endC;
         int r = random.nextInt(n - 1) + 1;
         int c = random.nextInt(m - 1) + 1;
-        return new Point(c * (WALL_WIDTH + PATH_WIDTH) + WALL_WIDTH + 0.5f * PATH_WIDTH, PEOPLE_HEIGHT, r * (WALL_WIDTH + PATH_WIDTH) + WALL_WIDTH + 0.5F * PATH_WIDTH);
+        return new Point(getCellCenter(c), PEOPLE_HEIGHT, getCellCenter(r));
     }
 
-    Plane getEndPointPlane(Texture texture) {
-        return new Plane(new Point(endC * (WALL_WIDTH + PATH_WIDTH) + WALL_WIDTH + 0.5f * PATH_WIDTH, WALL_HEIGHT / 2, endR * (WALL_WIDTH + PATH_WIDTH)),
-                new Point(PATH_WIDTH, WALL_HEIGHT, 0), new Point(0, 0, 1), 0, texture);
+    /**
+     * Samples a few random start cells and returns the one whose difficulty is closest to the
+     * target. Falls back to {@link #generateStartPoint()} while the distance field is not ready.
+     */
+    Point generateStartPoint(float targetDifficulty) {
+        DistanceField field = distanceField;
+        if (field == null) {
+            return generateStartPoint();
+        }
+        int bestR = 0;
+        int bestC = 0;
+        float bestError = Float.POSITIVE_INFINITY;
+        for (int i = 0; i < START_CANDIDATES; i++) {
+            int r = random.nextInt(n - 1) + 1;
+            int c = random.nextInt(m - 1) + 1;
+            float error = Math.abs(getDifficulty(field, r, c) - targetDifficulty);
+            if (error < bestError) {
+                bestError = error;
+                bestR = r;
+                bestC = c;
+            }
+        }
+        if (GameLog.DEBUG_ENABLED) {
+            GameLog.d(TAG, "start (%d, %d) has difficulty %f for target %f", bestR, bestC,
+                    getDifficulty(field, bestR, bestC), targetDifficulty);
+        }
+        return new Point(getCellCenter(bestC), PEOPLE_HEIGHT, getCellCenter(bestR));
     }
 
     //打标记必须保证两边都有实墙
     int updateHorizontalMark(int r, int c) {
-        System.out.printf("you are trying to mark horizontal (%d, %d)\n", r, c);
+        if (GameLog.DEBUG_ENABLED) {
+            GameLog.d(TAG, "you are trying to mark horizontal (%d, %d)", r, c);
+        }
         if (r < 0 || r > n || c < 0 || c >= m) {
             return 0;
         } else {
-            System.out.printf("ver (%d, %d) = %d, hor (%d, %d) = %d, hor (%d, %d) = %d, hor(%d, %d) = %d, hor(%d, %d) = %d\n",
-                    r, c, isHorizontalWall(r, c) ? 1 : 0, r, c, isVerticalWall(r, c) ? 1 : 0, r, c + 1, isVerticalWall(r, c + 1) ? 1 : 0,
-                    r - 1, c, isVerticalWall(r - 1, c) ? 1 : 0, r - 1, c + 1, isVerticalWall(r - 1, c + 1) ? 1 : 0);
+            if (GameLog.DEBUG_ENABLED) {
+                GameLog.d(TAG, "ver (%d, %d) = %d, hor (%d, %d) = %d, hor (%d, %d) = %d, hor(%d, %d) = %d, hor(%d, %d) = %d",
+                        r, c, isHorizontalWall(r, c) ? 1 : 0, r, c, isVerticalWall(r, c) ? 1 : 0, r, c + 1, isVerticalWall(r, c + 1) ? 1 : 0,
+                        r - 1, c, isVerticalWall(r - 1, c) ? 1 : 0, r - 1, c + 1, isVerticalWall(r - 1, c + 1) ? 1 : 0);
+            }
 
             if (!isHorizontalWall(r, c) &&
                     ((isVerticalWall(r, c) && isVerticalWall(r, c + 1)) || (
                             (r > 0 && isVerticalWall(r - 1, c) && isVerticalWall(r - 1, c + 1))))) {
-                isMarkedHor[r][c] = !isMarkedHor[r][c];
-                System.out.printf("successed and isMarkedHoe[%d][%d] is %d\n", r, c, isMarkedHor[r][c] ? 1 : 0);
-                if (isMarkedHor[r][c]) {
+                int index = getHorizontalMarkIndex(r, c);
+                marks[index >> 6] ^= 1L << index;
+                if (GameLog.DEBUG_ENABLED) {
+                    GameLog.d(TAG, "successed and isMarkedHor[%d][%d] is %d", r, c, isMarked(index) ? 1 : 0);
+                }
+                if (isMarked(index)) {
                     return 1;
                 } else {
                     return 2;
@@ -236,19 +454,26 @@ public class Maze {
     }
 
     int updateVerticalMark(int r, int c) {
-        System.out.printf("you are trying to mark vertical (%d, %d)\n", r, c);
+        if (GameLog.DEBUG_ENABLED) {
+            GameLog.d(TAG, "you are trying to mark vertical (%d, %d)", r, c);
+        }
         if (r < 0 || r >= n || c < 0 || c > m) {
             return 0;
         } else {
-            System.out.printf("ver (%d, %d) = %d, hor (%d, %d) = %d, hor (%d, %d) = %d, hor(%d, %d) = %d, hor(%d, %d) = %d\n",
-                    r, c, isVerticalWall(r, c) ? 1 : 0, r, c, isHorizontalWall(r, c) ? 1 : 0, r + 1, c, isHorizontalWall(r + 1, c) ? 1 : 0,
-                    r, c - 1, isHorizontalWall(r, c - 1) ? 1 : 0, r + 1, c - 1, isHorizontalWall(r + 1, c - 1) ? 1 : 0);
+            if (GameLog.DEBUG_ENABLED) {
+                GameLog.d(TAG, "ver (%d, %d) = %d, hor (%d, %d) = %d, hor (%d, %d) = %d, hor(%d, %d) = %d, hor(%d, %d) = %d",
+                        r, c, isVerticalWall(r, c) ? 1 : 0, r, c, isHorizontalWall(r, c) ? 1 : 0, r + 1, c, isHorizontalWall(r + 1, c) ? 1 : 0,
+                        r, c - 1, isHorizontalWall(r, c - 1) ? 1 : 0, r + 1, c - 1, isHorizontalWall(r + 1, c - 1) ? 1 : 0);
+            }
             if (!isVerticalWall(r, c) &&
                     ((isHorizontalWall(r, c) && isHorizontalWall(r + 1, c)) ||
                             (c > 0 && isHorizontalWall(r, c - 1) && isHorizontalWall(r + 1, c - 1)))) {
-                isMarkedVer[r][c] = !isMarkedVer[r][c];
-                System.out.printf("successed and isMarkedVer[%d][%d] is %d\n", r, c, isMarkedVer[r][c] ? 1 : 0);
-                if (isMarkedVer[r][c]) {
+                int index = getVerticalMarkIndex(r, c);
+                marks[index >> 6] ^= 1L << index;
+                if (GameLog.DEBUG_ENABLED) {
+                    GameLog.d(TAG, "successed and isMarkedVer[%d][%d] is %d", r, c, isMarked(index) ? 1 : 0);
+                }
+                if (isMarked(index)) {
                     return 1;
                 } else {
                     return 2;
@@ -260,11 +485,106 @@ public class Maze {
     }
 
     boolean isHorizontalMark(int r, int c) {
-        return isMarkedHor[r][c];
+        return isMarked(getHorizontalMarkIndex(r, c));
     }
 
     boolean isVerticalMark(int r, int c) {
-        return isMarkedVer[r][c];
+        return isMarked(getVerticalMarkIndex(r, c));
+    }
+
+    /**
+     * Returns the number of passages that can hold a mark: the horizontal ones first, then the
+     * vertical ones.
+     */
+    int getMarkIndexCount() {
+        return (n + 1) * m + n * (m + 1);
+    }
+
+    int getHorizontalMarkIndex(int r, int c) {
+        return r * m + c;
+    }
+
+    int getVerticalMarkIndex(int r, int c) {
+        return (n + 1) * m + r * (m + 1) + c;
+    }
+
+    boolean isMarked(int index) {
+        return getBit(marks, index);
+    }
+
+    /**
+     * Returns the number of longs {@link #copyMarks} writes.
+     */
+    int getMarkWordCount() {
+        return marks.length;
+    }
+
+    /**
+     * Copies the mark bits, bit i of word i / 64 for mark index i, so another thread can read
+     * them while this one toggles marks.
+     */
+    void copyMarks(long[] out) {
+        System.arraycopy(marks, 0, out, 0, marks.length);
+    }
+
+    /**
+     * Returns the first marked passage at or after {@code index}, or -1 if there is none. Skips
+     * unmarked passages a word at a time.
+     */
+    int nextMark(int index) {
+        int total = getMarkIndexCount();
+        if (index >= total) {
+            return -1;
+        }
+        int word = index >> 6;
+        long bits = marks[word] & (-1L << index);
+        while (true) {
+            if (bits != 0) {
+                int mark = (word << 6) + Long.numberOfTrailingZeros(bits);
+                return mark < total ? mark : -1;
+            }
+            if (++word == marks.length) {
+                return -1;
+            }
+            bits = marks[word];
+        }
+    }
+
+    /**
+     * Returns whether a mark index is a horizontal passage, which lies along X; vertical passages
+     * lie along Z.
+     */
+    boolean isHorizontalMarkIndex(int index) {
+        return index < (n + 1) * m;
+    }
+
+    /**
+     * Returns the X coordinate of the middle of a marked passage: the cell center for a horizontal
+     * passage, the middle of the wall line for a vertical one.
+     */
+    float getMarkX(int index) {
+        if (isHorizontalMarkIndex(index)) {
+            return getCellCenter(index % m);
+        }
+        return (index - (n + 1) * m) % (m + 1) * (WALL_WIDTH + PATH_WIDTH) + WALL_WIDTH * 0.5f;
+    }
+
+    /**
+     * Returns the Z coordinate of the middle of a marked passage.
+     */
+    float getMarkZ(int index) {
+        if (isHorizontalMarkIndex(index)) {
+            return index / m * (WALL_WIDTH + PATH_WIDTH) + WALL_WIDTH * 0.5f;
+        }
+        return getCellCenter((index - (n + 1) * m) / (m + 1));
+    }
+
+    int getRowCount() {
+        return n;
+    }
+
+    int getColumnCount() {
+        return m;
     }
 
     Point getMaxPoint() {
@@ -16,11 +16,10 @@
 
 package com.google.vr.sdk.applications.maze;
 
-import android.media.AudioFormat;
+import android.content.Context;
+import android.graphics.Bitmap;
 import android.media.AudioManager;
-import android.media.AudioTrack;
 import android.opengl.GLES20;
-import android.opengl.Matrix;
 import android.os.Bundle;
 import android.util.Log;
 import android.view.MotionEvent;
@@ -33,11 +32,12 @@ import com.google.vr.sdk.base.GvrView;
 import com.google.vr.sdk.base.HeadTransform;
 import com.google.vr.sdk.base.Viewport;
 
-import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileWriter;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.util.Arrays;
-import java.util.Random;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import javax.microedition.khronos.egl.EGLConfig;
 
@@ -49,93 +49,99 @@ import javax.microedition.khronos.egl.EGLConfig;
  * Cardboard mode, the user must gaze at the object and use the Cardboard trigger button. When in
  * Daydream mode, the user can use the controller to position the cursor, and use the controller
  * buttons to invoke the trigger action.
+ *
+ * <p>The game itself lives in {@link MazeGame}; this activity only adapts the GVR callbacks, the
+ * Android audio stack and GLES to it.
+ *
+ * <p>The assets load in parallel on an {@link AssetLoader} while the views and the audio engine
+ * start: the game starts as soon as its audio is ready, and meshes and textures show up as their
+ * uploads go through on the GL thread. Until then the renderer shows the loading progress; if the
+ * game fails to load, the activity finishes.
+ *
+ * <p>Once started, the game simulates and renders its audio on a {@link FramePipeline} worker a
+ * frame ahead, and the GL thread only draws the frame packets it finishes.
  */
 public class MazeActivity extends GvrActivity implements GvrView.StereoRenderer {
     private static final String TAG = "MazeActivity";
-    private static final float STEP_LENGTH = 0.01f;
-    private static final long DOUBLE_CLICK_INTERVAL_LIMIT = 300;
     private static final float Z_NEAR = 0.01f;
     private static final float Z_FAR = 10.0f;
     private static final String OBJECT_SOUND_FILE = "audio/bgm64.ogg";
     private static final String BUILD_SUCCESS = "audio/build_success.mp3";
     private static final String BUILD_FAIL = "audio/build_fail2.mp3";
-    private static final String FINAL_SUCCESS = "audio/final_success.mp3";
     private static final String SUCCESS_SOUND_FILE = "audio/build_fail.mp3";
-    private static final String COLLIDE_WALL = "audio/wall.mp3";
     private static final float FLOOR_HEIGHT = -2.0f;
     private static final float ANGLE_LIMIT = 0.2f;
     // The maximum yaw and pitch of the target object, in degrees. After hiding the target, its
     // yaw will be within [-MAX_YAW, MAX_YAW] and pitch will be within [-MAX_PITCH, MAX_PITCH].
     private static final float MAX_YAW = 100.0f;
     private static final float MAX_PITCH = 25.0f;
-    private static final int FRAME_SAMPLES = 500;
-    private static final int TOTAL_SAMPLES = 120000;
-    private static final int SAMPLE_RATE = 22050;
-    private static final int CONVOLVE_SIZE = 100;
-    private static final String[] OBJECT_VERTEX_SHADER_CODE =
-            new String[]{
-                    "uniform mat4 u_MVP;",
-                    "attribute vec4 a_Position;",
-                    "attribute vec2 a_UV;",
-                    "varying vec2 v_UV;",
-                    "",
-                    "void main() {",
-                    "  v_UV = a_UV;",
-                    "  gl_Position = u_MVP * a_Position;",
-                    "}",
-            };
-    private static final String[] OBJECT_FRAGMENT_SHADER_CODE =
-            new String[]{
-                    "precision mediump float;",
-                    "varying vec2 v_UV;",
-                    "uniform sampler2D u_Texture;",
-                    "",
-                    "void main() {",
-                    "  // The y coordinate of this sample's textures is reversed compared to",
-                    "  // what OpenGL expects, so we invert the y coordinate.",
-                    "  gl_FragColor = texture2D(u_Texture, vec2(v_UV.x, 1.0 - v_UV.y));",
-                    "}",
-            };
-    private static int MAZE_WIDTH = 4;
-    private static int MAZE_HEIGHT = 4;
-    private long lastClickTimeMillis = 0;
-    private long lastCollideTimeMillis = 0;
-    private boolean isMoving = false;
-    private boolean success = false;
-    private int objectProgram;
-    private int objectPositionParam;
-    private int objectUvParam;
-    private int objectModelViewProjectionParam;
-    private int mosquitoDirectionPeriod = 100;
-    private int mosquitoDircetionCount = 0;
-    private TexturedMesh wall, floor, mosquito;
-    private Texture wallTex, floorTex, ceilTex, mosquitoTex;
-    private float[] camera;
-    private float[] view;
-    private float[] headView;
-    private float[] modelViewProjection;
-    private float[] modelView;
-    private float[] perspective;
-    private float[] modelFloor;
-    private float[] modelCeil;
-    private float[] modelMosquito;
-    private float[][][] modelHorizontalWall;
-    private float[][][] modelVerticalWall;
-    private float[][][] hrirL;
-    private float[][][] hrirR;
-    private float[] mosquitoL;
-    private float[] mosquitoR;
-    private AudioTrack audioTrack;
-    private int currentSample;
-    private float[] headRotation;
-    private float[] headDirection;
+    private static final String TRACE_FILE = "frame_trace.json";
+    /**
+     * Records the head trajectory of the session so it can be replayed by the headless driver.
+     */
+    private static final boolean RECORD_TRAJECTORY = false;
+    /**
+     * Marks the shortest path to the exit on the floor.
+     */
+    private static final boolean SHOW_PATH_GUIDE = false;
+    /**
+     * Number of extra mosquitoes flying around the one the player hunts.
+     */
+    private static final int SWARM_SIZE = 0;
+    private static final String TRAJECTORY_FILE = "head_trajectory.txt";
+    /**
+     * Saved game in the app's private files, written on pause and restored on create.
+     */
+    private static final String SNAPSHOT_FILE = "maze.snapshot";
+    /**
+     * How far ahead of playback the spatialized mosquito audio is rendered. Lower is more
+     * responsive to head turns; raise it if the log shows underruns on a device.
+     */
+    private static final int AUDIO_LATENCY_TARGET_MILLIS = MazeGame.DEFAULT_AUDIO_LATENCY_MILLIS;
+    /**
+     * Rate of the HRIR and mosquito dumps in res/raw. They are resampled to the device's native
+     * output rate on load, so that the system mixer does not have to and the track can take the
+     * low-latency path.
+     */
+    private static final int RAW_AUDIO_SAMPLE_RATE = 22050;
+    /**
+     * GL thread time per frame for texture uploads while loading.
+     */
+    private static final long GL_UPLOAD_BUDGET_NANOS = 4_000_000;
+    /**
+     * Parsed, resampled and decoded assets from earlier launches, in the app's cache directory.
+     */
+    private static final String DERIVED_ASSET_DIR = "derived-assets";
+    private static final long DERIVED_ASSET_CACHE_BYTES = 32 << 20;
     private GvrAudioEngine gvrAudioEngine;
     private volatile int sourceId = GvrAudioEngine.INVALID_ID;
-    private volatile int successSourceId = GvrAudioEngine.INVALID_ID;
-    private Maze maze;
-    private CameraPosition cameraPosition;
-    private MosquitoPosition mosquitoPosition;
-    private int minBufferSize;
+    private final FrameProfiler profiler = new FrameProfiler();
+    // Null until the game's assets are loaded; see startGame.
+    private volatile MazeGame game;
+    private volatile FramePipeline pipeline;
+    private GlRenderBackend renderBackend;
+    private final FrameRenderer frameRenderer = new FrameRenderer(profiler);
+    // The packet onNewFrame took, so that the eyes of a frame draw the same one; null while none
+    // is ready.
+    private FramePacket framePacket;
+    private final HeadTransformPoseSource poseSource = new HeadTransformPoseSource();
+    private final HeadTrajectory trajectory = new HeadTrajectory();
+    private final float[] headRotation = new float[4];
+    private boolean isMoving = false;
+    // Writes snapshots off the UI thread, one at a time and in order.
+    private final ExecutorService snapshotWriter = Executors.newSingleThreadExecutor();
+    // Dropped by the GL thread once everything is loaded.
+    private volatile AssetLoader assetLoader;
+    private volatile AssetLoader.Asset<MazeGame> gameAsset;
+    private DerivedAssetCache derivedAssets;
+    private long createNanos;
+    private boolean firstFrameLogged;
+    private int framesPerBurst;
+    private volatile AudioTrackOutput audioOutput;
+    // Orders publishing the game against onPause and onDestroy.
+    private final Object lifecycleLock = new Object();
+    private boolean paused;
+    private boolean destroyed;
 
     /**
      * Sets the view to our GvrView and initializes the transformation matrices we will use
@@ -145,63 +151,178 @@ public class MazeActivity extends GvrActivity implements GvrView.StereoRenderer
     public void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
 
+        GameLog.setSink(new GameLog.Sink() {
+            @Override
+            public void write(int level, String tag, String message) {
+                Log.println(level, tag, message);
+            }
+        });
+        createNanos = System.nanoTime();
+        assetLoader = new AssetLoader(AssetLoader.defaultThreadCount());
+        derivedAssets = new DerivedAssetCache(new File(getCacheDir(), DERIVED_ASSET_DIR), DERIVED_ASSET_CACHE_BYTES);
+        AudioManager audioManager = (AudioManager) getSystemService(Context.AUDIO_SERVICE);
+        framesPerBurst = AudioTrackOutput.getOutputFramesPerBurst(audioManager);
+        int sampleRate = AudioTrackOutput.getOutputSampleRate(audioManager);
+        // Start the parses and decodes before the views, which take a while to inflate.
+        AssetLoader.Asset<GameAudio> audio = loadGameAudio(assetLoader, sampleRate);
+        loadScene(assetLoader);
         initializeGvrView();
-        initGame();
-        initAudio();
+        // Initialize 3D audio engine.
+        gvrAudioEngine = new GvrAudioEngine(this, GvrAudioEngine.RenderingMode.BINAURAL_HIGH_QUALITY);
+        assetLoader.add("sounds", new AssetLoader.Loader<Integer>() {
+            @Override
+            public Integer load() {
+                // Avoid any delays during start-up due to decoding of sound files.
+                gvrAudioEngine.preloadSoundFile(MazeActivity.OBJECT_SOUND_FILE);
+                sourceId = gvrAudioEngine.createSoundObject(MazeActivity.OBJECT_SOUND_FILE);
+                gvrAudioEngine.setSoundObjectPosition(
+                        sourceId, 0, 0, 0);
+                gvrAudioEngine.playSound(sourceId, true /* looped playback */);
+                gvrAudioEngine.preloadSoundFile(MazeActivity.SUCCESS_SOUND_FILE);
+                return sourceId;
+            }
+        });
+        gameAsset = startGame(assetLoader, audio);
     }
 
-    private void initGame() {
-        if (success) {
-            Random random = new Random();
-            MAZE_HEIGHT += random.nextInt(2) + 1;
-            MAZE_WIDTH += random.nextInt(2) + 1;
+    /**
+     * The audio assets of the game, all at one sample rate.
+     */
+    private static final class GameAudio {
+        final HrirSet hrirs;
+        final float[] mosquitoL;
+        final float[] mosquitoR;
+
+        GameAudio(HrirSet hrirs, float[] mosquitoL, float[] mosquitoR) {
+            this.hrirs = hrirs;
+            this.mosquitoL = mosquitoL;
+            this.mosquitoR = mosquitoR;
         }
-        success = false;
-        camera = new float[16];
-        view = new float[16];
-        modelViewProjection = new float[16];
-        modelView = new float[16];
-        headRotation = new float[4];
-        headDirection = new float[4];
-        headView = new float[16];
-        maze = new Maze(MAZE_HEIGHT, MAZE_WIDTH);
-        cameraPosition = new CameraPosition(maze.generateStartPoint(), maze.getWalls());
-
-        modelHorizontalWall = new float[MAZE_HEIGHT + 1][MAZE_WIDTH][16];
-        modelVerticalWall = new float[MAZE_HEIGHT][MAZE_WIDTH + 1][16];
-        modelFloor = new float[16];
-        Matrix.setIdentityM(modelFloor, 0);
-        Matrix.scaleM(modelFloor, 0, 200, 1, 200);
-        modelCeil = new float[16];
-        Matrix.setIdentityM(modelCeil, 0);
-        Point maxPoint = maze.getMaxPoint();
-        Matrix.translateM(modelCeil, 0, maxPoint.getX() / 2, Maze.WALL_HEIGHT, maxPoint.getZ() / 2);
-        Matrix.scaleM(modelCeil, 0, maxPoint.getX(), 0, maxPoint.getZ());
-        modelMosquito = new float[16];
-        Point temp = maze.generateStartPoint();
-        temp.setY(temp.getY() - 0.15f);
-        mosquitoPosition = new MosquitoPosition(temp, maze.getWalls());
-        for (int i = 0; i < MAZE_HEIGHT + 1; i++) {
-            for (int j = 0; j < MAZE_WIDTH; j++) {
-                Box box = maze.getHorizontalWallPosition(i, j);
-                Matrix.setIdentityM(modelHorizontalWall[i][j], 0);
-                Matrix.translateM(modelHorizontalWall[i][j], 0, box.getPos().getX() + box.getSize().getX() * 0.5f, box.getPos().getY() + box.getSize().getY() * 0.5f, box.getPos().getZ() + box.getSize().getZ() * 0.5f);
-                Matrix.scaleM(modelHorizontalWall[i][j], 0, box.getSize().getX(), box.getSize().getY(), box.getSize().getZ());
+    }
+
+    /**
+     * Adds the tasks that read the HRIRs and the mosquito recording and resample them to
+     * {@code sampleRate}, or map them from the derived asset cache. The four files are read side
+     * by side.
+     */
+    private AssetLoader.Asset<GameAudio> loadGameAudio(AssetLoader loader, final int sampleRate) {
+        //读取hrir数据和mosquito数据
+        DerivedAssetCache.Converter<float[][][]> ear = HrirSet.earConverter(RAW_AUDIO_SAMPLE_RATE, sampleRate);
+        final AssetLoader.Asset<float[][][]> hrirL = loader.add("hrir_l", readRaw(R.raw.hrir_l, ear));
+        final AssetLoader.Asset<float[][][]> hrirR = loader.add("hrir_r", readRaw(R.raw.hrir_r, ear));
+        DerivedAssetCache.Converter<float[]> samples = SampleIo.textConverter(RAW_AUDIO_SAMPLE_RATE, sampleRate);
+        final AssetLoader.Asset<float[]> mosquitoL = loader.add("mosquito_l", readRaw(R.raw.mosquito_l, samples));
+        final AssetLoader.Asset<float[]> mosquitoR = loader.add("mosquito_r", readRaw(R.raw.mosquito_r, samples));
+        return loader.add("game audio", new AssetLoader.Loader<GameAudio>() {
+            @Override
+            public GameAudio load() {
+                return new GameAudio(new HrirSet(hrirL.getNow(), hrirR.getNow(), sampleRate),
+                        mosquitoL.getNow(), mosquitoR.getNow());
             }
-        }
+        }, hrirL, hrirR, mosquitoL, mosquitoR);
+    }
 
-        for (int i = 0; i < MAZE_HEIGHT; i++) {
-            for (int j = 0; j < MAZE_WIDTH + 1; j++) {
-                Box box = maze.getVerticalWallPosition(i, j);
-                Matrix.setIdentityM(modelVerticalWall[i][j], 0);
-                Matrix.translateM(modelVerticalWall[i][j], 0, box.getPos().getX() + box.getSize().getX() * 0.5f, box.getPos().getY() + box.getSize().getY() * 0.5f, box.getPos().getZ() + box.getSize().getZ() * 0.5f);
-                Matrix.scaleM(modelVerticalWall[i][j], 0, box.getSize().getX(), box.getSize().getY(), box.getSize().getZ());
+    private <T> AssetLoader.Loader<T> readRaw(final int id, final DerivedAssetCache.Converter<T> converter) {
+        return new AssetLoader.Loader<T>() {
+            @Override
+            public T load() throws IOException {
+                return derivedAssets.get(getResources().openRawResource(id), converter);
             }
+        };
+    }
+
+    /**
+     * Adds the tasks that parse the meshes and decode the textures on workers, each followed by a
+     * GL thread task that hands the result to the render backend.
+     */
+    private void loadScene(AssetLoader loader) {
+        for (int i = 0; i < RenderBackend.MESH_COUNT; i++) {
+            final int mesh = i;
+            final AssetLoader.Asset<TexturedMesh> data = loader.add(GlRenderBackend.MESH_FILES[mesh],
+                    new AssetLoader.Loader<TexturedMesh>() {
+                        @Override
+                        public TexturedMesh load() throws IOException {
+                            return GlRenderBackend.readMesh(MazeActivity.this, mesh, derivedAssets);
+                        }
+                    });
+            // Meshes are drawn from client-side arrays, so there is nothing to upload.
+            loader.addGl("install " + GlRenderBackend.MESH_FILES[mesh], new AssetLoader.Loader<Void>() {
+                @Override
+                public Void load() {
+                    renderBackend.setMesh(mesh, data.getNow());
+                    return null;
+                }
+            }, data);
+        }
+        for (int i = 0; i < GlRenderBackend.TEXTURE_FILES.length; i++) {
+            final int texture = i;
+            final AssetLoader.Asset<Bitmap> bitmap = loader.add(GlRenderBackend.TEXTURE_FILES[texture],
+                    new AssetLoader.Loader<Bitmap>() {
+                        @Override
+                        public Bitmap load() throws IOException {
+                            return Texture.decode(MazeActivity.this, GlRenderBackend.TEXTURE_FILES[texture],
+                                    derivedAssets);
+                        }
+                    });
+            loader.addGl("upload " + GlRenderBackend.TEXTURE_FILES[texture], new AssetLoader.Loader<Void>() {
+                @Override
+                public Void load() {
+                    renderBackend.setTexture(texture, new Texture(bitmap.getNow()));
+                    return null;
+                }
+            }, bitmap);
         }
+    }
 
-        // Initialize 3D audio engine.
-        gvrAudioEngine = new GvrAudioEngine(this, GvrAudioEngine.RenderingMode.BINAURAL_HIGH_QUALITY);
+    /**
+     * Adds the task that creates the game once its audio is loaded, and starts its pipeline for
+     * the GL thread to draw from. The audio output starts paused or is released right away if the
+     * activity was paused or destroyed in the meantime.
+     */
+    private AssetLoader.Asset<MazeGame> startGame(AssetLoader loader, final AssetLoader.Asset<GameAudio> audio) {
+        return loader.add("game", new AssetLoader.Loader<MazeGame>() {
+            @Override
+            public MazeGame load() {
+                GameAudio assets = audio.getNow();
+                AudioTrackOutput output = new AudioTrackOutput(assets.hrirs.getSampleRate(), framesPerBurst);
+                MazeGame loaded = new MazeGame(assets.hrirs, assets.mosquitoL, assets.mosquitoR,
+                        new GvrAudioSink(gvrAudioEngine, output), profiler, readSnapshot());
+                loaded.setPathGuideVisible(SHOW_PATH_GUIDE);
+                loaded.setSwarmSize(SWARM_SIZE);
+                loaded.setAudioLatencyTarget(AUDIO_LATENCY_TARGET_MILLIS);
+                synchronized (lifecycleLock) {
+                    if (destroyed) {
+                        output.release();
+                        return null;
+                    }
+                    if (paused) {
+                        output.pause();
+                    }
+                    audioOutput = output;
+                    game = loaded;
+                    pipeline = new FramePipeline(loaded);
+                }
+                Log.i(TAG, String.format("Game ready %d ms after onCreate",
+                        (System.nanoTime() - createNanos) / 1_000_000));
+                return loaded;
+            }
+        }, audio);
+    }
 
+    /**
+     * Returns the payload of the saved game, or null if there is none or it is damaged.
+     */
+    private ByteBuffer readSnapshot() {
+        File file = new File(getFilesDir(), SNAPSHOT_FILE);
+        if (!file.exists()) {
+            return null;
+        }
+        try {
+            return GameSnapshot.decode(GameSnapshot.read(file));
+        } catch (IOException e) {
+            Log.w(TAG, "Ignoring saved game", e);
+            return null;
+        }
     }
 
     private void initializeGvrView() {
@@ -227,73 +348,98 @@ public class MazeActivity extends GvrActivity implements GvrView.StereoRenderer
         setGvrView(gvrView);
     }
 
-    private void initAudio() {
-        //现在播放到的采样点
-        currentSample = 0;
-        //读取hrir数据和mosquito数据
-        hrirL = new float[25][50][100];
-        hrirR = new float[25][50][100];
-        try {
-            BufferedReader bufferedReader = new BufferedReader(new InputStreamReader(getResources().openRawResource(R.raw.hrir_l)));
-            String[] strNums = bufferedReader.readLine().split("\\s");
-            for (int k = 0, cnt = 0; k < 100; k++) {
-                for (int j = 0; j < 50; j++) {
-                    for (int i = 0; i < 25; i++, cnt++) {
-                        hrirL[i][j][k] = Float.parseFloat(strNums[cnt]);
-                    }
-                }
-            }
-            bufferedReader = new BufferedReader(new InputStreamReader(getResources().openRawResource(R.raw.hrir_r)));
-            strNums = bufferedReader.readLine().split("\\s");
-            for (int k = 0, cnt = 0; k < 100; k++) {
-                for (int j = 0; j < 50; j++) {
-                    for (int i = 0; i < 25; i++, cnt++) {
-                        hrirR[i][j][k] = Float.parseFloat(strNums[cnt]);
-                    }
-                }
-            }
-            bufferedReader = new BufferedReader(new InputStreamReader(getResources().openRawResource(R.raw.mosquito_l)));
-            strNums = bufferedReader.readLine().split("\\s");
-            mosquitoL = new float[strNums.length];
-            for (int i = 0; i < strNums.length; i++) {
-                mosquitoL[i] = Float.parseFloat(strNums[i]);
-            }
-
-            bufferedReader = new BufferedReader(new InputStreamReader(getResources().openRawResource(R.raw.mosquito_r)));
-            strNums = bufferedReader.readLine().split("\\s");
-            mosquitoR = new float[strNums.length];
-            for (int i = 0; i < strNums.length; i++) {
-                mosquitoR[i] = Float.parseFloat(strNums[i]);
+    @Override
+    public void onPause() {
+        gvrAudioEngine.pause();
+        super.onPause();
+        MazeGame game;
+        FramePipeline pipeline;
+        AudioTrackOutput audioOutput;
+        synchronized (lifecycleLock) {
+            paused = true;
+            game = this.game;
+            pipeline = this.pipeline;
+            audioOutput = this.audioOutput;
+        }
+        if (game != null) {
+            // The GL thread is paused, so no more frames are submitted.
+            pipeline.awaitIdle();
+            saveGame(game);
+        }
+        if (audioOutput != null) {
+            Log.i(TAG, String.format("Audio output: %d Hz in bursts of %d, %.1f ms in the track, %d track underruns, "
+                            + "%d ring underruns, %d frames dropped",
+                    audioOutput.getSampleRate(), audioOutput.getFramesPerBurst(),
+                    audioOutput.getTrackLatencyMillis(System.nanoTime()), audioOutput.getUnderrunCount(),
+                    audioOutput.getRingUnderrunCount(), audioOutput.getDroppedFrameCount()));
+            // Read the track latency above while it still plays.
+            audioOutput.pause();
+        }
+        if (FrameProfiler.ENABLED) {
+            try (FileWriter writer = new FileWriter(new File(getExternalFilesDir(null), TRACE_FILE))) {
+                profiler.writeChromeTrace(writer);
+            } catch (IOException e) {
+                Log.e(TAG, "Unable to export frame trace", e);
             }
-        } catch (IOException e) {
-            e.printStackTrace();
         }
-        minBufferSize = AudioTrack.getMinBufferSize(SAMPLE_RATE, AudioFormat.CHANNEL_OUT_STEREO, AudioFormat.ENCODING_PCM_FLOAT);
-        audioTrack = new AudioTrack(AudioManager.STREAM_MUSIC, SAMPLE_RATE, AudioFormat.CHANNEL_OUT_STEREO, AudioFormat.ENCODING_PCM_FLOAT, minBufferSize * 4 * 2, AudioTrack.MODE_STREAM);
-    }
-
-    private void playAudio(float[] left, float[] right) {
-        //audioTrack = new AudioTrack(AudioManager.STREAM_MUSIC, SAMPLE_RATE, AudioFormat.CHANNEL_OUT_STEREO, AudioFormat.ENCODING_PCM_FLOAT, minBufferSize * 4 * 2, AudioTrack.MODE_STATIC);
-        assert (left.length == right.length);
-        float[] audio = new float[left.length + right.length];
-        for (int i = 0; i < left.length; i++) {
-            audio[i * 2] = left[i];
-            audio[i * 2 + 1] = right[i];
+        if (RECORD_TRAJECTORY) {
+            try (FileWriter writer = new FileWriter(new File(getExternalFilesDir(null), TRAJECTORY_FILE))) {
+                trajectory.write(writer);
+            } catch (IOException e) {
+                Log.e(TAG, "Unable to export head trajectory", e);
+            }
         }
-        audioTrack.write(audio, 0, left.length * 2, AudioTrack.WRITE_NON_BLOCKING);
-        audioTrack.play();
     }
 
-    @Override
-    public void onPause() {
-        gvrAudioEngine.pause();
-        super.onPause();
+    /**
+     * Writes a snapshot of {@code game} in the background. The GL thread is paused and the
+     * pipeline idle by now, so the game, profiler and trajectory buffers are stable.
+     */
+    private void saveGame(MazeGame game) {
+        final ByteBuffer snapshot = GameSnapshot.encode(game.saveState());
+        final File snapshotFile = new File(getFilesDir(), SNAPSHOT_FILE);
+        snapshotWriter.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    GameSnapshot.write(snapshotFile, snapshot);
+                } catch (IOException e) {
+                    Log.e(TAG, "Unable to save the game", e);
+                }
+            }
+        });
+        HrirSpectrumCache hrirSpectra = game.getHrirSpectra();
+        Log.i(TAG, String.format("HRIR spectra: %d hits, %d misses, %d evictions, %d of %d kept (%d bytes)",
+                hrirSpectra.getHitCount(), hrirSpectra.getMissCount(), hrirSpectra.getEvictionCount(),
+                hrirSpectra.size(), hrirSpectra.getCapacity(), hrirSpectra.getBytes()));
     }
 
     @Override
     public void onResume() {
         super.onResume();
         gvrAudioEngine.resume();
+        synchronized (lifecycleLock) {
+            paused = false;
+            if (audioOutput != null) {
+                audioOutput.resume();
+            }
+        }
+    }
+
+    @Override
+    public void onDestroy() {
+        synchronized (lifecycleLock) {
+            destroyed = true;
+            if (pipeline != null) {
+                pipeline.stop();
+            }
+            if (audioOutput != null) {
+                audioOutput.release();
+            }
+        }
+        // Lets the save queued by onPause finish, then ends the thread.
+        snapshotWriter.shutdown();
+        super.onDestroy();
     }
 
     @Override
@@ -307,10 +453,9 @@ public class MazeActivity extends GvrActivity implements GvrView.StereoRenderer
     }
 
     /**
-     * Creates the buffers we use to store information about the 3D world.
-     *
-     * <p>OpenGL doesn't use Java arrays, but rather needs data in a format it can understand.
-     * Hence we use ByteBuffers.
+     * Creates the shader and the generated textures. The loaded meshes and textures are handed to
+     * the backend as they arrive, see loadScene; if the GL context was lost, the ones that had
+     * arrived are taken over from the previous backend.
      *
      * @param config The EGL configuration used when creating the surface.
      */
@@ -319,44 +464,18 @@ public class MazeActivity extends GvrActivity implements GvrView.StereoRenderer
         Log.i(TAG, "onSurfaceCreated");
         GLES20.glClearColor(0.0f, 0.0f, 0.0f, 0.0f);
 
-        objectProgram = Util.compileProgram(OBJECT_VERTEX_SHADER_CODE, OBJECT_FRAGMENT_SHADER_CODE);
-
-        objectPositionParam = GLES20.glGetAttribLocation(objectProgram, "a_Position");
-        objectUvParam = GLES20.glGetAttribLocation(objectProgram, "a_UV");
-        objectModelViewProjectionParam = GLES20.glGetUniformLocation(objectProgram, "u_MVP");
-
-        Util.checkGlError("Object program params");
-
-        // Avoid any delays during start-up due to decoding of sound files.
-        new Thread(
-                new Runnable() {
-                    @Override
-                    public void run() {
-                        gvrAudioEngine.preloadSoundFile(MazeActivity.OBJECT_SOUND_FILE);
-                        sourceId = gvrAudioEngine.createSoundObject(MazeActivity.OBJECT_SOUND_FILE);
-                        gvrAudioEngine.setSoundObjectPosition(
-                                sourceId, 0, 0, 0);
-                        gvrAudioEngine.playSound(sourceId, true /* looped playback */);
-                        gvrAudioEngine.preloadSoundFile(MazeActivity.SUCCESS_SOUND_FILE);
-                    }
-                })
-                .start();
-
         //updateTargetPosition();
 
         Util.checkGlError("onSurfaceCreated");
 
-        try {
-            wall = new TexturedMesh(this, "cube.obj", objectPositionParam, objectUvParam);
-            floor = new TexturedMesh(this, "floor.obj", objectPositionParam, objectUvParam);
-            mosquito = new TexturedMesh(this, "mosquito.obj", objectPositionParam, objectUvParam);
-
-            wallTex = new Texture(this, "wall4.png");
-            floorTex = new Texture(this, "floor2.png");
-            ceilTex = new Texture(this, "ceil.png");
-            mosquitoTex = new Texture(this, "black.png");
-        } catch (IOException e) {
-            Log.e(TAG, "Unable to initialize objects", e);
+        GlRenderBackend lost = renderBackend;
+        renderBackend = new GlRenderBackend();
+        if (lost != null) {
+            try {
+                renderBackend.restore(lost, this);
+            } catch (IOException e) {
+                Log.e(TAG, "Unable to restore textures", e);
+            }
         }
     }
 
@@ -367,96 +486,52 @@ public class MazeActivity extends GvrActivity implements GvrView.StereoRenderer
      */
     @Override
     public void onNewFrame(HeadTransform headTransform) {
-        if (++mosquitoDircetionCount == mosquitoDirectionPeriod) {
-            mosquitoPosition.move(Point.getRandomNormal());
-            mosquitoDircetionCount = 0;
-            mosquitoDirectionPeriod = new Random().nextInt(150) + 1;
-        } else {
-            mosquitoPosition.move();
+        if (FrameProfiler.ENABLED) {
+            profiler.begin(FrameProfiler.FRAME);
         }
-        //System.out.println("new frame is " + System.currentTimeMillis());
-        if (isMoving && System.currentTimeMillis() - lastClickTimeMillis > DOUBLE_CLICK_INTERVAL_LIMIT) {
-            if (!cameraPosition.move(headDirection[0] * STEP_LENGTH, headDirection[1] * STEP_LENGTH, headDirection[2] * STEP_LENGTH)) {
-                long nowTime = System.currentTimeMillis();
-                if (nowTime - lastCollideTimeMillis > 1000) {
-                    successSourceId = gvrAudioEngine.createStereoSound(COLLIDE_WALL);
-                    //gvrAudioEngine.playSound(successSourceId, false /* looping disabled */);
+        AssetLoader loader = assetLoader;
+        if (loader != null) {
+            loader.runGlTasks(GL_UPLOAD_BUDGET_NANOS);
+            if (loader.isComplete()) {
+                GameLog.dump(TAG, loader.describe());
+                GameLog.i(TAG, "%s", derivedAssets.describe());
+                assetLoader = null;
+                Throwable failure = gameAsset.getFailure();
+                if (failure != null) {
+                    // Without its audio the game cannot start; leave rather than load forever.
+                    Log.e(TAG, "Unable to start the game", failure);
+                    runOnUiThread(new Runnable() {
+                        @Override
+                        public void run() {
+                            finish();
+                        }
+                    });
                 }
-                lastCollideTimeMillis = nowTime;
-//                Toast toast = Toast.makeText(getApplicationContext(), "您碰壁了！", Toast.LENGTH_SHORT);
-//                toast.show();
             }
         }
-        Matrix.setLookAtM(camera, 0, 0, 0, 0, 0.0f, 0.0f, -1.0f, 0.0f, 1.0f, 0.0f);
-
-        headTransform.getHeadView(headView, 0);
-
-        // Update the 3d audio engine with the most recent head rotation.
-        headTransform.getQuaternion(headRotation, 0);
-        headTransform.getForwardVector(headDirection, 0);
-        gvrAudioEngine.setHeadRotation(
-                headRotation[0], headRotation[1], headRotation[2], headRotation[3]);
-        // Regular update call to GVR audio engine.
-        gvrAudioEngine.update();
-
-        Util.checkGlError("onNewFrame");
-
-        //播放音频
-        Point headPosition = cameraPosition.getPos();
-        float[] mosquitoModelPosition = new float[]{mosquitoPosition.getPos().getX() - headPosition.getX(), mosquitoPosition.getPos().getY() - headPosition.getY(), mosquitoPosition.getPos().getZ() - headPosition.getZ(), 1};
-        float[] mosquitoViewPosition = new float[4];
-        Matrix.multiplyMV(mosquitoViewPosition, 0, headView, 0, mosquitoModelPosition, 0);
-        float[] sphere = new float[3];
-        Util.convertRectangleToSphere(mosquitoViewPosition, sphere);
-        //System.out.println("azi is " + sphere[2] + " and ele is " + sphere[1]);
-        int azi_index = Util.getNearestAzimuthIndex(sphere[2]);
-        int ele_index = Util.getNearestElevationIndex(sphere[1]);
-        //确定了hrir的位置之后进行卷积计算来准备音频
-        float[] result_l = new float[FRAME_SAMPLES];
-        float[] result_r = new float[FRAME_SAMPLES];
-        int targetSample = Math.min(TOTAL_SAMPLES - 2 * CONVOLVE_SIZE, currentSample + FRAME_SAMPLES);
-        for (int start = currentSample; start < targetSample; start += CONVOLVE_SIZE) {
-            //System.out.println("start is " + start + " and to " + (start + CONVOLVE_SIZE));
-            float[] audio_l = Arrays.copyOfRange(mosquitoL, start, start + CONVOLVE_SIZE * 2);
-            float[] audio_r = Arrays.copyOfRange(mosquitoR, start, start + CONVOLVE_SIZE * 2);
-            float[] hrir_l = Arrays.copyOf(hrirL[azi_index][ele_index], CONVOLVE_SIZE);
-            float[] hrir_r = Arrays.copyOf(hrirR[azi_index][ele_index], CONVOLVE_SIZE);
-            //fft算法
-            //float[] convove_result_l = Convolve.FFT(audio_l, hrir_l, CONVOLVE_SIZE * 2);
-            //float[] convove_result_r = Convolve.FFT(audio_r, hrir_r, CONVOLVE_SIZE * 2);
-            //暴力算法
-            float[] convove_result_l = Convolve.bruteForce(audio_l, hrir_l, CONVOLVE_SIZE);
-            float[] convove_result_r = Convolve.bruteForce(audio_r, hrir_r, CONVOLVE_SIZE);
-            //不卷积算法
-//            float[] convove_result_l = audio_l.clone();
-//            float[] convove_result_r = audio_r.clone();
-            System.arraycopy(convove_result_l, 0, result_l, start - currentSample, CONVOLVE_SIZE);
-            System.arraycopy(convove_result_r, 0, result_r, start - currentSample, CONVOLVE_SIZE);
+        FramePipeline pipeline = this.pipeline;
+        if (pipeline == null) {
+            framePacket = null;
+            return;
         }
-        //播放准备好的音频
-        //距离衰减
-        float distance = mosquitoPosition.getPos().getDistance(headPosition);
-        //audioTrack.setVolume(1.0f / (1 + (float) Math.log(1 + distance)));
-        audioTrack.setVolume((float) Math.exp(-distance));
-        //直接播放片段
-//        result_l = Arrays.copyOfRange(mosquitoL, currentSample, targetSample);
-//        result_r = Arrays.copyOfRange(mosquitoR, currentSample, targetSample);
-        playAudio(result_l, result_r);
-        currentSample = targetSample == TOTAL_SAMPLES - 2 * CONVOLVE_SIZE ? 0 : targetSample;
-    }
-
-    private void checkSuccess() {
-        if (cameraPosition.getPos().getZ() < 0 && !success) {
-            successSourceId = gvrAudioEngine.createStereoSound(FINAL_SUCCESS);
-            gvrAudioEngine.playSound(successSourceId, false /* looping disabled */);
-            success = true;
-            try {
-                Thread.sleep(4000);
-            } catch (java.lang.InterruptedException e) {
-                Log.e(TAG, "Interupted by someone", e);
+        pipeline.submit(System.nanoTime(), poseSource.set(headTransform), isMoving);
+        // Most likely the packet of the previous frame; the worker has only just been woken.
+        FramePacket packet = pipeline.acquire();
+        if (packet != null) {
+            frameRenderer.apply(packet);
+            if (!firstFrameLogged) {
+                firstFrameLogged = true;
+                Log.i(TAG, String.format("First game frame %d ms after onCreate",
+                        (System.nanoTime() - createNanos) / 1_000_000));
             }
-            initGame();
         }
+        framePacket = packet;
+        if (RECORD_TRAJECTORY) {
+            headTransform.getQuaternion(headRotation, 0);
+            trajectory.add(headRotation, 0, isMoving);
+        }
+
+        Util.checkGlError("onNewFrame");
     }
 
     /**
@@ -466,71 +541,67 @@ public class MazeActivity extends GvrActivity implements GvrView.StereoRenderer
      */
     @Override
     public void onDrawEye(Eye eye) {
-        GLES20.glEnable(GLES20.GL_DEPTH_TEST);
-        GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT | GLES20.GL_DEPTH_BUFFER_BIT);
-        GLES20.glEnable(GLES20.GL_BLEND);
-        GLES20.glBlendFunc(GLES20.GL_ONE, GLES20.GL_ONE_MINUS_SRC_ALPHA);
-        Matrix.multiplyMM(view, 0, eye.getEyeView(), 0, camera, 0);
-        perspective = eye.getPerspective(Z_NEAR, Z_FAR);
-        cameraPosition.translateTarget(view, 0);
-        for (int i = 0; i < MAZE_HEIGHT + 1; i++) {
-            for (int j = 0; j < MAZE_WIDTH; j++) {
-                if (maze.isHorizontalWall(i, j)) {
-                    drawObject(wall, wallTex, modelHorizontalWall[i][j], 0);
-                }
-            }
+        int eyeSection = eye.getType() == Eye.Type.RIGHT ? FrameProfiler.RIGHT_EYE : FrameProfiler.LEFT_EYE;
+        if (FrameProfiler.ENABLED) {
+            profiler.begin(eyeSection);
         }
-
-        for (int i = 0; i < MAZE_HEIGHT; i++) {
-            for (int j = 0; j < MAZE_WIDTH + 1; j++) {
-                if (maze.isVerticalWall(i, j)) {
-                    drawObject(wall, wallTex, modelVerticalWall[i][j], 0);
-                }
-            }
+        if (framePacket == null) {
+            AssetLoader loader = assetLoader;
+            renderBackend.drawLoading(loader != null ? loader.getProgress() : 1);
+        } else {
+            frameRenderer.drawEye(eye.getType(), eye.getEyeView(), eye.getPerspective(Z_NEAR, Z_FAR), renderBackend);
+        }
+        if (FrameProfiler.ENABLED) {
+            profiler.end(eyeSection);
         }
-
-        drawObject(floor, floorTex, modelFloor, 0);
-        drawObject(floor, ceilTex, modelCeil, 0);
-        Point prevPos = mosquitoPosition.getPrevPos();
-        Point nowPos = mosquitoPosition.getPos();
-        Matrix.setLookAtM(modelMosquito, 0, prevPos.getX(), prevPos.getY(), prevPos.getZ(),
-                nowPos.getX(), nowPos.getY(), nowPos.getZ(),
-                0, 1, 0);
-        Matrix.invertM(modelMosquito, 0, modelMosquito, 0);
-        Matrix.rotateM(modelMosquito, 0, 270, 1, 0, 0);
-        Matrix.rotateM(modelMosquito, 0, 180, 0, 0, 1);
-        Matrix.scaleM(modelMosquito, 0, 0.006f, 0.006f, 0.006f);
-        drawObject(mosquito, mosquitoTex, modelMosquito, 0);
     }
 
     @Override
     public void onFinishFrame(Viewport viewport) {
-    }
-
-    private void drawObject(TexturedMesh texturedMesh, Texture texture, float[] modelTarget, int offset) {
-        Matrix.multiplyMM(modelView, 0, view, 0, modelTarget, offset);
-        Matrix.multiplyMM(modelViewProjection, 0, perspective, 0, modelView, 0);
-        GLES20.glUseProgram(objectProgram);
-        GLES20.glUniformMatrix4fv(objectModelViewProjectionParam, 1, false, modelViewProjection, 0);
-        texture.bind();
-        texturedMesh.draw();
-        Util.checkGlError("drawObject");
+        if (FrameProfiler.ENABLED) {
+            profiler.endFrame();
+        }
     }
 
     /**
-     * Called when the Cardboard trigger is pulled.
+     * Called when the Cardboard trigger is pulled. Marks the passage the player is looking at.
      */
     @Override
     public void onCardboardTrigger() {
+        MazeGame game = this.game;
+        if (game != null) {
+            game.requestMark();
+        }
     }
 
+    /**
+     * Logs the maze layout and wall list. Triggered by a two-finger tap so that it only costs
+     * anything when somebody asks for it.
+     */
+    private void dumpDebugState() {
+        MazeGame game = this.game;
+        if (game == null) {
+            // The GL thread drops the loader once it is done.
+            AssetLoader loader = assetLoader;
+            GameLog.dump(TAG, loader != null ? loader.describe() : "Game not loaded");
+            return;
+        }
+        Maze maze = game.getMaze();
+        GameLog.dump(TAG, maze.describe());
+        GameLog.dump(TAG, maze.describeWalls());
+    }
 
     @Override
     public boolean dispatchTouchEvent(MotionEvent ev) {
-        switch (ev.getAction()) {
+        switch (ev.getActionMasked()) {
             case MotionEvent.ACTION_DOWN:
                 isMoving = true;
                 break;
+            case MotionEvent.ACTION_POINTER_DOWN:
+                if (ev.getPointerCount() == 2) {
+                    dumpDebugState();
+                }
+                break;
             case MotionEvent.ACTION_UP:
                 isMoving = false;
                 break;
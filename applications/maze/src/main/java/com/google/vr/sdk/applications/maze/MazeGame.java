@@ -0,0 +1,692 @@
+/*
+ * Copyright 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vr.sdk.applications.maze;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * The maze game loop without any dependency on GVR, GL or the Android audio stack.
+ *
+ * <p>{@link MazeActivity} drives it from the GvrView callbacks; the headless driver in the
+ * benchmark module drives it from recorded or scripted head trajectories. Each frame consists of
+ * {@link #onNewFrame} followed by {@link #writeFrame}, whose {@link FramePacket} a
+ * {@link FrameRenderer} draws. The game never touches what is drawn, so it can simulate on a
+ * thread of its own, see {@link FramePipeline}.
+ *
+ * <p>Movement runs on a {@link SimulationClock} at a fixed rate, independent of the frame rate.
+ * Rendering interpolates between the last two simulation states, so dropped frames cost
+ * smoothness rather than game speed.
+ */
+/* package */ class MazeGame {
+    private static final String TAG = "MazeGame";
+    // Distance the player walks per simulation step, i.e. 0.6 units per second.
+    private static final float STEP_LENGTH = 0.6f * SimulationClock.STEP_SECONDS;
+    private static final long DOUBLE_CLICK_INTERVAL_LIMIT = 300;
+    // Most audio rendered in one frame; enough to refill the queue after a 20 ms stall.
+    private static final int MAX_RENDER_MILLIS = 23;
+    // Default for setAudioLatencyTarget: about two frames at 60 Hz plus a block of slack.
+    static final int DEFAULT_AUDIO_LATENCY_MILLIS = 40;
+    // Share of all HRIR spectra, at the transform size the HRIRs' rate gives, that the default
+    // spectrum budget keeps. A 3000-frame headless run with a swarm touched about 1550 of the
+    // 2500, at 22050 and 48000 Hz alike; the counts logged on pause show whether it is enough.
+    private static final float DEFAULT_HRIR_SPECTRUM_SHARE = 0.6f;
+    // Number of swarm mosquitoes mixed into the audio, nearest first.
+    private static final int SWARM_VOICES = 3;
+    private static final int SWARM_STREAM_OFFSET = 7919;
+    // Reach of the gaze ray, measured along it. The first grid line in front of the player is at
+    // most one cell away on each axis, so at most sqrt(2) cells away along a diagonal gaze.
+    private static final float MARK_REACH = (float) Math.sqrt(2) * (Maze.WALL_WIDTH + Maze.PATH_WIDTH);
+    // Target start difficulty (see Maze.getDifficulty) of the first level and its growth per level.
+    private static final float BASE_DIFFICULTY = 5;
+    private static final float DIFFICULTY_PER_LEVEL = 4;
+    // HRIRs with their taps reversed, see ConvolutionKernel.
+    private final float[][][] hrirL;
+    private final float[][][] hrirR;
+    private final float[] mosquitoL;
+    private final float[] mosquitoR;
+    // Rate of the HRIRs, the recording and the audio sink.
+    private final int sampleRate;
+    // Audio is spatialized in blocks as long as the HRIRs, each for its own predicted head pose.
+    private final int blockSize;
+    private final int maxBlocks;
+    // The recording loops before this sample so that a full convolution window always fits.
+    private final int streamEnd;
+    private final AudioSink audioSink;
+    private final FrameProfiler profiler;
+    private final float[] headView = new float[16];
+    private final float[] headRotation = new float[4];
+    private final float[] headDirection = new float[4];
+    private final HeadPosePredictor headPredictor = new HeadPosePredictor();
+    // Head view predicted for the playback time of each block rendered this frame.
+    private final float[] blockViews;
+    // HRIR direction picked for each block of the voice being spatialized.
+    private final int[] blockDirections;
+    private final StereoConvolver[] voiceConvolvers = new StereoConvolver[1 + SWARM_VOICES];
+    private HrirSpectrumCache hrirSpectra;
+    private final float[] interleaved;
+    private final AcousticStage acousticStage;
+    private final float[] sourceBlock;
+    private final int[] nearestSwarm = new int[SWARM_VOICES];
+    private final float[] nearestSwarmDistances = new float[SWARM_VOICES];
+    // Swarm mosquito each swarm voice plays, -1 for none. A voice keeps its mosquito for as long
+    // as that stays among the nearest, so the voice's acoustic state belongs to one mosquito.
+    private final int[] voiceMosquitoes = new int[SWARM_VOICES];
+    private final Point swarmSource = new Point(0, 0, 0);
+    // Turns the mosquito model upright and scales it to size; applied after its placement.
+    private final float[] mosquitoModelFix = new float[16];
+    private final float[] placement = new float[16];
+    private final SimulationClock clock = new SimulationClock();
+    private final Point renderMosquitoPos = new Point(0, 0, 0);
+    private final int[] gazeHit = new int[3];
+    private final VectorScratch scratch = new VectorScratch(16);
+    private final Random random = new Random();
+    private boolean pathGuideVisible = false;
+    private int level = 0;
+    private int mazeWidth = 4;
+    private int mazeHeight = 4;
+    private long lastClickTimeMillis = 0;
+    // Time of the last collide cue, and whether the player's last step was obstructed.
+    private long lastCollideTimeMillis = 0;
+    private boolean blocked = false;
+    private boolean isMoving = false;
+    private volatile boolean markRequested = false;
+    private boolean success = false;
+    // Both in simulation steps.
+    private int mosquitoDirectionPeriod = 200;
+    private int mosquitoDircetionCount = 0;
+    private int currentSample;
+    private int audioLatencyTargetFrames;
+    // Volatile so that the UI thread can dump the current level.
+    private volatile Maze maze;
+    private CameraPosition cameraPosition;
+    private MosquitoPosition mosquitoPosition;
+    // Bumped whenever a mark is toggled or the level changes, see FramePacket.
+    private int markVersion = 0;
+    private int swarmSize = 0;
+    private MosquitoSwarm swarm;
+    // Cell the path guide was laid out from, -1 while it is hidden, and its cells.
+    private int guideRow = -1;
+    private int guideCol = -1;
+    private int guideCount;
+    private final int[] guideCells = new int[FramePacket.GUIDE_LENGTH * 2];
+    private long frameCount;
+
+    MazeGame(HrirSet hrirs, float[] mosquitoL, float[] mosquitoR, AudioSink audioSink, FrameProfiler profiler) {
+        this(hrirs, mosquitoL, mosquitoR, audioSink, profiler, null);
+    }
+
+    /**
+     * @param hrirs      The HRIRs, at the rate {@code audioSink} plays at.
+     * @param mosquitoL  Left channel of the mosquito recording, at the same rate.
+     * @param savedState A payload written by {@link #saveState}, or null. The game continues from
+     *                   it if it can be read, and starts a new level otherwise.
+     */
+    MazeGame(HrirSet hrirs, float[] mosquitoL, float[] mosquitoR, AudioSink audioSink, FrameProfiler profiler,
+             ByteBuffer savedState) {
+        this.hrirL = Hrtf.reverseTaps(hrirs.getLeft());
+        this.hrirR = Hrtf.reverseTaps(hrirs.getRight());
+        this.mosquitoL = mosquitoL;
+        this.mosquitoR = mosquitoR;
+        this.audioSink = audioSink;
+        this.profiler = profiler;
+        sampleRate = hrirs.getSampleRate();
+        blockSize = hrirs.getTaps();
+        maxBlocks = Math.max(1, sampleRate * MAX_RENDER_MILLIS / 1000 / blockSize);
+        streamEnd = (Math.min(mosquitoL.length, mosquitoR.length) / blockSize - 2) * blockSize;
+        if (streamEnd <= 0) {
+            throw new IllegalArgumentException("Recording shorter than three HRIR lengths");
+        }
+        blockViews = new float[maxBlocks * 16];
+        blockDirections = new int[maxBlocks];
+        interleaved = new float[maxBlocks * blockSize * 2];
+        sourceBlock = new float[interleaved.length];
+        acousticStage = new AcousticStage(1 + SWARM_VOICES, sampleRate, blockSize);
+        audioLatencyTargetFrames = DEFAULT_AUDIO_LATENCY_MILLIS * sampleRate / 1000;
+        int spectra = hrirL.length * hrirL[0].length * 2;
+        setHrirSpectrumBudget((long) (DEFAULT_HRIR_SPECTRUM_SHARE * spectra * HrirSpectrumCache.getSpectrumBytes(
+                HrirSpectrumCache.getFftSize(blockSize, hrirs.getTaps()))));
+        //现在播放到的采样点
+        currentSample = 0;
+        MatrixMath.setIdentityM(mosquitoModelFix, 0);
+        MatrixMath.rotateM(mosquitoModelFix, 0, 270, 1, 0, 0);
+        MatrixMath.rotateM(mosquitoModelFix, 0, 180, 0, 0, 1);
+        MatrixMath.scaleM(mosquitoModelFix, 0, 0.006f, 0.006f, 0.006f);
+        if (savedState == null || !restoreState(savedState)) {
+            startLevel();
+        }
+    }
+
+    /**
+     * Serializes the level progression, the maze with its marks, the player and mosquito state
+     * and the audio cursor. The swarm is not saved; it is regenerated around the restored maze.
+     * Must not run concurrently with a frame.
+     *
+     * @return The payload for {@link GameSnapshot#encode}.
+     */
+    byte[] saveState() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeInt(level);
+            out.writeInt(mazeHeight);
+            out.writeInt(mazeWidth);
+            out.writeInt(currentSample);
+            writePoint(out, cameraPosition.getPos());
+            writePoint(out, mosquitoPosition.getPos());
+            writePoint(out, mosquitoPosition.getDirection());
+            out.writeInt(mosquitoDirectionPeriod);
+            out.writeInt(mosquitoDircetionCount);
+            maze.write(out);
+            out.flush();
+        } catch (IOException e) {
+            // Writing to memory does not fail.
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Replaces the current level with a saved one. Everything is read and checked before any of
+     * the game's state changes: the counts, the maze, and that the player and the mosquito are
+     * inside it.
+     *
+     * @return false if the payload could not be read, in which case the game is unchanged.
+     */
+    private boolean restoreState(ByteBuffer payload) {
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload.array(),
+                    payload.arrayOffset() + payload.position(), payload.remaining()));
+            int savedLevel = in.readInt();
+            int height = in.readInt();
+            int width = in.readInt();
+            int sample = in.readInt();
+            Point camera = readPoint(in);
+            Point mosquito = readPoint(in);
+            Point direction = readPoint(in);
+            int period = in.readInt();
+            int count = in.readInt();
+            Maze savedMaze = Maze.read(in);
+            Point maxPoint = savedMaze.getMaxPoint();
+            if (savedLevel < 0 || savedMaze.getRowCount() != height || savedMaze.getColumnCount() != width
+                    || sample < 0 || count < 0 || count >= period
+                    || !isInside(camera, maxPoint) || !isInside(mosquito, maxPoint)
+                    || !isFinite(direction) || !(direction.length() > 0)) {
+                throw new IOException("Inconsistent saved state");
+            }
+            CameraPosition savedCamera = new CameraPosition(camera, savedMaze.getWallGrid());
+            MosquitoPosition savedMosquito = new MosquitoPosition(mosquito, direction, savedMaze.getWallGrid());
+            level = savedLevel;
+            mazeHeight = height;
+            mazeWidth = width;
+            // Saved at another rate or HRIR length the cursor may not fit; the audio starts over.
+            currentSample = sample < streamEnd && sample % blockSize == 0 ? sample : 0;
+            mosquitoDirectionPeriod = period;
+            mosquitoDircetionCount = count;
+            success = false;
+            maze = savedMaze;
+            markVersion++;
+            cameraPosition = savedCamera;
+            mosquitoPosition = savedMosquito;
+            createSwarm();
+            return true;
+        } catch (IOException | RuntimeException e) {
+            // A damaged payload may fail anywhere in the parse; either way a new level starts.
+            GameLog.e(TAG, "Unable to restore the saved game: %s", e);
+            return false;
+        }
+    }
+
+    /**
+     * Returns whether {@code p} lies within the box from the origin to {@code max}. False for NaN.
+     */
+    private static boolean isInside(Point p, Point max) {
+        return p.getX() >= 0 && p.getX() <= max.getX()
+                && p.getY() >= 0 && p.getY() <= max.getY()
+                && p.getZ() >= 0 && p.getZ() <= max.getZ();
+    }
+
+    private static boolean isFinite(Point p) {
+        return Math.abs(p.getX()) <= Float.MAX_VALUE && Math.abs(p.getY()) <= Float.MAX_VALUE
+                && Math.abs(p.getZ()) <= Float.MAX_VALUE;
+    }
+
+    private static void writePoint(DataOutput out, Point point) throws IOException {
+        out.writeFloat(point.getX());
+        out.writeFloat(point.getY());
+        out.writeFloat(point.getZ());
+    }
+
+    private static Point readPoint(DataInput in) throws IOException {
+        return new Point(in.readFloat(), in.readFloat(), in.readFloat());
+    }
+
+    private void startLevel() {
+        if (success) {
+            level++;
+            mazeHeight += random.nextInt(2) + 1;
+            mazeWidth += random.nextInt(2) + 1;
+        }
+        success = false;
+        maze = new Maze(mazeHeight, mazeWidth);
+        markVersion++;
+        cameraPosition = new CameraPosition(maze.generateStartPoint(BASE_DIFFICULTY + DIFFICULTY_PER_LEVEL * level),
+                maze.getWallGrid());
+
+        Point temp = maze.generateStartPoint();
+        temp.setY(temp.getY() - 0.15f);
+        mosquitoPosition = new MosquitoPosition(temp, maze.getWallGrid());
+        createSwarm();
+    }
+
+    Maze getMaze() {
+        return maze;
+    }
+
+    void setMoving(boolean moving) {
+        isMoving = moving;
+    }
+
+    /**
+     * Adds a swarm of mosquitoes around the one the player hunts. Takes effect immediately and
+     * for every following level; 0 removes the swarm.
+     */
+    void setSwarmSize(int size) {
+        swarmSize = size;
+        createSwarm();
+    }
+
+    private void createSwarm() {
+        swarm = swarmSize > 0 ? new MosquitoSwarm(swarmSize, maze, new Random()) : null;
+        Arrays.fill(voiceMosquitoes, -1);
+        // The maze may have changed under it, so the path guide is laid out anew.
+        guideRow = -1;
+        guideCol = -1;
+        guideCount = 0;
+    }
+
+    /**
+     * Shows or hides the markers on the floor along the shortest path to the exit.
+     */
+    void setPathGuideVisible(boolean visible) {
+        pathGuideVisible = visible;
+    }
+
+    /**
+     * Asks for the passage the player is looking at to be marked on the next frame. May be called
+     * from any thread.
+     */
+    void requestMark() {
+        markRequested = true;
+    }
+
+    /**
+     * Runs the per-frame work that happens before the eyes are drawn.
+     *
+     * @param nowNanos Monotonic time of the frame.
+     * @param pose     Head pose of the frame.
+     */
+    void onNewFrame(long nowNanos, HeadPoseSource pose) {
+        updateHeadPose(nowNanos, pose);
+        simulate(nowNanos);
+        renderAudio(nowNanos);
+    }
+
+    /**
+     * Sets how far ahead of playback the spatialized stream is kept. Lower targets make the sound
+     * follow head turns sooner but underrun more easily when a frame is late.
+     */
+    void setAudioLatencyTarget(int millis) {
+        audioLatencyTargetFrames = Math.max(blockSize, millis * sampleRate / 1000);
+    }
+
+    /**
+     * Sets how much off-heap memory the HRIR spectra of the FFT convolution path may take, and
+     * starts a new, empty cache. The default keeps a fixed share of all spectra, so it scales with
+     * the transform size of the rate the HRIRs were resampled to. Must not run concurrently with
+     * a frame.
+     */
+    void setHrirSpectrumBudget(long bytes) {
+        hrirSpectra = new HrirSpectrumCache(hrirL, hrirR, blockSize, bytes);
+        for (int voice = 0; voice < voiceConvolvers.length; voice++) {
+            voiceConvolvers[voice] = new StereoConvolver(hrirSpectra);
+        }
+    }
+
+    /**
+     * Returns the HRIR spectrum cache, e.g. to read its hit and miss counts.
+     */
+    HrirSpectrumCache getHrirSpectra() {
+        return hrirSpectra;
+    }
+
+    /**
+     * Runs as many fixed simulation steps as the time since the previous frame calls for.
+     */
+    void simulate(long nowNanos) {
+        if (FrameProfiler.ENABLED) {
+            profiler.begin(FrameProfiler.SIMULATION);
+        }
+        if (markRequested) {
+            markRequested = false;
+            markGazedPassage();
+        }
+        for (int steps = clock.advance(nowNanos); steps > 0; steps--) {
+            step();
+        }
+        if (FrameProfiler.ENABLED) {
+            profiler.end(FrameProfiler.SIMULATION);
+        }
+    }
+
+    /**
+     * Moves the mosquito and, while the screen is held, the player by one simulation step.
+     */
+    private void step() {
+        long nowMillis = clock.getTimeNanos() / 1_000_000;
+        if (++mosquitoDircetionCount == mosquitoDirectionPeriod) {
+            int mark = scratch.mark();
+            int turn = scratch.allocate(3);
+            float[] v = scratch.data();
+            Vec3.randomUnit(v, turn, random);
+            mosquitoPosition.move(v[turn], v[turn + 1], v[turn + 2]);
+            scratch.release(mark);
+            mosquitoDircetionCount = 0;
+            mosquitoDirectionPeriod = random.nextInt(300) + 1;
+        } else {
+            mosquitoPosition.move();
+        }
+        if (swarm != null) {
+            swarm.step();
+        }
+        cameraPosition.storePrevious();
+        boolean wasBlocked = blocked;
+        blocked = false;
+        if (isMoving && nowMillis - lastClickTimeMillis > DOUBLE_CLICK_INTERVAL_LIMIT) {
+            blocked = !cameraPosition.move(headDirection[0] * STEP_LENGTH, headDirection[1] * STEP_LENGTH,
+                    headDirection[2] * STEP_LENGTH);
+            // Only running into a wall sounds, not every step of sliding along it; the time limit
+            // keeps a gaze that wobbles about the wall's direction from retriggering it.
+            if (blocked && !wasBlocked && nowMillis - lastCollideTimeMillis > 1000) {
+                audioSink.playCue(AudioSink.CUE_COLLIDE_WALL);
+                lastCollideTimeMillis = nowMillis;
+//                Toast toast = Toast.makeText(getApplicationContext(), "您碰壁了！", Toast.LENGTH_SHORT);
+//                toast.show();
+            }
+        }
+    }
+
+    /**
+     * Toggles the mark on the side of the current cell that the gaze ray leaves through.
+     */
+    private void markGazedPassage() {
+        Point pos = cameraPosition.getPos();
+        maze.getRayCaster().castToLine(pos.getX(), pos.getZ(), headDirection[0], headDirection[2],
+                MARK_REACH, gazeHit, 0);
+        int result = 0;
+        int index = -1;
+        if (gazeHit[0] == GridRayCaster.HORIZONTAL) {
+            result = maze.updateHorizontalMark(gazeHit[1], gazeHit[2]);
+            index = maze.getHorizontalMarkIndex(gazeHit[1], gazeHit[2]);
+        } else if (gazeHit[0] == GridRayCaster.VERTICAL) {
+            result = maze.updateVerticalMark(gazeHit[1], gazeHit[2]);
+            index = maze.getVerticalMarkIndex(gazeHit[1], gazeHit[2]);
+        }
+        if (result != 0) {
+            markVersion++;
+        }
+        if (GameLog.DEBUG_ENABLED) {
+            GameLog.d(TAG, "gaze mark at (%d, %d, %d) returned %d", gazeHit[0], gazeHit[1], gazeHit[2], result);
+        }
+    }
+
+    /**
+     * Reads the head pose of the frame.
+     *
+     * @param nowNanos Time the pose is for, on the {@link System#nanoTime()} clock.
+     */
+    void updateHeadPose(long nowNanos, HeadPoseSource pose) {
+        pose.getHeadView(headView, 0);
+        headPredictor.addSample(nowNanos, headView, 0);
+
+        // Update the 3d audio engine with the most recent head rotation.
+        pose.getQuaternion(headRotation, 0);
+        pose.getForwardVector(headDirection, 0);
+        audioSink.setHeadRotation(headRotation[0], headRotation[1], headRotation[2], headRotation[3]);
+    }
+
+    /**
+     * Tops the audio sink's queue up to the latency target with the next blocks of the mosquito
+     * sound, and of the nearest swarm mosquitoes. Each block is spatialized for the head pose
+     * predicted at the middle of its playback.
+     *
+     * @param nowNanos Current time on the {@link System#nanoTime()} clock.
+     */
+    void renderAudio(long nowNanos) {
+        //播放音频
+        if (FrameProfiler.ENABLED) {
+            profiler.begin(FrameProfiler.AUDIO_DSP);
+        }
+        int queued = audioSink.getQueuedFrames(nowNanos);
+        int blocks = Math.min(maxBlocks, (audioLatencyTargetFrames - queued + blockSize - 1) / blockSize);
+        // streamEnd is a whole number of blocks, so the stream wraps between blocks.
+        blocks = Math.min(blocks, (streamEnd - currentSample) / blockSize);
+        if (blocks <= 0) {
+            if (FrameProfiler.ENABLED) {
+                profiler.end(FrameProfiler.AUDIO_DSP);
+            }
+            return;
+        }
+        long playbackNanos = nowNanos + queued * 1_000_000_000L / sampleRate;
+        for (int b = 0; b < blocks; b++) {
+            long blockNanos = playbackNanos + (b * blockSize + blockSize / 2) * 1_000_000_000L / sampleRate;
+            headPredictor.predict(blockNanos, blockViews, b * 16);
+        }
+        if (FrameProfiler.ENABLED) {
+            // Motion-to-sound latency without prediction: the pose is this old when the first new
+            // block starts playing.
+            long poseNanos = headPredictor.getTimestampNanos();
+            profiler.record(FrameProfiler.AUDIO_LATENCY, poseNanos, playbackNanos - poseNanos);
+        }
+        int frames = blocks * blockSize;
+        Point headPosition = cameraPosition.getPos();
+        spatialize(mosquitoPosition.getPos(), 0, 0, blocks, interleaved);
+        //距离衰减和墙体遮挡
+        acousticStage.update(0, headPosition, mosquitoPosition.getPos(), maze.getRayCaster());
+        acousticStage.process(0, interleaved, blocks);
+        if (swarm != null) {
+            assignSwarmVoices(headPosition);
+            for (int voice = 0; voice < SWARM_VOICES; voice++) {
+                int mosquito = voiceMosquitoes[voice];
+                if (mosquito < 0) {
+                    continue;
+                }
+                swarm.getPosition(mosquito, swarmSource);
+                // Each mosquito reads the recording at its own offset so they do not sound in
+                // unison, and keeps reading on from where it was when it moves to another rank.
+                spatialize(swarmSource, voice + 1, (mosquito + 1) * SWARM_STREAM_OFFSET % streamEnd, blocks,
+                        sourceBlock);
+                acousticStage.update(voice + 1, headPosition, swarmSource, maze.getRayCaster());
+                acousticStage.process(voice + 1, sourceBlock, blocks);
+                for (int i = 0; i < frames * 2; i++) {
+                    interleaved[i] += sourceBlock[i];
+                }
+            }
+        }
+        audioSink.write(interleaved, frames, 1.0f);
+        currentSample += frames;
+        if (currentSample == streamEnd) {
+            currentSample = 0;
+        }
+        if (FrameProfiler.ENABLED) {
+            profiler.end(FrameProfiler.AUDIO_DSP);
+        }
+    }
+
+    /**
+     * Points the swarm voices at the mosquitoes nearest to the listener. Mosquitoes that stay
+     * among the nearest keep their voice; a voice that gets a new mosquito is reset, so it fades
+     * in rather than carrying over the filter state and gain of the previous one.
+     */
+    private void assignSwarmVoices(Point headPosition) {
+        int sources = swarm.findNearest(headPosition.getX(), headPosition.getY(), headPosition.getZ(),
+                nearestSwarm, nearestSwarmDistances);
+        for (int voice = 0; voice < SWARM_VOICES; voice++) {
+            if (indexOf(nearestSwarm, sources, voiceMosquitoes[voice]) < 0) {
+                voiceMosquitoes[voice] = -1;
+            }
+        }
+        for (int k = 0; k < sources; k++) {
+            if (indexOf(voiceMosquitoes, SWARM_VOICES, nearestSwarm[k]) >= 0) {
+                continue;
+            }
+            int voice = indexOf(voiceMosquitoes, SWARM_VOICES, -1);
+            voiceMosquitoes[voice] = nearestSwarm[k];
+            acousticStage.reset(voice + 1);
+        }
+    }
+
+    private static int indexOf(int[] values, int count, int value) {
+        for (int i = 0; i < count; i++) {
+            if (values[i] == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Picks the HRIRs for the direction of {@code source} seen from each block's entry in
+     * blockViews, and convolves {@code blocks} blocks of the mosquito recording from
+     * {@code currentSample + streamOffset} with them into interleaved stereo frames.
+     */
+    private void spatialize(Point source, int voice, int streamOffset, int blocks, float[] out) {
+        Point headPosition = cameraPosition.getPos();
+        int mark = scratch.mark();
+        int model = scratch.allocate(4);
+        int viewPos = scratch.allocate(4);
+        int sphere = scratch.allocate(3);
+        float[] v = scratch.data();
+        Vec3.set(v, model, source.getX() - headPosition.getX(), source.getY() - headPosition.getY(), source.getZ() - headPosition.getZ());
+        v[model + 3] = 1;
+        for (int b = 0; b < blocks; b++) {
+            MatrixMath.multiplyMV(v, viewPos, blockViews, b * 16, v, model);
+            Hrtf.convertRectangleToSphere(v, viewPos, v, sphere);
+            //System.out.println("azi is " + sphere[2] + " and ele is " + sphere[1]);
+            int azi_index = Hrtf.getNearestAzimuthIndex(v[sphere + 2]);
+            int ele_index = Hrtf.getNearestElevationIndex(v[sphere + 1]);
+            blockDirections[b] = hrirSpectra.getDirection(azi_index, ele_index);
+        }
+        scratch.release(mark);
+        //确定了hrir的位置之后进行卷积计算来准备音频，直接写入交错的立体声缓冲
+        int sample = currentSample + streamOffset;
+        if (sample >= streamEnd) {
+            sample -= streamEnd;
+        }
+        // Blocks from streamEnd on read from the start of the recording again.
+        int contiguous = Math.min(blocks, (streamEnd - sample + blockSize - 1) / blockSize);
+        StereoConvolver convolver = voiceConvolvers[voice];
+        convolver.process(mosquitoL, mosquitoR, sample, blockDirections, contiguous, out, 0);
+        if (contiguous < blocks) {
+            // Shift the remaining directions down rather than keep a second array.
+            System.arraycopy(blockDirections, contiguous, blockDirections, 0, blocks - contiguous);
+            convolver.process(mosquitoL, mosquitoR, sample + contiguous * blockSize - streamEnd,
+                    blockDirections, blocks - contiguous, out, contiguous * blockSize);
+        }
+    }
+
+    private void checkSuccess() {
+        if (cameraPosition.getPos().getZ() < 0 && !success) {
+            audioSink.playCue(AudioSink.CUE_FINAL_SUCCESS);
+            success = true;
+            try {
+                Thread.sleep(4000);
+            } catch (java.lang.InterruptedException e) {
+                GameLog.e("MazeGame", "Interupted by someone: %s", e);
+            }
+            startLevel();
+        }
+    }
+
+    /**
+     * Writes the render state of the last simulation into {@code packet}: the camera and the
+     * mosquitoes interpolated to the clock's render time, the path guide and, if they changed
+     * since the packet was last written, the marks.
+     */
+    void writeFrame(FramePacket packet) {
+        float alpha = clock.getAlpha();
+        packet.frame = ++frameCount;
+        packet.maze = maze;
+        packet.cameraPos.setInterpolated(cameraPosition.getPrevPos(), cameraPosition.getPos(), alpha);
+        renderMosquitoPos.setInterpolated(mosquitoPosition.getPrevPos(), mosquitoPosition.getPos(), alpha);
+        Point direction = mosquitoPosition.getDirection();
+        MatrixMath.setFacingM(placement, 0, renderMosquitoPos.getX(), renderMosquitoPos.getY(), renderMosquitoPos.getZ(),
+                direction.getX(), direction.getY(), direction.getZ());
+        // The model fix turns the mesh upright after its placement.
+        MatrixMath.multiplyMM(packet.mosquito, 0, placement, 0, mosquitoModelFix, 0);
+        int count = swarm == null ? 0 : swarm.getCount();
+        packet.setSwarmCount(count);
+        for (int i = 0; i < count; i++) {
+            swarm.writeTransform(i, alpha, placement, 0);
+            MatrixMath.multiplyMM(packet.swarm, i * 16, placement, 0, mosquitoModelFix, 0);
+        }
+        updatePathGuide();
+        packet.guideRow = guideRow;
+        packet.guideCol = guideCol;
+        packet.guideCount = guideCount;
+        System.arraycopy(guideCells, 0, packet.guideCells, 0, guideCount * 2);
+        if (packet.markVersion != markVersion) {
+            packet.setMarks(markVersion);
+        }
+    }
+
+    /**
+     * Finds the next few cells of the shortest path to the exit. Only redone when the player
+     * enters another cell or the guide is switched on or off.
+     */
+    private void updatePathGuide() {
+        DistanceField field = maze.getDistanceField();
+        int r = pathGuideVisible && field != null ? cameraPosition.getNowRow() : -1;
+        int c = r < 0 ? -1 : cameraPosition.getNowCol();
+        if (r == guideRow && c == guideCol) {
+            return;
+        }
+        guideRow = r;
+        guideCol = c;
+        int shown = 0;
+        while (r >= 0 && shown < FramePacket.GUIDE_LENGTH) {
+            int direction = field.getNextDirection(r, c);
+            if (direction == DistanceField.NONE) {
+                break;
+            }
+            r += DistanceField.rowStep(direction);
+            c += DistanceField.colStep(direction);
+            guideCells[shown * 2] = r;
+            guideCells[shown * 2 + 1] = c;
+            shown++;
+        }
+        guideCount = shown;
+    }
+}
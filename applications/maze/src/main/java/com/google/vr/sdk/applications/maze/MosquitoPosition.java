@@ -1,29 +1,37 @@
 package com.google.vr.sdk.applications.maze;
 
-import android.opengl.Matrix;
-
-import java.util.Vector;
-
 public class MosquitoPosition {
-    private static final float MOSQUITO_SPEED = 0.001f;
+    private static final String TAG = "MosquitoPosition";
+    // Distance per simulation step, i.e. 0.06 units per second.
+    private static final float MOSQUITO_SPEED = 0.06f * SimulationClock.STEP_SECONDS;
     private float MIN_DISTANCE_BETWEEN_MOSQUITO_AND_WALL = 0.1f;
-    private Vector<Box> obstacles;
+    private WallGrid obstacles;
     private Point pos, prevPos, direction;
 
-    MosquitoPosition(Point startPos, Vector<Box> _obstacles) {
+    MosquitoPosition(Point startPos, WallGrid _obstacles) {
+        this(startPos, new Point(0, 0, -1), _obstacles);
+    }
+
+    /**
+     * Places the mosquito flying along {@code startDirection}, e.g. when restoring a saved game.
+     */
+    MosquitoPosition(Point startPos, Point startDirection, WallGrid _obstacles) {
         pos = new Point(startPos.getX(), startPos.getY(), startPos.getZ());
-        obstacles = new Vector<>();
-        obstacles.addAll(_obstacles);
-        direction = new Point(0, 0, -1);
-        prevPos = new Point(0, 0, 0);
+        obstacles = _obstacles;
+        direction = new Point(startDirection.getX(), startDirection.getY(), startDirection.getZ());
+        direction.normalize();
+        prevPos = new Point(startPos.getX(), startPos.getY(), startPos.getZ());
     }
 
 
-    void move(Point movePos) {
+    /**
+     * Bends the flight direction towards (x, y, z), then moves.
+     */
+    void move(float x, float y, float z) {
         float rate = 5.0f;
-        direction.addX(movePos.getX() / rate);
-        direction.addY(movePos.getY() / rate);
-        direction.addZ(movePos.getZ() / rate);
+        direction.addX(x / rate);
+        direction.addY(y / rate);
+        direction.addZ(z / rate);
         direction.normalize();
         move();
     }
@@ -32,10 +40,12 @@ public class MosquitoPosition {
         prevPos.setX(pos.getX());
         prevPos.setY(pos.getY());
         prevPos.setZ(pos.getZ());
-        Point point = new Point(pos.getX() + direction.getX() * MOSQUITO_SPEED, pos.getY() + direction.getY() * MOSQUITO_SPEED, pos.getZ() + direction.getZ() * MOSQUITO_SPEED);
+        float nextX = pos.getX() + direction.getX() * MOSQUITO_SPEED;
+        float nextY = pos.getY() + direction.getY() * MOSQUITO_SPEED;
+        float nextZ = pos.getZ() + direction.getZ() * MOSQUITO_SPEED;
         //如果不合法那么我们反射，只把导致碰撞的那一维取反
-        int ret = collisionDetect(point);
-        if (point.getY() - MIN_DISTANCE_BETWEEN_MOSQUITO_AND_WALL < 0 || point.getY() + MIN_DISTANCE_BETWEEN_MOSQUITO_AND_WALL > Maze.WALL_HEIGHT) {
+        int ret = collisionDetect(nextX, nextZ);
+        if (nextY - MIN_DISTANCE_BETWEEN_MOSQUITO_AND_WALL < 0 || nextY + MIN_DISTANCE_BETWEEN_MOSQUITO_AND_WALL > Maze.WALL_HEIGHT) {
             direction.setY(-direction.getY());
         } else if (ret == 1) {
 
@@ -47,7 +57,9 @@ public class MosquitoPosition {
         pos.addX(direction.getX() * MOSQUITO_SPEED);
         pos.addY(direction.getY() * MOSQUITO_SPEED);
         pos.addZ(direction.getZ() * MOSQUITO_SPEED);
-        System.out.printf("now mosquito position is (%f, %f, %f)\n", pos.getX(), pos.getY(), pos.getZ());
+        if (GameLog.VERBOSE_ENABLED) {
+            GameLog.v(TAG, "now mosquito position is (%f, %f, %f)", pos.getX(), pos.getY(), pos.getZ());
+        }
     }
 
     public Point getPos() {
@@ -58,20 +70,18 @@ public class MosquitoPosition {
         return prevPos;
     }
 
-    private int collisionDetect(Point p) {
+    /**
+     * Returns the unit vector the mosquito is flying along.
+     */
+    Point getDirection() {
+        return direction;
+    }
 
-        for (Box box : obstacles) {
-            if ((p.getX() > box.getPos().getX() - MIN_DISTANCE_BETWEEN_MOSQUITO_AND_WALL &&
-                    p.getX() < box.getPos().getX() + box.getSize().getX() + MIN_DISTANCE_BETWEEN_MOSQUITO_AND_WALL) &&
-                    (p.getZ() > box.getPos().getZ() - MIN_DISTANCE_BETWEEN_MOSQUITO_AND_WALL &&
-                            p.getZ() < box.getPos().getZ() + box.getSize().getZ() + MIN_DISTANCE_BETWEEN_MOSQUITO_AND_WALL)) {
-                if (box.getSize().getX() < box.getSize().getZ()) {
-                    return 1;
-                } else {
-                    return 2;
-                }
-            }
+    private int collisionDetect(float x, float z) {
+        int box = obstacles.findOverlap(x, z, MIN_DISTANCE_BETWEEN_MOSQUITO_AND_WALL);
+        if (box < 0) {
+            return 0;
         }
-        return 0;
+        return obstacles.isVertical(box) ? 1 : 2;
     }
 }
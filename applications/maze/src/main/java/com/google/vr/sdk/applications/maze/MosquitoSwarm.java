@@ -0,0 +1,431 @@
+/*
+ * Copyright 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.vr.sdk.applications.maze;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * A swarm of mosquitoes with boids-style steering, simulated on the {@link SimulationClock} step.
+ *
+ * <p>Positions and velocities live in primitive arrays, one entry per mosquito. Every step first
+ * sorts the mosquitoes into a spatial hash over XZ cells of {@link #NEIGHBOUR_RADIUS}, then
+ * computes each new velocity from separation, alignment and cohesion with at most
+ * {@link #MAX_NEIGHBOURS} neighbours, a random wander and look-ahead wall avoidance through the
+ * {@link WallGrid}. A second pass moves every mosquito with the grid's per-axis sweeps and
+ * bounces it off whatever it hits. Each pass reads the previous state and writes only the
+ * mosquito's own slots, so above {@link #PARALLEL_THRESHOLD} mosquitoes both passes are split
+ * into slices and run on a fork-join pool.
+ */
+/* package */ final class MosquitoSwarm {
+    static final int PARALLEL_THRESHOLD = 4096;
+    private static final int SLICE_SIZE = 1024;
+
+    // Units per second, same as MosquitoPosition.
+    private static final float SPEED = 0.06f;
+    private static final float NEIGHBOUR_RADIUS = 0.25f;
+    private static final float SEPARATION_RADIUS = 0.08f;
+    private static final int MAX_NEIGHBOURS = 12;
+    private static final float SEPARATION_WEIGHT = 1.5f;
+    private static final float ALIGNMENT_WEIGHT = 0.5f;
+    private static final float COHESION_WEIGHT = 0.3f;
+    private static final float WANDER_WEIGHT = 0.6f;
+    private static final float WALL_WEIGHT = 3f;
+    // How quickly steering turns the heading, per second.
+    private static final float STEERING_RATE = 4f;
+    private static final float WALL_MARGIN = 0.1f;
+    private static final float LOOK_AHEAD = 0.1f;
+
+    private static final int STEER = 0;
+    private static final int INTEGRATE = 1;
+
+    private static ForkJoinPool pool;
+
+    private final int count;
+    private final WallGrid walls;
+    private final float[] x;
+    private final float[] y;
+    private final float[] z;
+    private final float[] prevX;
+    private final float[] prevY;
+    private final float[] prevZ;
+    private final float[] vx;
+    private final float[] vy;
+    private final float[] vz;
+    private final float[] nextVx;
+    private final float[] nextVy;
+    private final float[] nextVz;
+    private final int[] seeds;
+    // Spatial hash: the mosquitoes of bucket b are sorted[bucketStart[b] .. bucketStart[b + 1]).
+    // Their cells, positions and velocities are copied into the same order so that scanning a
+    // bucket reads memory sequentially.
+    private final int hashMask;
+    private final int[] cellX;
+    private final int[] cellZ;
+    private final int[] bucket;
+    private final int[] bucketStart;
+    private final int[] bucketFill;
+    private final int[] sorted;
+    private final int[] sortedCellX;
+    private final int[] sortedCellZ;
+    private final float[] sortedX;
+    private final float[] sortedY;
+    private final float[] sortedZ;
+    private final float[] sortedVx;
+    private final float[] sortedVy;
+    private final float[] sortedVz;
+    private int parallelThreshold = PARALLEL_THRESHOLD;
+
+    /**
+     * Spreads the mosquitoes over random cells of the maze, flying in random directions.
+     */
+    MosquitoSwarm(int count, Maze maze, Random random) {
+        this.count = count;
+        walls = maze.getWallGrid();
+        x = new float[count];
+        y = new float[count];
+        z = new float[count];
+        prevX = new float[count];
+        prevY = new float[count];
+        prevZ = new float[count];
+        vx = new float[count];
+        vy = new float[count];
+        vz = new float[count];
+        nextVx = new float[count];
+        nextVy = new float[count];
+        nextVz = new float[count];
+        seeds = new int[count];
+        int tableSize = Integer.highestOneBit(Math.max(1, count) * 2 - 1) << 1;
+        hashMask = tableSize - 1;
+        cellX = new int[count];
+        cellZ = new int[count];
+        bucket = new int[count];
+        bucketStart = new int[tableSize + 1];
+        bucketFill = new int[tableSize];
+        sorted = new int[count];
+        sortedCellX = new int[count];
+        sortedCellZ = new int[count];
+        sortedX = new float[count];
+        sortedY = new float[count];
+        sortedZ = new float[count];
+        sortedVx = new float[count];
+        sortedVy = new float[count];
+        sortedVz = new float[count];
+        for (int i = 0; i < count; i++) {
+            Point start = maze.generateStartPoint();
+            x[i] = start.getX() + (random.nextFloat() - 0.5f) * Maze.PATH_WIDTH * 0.5f;
+            y[i] = 0.3f + random.nextFloat() * 0.4f;
+            z[i] = start.getZ() + (random.nextFloat() - 0.5f) * Maze.PATH_WIDTH * 0.5f;
+            prevX[i] = x[i];
+            prevY[i] = y[i];
+            prevZ[i] = z[i];
+            double angle = random.nextDouble() * 2 * Math.PI;
+            vx[i] = (float) Math.cos(angle) * SPEED;
+            vz[i] = (float) Math.sin(angle) * SPEED;
+            seeds[i] = random.nextInt() | 1;
+        }
+    }
+
+    private static synchronized ForkJoinPool getPool() {
+        if (pool == null) {
+            pool = new ForkJoinPool();
+        }
+        return pool;
+    }
+
+    int getCount() {
+        return count;
+    }
+
+    /**
+     * Overrides the swarm size from which steps run in parallel. Only meant for benchmarks.
+     */
+    void setParallelThreshold(int threshold) {
+        parallelThreshold = threshold;
+    }
+
+    /**
+     * Advances every mosquito by one simulation step.
+     */
+    void step() {
+        buildHash();
+        run(STEER);
+        run(INTEGRATE);
+    }
+
+    private void run(int phase) {
+        if (count >= parallelThreshold) {
+            getPool().invoke(new Slice(phase, 0, count));
+        } else {
+            runSlice(phase, 0, count);
+        }
+    }
+
+    private final class Slice extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int phase;
+        private final int from;
+        private final int to;
+
+        Slice(int phase, int from, int to) {
+            this.phase = phase;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= SLICE_SIZE) {
+                runSlice(phase, from, to);
+            } else {
+                int middle = (from + to) >>> 1;
+                invokeAll(new Slice(phase, from, middle), new Slice(phase, middle, to));
+            }
+        }
+    }
+
+    private void runSlice(int phase, int from, int to) {
+        if (phase == STEER) {
+            for (int i = from; i < to; i++) {
+                steer(i);
+            }
+        } else {
+            for (int i = from; i < to; i++) {
+                integrate(i);
+            }
+        }
+    }
+
+    private static int toCell(float coordinate) {
+        return (int) Math.floor(coordinate / NEIGHBOUR_RADIUS);
+    }
+
+    private int hash(int cx, int cz) {
+        return (cx * 0x9E3779B1 ^ cz * 0x85EBCA77) & hashMask;
+    }
+
+    /**
+     * Counting sort of the mosquitoes, and a copy of their state, by bucket.
+     */
+    private void buildHash() {
+        Arrays.fill(bucketStart, 0);
+        for (int i = 0; i < count; i++) {
+            cellX[i] = toCell(x[i]);
+            cellZ[i] = toCell(z[i]);
+            bucket[i] = hash(cellX[i], cellZ[i]);
+            bucketStart[bucket[i] + 1]++;
+        }
+        for (int b = 0; b < hashMask + 1; b++) {
+            bucketStart[b + 1] += bucketStart[b];
+        }
+        System.arraycopy(bucketStart, 0, bucketFill, 0, hashMask + 1);
+        for (int i = 0; i < count; i++) {
+            int k = bucketFill[bucket[i]]++;
+            sorted[k] = i;
+            sortedCellX[k] = cellX[i];
+            sortedCellZ[k] = cellZ[i];
+            sortedX[k] = x[i];
+            sortedY[k] = y[i];
+            sortedZ[k] = z[i];
+            sortedVx[k] = vx[i];
+            sortedVy[k] = vy[i];
+            sortedVz[k] = vz[i];
+        }
+    }
+
+    private float nextRandom(int i) {
+        int seed = seeds[i];
+        seed ^= seed << 13;
+        seed ^= seed >>> 17;
+        seed ^= seed << 5;
+        seeds[i] = seed;
+        return seed * (1f / Integer.MAX_VALUE);
+    }
+
+    private void steer(int i) {
+        float px = x[i];
+        float py = y[i];
+        float pz = z[i];
+        float separationX = 0, separationY = 0, separationZ = 0;
+        float alignmentX = 0, alignmentY = 0, alignmentZ = 0;
+        float cohesionX = 0, cohesionY = 0, cohesionZ = 0;
+        int neighbours = 0;
+        neighbourSearch:
+        for (int dx = -1; dx <= 1; dx++) {
+            for (int dz = -1; dz <= 1; dz++) {
+                int cx = cellX[i] + dx;
+                int cz = cellZ[i] + dz;
+                int b = hash(cx, cz);
+                for (int k = bucketStart[b]; k < bucketStart[b + 1]; k++) {
+                    // Skips hash collisions, and buckets shared by two of the nine cells.
+                    if (sortedCellX[k] != cx || sortedCellZ[k] != cz || sorted[k] == i) {
+                        continue;
+                    }
+                    float ox = sortedX[k] - px;
+                    float oy = sortedY[k] - py;
+                    float oz = sortedZ[k] - pz;
+                    float squared = ox * ox + oy * oy + oz * oz;
+                    if (squared > NEIGHBOUR_RADIUS * NEIGHBOUR_RADIUS) {
+                        continue;
+                    }
+                    if (squared < SEPARATION_RADIUS * SEPARATION_RADIUS && squared > 0) {
+                        float inverse = 1 / (float) Math.sqrt(squared);
+                        separationX -= ox * inverse;
+                        separationY -= oy * inverse;
+                        separationZ -= oz * inverse;
+                    }
+                    alignmentX += sortedVx[k];
+                    alignmentY += sortedVy[k];
+                    alignmentZ += sortedVz[k];
+                    cohesionX += ox;
+                    cohesionY += oy;
+                    cohesionZ += oz;
+                    if (++neighbours == MAX_NEIGHBOURS) {
+                        break neighbourSearch;
+                    }
+                }
+            }
+        }
+        float forceX = separationX * SEPARATION_WEIGHT + nextRandom(i) * WANDER_WEIGHT;
+        float forceY = separationY * SEPARATION_WEIGHT + nextRandom(i) * WANDER_WEIGHT;
+        float forceZ = separationZ * SEPARATION_WEIGHT + nextRandom(i) * WANDER_WEIGHT;
+        if (neighbours > 0) {
+            float alignment = ALIGNMENT_WEIGHT / (neighbours * SPEED);
+            float cohesion = COHESION_WEIGHT / (neighbours * NEIGHBOUR_RADIUS);
+            forceX += alignmentX * alignment + cohesionX * cohesion;
+            forceY += alignmentY * alignment + cohesionY * cohesion;
+            forceZ += alignmentZ * alignment + cohesionZ * cohesion;
+        }
+        // Turn away from a wall, the floor or the ceiling shortly before reaching it.
+        float headingX = vx[i] / SPEED;
+        float headingY = vy[i] / SPEED;
+        float headingZ = vz[i] / SPEED;
+        int box = walls.findOverlap(px + headingX * LOOK_AHEAD, pz + headingZ * LOOK_AHEAD, WALL_MARGIN);
+        if (box >= 0) {
+            if (walls.isVertical(box)) {
+                forceX -= Math.signum(headingX) * WALL_WEIGHT;
+            } else {
+                forceZ -= Math.signum(headingZ) * WALL_WEIGHT;
+            }
+        }
+        if (py + headingY * LOOK_AHEAD < WALL_MARGIN) {
+            forceY += WALL_WEIGHT;
+        } else if (py + headingY * LOOK_AHEAD > Maze.WALL_HEIGHT - WALL_MARGIN) {
+            forceY -= WALL_WEIGHT;
+        }
+        float turn = STEERING_RATE * SimulationClock.STEP_SECONDS;
+        headingX += forceX * turn;
+        headingY += forceY * turn;
+        headingZ += forceZ * turn;
+        float length = (float) Math.sqrt(headingX * headingX + headingY * headingY + headingZ * headingZ);
+        if (length == 0) {
+            nextVx[i] = vx[i];
+            nextVy[i] = vy[i];
+            nextVz[i] = vz[i];
+            return;
+        }
+        float scale = SPEED / length;
+        nextVx[i] = headingX * scale;
+        nextVy[i] = headingY * scale;
+        nextVz[i] = headingZ * scale;
+    }
+
+    private void integrate(int i) {
+        float step = SimulationClock.STEP_SECONDS;
+        float velocityX = nextVx[i];
+        float velocityY = nextVy[i];
+        float velocityZ = nextVz[i];
+        prevX[i] = x[i];
+        prevY[i] = y[i];
+        prevZ[i] = z[i];
+        float py = y[i] + velocityY * step;
+        if ((py < WALL_MARGIN && velocityY < 0) || (py > Maze.WALL_HEIGHT - WALL_MARGIN && velocityY > 0)) {
+            velocityY = -velocityY;
+        }
+        // Sweep each axis so that corners cannot be cut, and bounce a blocked axis.
+        float moveX = walls.sweepX(x[i], z[i], velocityX * step, WALL_MARGIN);
+        if (moveX != velocityX * step) {
+            velocityX = -velocityX;
+        }
+        x[i] += moveX;
+        float moveZ = walls.sweepZ(x[i], z[i], velocityZ * step, WALL_MARGIN);
+        if (moveZ != velocityZ * step) {
+            velocityZ = -velocityZ;
+        }
+        z[i] += moveZ;
+        y[i] += velocityY * step;
+        vx[i] = velocityX;
+        vy[i] = velocityY;
+        vz[i] = velocityZ;
+    }
+
+    /**
+     * Copies the current position of a mosquito into {@code out}.
+     */
+    void getPosition(int i, Point out) {
+        out.setX(x[i]);
+        out.setY(y[i]);
+        out.setZ(z[i]);
+    }
+
+    /**
+     * Writes the rigid transform that places a unit model at the mosquito, interpolated between
+     * the last two steps, and faces its -Z axis along the flight direction.
+     */
+    void writeTransform(int i, float alpha, float[] out, int offset) {
+        MatrixMath.setFacingM(out, offset,
+                prevX[i] + (x[i] - prevX[i]) * alpha,
+                prevY[i] + (y[i] - prevY[i]) * alpha,
+                prevZ[i] + (z[i] - prevZ[i]) * alpha,
+                vx[i], vy[i], vz[i]);
+    }
+
+    /**
+     * Finds the mosquitoes closest to a point, nearest first.
+     *
+     * @param nearest          Receives the indices; its length is the number wanted.
+     * @param squaredDistances Scratch of at least the same length.
+     * @return How many were found, at most {@code nearest.length}.
+     */
+    int findNearest(float px, float py, float pz, int[] nearest, float[] squaredDistances) {
+        int wanted = nearest.length;
+        int found = 0;
+        for (int i = 0; i < count; i++) {
+            float ox = x[i] - px;
+            float oy = y[i] - py;
+            float oz = z[i] - pz;
+            float squared = ox * ox + oy * oy + oz * oz;
+            if (found == wanted && squared >= squaredDistances[found - 1]) {
+                continue;
+            }
+            // Insertion into the short sorted list.
+            int slot = found < wanted ? found++ : found - 1;
+            while (slot > 0 && squaredDistances[slot - 1] > squared) {
+                squaredDistances[slot] = squaredDistances[slot - 1];
+                nearest[slot] = nearest[slot - 1];
+                slot--;
+            }
+            squaredDistances[slot] = squared;
+            nearest[slot] = i;
+        }
+        return found;
+    }
+}
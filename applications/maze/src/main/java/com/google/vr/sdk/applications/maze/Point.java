@@ -12,25 +12,15 @@ class Point {
         this.z = z;
     }
 
-    static Point getRandomNormal() {
+    public static void main(String[] args) {
         Random random = new Random();
-        while (true) {
-            float x = (float) (random.nextInt(10001) - 5000) / 5000;
-            float y = (float) (random.nextInt(10001) - 5000) / 5000;
-            float z = (float) (random.nextInt(10001) - 5000) / 5000;
-            float r = (float) Math.sqrt(x * x + y * y + z * z);
-            if (r < 1) {
-                return new Point(x / r, y / r, z / r);
-            }
+        float[] normal = new float[3];
+        for (int i = 0; i < 3; i++) {
+            Vec3.randomUnit(normal, 0, random);
+            System.out.println(new Point(normal[0], normal[1], normal[2]).describe());
         }
     }
 
-    public static void main(String[] args) {
-        getRandomNormal().describe();
-        getRandomNormal().describe();
-        getRandomNormal().describe();
-    }
-
     float getX() {
         return x;
     }
@@ -67,12 +57,25 @@ class Point {
         this.z += z;
     }
 
-    float getDistance(Point p) {
+    /**
+     * Sets this point to a + (b - a) * t.
+     */
+    void setInterpolated(Point a, Point b, float t) {
+        x = a.x + (b.x - a.x) * t;
+        y = a.y + (b.y - a.y) * t;
+        z = a.z + (b.z - a.z) * t;
+    }
+
+    float getSquaredDistance(Point p) {
         return (x - p.x) * (x - p.x) + (y - p.y) * (y - p.y) + (z - p.z) * (z - p.z);
     }
 
-    void describe() {
-        System.out.printf("This point is at (%f, %f, %f)\n", x, y, z);
+    float getDistance(Point p) {
+        return (float) Math.sqrt(getSquaredDistance(p));
+    }
+
+    String describe() {
+        return String.format("This point is at (%f, %f, %f)", x, y, z);
     }
 
     float length() {
@@ -0,0 +1,161 @@
+/*
+ * Copyright 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vr.sdk.applications.maze;
+
+/**
+ * Converts signals between two sample rates by a rational factor L/M, as a windowed-sinc low-pass
+ * split into L polyphase branches.
+ *
+ * <p>Conceptually the input is upsampled by L with zeros, low-pass filtered below the lower of the
+ * two Nyquist frequencies and decimated by M; only the filter taps that meet non-zero input are
+ * ever evaluated, so each output sample costs {@link #getTapsPerPhase} multiply-adds. The filter's
+ * delay is compensated, so output sample m lines up with input time {@code m * M / L}, and samples
+ * outside the input are taken as zero. Meant for load time, not for the audio thread.
+ */
+/* package */ final class PolyphaseResampler {
+    /**
+     * Length of the low-pass filter, in samples of the lower of the two rates.
+     */
+    static final int FILTER_LENGTH = 32;
+    // Kaiser window shape: about 80 dB of stopband attenuation.
+    private static final double KAISER_BETA = 8.0;
+    // Passband edge as a fraction of the lower Nyquist frequency, leaving room for the transition.
+    private static final double CUTOFF = 0.92;
+
+    private final int sourceRate;
+    private final int targetRate;
+    private final int up;
+    private final int down;
+    // [phase][k]: tap phase + k * up of the prototype filter.
+    private final float[][] phases;
+    private final int tapsPerPhase;
+    private final long delay;
+
+    PolyphaseResampler(int sourceRate, int targetRate) {
+        if (sourceRate <= 0 || targetRate <= 0) {
+            throw new IllegalArgumentException("Sample rates must be positive: " + sourceRate + ", " + targetRate);
+        }
+        this.sourceRate = sourceRate;
+        this.targetRate = targetRate;
+        int gcd = gcd(sourceRate, targetRate);
+        up = targetRate / gcd;
+        down = sourceRate / gcd;
+        // In samples of the upsampled signal, rounded up to whole branches.
+        tapsPerPhase = (int) (((long) FILTER_LENGTH * Math.max(up, down) + up - 1) / up);
+        int length = up * tapsPerPhase;
+        delay = length / 2;
+        // Cutoff in cycles per sample of the upsampled signal.
+        double cutoff = 0.5 * CUTOFF / Math.max(up, down);
+        double i0Beta = besselI0(KAISER_BETA);
+        phases = new float[up][tapsPerPhase];
+        for (int n = 0; n < length; n++) {
+            double t = n - delay;
+            double sinc = t == 0 ? 1 : Math.sin(2 * Math.PI * cutoff * t) / (2 * Math.PI * cutoff * t);
+            double r = t / (length / 2.0);
+            double window = Math.abs(r) >= 1 ? 0 : besselI0(KAISER_BETA * Math.sqrt(1 - r * r)) / i0Beta;
+            // The factor up restores the level lost to the inserted zeros.
+            phases[n % up][n / up] = (float) (up * 2 * cutoff * sinc * window);
+        }
+    }
+
+    int getSourceRate() {
+        return sourceRate;
+    }
+
+    int getTargetRate() {
+        return targetRate;
+    }
+
+    /**
+     * Returns the length of each polyphase branch, in input samples.
+     */
+    int getTapsPerPhase() {
+        return tapsPerPhase;
+    }
+
+    /**
+     * Returns the number of output samples covering {@code inLength} input samples.
+     */
+    int getOutputLength(int inLength) {
+        return (int) (((long) inLength * up + down - 1) / down);
+    }
+
+    /**
+     * Resamples a whole signal.
+     */
+    float[] resample(float[] in) {
+        float[] out = new float[getOutputLength(in.length)];
+        process(in, 0, in.length, out, 0, out.length, 1);
+        return out;
+    }
+
+    /**
+     * Writes {@code outLength} resampled samples of {@code in[inOffset, inOffset + inLength)},
+     * each multiplied by {@code gain}.
+     */
+    void process(float[] in, int inOffset, int inLength, float[] out, int outOffset, int outLength, float gain) {
+        if (up == down) {
+            int copied = Math.min(inLength, outLength);
+            for (int i = 0; i < copied; i++) {
+                out[outOffset + i] = in[inOffset + i] * gain;
+            }
+            for (int i = copied; i < outLength; i++) {
+                out[outOffset + i] = 0;
+            }
+            return;
+        }
+        for (int m = 0; m < outLength; m++) {
+            long u = (long) m * down + delay;
+            int newest = (int) (u / up);
+            float[] taps = phases[(int) (u % up)];
+            // Tap k meets input sample newest - k.
+            int kStart = Math.max(0, newest - (inLength - 1));
+            int kEnd = Math.min(tapsPerPhase, newest + 1);
+            float sum = 0;
+            for (int k = kStart; k < kEnd; k++) {
+                sum += taps[k] * in[inOffset + newest - k];
+            }
+            out[outOffset + m] = sum * gain;
+        }
+    }
+
+    private static int gcd(int a, int b) {
+        while (b != 0) {
+            int t = a % b;
+            a = b;
+            b = t;
+        }
+        return a;
+    }
+
+    /**
+     * Zeroth-order modified Bessel function of the first kind, by its power series.
+     */
+    private static double besselI0(double x) {
+        double sum = 1;
+        double term = 1;
+        double quarter = x * x / 4;
+        for (int k = 1; k < 50; k++) {
+            term *= quarter / ((double) k * k);
+            sum += term;
+            if (term < sum * 1e-12) {
+                break;
+            }
+        }
+        return sum;
+    }
+}
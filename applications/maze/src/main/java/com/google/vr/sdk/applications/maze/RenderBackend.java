@@ -0,0 +1,64 @@
+/*
+ * Copyright 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vr.sdk.applications.maze;
+
+/**
+ * Executes the draw calls for one eye.
+ */
+/* package */ interface RenderBackend {
+    int MESH_WALL = 0;
+    int MESH_FLOOR = 1;
+    int MESH_MOSQUITO = 2;
+    int MESH_COUNT = 3;
+
+    int TEXTURE_WALL = 0;
+    int TEXTURE_FLOOR = 1;
+    int TEXTURE_CEIL = 2;
+    int TEXTURE_MOSQUITO = 3;
+    // Red cross with a transparent background, for marked passages.
+    int TEXTURE_MARK = 4;
+    int TEXTURE_COUNT = 5;
+
+    /**
+     * Prepares the target for a new eye: clears it and sets up depth testing and blending.
+     */
+    void beginEye();
+
+    /**
+     * Draws a mesh with a texture.
+     *
+     * @param modelViewProjection Column-major MVP matrix, only valid for the duration of the call.
+     */
+    void draw(int mesh, int texture, float[] modelViewProjection, int offset);
+
+    /**
+     * Draws a mesh with a texture several times.
+     *
+     * @param modelViewProjections {@code count} consecutive column-major MVP matrices starting at
+     *                             {@code offset}, only valid for the duration of the call.
+     */
+    void drawInstanced(int mesh, int texture, float[] modelViewProjections, int offset, int count);
+
+    /**
+     * Draws every quad of a decal batch with alpha blending and without writing depth. Called
+     * after the opaque draws of the eye. Uploads the batch's dirty range and clears it.
+     *
+     * @param viewProjection Column-major matrix from world to clip space, since decals are
+     *                       already in world space.
+     */
+    void drawDecals(int texture, DecalBatch batch, float[] viewProjection, int offset);
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vr.sdk.applications.maze;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Reads and writes float sample arrays, either as the whitespace separated text exported from
+ * MATLAB or as a big-endian binary dump (an int count followed by the raw floats).
+ */
+/* package */ final class SampleIo {
+    /**
+     * Class only contains static methods.
+     */
+    private SampleIo() {
+    }
+
+    /**
+     * Parses a single line of whitespace separated floats. Closes the stream.
+     */
+    static float[] readText(InputStream inputStream) throws IOException {
+        try (BufferedReader bufferedReader = new BufferedReader(new InputStreamReader(inputStream))) {
+            String[] strNums = bufferedReader.readLine().split("\\s");
+            float[] samples = new float[strNums.length];
+            for (int i = 0; i < strNums.length; i++) {
+                samples[i] = Float.parseFloat(strNums[i]);
+            }
+            return samples;
+        }
+    }
+
+    /**
+     * Reads a binary dump written by {@link #writeBinary}. Closes the stream.
+     */
+    static float[] readBinary(InputStream inputStream) throws IOException {
+        try (DataInputStream dataInputStream = new DataInputStream(inputStream)) {
+            int count = dataInputStream.readInt();
+            byte[] bytes = new byte[count * 4];
+            dataInputStream.readFully(bytes);
+            float[] samples = new float[count];
+            ByteBuffer.wrap(bytes).asFloatBuffer().get(samples);
+            return samples;
+        }
+    }
+
+    /**
+     * Parses MATLAB text and resamples it from {@code sourceRate} to {@code targetRate}, for
+     * {@link DerivedAssetCache}.
+     */
+    static DerivedAssetCache.Converter<float[]> textConverter(final int sourceRate, final int targetRate) {
+        return new DerivedAssetCache.Converter<float[]>() {
+            @Override
+            public String getId() {
+                return "samples/1/" + sourceRate + "/" + targetRate;
+            }
+
+            @Override
+            public float[] convert(byte[] source) throws IOException {
+                float[] samples = readText(new ByteArrayInputStream(source));
+                return sourceRate == targetRate ? samples
+                        : new PolyphaseResampler(sourceRate, targetRate).resample(samples);
+            }
+
+            @Override
+            public int getEncodedSize(float[] samples) {
+                return 4 + 4 * samples.length;
+            }
+
+            @Override
+            public void encode(float[] samples, ByteBuffer out) {
+                out.putInt(samples.length);
+                out.asFloatBuffer().put(samples);
+                out.position(out.limit());
+            }
+
+            @Override
+            public float[] decode(ByteBuffer in) throws IOException {
+                int count = in.getInt();
+                if (count < 0 || 4L * count != in.remaining()) {
+                    throw new IOException("Expected " + count + " samples in " + in.remaining() + " bytes");
+                }
+                float[] samples = new float[count];
+                in.asFloatBuffer().get(samples);
+                return samples;
+            }
+        };
+    }
+
+    static void writeBinary(float[] samples, OutputStream outputStream) throws IOException {
+        DataOutputStream dataOutputStream = new DataOutputStream(outputStream);
+        ByteBuffer buffer = ByteBuffer.allocate(samples.length * 4);
+        buffer.asFloatBuffer().put(samples);
+        dataOutputStream.writeInt(samples.length);
+        dataOutputStream.write(buffer.array());
+        dataOutputStream.flush();
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vr.sdk.applications.maze;
+
+/**
+ * Plain Java {@link ConvolutionKernel}, used on Android and wherever the Vector API is missing.
+ *
+ * <p>Four outputs are computed per pass over the taps. Their windows overlap, so the four signal
+ * samples in use are kept in locals and shifted along: each tap costs one load of the signal, one
+ * of the filter and four independent multiply-adds, instead of two loads per multiply-add feeding
+ * one serial accumulator.
+ */
+/* package */ final class ScalarConvolutionKernel implements ConvolutionKernel {
+    @Override
+    public int getFftCrossover() {
+        // Untuned placeholder. This kernel is the one Android runs, under ART on ARM, and it has
+        // only been timed on a desktop JVM; measure it on a device before relying on this value.
+        // 96 puts the 100-tap blocks of the bundled HRIRs on the FFT path, which with cached
+        // spectra was the faster one on the desktop.
+        return 96;
+    }
+
+    @Override
+    public void convolve(float[] x, int xOffset, float[] reversedTaps, int taps,
+                         float[] z, int zOffset, int zStride, int length) {
+        int i = 0;
+        if (taps > 0) {
+            for (; i + 4 <= length; i += 4) {
+                int p = xOffset + i;
+                float x0 = x[p];
+                float x1 = x[p + 1];
+                float x2 = x[p + 2];
+                float s0 = 0;
+                float s1 = 0;
+                float s2 = 0;
+                float s3 = 0;
+                for (int j = 0; j < taps; j++) {
+                    float x3 = x[p + j + 3];
+                    float r = reversedTaps[j];
+                    s0 += x0 * r;
+                    s1 += x1 * r;
+                    s2 += x2 * r;
+                    s3 += x3 * r;
+                    x0 = x1;
+                    x1 = x2;
+                    x2 = x3;
+                }
+                int o = zOffset + i * zStride;
+                z[o] = s0;
+                z[o + zStride] = s1;
+                z[o + 2 * zStride] = s2;
+                z[o + 3 * zStride] = s3;
+            }
+        }
+        for (; i < length; i++) {
+            float sum = 0;
+            int p = xOffset + i;
+            for (int j = 0; j < taps; j++) {
+                sum += x[p + j] * reversedTaps[j];
+            }
+            z[zOffset + i * zStride] = sum;
+        }
+    }
+}
@@ -0,0 +1,621 @@
+/*
+ * Copyright 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vr.sdk.applications.maze;
+
+import java.util.Arrays;
+
+/**
+ * Flat scene graph: a tree of transform nodes, some of which draw a mesh.
+ *
+ * <p>Nodes live in parallel arrays and a parent is always created before its children. Setting a
+ * node's local matrix only queues it; {@link #updateWorld} then recomputes the world matrix and
+ * world bounds of the queued nodes and their subtrees, and nothing else. Each eye keeps its own
+ * cache of world-view-projection matrices, which is refreshed only for visible nodes whose world
+ * matrix or whose eye's view-projection changed since the last frame.
+ *
+ * <p>Static drawable nodes are culled through a bounding-volume hierarchy, built when the set of
+ * static nodes changes and refitted when one of them moves. Dynamic nodes are tested one by one.
+ */
+/* package */ final class SceneGraph {
+    static final int NO_PARENT = -1;
+    static final int NO_MESH = -1;
+    /**
+     * Number of eye caches, enough for every Eye.Type (monocular, left and right).
+     */
+    static final int EYE_COUNT = 3;
+
+    /**
+     * Model-space bounds of each RenderBackend mesh as minX, minY, minZ, maxX, maxY, maxZ, taken
+     * from the vertices in the OBJ assets.
+     */
+    private static final float[] MESH_BOUNDS = {
+            -0.5f, -0.5f, -0.5f, 0.5f, 0.5f, 0.5f,
+            -0.5f, 0, -0.5f, 0.5f, 0, 0.5f,
+            -3.58f, -3.95f, -0.001f, 3.58f, 5.96f, 4.27f,
+    };
+    private static final int LEAF_SIZE = 4;
+    private static final int BATCH_COUNT = RenderBackend.MESH_COUNT * RenderBackend.TEXTURE_COUNT;
+
+    private int count;
+    private int[] parent;
+    private int[] firstChild;
+    private int[] nextSibling;
+    private int[] mesh;
+    private int[] texture;
+    private boolean[] isStatic;
+    private boolean[] hidden;
+    private float[] local;
+    private float[] world;
+    // World-space AABB as minX, minY, minZ, maxX, maxY, maxZ.
+    private float[] bounds;
+    private int[] worldVersion;
+
+    private int[] dirty;
+    private int dirtyCount;
+    private boolean[] queued;
+    private int[] updatedAt;
+    private int updateStamp;
+    private int[] stack;
+
+    private final float[][] viewProjection = new float[EYE_COUNT][16];
+    private final int[] viewProjectionVersion = new int[EYE_COUNT];
+    private final float[][] worldViewProjection = new float[EYE_COUNT][];
+    private final int[][] cachedWorldVersion = new int[EYE_COUNT][];
+    private final int[][] cachedViewVersion = new int[EYE_COUNT][];
+    private final float[] eyeViewProjection = new float[16];
+    private final float[] planes = new float[24];
+
+    private int[] dynamicNodes;
+    private int dynamicCount;
+    private int[] bvhItems;
+    private int bvhItemCount;
+    private float[] bvhBounds;
+    private int[] bvhStart;
+    private int[] bvhCount;
+    private int[] bvhSkip;
+    private int bvhNodeCount;
+    private boolean bvhStale;
+    private boolean bvhBoundsStale;
+
+    private int[] visible;
+    private int[] sorted;
+    private int visibleCount;
+    private final int[] batchStart = new int[BATCH_COUNT + 1];
+    private int lastUpdated;
+
+    SceneGraph(int capacity) {
+        capacity = Math.max(capacity, 1);
+        parent = new int[capacity];
+        firstChild = new int[capacity];
+        nextSibling = new int[capacity];
+        mesh = new int[capacity];
+        texture = new int[capacity];
+        isStatic = new boolean[capacity];
+        hidden = new boolean[capacity];
+        local = new float[capacity * 16];
+        world = new float[capacity * 16];
+        bounds = new float[capacity * 6];
+        worldVersion = new int[capacity];
+        dirty = new int[capacity];
+        queued = new boolean[capacity];
+        updatedAt = new int[capacity];
+        stack = new int[capacity];
+        dynamicNodes = new int[capacity];
+        bvhItems = new int[capacity];
+        visible = new int[capacity];
+        sorted = new int[capacity];
+    }
+
+    /**
+     * Removes every node. The arrays are kept for the next scene.
+     */
+    void clear() {
+        count = 0;
+        dirtyCount = 0;
+        dynamicCount = 0;
+        bvhItemCount = 0;
+        bvhNodeCount = 0;
+        bvhStale = false;
+        bvhBoundsStale = false;
+        visibleCount = 0;
+        Arrays.fill(queued, false);
+        for (int eye = 0; eye < EYE_COUNT; eye++) {
+            if (cachedViewVersion[eye] != null) {
+                Arrays.fill(cachedViewVersion[eye], 0);
+            }
+        }
+    }
+
+    /**
+     * Adds a node with an identity local matrix.
+     *
+     * @param parentNode {@link #NO_PARENT} or an existing node.
+     * @param meshId     A RenderBackend mesh, or {@link #NO_MESH} for a pure transform node.
+     * @param textureId  A RenderBackend texture; ignored without a mesh.
+     * @param staticNode Whether the node is expected to stay put. Static nodes are culled through
+     *                   the hierarchy, which is rebuilt when one is added and refitted when one
+     *                   moves.
+     * @return The new node.
+     */
+    int addNode(int parentNode, int meshId, int textureId, boolean staticNode) {
+        if (count == parent.length) {
+            grow();
+        }
+        int node = count++;
+        parent[node] = parentNode;
+        firstChild[node] = NO_PARENT;
+        nextSibling[node] = NO_PARENT;
+        if (parentNode != NO_PARENT) {
+            nextSibling[node] = firstChild[parentNode];
+            firstChild[parentNode] = node;
+        }
+        mesh[node] = meshId;
+        texture[node] = textureId;
+        isStatic[node] = staticNode;
+        hidden[node] = false;
+        MatrixMath.setIdentityM(local, node * 16);
+        worldVersion[node] = 0;
+        updatedAt[node] = 0;
+        if (meshId != NO_MESH) {
+            if (staticNode) {
+                bvhItems[bvhItemCount++] = node;
+                bvhStale = true;
+            } else {
+                dynamicNodes[dynamicCount++] = node;
+            }
+        }
+        for (int eye = 0; eye < EYE_COUNT; eye++) {
+            if (cachedViewVersion[eye] != null) {
+                cachedViewVersion[eye][node] = 0;
+            }
+        }
+        markDirty(node);
+        return node;
+    }
+
+    int size() {
+        return count;
+    }
+
+    /**
+     * Replaces the local matrix of a node, relative to its parent.
+     */
+    void setLocal(int node, float[] m, int offset) {
+        System.arraycopy(m, offset, local, node * 16, 16);
+        markDirty(node);
+    }
+
+    /**
+     * Hides or shows a node's own mesh. Its children are not affected.
+     */
+    void setHidden(int node, boolean hide) {
+        hidden[node] = hide;
+    }
+
+    /**
+     * Returns the world matrices, 16 floats per node. Valid after {@link #updateWorld}.
+     */
+    float[] getWorldMatrices() {
+        return world;
+    }
+
+    /**
+     * Returns how many world matrices the last {@link #updateWorld} recomputed.
+     */
+    int getLastUpdatedCount() {
+        return lastUpdated;
+    }
+
+    private void markDirty(int node) {
+        if (!queued[node]) {
+            queued[node] = true;
+            dirty[dirtyCount++] = node;
+        }
+    }
+
+    /**
+     * Recomputes the world matrices and bounds of every node whose local matrix changed, together
+     * with their descendants, in one batch.
+     *
+     * @return How many nodes were recomputed.
+     */
+    int updateWorld() {
+        // Parents have lower indices, so visiting in order updates a parent before its children,
+        // and a child that was queued on its own is skipped once its parent's subtree covered it.
+        Arrays.sort(dirty, 0, dirtyCount);
+        updateStamp++;
+        int updated = 0;
+        for (int d = 0; d < dirtyCount; d++) {
+            int root = dirty[d];
+            queued[root] = false;
+            if (updatedAt[root] == updateStamp) {
+                continue;
+            }
+            int top = 0;
+            stack[top++] = root;
+            while (top > 0) {
+                int node = stack[--top];
+                updateNode(node);
+                updatedAt[node] = updateStamp;
+                updated++;
+                for (int child = firstChild[node]; child != NO_PARENT; child = nextSibling[child]) {
+                    stack[top++] = child;
+                }
+            }
+        }
+        dirtyCount = 0;
+        lastUpdated = updated;
+        return updated;
+    }
+
+    private void updateNode(int node) {
+        int offset = node * 16;
+        int parentNode = parent[node];
+        if (parentNode == NO_PARENT) {
+            System.arraycopy(local, offset, world, offset, 16);
+        } else {
+            MatrixMath.multiplyMM(world, offset, world, parentNode * 16, local, offset);
+        }
+        worldVersion[node]++;
+        if (mesh[node] != NO_MESH) {
+            updateBounds(node);
+            if (isStatic[node]) {
+                bvhBoundsStale = true;
+            }
+        }
+    }
+
+    /**
+     * Transforms the mesh's local box by the world matrix: the center is transformed as a point and
+     * the half extents by the absolute values of the linear part.
+     */
+    private void updateBounds(int node) {
+        int m = node * 16;
+        int b = mesh[node] * 6;
+        float cx = (MESH_BOUNDS[b] + MESH_BOUNDS[b + 3]) * 0.5f;
+        float cy = (MESH_BOUNDS[b + 1] + MESH_BOUNDS[b + 4]) * 0.5f;
+        float cz = (MESH_BOUNDS[b + 2] + MESH_BOUNDS[b + 5]) * 0.5f;
+        float ex = (MESH_BOUNDS[b + 3] - MESH_BOUNDS[b]) * 0.5f;
+        float ey = (MESH_BOUNDS[b + 4] - MESH_BOUNDS[b + 1]) * 0.5f;
+        float ez = (MESH_BOUNDS[b + 5] - MESH_BOUNDS[b + 2]) * 0.5f;
+        int o = node * 6;
+        for (int i = 0; i < 3; i++) {
+            float center = world[m + i] * cx + world[m + 4 + i] * cy + world[m + 8 + i] * cz + world[m + 12 + i];
+            float extent = Math.abs(world[m + i]) * ex + Math.abs(world[m + 4 + i]) * ey
+                    + Math.abs(world[m + 8 + i]) * ez;
+            bounds[o + i] = center - extent;
+            bounds[o + 3 + i] = center + extent;
+        }
+    }
+
+    /**
+     * Culls the scene against one eye's frustum and adds the visible meshes to {@code out},
+     * grouped by mesh and texture so that each group can be drawn as one instanced run.
+     *
+     * @param eye         Index of the eye's cache, below {@link #EYE_COUNT}.
+     * @param view        The eye's view matrix.
+     * @param perspective The eye's projection matrix.
+     */
+    void collect(int eye, float[] view, float[] perspective, DrawList out) {
+        if (dirtyCount > 0) {
+            updateWorld();
+        }
+        setEye(eye, view, perspective);
+        extractPlanes(eyeViewProjection);
+        visibleCount = 0;
+        cullStatic();
+        for (int i = 0; i < dynamicCount; i++) {
+            int node = dynamicNodes[i];
+            if (!hidden[node] && isVisible(bounds, node * 6)) {
+                visible[visibleCount++] = node;
+            }
+        }
+        sortByBatch();
+
+        float[] cache = worldViewProjection[eye];
+        int[] worldVersions = cachedWorldVersion[eye];
+        int[] viewVersions = cachedViewVersion[eye];
+        int version = viewProjectionVersion[eye];
+        for (int i = 0; i < visibleCount; i++) {
+            int node = sorted[i];
+            int offset = node * 16;
+            if (viewVersions[node] != version || worldVersions[node] != worldVersion[node]) {
+                MatrixMath.multiplyMM(cache, offset, eyeViewProjection, 0, world, offset);
+                viewVersions[node] = version;
+                worldVersions[node] = worldVersion[node];
+            }
+            out.add(mesh[node], texture[node], cache, offset);
+        }
+    }
+
+    /**
+     * Returns perspective * view of an eye as of its last {@link #collect}.
+     */
+    float[] getViewProjection(int eye) {
+        return viewProjection[eye];
+    }
+
+    /**
+     * Stores perspective * view for the eye, and bumps its version if it changed.
+     */
+    private void setEye(int eye, float[] view, float[] perspective) {
+        MatrixMath.multiplyMM(eyeViewProjection, 0, perspective, 0, view, 0);
+        float[] previous = viewProjection[eye];
+        for (int i = 0; i < 16; i++) {
+            if (previous[i] != eyeViewProjection[i]) {
+                System.arraycopy(eyeViewProjection, 0, previous, 0, 16);
+                viewProjectionVersion[eye]++;
+                break;
+            }
+        }
+        if (worldViewProjection[eye] == null || cachedViewVersion[eye].length < parent.length) {
+            worldViewProjection[eye] = new float[parent.length * 16];
+            cachedWorldVersion[eye] = new int[parent.length];
+            cachedViewVersion[eye] = new int[parent.length];
+        }
+    }
+
+    /**
+     * Extracts the six clip planes, as (a, b, c, d) with inside where ax + by + cz + d >= 0, from a
+     * column-major view-projection matrix.
+     */
+    private void extractPlanes(float[] m) {
+        for (int axis = 0; axis < 3; axis++) {
+            for (int side = 0; side < 2; side++) {
+                int p = (axis * 2 + side) * 4;
+                float sign = side == 0 ? 1 : -1;
+                for (int c = 0; c < 4; c++) {
+                    planes[p + c] = m[c * 4 + 3] + sign * m[c * 4 + axis];
+                }
+            }
+        }
+    }
+
+    private boolean isVisible(float[] box, int o) {
+        return classify(box, o) >= 0;
+    }
+
+    /**
+     * Tests a box against the frustum.
+     *
+     * @return -1 if it is fully outside a plane, 1 if it is inside all planes, 0 otherwise.
+     */
+    private int classify(float[] box, int o) {
+        int result = 1;
+        for (int p = 0; p < 24; p += 4) {
+            float a = planes[p];
+            float b = planes[p + 1];
+            float c = planes[p + 2];
+            float d = planes[p + 3];
+            // The corner furthest along the plane normal, and the one furthest against it.
+            float far = a * (a > 0 ? box[o + 3] : box[o]) + b * (b > 0 ? box[o + 4] : box[o + 1])
+                    + c * (c > 0 ? box[o + 5] : box[o + 2]) + d;
+            if (far < 0) {
+                return -1;
+            }
+            float near = a * (a > 0 ? box[o] : box[o + 3]) + b * (b > 0 ? box[o + 1] : box[o + 4])
+                    + c * (c > 0 ? box[o + 2] : box[o + 5]) + d;
+            if (near < 0) {
+                result = 0;
+            }
+        }
+        return result;
+    }
+
+    private void cullStatic() {
+        if (bvhStale) {
+            buildBvh();
+        } else if (bvhBoundsStale) {
+            refitBvh();
+        }
+        int node = 0;
+        while (node < bvhNodeCount) {
+            int state = classify(bvhBounds, node * 6);
+            if (state < 0) {
+                node = bvhSkip[node];
+                continue;
+            }
+            if (state > 0 || bvhCount[node] > 0) {
+                // Fully inside, or a leaf: take every item without testing the rest of the subtree.
+                int start = bvhStart[node];
+                int end = start + Math.abs(bvhCount[node]);
+                for (int i = start; i < end; i++) {
+                    int item = bvhItems[i];
+                    if (!hidden[item] && (state > 0 || isVisible(bounds, item * 6))) {
+                        visible[visibleCount++] = item;
+                    }
+                }
+                node = bvhSkip[node];
+            } else {
+                node++;
+            }
+        }
+    }
+
+    /**
+     * Builds the hierarchy over the static meshes by median splits along the longest axis of the
+     * centroids. Nodes are stored in depth-first order: an inner node's first child follows it,
+     * and {@code bvhSkip} points past its subtree. {@code bvhCount} is positive for leaves and
+     * minus the subtree's item count for inner nodes, whose items are contiguous too.
+     */
+    private void buildBvh() {
+        int capacity = Math.max(1, 2 * bvhItemCount);
+        if (bvhStart == null || bvhStart.length < capacity) {
+            bvhBounds = new float[capacity * 6];
+            bvhStart = new int[capacity];
+            bvhCount = new int[capacity];
+            bvhSkip = new int[capacity];
+        }
+        bvhNodeCount = 0;
+        if (bvhItemCount > 0) {
+            buildBvh(0, bvhItemCount);
+        }
+        bvhStale = false;
+        bvhBoundsStale = false;
+    }
+
+    private void buildBvh(int start, int end) {
+        int node = bvhNodeCount++;
+        bvhStart[node] = start;
+        int o = node * 6;
+        unionItems(o, start, end);
+        if (end - start <= LEAF_SIZE) {
+            bvhCount[node] = end - start;
+            bvhSkip[node] = bvhNodeCount;
+            return;
+        }
+        bvhCount[node] = -(end - start);
+        int axis = 0;
+        float longest = bvhBounds[o + 3] - bvhBounds[o];
+        for (int i = 1; i < 3; i++) {
+            float length = bvhBounds[o + 3 + i] - bvhBounds[o + i];
+            if (length > longest) {
+                longest = length;
+                axis = i;
+            }
+        }
+        int middle = (start + end) >>> 1;
+        selectByCentroid(start, end - 1, middle, axis);
+        buildBvh(start, middle);
+        buildBvh(middle, end);
+        bvhSkip[node] = bvhNodeCount;
+    }
+
+    /**
+     * Partially sorts bvhItems[left..right] so that the item at {@code k} has the k-th smallest
+     * centroid along the axis, with smaller ones before it and larger ones after.
+     */
+    private void selectByCentroid(int left, int right, int k, int axis) {
+        while (left < right) {
+            float pivot = centroid(bvhItems[(left + right) >>> 1], axis);
+            int i = left;
+            int j = right;
+            while (i <= j) {
+                while (centroid(bvhItems[i], axis) < pivot) {
+                    i++;
+                }
+                while (centroid(bvhItems[j], axis) > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    int swap = bvhItems[i];
+                    bvhItems[i] = bvhItems[j];
+                    bvhItems[j] = swap;
+                    i++;
+                    j--;
+                }
+            }
+            if (k <= j) {
+                right = j;
+            } else if (k >= i) {
+                left = i;
+            } else {
+                return;
+            }
+        }
+    }
+
+    private float centroid(int node, int axis) {
+        return bounds[node * 6 + axis] + bounds[node * 6 + 3 + axis];
+    }
+
+    /**
+     * Recomputes the hierarchy's boxes after static nodes moved, keeping its structure. Children
+     * follow their parent, so walking backwards sees them first.
+     */
+    private void refitBvh() {
+        for (int node = bvhNodeCount - 1; node >= 0; node--) {
+            int o = node * 6;
+            if (bvhCount[node] > 0) {
+                unionItems(o, bvhStart[node], bvhStart[node] + bvhCount[node]);
+            } else {
+                int left = node + 1;
+                int right = bvhSkip[left];
+                for (int i = 0; i < 3; i++) {
+                    bvhBounds[o + i] = Math.min(bvhBounds[left * 6 + i], bvhBounds[right * 6 + i]);
+                    bvhBounds[o + 3 + i] = Math.max(bvhBounds[left * 6 + 3 + i], bvhBounds[right * 6 + 3 + i]);
+                }
+            }
+        }
+        bvhBoundsStale = false;
+    }
+
+    private void unionItems(int o, int start, int end) {
+        for (int i = 0; i < 3; i++) {
+            bvhBounds[o + i] = Float.POSITIVE_INFINITY;
+            bvhBounds[o + 3 + i] = Float.NEGATIVE_INFINITY;
+        }
+        for (int k = start; k < end; k++) {
+            int b = bvhItems[k] * 6;
+            for (int i = 0; i < 3; i++) {
+                bvhBounds[o + i] = Math.min(bvhBounds[o + i], bounds[b + i]);
+                bvhBounds[o + 3 + i] = Math.max(bvhBounds[o + 3 + i], bounds[b + 3 + i]);
+            }
+        }
+    }
+
+    /**
+     * Stable counting sort of the visible nodes by (mesh, texture), from visible into sorted.
+     */
+    private void sortByBatch() {
+        Arrays.fill(batchStart, 0);
+        for (int i = 0; i < visibleCount; i++) {
+            batchStart[batchKey(visible[i]) + 1]++;
+        }
+        for (int k = 0; k < BATCH_COUNT; k++) {
+            batchStart[k + 1] += batchStart[k];
+        }
+        for (int i = 0; i < visibleCount; i++) {
+            int node = visible[i];
+            sorted[batchStart[batchKey(node)]++] = node;
+        }
+    }
+
+    private int batchKey(int node) {
+        return mesh[node] * RenderBackend.TEXTURE_COUNT + texture[node];
+    }
+
+    private void grow() {
+        int capacity = parent.length * 2;
+        parent = Arrays.copyOf(parent, capacity);
+        firstChild = Arrays.copyOf(firstChild, capacity);
+        nextSibling = Arrays.copyOf(nextSibling, capacity);
+        mesh = Arrays.copyOf(mesh, capacity);
+        texture = Arrays.copyOf(texture, capacity);
+        isStatic = Arrays.copyOf(isStatic, capacity);
+        hidden = Arrays.copyOf(hidden, capacity);
+        local = Arrays.copyOf(local, capacity * 16);
+        world = Arrays.copyOf(world, capacity * 16);
+        bounds = Arrays.copyOf(bounds, capacity * 6);
+        worldVersion = Arrays.copyOf(worldVersion, capacity);
+        dirty = Arrays.copyOf(dirty, capacity);
+        queued = Arrays.copyOf(queued, capacity);
+        updatedAt = Arrays.copyOf(updatedAt, capacity);
+        stack = Arrays.copyOf(stack, capacity);
+        dynamicNodes = Arrays.copyOf(dynamicNodes, capacity);
+        bvhItems = Arrays.copyOf(bvhItems, capacity);
+        visible = Arrays.copyOf(visible, capacity);
+        sorted = Arrays.copyOf(sorted, capacity);
+        for (int eye = 0; eye < EYE_COUNT; eye++) {
+            if (worldViewProjection[eye] != null) {
+                worldViewProjection[eye] = Arrays.copyOf(worldViewProjection[eye], capacity * 16);
+                cachedWorldVersion[eye] = Arrays.copyOf(cachedWorldVersion[eye], capacity);
+                cachedViewVersion[eye] = Arrays.copyOf(cachedViewVersion[eye], capacity);
+            }
+        }
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vr.sdk.applications.maze;
+
+/**
+ * Fixed-timestep clock that decouples the simulation rate from the frame rate.
+ *
+ * <p>Each frame reports its time to {@link #advance}, which returns how many fixed steps the
+ * simulation has to run to catch up. The remainder that did not make up a whole step is exposed
+ * as {@link #getAlpha()} so rendering can interpolate between the last two simulation states.
+ * After a long stall at most {@link #MAX_STEPS_PER_FRAME} steps are run and the rest of the backlog
+ * is dropped, which bounds the simulation cost of a frame.
+ */
+/* package */ final class SimulationClock {
+    static final int STEPS_PER_SECOND = 120;
+    static final long STEP_NANOS = 1_000_000_000L / STEPS_PER_SECOND;
+    static final float STEP_SECONDS = 1.0f / STEPS_PER_SECOND;
+    private static final int MAX_STEPS_PER_FRAME = 12;
+
+    private boolean started;
+    private long lastNanos;
+    private long accumulatorNanos;
+    private long steps;
+
+    /**
+     * Accounts for the time passed since the previous frame.
+     *
+     * @param nowNanos Monotonic time of the current frame, e.g. from {@link System#nanoTime()}.
+     * @return The number of simulation steps to run this frame.
+     */
+    int advance(long nowNanos) {
+        if (!started) {
+            started = true;
+            lastNanos = nowNanos;
+            return 0;
+        }
+        accumulatorNanos += Math.max(0, nowNanos - lastNanos);
+        lastNanos = nowNanos;
+        int count = (int) Math.min(accumulatorNanos / STEP_NANOS, MAX_STEPS_PER_FRAME);
+        accumulatorNanos -= count * STEP_NANOS;
+        if (accumulatorNanos >= STEP_NANOS) {
+            accumulatorNanos %= STEP_NANOS;
+        }
+        steps += count;
+        return count;
+    }
+
+    /**
+     * Returns how far the current frame is between the previous and the latest simulation state,
+     * in [0, 1).
+     */
+    float getAlpha() {
+        return accumulatorNanos / (float) STEP_NANOS;
+    }
+
+    /**
+     * Returns the simulated time, which only advances in whole steps.
+     */
+    long getTimeNanos() {
+        return steps * STEP_NANOS;
+    }
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vr.sdk.applications.maze;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free ring of interleaved float frames between exactly one producer thread and exactly one
+ * consumer thread, e.g. the game's DSP and an audio writer.
+ *
+ * <p>Both positions count frames since creation and only grow. Each side publishes its own with
+ * {@link AtomicLong#lazySet}, an ordered store that makes the samples copied before it visible
+ * to the other side without a full fence, and keeps a cached copy of the other side's position
+ * that it rereads only when the cached one says there is not enough room or data. Each position
+ * lives in its own object padded to beyond a cache line, so the two threads do not invalidate
+ * each other's line on every publish.
+ *
+ * <p>Writes that do not fit and reads that find too little are partial rather than blocking; the
+ * shortfall is counted (see {@link #getOverflowFrameCount} and {@link #getUnderflowCount}).
+ */
+/* package */ final class SpscFloatRing {
+    /**
+     * A position, the owning side's cache of the other side's position, and the owner's
+     * statistics, padded so that no other hot field shares its cache line.
+     */
+    @SuppressWarnings("unused")
+    private static final class Position extends AtomicLong {
+        private static final long serialVersionUID = 1L;
+
+        // All written by the owner only; the statistics are volatile so other threads can read
+        // them whole.
+        long cachedOther;
+        volatile long events;
+        volatile long eventFrames;
+        volatile int maxFill;
+        long p0, p1, p2, p3, p4, p5, p6, p7, p8, p9, p10, p11;
+    }
+
+    private final float[] data;
+    private final int channels;
+    private final int capacity;
+    private final int mask;
+    // Producer: frames written. Its events count writes that did not fit, eventFrames the frames
+    // dropped by them.
+    private final Position tail = new Position();
+    // Consumer: frames read. Its events count reads that came up short once data had arrived.
+    private final Position head = new Position();
+
+    /**
+     * @param capacityFrames Minimum capacity; rounded up to a power of two.
+     * @param channels       Samples per frame.
+     */
+    SpscFloatRing(int capacityFrames, int channels) {
+        if (capacityFrames <= 0 || capacityFrames > 1 << 29 || channels <= 0) {
+            throw new IllegalArgumentException("Bad ring size: " + capacityFrames + " frames of " + channels);
+        }
+        int size = 1;
+        while (size < capacityFrames) {
+            size <<= 1;
+        }
+        capacity = size;
+        mask = size - 1;
+        this.channels = channels;
+        data = new float[size * channels];
+    }
+
+    int getCapacity() {
+        return capacity;
+    }
+
+    int getChannels() {
+        return channels;
+    }
+
+    /**
+     * Returns the number of frames readable right now. Exact on either side's thread as far as
+     * that side's own moves go; a snapshot in [0, capacity] on any other thread.
+     */
+    int size() {
+        // Head first: the tail only grows, so the difference is never negative. On a third thread
+        // the head may move on before the tail is read, hence the clamp.
+        long h = head.get();
+        long t = tail.get();
+        return (int) Math.min(capacity, t - h);
+    }
+
+    /**
+     * Appends up to {@code frames} frames from {@code src}, each sample multiplied by
+     * {@code gain}. Producer thread only.
+     *
+     * @return The number of frames written; the rest did not fit and were dropped.
+     */
+    int write(float[] src, int offset, int frames, float gain) {
+        Position tail = this.tail;
+        long t = tail.get();
+        if (capacity - (t - tail.cachedOther) < frames) {
+            tail.cachedOther = head.get();
+        }
+        int fill = (int) (t - tail.cachedOther);
+        int n = Math.min(frames, capacity - fill);
+        if (n > 0) {
+            int start = (int) (t & mask) * channels;
+            int first = Math.min(n * channels, data.length - start);
+            for (int i = 0; i < first; i++) {
+                data[start + i] = src[offset + i] * gain;
+            }
+            for (int i = first, end = n * channels; i < end; i++) {
+                data[i - first] = src[offset + i] * gain;
+            }
+            tail.lazySet(t + n);
+            if (fill + n > tail.maxFill) {
+                tail.maxFill = fill + n;
+            }
+        }
+        if (n < frames) {
+            tail.events++;
+            tail.eventFrames += frames - n;
+        }
+        return n;
+    }
+
+    /**
+     * Removes up to {@code frames} frames into {@code dst}. Consumer thread only.
+     *
+     * @return The number of frames read.
+     */
+    int read(float[] dst, int offset, int frames) {
+        Position head = this.head;
+        long h = head.get();
+        if (head.cachedOther - h < frames) {
+            head.cachedOther = tail.get();
+        }
+        int n = (int) Math.min(frames, head.cachedOther - h);
+        if (n > 0) {
+            int start = (int) (h & mask) * channels;
+            int first = Math.min(n * channels, data.length - start);
+            System.arraycopy(data, start, dst, offset, first);
+            System.arraycopy(data, 0, dst, offset + first, n * channels - first);
+            head.lazySet(h + n);
+        }
+        if (n < frames && head.cachedOther > 0) {
+            head.events++;
+            head.eventFrames += frames - n;
+        }
+        return n;
+    }
+
+    /**
+     * Returns the number of writes that did not fit completely.
+     */
+    long getOverflowCount() {
+        return tail.events;
+    }
+
+    /**
+     * Returns the number of frames dropped by writes that did not fit.
+     */
+    long getOverflowFrameCount() {
+        return tail.eventFrames;
+    }
+
+    /**
+     * Returns the number of reads that found fewer frames than asked for, not counting those
+     * before the first write.
+     */
+    long getUnderflowCount() {
+        return head.events;
+    }
+
+    /**
+     * Returns the number of frames missing from reads that came up short.
+     */
+    long getUnderflowFrameCount() {
+        return head.eventFrames;
+    }
+
+    /**
+     * Returns the highest fill level a write has left the ring at.
+     */
+    int getMaxFill() {
+        return tail.maxFill;
+    }
+
+    /**
+     * Returns the number of frames written since creation.
+     */
+    long getWrittenFrameCount() {
+        return tail.get();
+    }
+
+    /**
+     * Returns the number of frames read since creation.
+     */
+    long getReadFrameCount() {
+        return head.get();
+    }
+}
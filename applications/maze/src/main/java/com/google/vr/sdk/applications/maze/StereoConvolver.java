@@ -0,0 +1,154 @@
+/*
+ * Copyright 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vr.sdk.applications.maze;
+
+import org.jtransforms.fft.FloatFFT_1D;
+
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+
+/**
+ * Spatializes a stereo source for a run of consecutive blocks in one call, each block with the
+ * HRIRs of its own direction, and writes the result interleaved, ready for the audio sink.
+ *
+ * <p>Below the kernel's {@link ConvolutionKernel#getFftCrossover() crossover} the blocks go to
+ * {@link Convolve#KERNEL}, and consecutive blocks of the same direction are merged into one longer
+ * kernel call per ear. From the crossover up every block is done by overlap-save FFT. The two ears
+ * ride in one complex transform: the left input as the real part and the right as the imaginary
+ * part. Their spectra are separated by conjugate symmetry and multiplied by the two HRIR spectra
+ * from the {@link HrirSpectrumCache}, and since both results are real, one inverse transform
+ * returns the left ear in the real part and the right in the imaginary part.
+ *
+ * <p>Allocation-free; not thread-safe. Use one instance per voice; the voices may share a cache.
+ */
+/* package */ final class StereoConvolver {
+    private final HrirSpectrumCache hrirs;
+    private final int blockSize;
+    private final int taps;
+    private final int size;
+    private final FloatFFT_1D fft;
+    // Interleaved complex, size points.
+    private final float[] buffer;
+    private boolean useFft;
+
+    StereoConvolver(HrirSpectrumCache hrirs) {
+        this.hrirs = hrirs;
+        blockSize = hrirs.getBlockSize();
+        taps = hrirs.getTaps();
+        size = hrirs.getFftSize();
+        fft = new FloatFFT_1D(size);
+        buffer = new float[size * 2];
+        useFft = blockSize >= Convolve.KERNEL.getFftCrossover();
+    }
+
+    /**
+     * Overrides the choice between the direct and the FFT path, e.g. to benchmark both.
+     */
+    void setFft(boolean useFft) {
+        this.useFft = useFft;
+    }
+
+    boolean isFft() {
+        return useFft;
+    }
+
+    /**
+     * Convolves {@code blocks} consecutive blocks. Block {@code b} reads
+     * {@code blockSize + taps - 1} samples of each input from
+     * {@code inOffset + b * blockSize}, uses the HRIRs of direction {@code directions[b]} (see
+     * {@link HrirSpectrumCache#getDirection}), and fills frames {@code outFrame + b * blockSize}
+     * onwards of {@code out} with LRLR... samples.
+     */
+    void process(float[] inL, float[] inR, int inOffset, int[] directions, int blocks,
+                 float[] out, int outFrame) {
+        if (!useFft) {
+            int start = 0;
+            while (start < blocks) {
+                int end = start + 1;
+                while (end < blocks && directions[end] == directions[start]) {
+                    end++;
+                }
+                int in = inOffset + start * blockSize;
+                int o = (outFrame + start * blockSize) * 2;
+                int length = (end - start) * blockSize;
+                Convolve.direct(inL, in, hrirs.getReversedTaps(directions[start], HrirSpectrumCache.LEFT), taps,
+                        out, o, 2, length);
+                Convolve.direct(inR, in, hrirs.getReversedTaps(directions[start], HrirSpectrumCache.RIGHT), taps,
+                        out, o + 1, 2, length);
+                start = end;
+            }
+            return;
+        }
+        for (int b = 0; b < blocks; b++) {
+            FloatBuffer spectrumL = hrirs.getSpectrum(directions[b], HrirSpectrumCache.LEFT);
+            FloatBuffer spectrumR = hrirs.getSpectrum(directions[b], HrirSpectrumCache.RIGHT);
+            convolveBlock(inL, inR, inOffset + b * blockSize, spectrumL, spectrumR,
+                    out, (outFrame + b * blockSize) * 2);
+        }
+    }
+
+    private void convolveBlock(float[] inL, float[] inR, int in, FloatBuffer spectrumL, FloatBuffer spectrumR,
+                               float[] out, int o) {
+        int span = blockSize + taps - 1;
+        for (int i = 0; i < span; i++) {
+            buffer[2 * i] = inL[in + i];
+            buffer[2 * i + 1] = inR[in + i];
+        }
+        Arrays.fill(buffer, 2 * span, 2 * size, 0);
+        fft.complexForward(buffer);
+        // Bins k and -k are read and written together, so the product can be formed in place. The
+        // cached spectra hold bins 0..size/2; bin -k of a real filter is the conjugate of bin k.
+        for (int k = 0; k <= size / 2; k++) {
+            int j = (size - k) & (size - 1);
+            float zr = buffer[2 * k];
+            float zi = buffer[2 * k + 1];
+            float wr = buffer[2 * j];
+            float wi = buffer[2 * j + 1];
+            float hlr = spectrumL.get(2 * k);
+            float hli = spectrumL.get(2 * k + 1);
+            float hrr = spectrumR.get(2 * k);
+            float hri = spectrumR.get(2 * k + 1);
+            multiply(k, zr, zi, wr, wi, hlr, hli, hrr, hri);
+            if (j != k) {
+                multiply(j, wr, wi, zr, zi, hlr, -hli, hrr, -hri);
+            }
+        }
+        fft.complexInverse(buffer, true);
+        // The first taps - 1 samples wrapped around; the rest is the linear convolution.
+        for (int i = 0, t = 2 * (taps - 1); i < blockSize; i++, t += 2) {
+            out[o + 2 * i] = buffer[t];
+            out[o + 2 * i + 1] = buffer[t + 1];
+        }
+    }
+
+    /**
+     * Writes bin k of XL * HL + i * XR * HR, given bin k (z) and bin -k (w) of the packed input
+     * and bin k of both HRIR spectra.
+     */
+    private void multiply(int k, float zr, float zi, float wr, float wi,
+                          float hlr, float hli, float hrr, float hri) {
+        // Real-part signal: (Z[k] + conj(Z[-k])) / 2; imaginary-part one: (Z[k] - conj(Z[-k])) / 2i.
+        float lr = (zr + wr) * 0.5f;
+        float li = (zi - wi) * 0.5f;
+        float rr = (zi + wi) * 0.5f;
+        float ri = (wr - zr) * 0.5f;
+        float yr = rr * hrr - ri * hri;
+        float yi = rr * hri + ri * hrr;
+        buffer[2 * k] = lr * hlr - li * hli - yi;
+        buffer[2 * k + 1] = lr * hli + li * hlr + yr;
+    }
+}
@@ -23,11 +23,60 @@ import android.opengl.GLES20;
 import android.opengl.GLUtils;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
 
 /**
  * A texture, meant for use with TexturedMesh.
  */
 /* package */ class Texture {
+    /**
+     * Decodes an image, for {@link DerivedAssetCache}; cached images are raw ARGB_8888 pixels.
+     */
+    static final DerivedAssetCache.Converter<Bitmap> CONVERTER = new DerivedAssetCache.Converter<Bitmap>() {
+        @Override
+        public String getId() {
+            return "bitmap/1";
+        }
+
+        @Override
+        public Bitmap convert(byte[] source) throws IOException {
+            Bitmap bitmap = BitmapFactory.decodeByteArray(source, 0, source.length);
+            if (bitmap == null) {
+                throw new IOException("Unable to decode image");
+            }
+            if (bitmap.getConfig() != Bitmap.Config.ARGB_8888) {
+                Bitmap argb = bitmap.copy(Bitmap.Config.ARGB_8888, false);
+                bitmap.recycle();
+                bitmap = argb;
+            }
+            return bitmap;
+        }
+
+        @Override
+        public int getEncodedSize(Bitmap bitmap) {
+            return 8 + bitmap.getByteCount();
+        }
+
+        @Override
+        public void encode(Bitmap bitmap, ByteBuffer out) {
+            out.putInt(bitmap.getWidth()).putInt(bitmap.getHeight());
+            bitmap.copyPixelsToBuffer(out);
+        }
+
+        @Override
+        public Bitmap decode(ByteBuffer in) throws IOException {
+            int width = in.getInt();
+            int height = in.getInt();
+            if (width <= 0 || height <= 0 || 4L * width * height != in.remaining()) {
+                throw new IOException("Not an image of " + in.remaining() + " bytes");
+            }
+            Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+            bitmap.copyPixelsFromBuffer(in);
+            return bitmap;
+        }
+    };
+
     private final int[] textureId = new int[1];
 
     /**
@@ -37,6 +86,41 @@ import java.io.IOException;
      * @param texturePath Path to the image to use for the texture.
      */
     public Texture(Context context, String texturePath) throws IOException {
+        this(decode(context, texturePath));
+    }
+
+    /**
+     * Decodes an image from the assets. Touches no GL state, so it may run on any thread.
+     */
+    static Bitmap decode(Context context, String texturePath) throws IOException {
+        try (InputStream in = context.getAssets().open(texturePath)) {
+            Bitmap bitmap = BitmapFactory.decodeStream(in);
+            if (bitmap == null) {
+                throw new IOException("Unable to decode " + texturePath);
+            }
+            return bitmap;
+        }
+    }
+
+    /**
+     * Decodes an image from the assets through {@code cache}. Touches no GL state, so it may run
+     * on any thread.
+     */
+    static Bitmap decode(Context context, String texturePath, DerivedAssetCache cache) throws IOException {
+        return cache.get(context.getAssets().open(texturePath), CONVERTER);
+    }
+
+    /**
+     * Initializes the texture from ARGB pixels, row by row.
+     */
+    Texture(int width, int height, int[] argb) {
+        this(Bitmap.createBitmap(argb, width, height, Bitmap.Config.ARGB_8888));
+    }
+
+    /**
+     * Uploads a decoded image, and recycles it. Must be called on the GL thread.
+     */
+    Texture(Bitmap textureBitmap) {
         GLES20.glGenTextures(1, textureId, 0);
         bind();
         GLES20.glTexParameterf(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_REPEAT);
@@ -46,7 +130,6 @@ import java.io.IOException;
         GLES20.glTexParameteri(
                 GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR_MIPMAP_NEAREST);
         GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
-        Bitmap textureBitmap = BitmapFactory.decodeStream(context.getAssets().open(texturePath));
         GLUtils.texImage2D(GLES20.GL_TEXTURE_2D, 0, textureBitmap, 0);
         textureBitmap.recycle();
         GLES20.glGenerateMipmap(GLES20.GL_TEXTURE_2D);
@@ -16,9 +16,9 @@
 
 package com.google.vr.sdk.applications.maze;
 
-import android.content.Context;
 import android.opengl.GLES20;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
@@ -32,29 +32,69 @@ import de.javagl.obj.ObjData;
 import de.javagl.obj.ObjReader;
 import de.javagl.obj.ObjUtils;
 
-/** Renders an object loaded from an OBJ file. */
+/**
+ * Renders an object loaded from an OBJ file. The mesh is drawn from client-side arrays, so loading
+ * it touches no GL state and may run on any thread.
+ */
 /* package */ class TexturedMesh {
   private static final String TAG = "TexturedMesh";
 
+  /** Parses an .obj file, for {@link DerivedAssetCache}; cached meshes are views of the mapping. */
+  static final DerivedAssetCache.Converter<TexturedMesh> CONVERTER =
+      new DerivedAssetCache.Converter<TexturedMesh>() {
+        @Override
+        public String getId() {
+          return "mesh/1";
+        }
+
+        @Override
+        public TexturedMesh convert(byte[] source) throws IOException {
+          return new TexturedMesh(new ByteArrayInputStream(source));
+        }
+
+        @Override
+        public int getEncodedSize(TexturedMesh mesh) {
+          return 12 + 4 * mesh.vertices.limit() + 4 * mesh.uv.limit() + 2 * mesh.indices.limit();
+        }
+
+        @Override
+        public void encode(TexturedMesh mesh, ByteBuffer out) {
+          out.putInt(mesh.vertices.limit()).putInt(mesh.uv.limit()).putInt(mesh.indices.limit());
+          out.asFloatBuffer().put(mesh.vertices.duplicate());
+          out.position(out.position() + 4 * mesh.vertices.limit());
+          out.asFloatBuffer().put(mesh.uv.duplicate());
+          out.position(out.position() + 4 * mesh.uv.limit());
+          out.asShortBuffer().put(mesh.indices.duplicate());
+          out.position(out.limit());
+        }
+
+        @Override
+        public TexturedMesh decode(ByteBuffer in) throws IOException {
+          int vertexFloats = in.getInt();
+          int uvFloats = in.getInt();
+          int indexCount = in.getInt();
+          if (vertexFloats < 0 || uvFloats < 0 || indexCount < 0
+              || 4L * vertexFloats + 4L * uvFloats + 2L * indexCount != in.remaining()) {
+            throw new IOException("Not a mesh of " + in.remaining() + " bytes");
+          }
+          FloatBuffer vertices = slice(in, 4 * vertexFloats).asFloatBuffer();
+          FloatBuffer uv = slice(in, 4 * uvFloats).asFloatBuffer();
+          ShortBuffer indices = slice(in, 2 * indexCount).asShortBuffer();
+          return new TexturedMesh(vertices, uv, indices);
+        }
+      };
+
   private final FloatBuffer vertices;
   private final FloatBuffer uv;
   private final ShortBuffer indices;
-  private final int positionAttrib;
-  private final int uvAttrib;
 
   /**
-   * Initializes the mesh from an .obj file.
+   * Initializes the mesh from the contents of an .obj file.
    *
-   * @param context Context for loading the .obj file.
-   * @param objFilePath Path to the .obj file.
-   * @param positionAttrib The position attribute in the shader.
-   * @param uvAttrib The UV attribute in the shader.
+   * @param objInputStream The .obj file; closed by the caller.
    */
-  public TexturedMesh(Context context, String objFilePath, int positionAttrib, int uvAttrib)
-      throws IOException {
-    InputStream objInputStream = context.getAssets().open(objFilePath);
+  public TexturedMesh(InputStream objInputStream) throws IOException {
     Obj obj = ObjUtils.convertToRenderable(ObjReader.read(objInputStream));
-    objInputStream.close();
 
     IntBuffer intIndices = ObjData.getFaceVertexIndices(obj, 3);
     vertices = ObjData.getVertices(obj);
@@ -69,20 +109,44 @@ import de.javagl.obj.ObjUtils;
       indices.put((short) intIndices.get());
     }
     indices.rewind();
+  }
 
-    this.positionAttrib = positionAttrib;
-    this.uvAttrib = uvAttrib;
+  private TexturedMesh(FloatBuffer vertices, FloatBuffer uv, ShortBuffer indices) {
+    this.vertices = vertices;
+    this.uv = uv;
+    this.indices = indices;
+  }
+
+  /** Returns the next {@code bytes} of {@code in}, in its byte order, and skips them. */
+  private static ByteBuffer slice(ByteBuffer in, int bytes) {
+    ByteBuffer view = in.duplicate();
+    view.limit(view.position() + bytes);
+    in.position(in.position() + bytes);
+    return view.slice().order(in.order());
   }
 
   /**
    * Draws the mesh. Before this is called, u_MVP should be set with glUniformMatrix4fv(), and a
    * texture should be bound to GL_TEXTURE0.
+   *
+   * @param positionAttrib The position attribute in the shader.
+   * @param uvAttrib The UV attribute in the shader.
    */
-  public void draw() {
+  public void draw(int positionAttrib, int uvAttrib) {
+    bind(positionAttrib, uvAttrib);
+    drawElements();
+  }
+
+  /** Points the shader attributes at this mesh. */
+  void bind(int positionAttrib, int uvAttrib) {
     GLES20.glEnableVertexAttribArray(positionAttrib);
     GLES20.glVertexAttribPointer(positionAttrib, 3, GLES20.GL_FLOAT, false, 0, vertices);
     GLES20.glEnableVertexAttribArray(uvAttrib);
     GLES20.glVertexAttribPointer(uvAttrib, 2, GLES20.GL_FLOAT, false, 0, uv);
+  }
+
+  /** Draws the mesh, assuming {@link #bind} was called for it last. */
+  void drawElements() {
     GLES20.glDrawElements(GLES20.GL_TRIANGLES, indices.limit(), GLES20.GL_UNSIGNED_SHORT, indices);
   }
 }
@@ -0,0 +1,54 @@
+/*
+ * Copyright 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.vr.sdk.applications.maze;
+
+import java.util.Random;
+
+/**
+ * In-place 3D vector math on float arrays.
+ *
+ * <p>A vector is three consecutive floats at an offset, so vectors can live in preallocated
+ * arrays, in a {@link VectorScratch} or in struct-of-arrays state without any per-call objects.
+ */
+/* package */ final class Vec3 {
+    /**
+     * Class only contains static methods.
+     */
+    private Vec3() {
+    }
+
+    static void set(float[] out, int o, float x, float y, float z) {
+        out[o] = x;
+        out[o + 1] = y;
+        out[o + 2] = z;
+    }
+
+    /**
+     * Writes a uniformly distributed unit vector. Uniform z in [-1, 1] with a uniform angle
+     * around it covers the sphere evenly (Archimedes' hat-box theorem), so two random numbers
+     * suffice and no sample is ever rejected.
+     */
+    static void randomUnit(float[] out, int o, Random random) {
+        float z = 2 * random.nextFloat() - 1;
+        float angle = (float) (2 * Math.PI) * random.nextFloat();
+        float radius = (float) Math.sqrt(1 - z * z);
+        out[o] = radius * (float) Math.cos(angle);
+        out[o + 1] = radius * (float) Math.sin(angle);
+        out[o + 2] = z;
+    }
+}
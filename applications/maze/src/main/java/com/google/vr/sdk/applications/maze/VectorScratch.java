@@ -0,0 +1,62 @@
+/*
+ * Copyright 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.vr.sdk.applications.maze;
+
+import java.util.Arrays;
+
+/**
+ * Stack-like pool of floats for temporaries in per-frame code.
+ *
+ * <p>A method takes a {@link #mark}, carves the vectors it needs out of {@link #data} with
+ * {@link #allocate}, and hands the mark back to {@link #release} before returning, so nested
+ * calls reuse the same memory every frame. The backing array only grows while the deepest call
+ * chain is seen for the first time. Not thread-safe: every thread needs its own pool.
+ */
+/* package */ final class VectorScratch {
+    private float[] data;
+    private int top;
+
+    VectorScratch(int capacity) {
+        data = new float[capacity];
+    }
+
+    int mark() {
+        return top;
+    }
+
+    /**
+     * Reserves {@code size} floats and returns their offset in {@link #data}. Call {@link #data}
+     * again after allocating, since growing replaces the array.
+     */
+    int allocate(int size) {
+        int offset = top;
+        top += size;
+        if (top > data.length) {
+            data = Arrays.copyOf(data, Math.max(top, data.length * 2));
+        }
+        return offset;
+    }
+
+    float[] data() {
+        return data;
+    }
+
+    void release(int mark) {
+        top = mark;
+    }
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.vr.sdk.applications.maze;
+
+/**
+ * The wall boxes of a maze, and a uniform grid over them used as the collision broadphase.
+ *
+ * <p>The bounds of every box are kept in flat arrays, and each box is registered in every grid
+ * cell it overlaps in X and Z. Cells are stored back to back (a cell's box indices start at
+ * {@code cellStart[cell]}), so a query touches a handful of cells instead of every wall. A box that
+ * spans several cells can be reported more than once; every query here is idempotent under that.
+ *
+ * <p>Immutable: every field is final and filled in by the constructor, so once a maze publishes
+ * the grid (see {@link Maze#getWallGrid}) simulation, rendering and audio share it by reference,
+ * without locks or copies.
+ */
+/* package */ final class WallGrid {
+    /**
+     * Gap left between a swept body and the wall it stops at, so the next sweep starts outside.
+     */
+    private static final float SKIN = 1e-4f;
+
+    private final float cellSize;
+    private final int rows;
+    private final int cols;
+    private final float[] minX;
+    private final float[] minY;
+    private final float[] minZ;
+    private final float[] maxX;
+    private final float[] maxY;
+    private final float[] maxZ;
+    private final int[] cellStart;
+    private final int[] cellBoxes;
+
+    /**
+     * @param boxes The walls; only read here, the grid keeps no reference to them.
+     */
+    WallGrid(Box[] boxes, float cellSize) {
+        this.cellSize = cellSize;
+        int count = boxes.length;
+        minX = new float[count];
+        minY = new float[count];
+        minZ = new float[count];
+        maxX = new float[count];
+        maxY = new float[count];
+        maxZ = new float[count];
+        float extentX = 0;
+        float extentZ = 0;
+        for (int i = 0; i < count; i++) {
+            Box box = boxes[i];
+            minX[i] = box.getPos().getX();
+            minY[i] = box.getPos().getY();
+            minZ[i] = box.getPos().getZ();
+            maxX[i] = minX[i] + box.getSize().getX();
+            maxY[i] = minY[i] + box.getSize().getY();
+            maxZ[i] = minZ[i] + box.getSize().getZ();
+            extentX = Math.max(extentX, maxX[i]);
+            extentZ = Math.max(extentZ, maxZ[i]);
+        }
+        cols = (int) (extentX / cellSize) + 1;
+        rows = (int) (extentZ / cellSize) + 1;
+
+        // Counting pass, prefix sum, then fill.
+        cellStart = new int[rows * cols + 1];
+        for (int i = 0; i < count; i++) {
+            for (int r = row(minZ[i]); r <= row(maxZ[i]); r++) {
+                for (int c = col(minX[i]); c <= col(maxX[i]); c++) {
+                    cellStart[r * cols + c + 1]++;
+                }
+            }
+        }
+        for (int cell = 0; cell < rows * cols; cell++) {
+            cellStart[cell + 1] += cellStart[cell];
+        }
+        cellBoxes = new int[cellStart[rows * cols]];
+        int[] fill = new int[rows * cols];
+        for (int i = 0; i < count; i++) {
+            for (int r = row(minZ[i]); r <= row(maxZ[i]); r++) {
+                for (int c = col(minX[i]); c <= col(maxX[i]); c++) {
+                    int cell = r * cols + c;
+                    cellBoxes[cellStart[cell] + fill[cell]++] = i;
+                }
+            }
+        }
+    }
+
+    int getBoxCount() {
+        return minX.length;
+    }
+
+    /**
+     * Writes the bounds of a box as minX, minY, minZ, maxX, maxY, maxZ.
+     */
+    void getBounds(int box, float[] bounds, int offset) {
+        bounds[offset] = minX[box];
+        bounds[offset + 1] = minY[box];
+        bounds[offset + 2] = minZ[box];
+        bounds[offset + 3] = maxX[box];
+        bounds[offset + 4] = maxY[box];
+        bounds[offset + 5] = maxZ[box];
+    }
+
+    String describeBox(int box) {
+        return String.format("This box's position is (%f, %f, %f) and size is (%f, %f, %f)",
+                minX[box], minY[box], minZ[box],
+                maxX[box] - minX[box], maxY[box] - minY[box], maxZ[box] - minZ[box]);
+    }
+
+    private int row(float z) {
+        return Math.max(0, Math.min(rows - 1, (int) Math.floor(z / cellSize)));
+    }
+
+    private int col(float x) {
+        return Math.max(0, Math.min(cols - 1, (int) Math.floor(x / cellSize)));
+    }
+
+    /**
+     * Sweeps a square of the given half size from (x, z) along X and returns how far it can travel
+     * before touching a wall, between 0 and {@code dx}. The result equals {@code dx} when nothing is
+     * in the way.
+     */
+    float sweepX(float x, float z, float dx, float halfSize) {
+        float allowed = dx;
+        int r0 = row(z - halfSize);
+        int r1 = row(z + halfSize);
+        int c0 = col(Math.min(x, x + dx) - halfSize);
+        int c1 = col(Math.max(x, x + dx) + halfSize);
+        for (int r = r0; r <= r1; r++) {
+            for (int cell = r * cols + c0; cell <= r * cols + c1; cell++) {
+                for (int k = cellStart[cell]; k < cellStart[cell + 1]; k++) {
+                    int i = cellBoxes[k];
+                    if (z <= minZ[i] - halfSize || z >= maxZ[i] + halfSize) {
+                        continue;
+                    }
+                    if (dx > 0 && minX[i] - halfSize >= x) {
+                        allowed = Math.max(0, Math.min(allowed, minX[i] - halfSize - SKIN - x));
+                    } else if (dx < 0 && maxX[i] + halfSize <= x) {
+                        allowed = Math.min(0, Math.max(allowed, maxX[i] + halfSize + SKIN - x));
+                    }
+                }
+            }
+        }
+        return allowed;
+    }
+
+    /**
+     * Same as {@link #sweepX} along Z.
+     */
+    float sweepZ(float x, float z, float dz, float halfSize) {
+        float allowed = dz;
+        int c0 = col(x - halfSize);
+        int c1 = col(x + halfSize);
+        int r0 = row(Math.min(z, z + dz) - halfSize);
+        int r1 = row(Math.max(z, z + dz) + halfSize);
+        for (int r = r0; r <= r1; r++) {
+            for (int cell = r * cols + c0; cell <= r * cols + c1; cell++) {
+                for (int k = cellStart[cell]; k < cellStart[cell + 1]; k++) {
+                    int i = cellBoxes[k];
+                    if (x <= minX[i] - halfSize || x >= maxX[i] + halfSize) {
+                        continue;
+                    }
+                    if (dz > 0 && minZ[i] - halfSize >= z) {
+                        allowed = Math.max(0, Math.min(allowed, minZ[i] - halfSize - SKIN - z));
+                    } else if (dz < 0 && maxZ[i] + halfSize <= z) {
+                        allowed = Math.min(0, Math.max(allowed, maxZ[i] + halfSize + SKIN - z));
+                    }
+                }
+            }
+        }
+        return allowed;
+    }
+
+    /**
+     * Returns the index of a box that the point comes closer to than {@code margin}, or -1.
+     */
+    int findOverlap(float x, float z, float margin) {
+        int r1 = row(z + margin);
+        int c1 = col(x + margin);
+        for (int r = row(z - margin); r <= r1; r++) {
+            for (int cell = r * cols + col(x - margin); cell <= r * cols + c1; cell++) {
+                for (int k = cellStart[cell]; k < cellStart[cell + 1]; k++) {
+                    int i = cellBoxes[k];
+                    if (x > minX[i] - margin && x < maxX[i] + margin
+                            && z > minZ[i] - margin && z < maxZ[i] + margin) {
+                        return i;
+                    }
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns true if the box is thinner along X than along Z, i.e. it is a vertical wall.
+     */
+    boolean isVertical(int box) {
+        return maxX[box] - minX[box] < maxZ[box] - minZ[box];
+    }
+}